@@ -39,32 +39,35 @@ public enum RFDStatus implements Status {
    /**
     * Validation is in progress.
     */
-   MSG_IN_PROGRESS(Phase.MSG,  Result.UNKNOWN, Level.TRACE, "in Progress"),
+   MSG_IN_PROGRESS(1, Phase.MSG,  Result.UNKNOWN, Level.TRACE, "in Progress"),
    /**
     * Validation completed without error.
     */
-   MSG_OK(Phase.MSG, Result.PASS, Level.TRACE, "OK"),
+   MSG_OK(2, Phase.MSG, Result.PASS, Level.TRACE, "OK"),
    /**
     * An error was found in the message
     */
-   MSG_ERROR(Phase.MSG, Result.FAIL, Level.DEBUG, "error"),
+   MSG_ERROR(3, Phase.MSG, Result.FAIL, Level.DEBUG, "error"),
    /**
     * A parsing error was found in the message
     */
-   MSG_PARSE_ERROR(Phase.MSG, Result.FAIL, Level.DEBUG, "Parsing error"),
+   MSG_PARSE_ERROR(4, Phase.MSG, Result.FAIL, Level.DEBUG, "Parsing error"),
    /**
     * A processing error occurred during the validation of the message.
     */
-   MSG_EXCEPTION(Phase.MSG, Result.FAIL, Level.DEBUG, "threw Exception");
+   MSG_EXCEPTION(5, Phase.MSG, Result.FAIL, Level.DEBUG, "threw Exception");
 
+   private final int id;
    private Phase phase;
    private Result result;
    private Level logLevel;
    private String statusMsg;
 
    private static String setCode = "RFD";
+   private static final int setId = 3;
 
-   private RFDStatus(Phase ph, Result rs, Level ll, String sm) {
+   private RFDStatus(int id, Phase ph, Result rs, Level ll, String sm) {
+      this.id = id;
       phase = ph;
       result = rs;
       logLevel = ll;
@@ -106,6 +109,11 @@ public enum RFDStatus implements Status {
       return statusMsg;
    }
 
+   @Override
+   public int getId() {
+      return id;
+   }
+
    @Override
    public String getSetCode() {
       return setCode;
@@ -126,7 +134,7 @@ public enum RFDStatus implements Status {
    }
 
    static {
-      StatusHelper.addCodeSet(setCode, RFDStatus.class);
+      StatusHelper.addCodeSet(setCode, setId, RFDStatus.class);
    }
    
    // ----------------------- Phases for this status code
@@ -18,7 +18,9 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -27,9 +29,6 @@ import javax.xml.namespace.NamespaceContext;
 import javax.xml.namespace.QName;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathFactory;
-import javax.xml.xpath.XPathVariableResolver;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
@@ -47,7 +46,7 @@ import edu.wustl.mir.erl.ihe.ws.server.WSServer;
  * Encapsulates a single form data element and its mapping to a CDADocument
  * document.
  */
-public class DataElement implements Serializable, UtilProperties {
+public class DataElement implements Serializable, UtilProperties, Cloneable {
    private static final long serialVersionUID = 1L;
    
    protected static Map<String, String> snippets;
@@ -57,8 +56,9 @@ public class DataElement implements Serializable, UtilProperties {
    protected Logger log = Util.getLog();
 
    /**
-    * The {@link XPath} api to use with this data element. All XPath strings
-    * used in this DataElement are compiled against this.
+    * The {@link XPath} api to use with this data element. XPath strings used
+    * in this DataElement are compiled with its {@link NamespaceContext}. It
+    * is not used to evaluate them, so instances may share it.
     */
    protected XPath xpath;
 
@@ -384,6 +384,22 @@ public class DataElement implements Serializable, UtilProperties {
       value = val;
    }
    
+   /**
+    * Adds the XPath expressions this DataElement evaluates against the
+    * {@link Element} passed to {@link #loadValue(Element)} to expressions, so
+    * that {@link PathMatcher} can match them in a single pass over the
+    * document. Override in subclasses which evaluate other expressions against
+    * that Element.
+    * 
+    * @param expressions collection to add to.
+    */
+   public void addDocumentExpressions(
+      Collection <PathMatcher.Expression> expressions) {
+      if (StringUtils.isNotBlank(xpathExpression))
+         expressions.add(new PathMatcher.Expression(xpathExpression,
+            xpath == null ? null : xpath.getNamespaceContext()));
+   }
+
    /**
     * Loads values for this DataElement to the passed {@link WSLog} instance.
     * <b>Note: </b>Must run AFTER {@link #loadValue(Element)}.
@@ -401,9 +417,14 @@ public class DataElement implements Serializable, UtilProperties {
    /**
     * Encapsulates XPath evaluation, including:
     * <ul>
-    * <li>Attaches {@link XPathVariableResolver} if needed.</li>
-    * <li>Compiles the expression string</>
-    * <li>Evaluates the node using the expression</li>
+    * <li>Returns the result found by {@link PathMatcher} if the document is
+    * being loaded in a single pass and the expression was matched.</li>
+    * <li>Loads XPath variable values into {@link #vars} if needed.</li>
+    * <li>Gets a compiled expression from {@link XPathCache}, which shares
+    * compiled expressions between data elements and documents using the same
+    * expression and namespace context.</li>
+    * <li>Evaluates the node using the expression, passing {@link #vars} for
+    * this evaluation only.</li>
     * </ul>
     * If the xpExperssion is blank, returns node;
     * 
@@ -417,9 +438,12 @@ public class DataElement implements Serializable, UtilProperties {
    protected Object evaluate(Node node, String xpExpression, QName returnType){
       if (StringUtils.isBlank(xpExpression)) return node;
       try {
+      NamespaceContext nsc = xpath.getNamespaceContext();
+      Object matched = PathMatcher.evaluate(node, xpExpression, nsc, returnType);
+      if (matched != PathMatcher.NOT_MATCHED) return matched;
       xpathResolver();
-      XPathExpression expr = xpath.compile(xpExpression);
-      return expr.evaluate(node, returnType);
+      return XPathCache.evaluate(xpExpression, nsc,
+         vars.isEmpty() ? null : vars, node, returnType);
       } catch (Exception e) {
          log.warn("DataElement#evaluate error " + xpExpression + " " + e.getMessage());
          return null;
@@ -427,8 +451,8 @@ public class DataElement implements Serializable, UtilProperties {
    }
 
    /**
-    * Attaches {@link XPathVariableResolver} to {@link XPath}, using
-    * {@link #vars}
+    * Loads values for {@link #xpathVariables} into {@link #vars}, the first
+    * time they are needed after a variable is added.
     */
    protected void xpathResolver() {
       if (loadXpathVariables) {
@@ -438,12 +462,6 @@ public class DataElement implements Serializable, UtilProperties {
             String v = new CDAPlug(in).setDataElement(de).get();
             vars.put(xpv.getValue0(), v);
          }
-         xpath.setXPathVariableResolver(new XPathVariableResolver() {
-            @Override
-            public Object resolveVariable(QName name) {
-               return vars.get(name.getLocalPart());
-            }
-         });
          loadXpathVariables = false;
       }
    }
@@ -453,7 +471,7 @@ public class DataElement implements Serializable, UtilProperties {
     * DataElement or subclass to another.
     * <ul>
     * <li>Does not move {@link #value}, instead sets it to null.</li>
-    * <li>Creates a new {@link #xpath} using the existing
+    * <li>Shares the {@link #xpath}, which is only used for its
     * {@link NamespaceContext}.</li>
     * <li>data elements referenced in the two instances refer to the same
     * instances, but all Collection and Container instances are new.</li>
@@ -463,14 +481,7 @@ public class DataElement implements Serializable, UtilProperties {
     */
    public static <T extends DataElement> void move(T in, T out) {
 
-      // Generate new XPath, passing NamespaceContext
-      XPathFactory xpathFactory = XPathFactory.newInstance();
-      XPath outXpath = xpathFactory.newXPath();
-      XPath inXpath = in.getXPath();
-      NamespaceContext nsc = inXpath.getNamespaceContext();
-      if (nsc != null) outXpath.setNamespaceContext(nsc);
-
-      out.setXpath(outXpath);
+      out.setXpath(in.getXPath());
 
       out.setLog(in.getLog());
 
@@ -491,6 +502,61 @@ public class DataElement implements Serializable, UtilProperties {
 
    }
    
+   /**
+    * Creates an instance of this DataElement to hold the values loaded from
+    * one document. The instance shares everything which does not change when
+    * a document is loaded, such as the XPath expressions, snippet and
+    * triggers, with this DataElement, which serves as its prototype, so
+    * creating it costs little more than the values. Used by
+    * {@link edu.wustl.mir.erl.ihe.rfd.cda.document.CDASchema CDASchema}.
+    * 
+    * @param instances the instances already created for the same document,
+    * by prototype. References to other data elements, for example function
+    * variables, are replaced with their instances, created if needed, so that
+    * each data element has only one instance per document.
+    * @return the instance of this DataElement for the document.
+    */
+   public DataElement newInstance(Map <DataElement, DataElement> instances) {
+      DataElement instance = instances.get(this);
+      if (instance != null) return instance;
+      try {
+         instance = (DataElement) clone();
+      } catch (CloneNotSupportedException e) {
+         throw new IllegalStateException(e);
+      }
+      instances.put(this, instance);
+      instance.initInstance(instances);
+      return instance;
+   }
+
+   /**
+    * Creates an instance of this DataElement and the data elements it
+    * references, for use outside of a document.
+    * 
+    * @return the instance.
+    * @see #newInstance(Map)
+    */
+   public DataElement newInstance() {
+      return newInstance(new IdentityHashMap <DataElement, DataElement>());
+   }
+
+   /**
+    * Called on a new instance created by {@link #newInstance(Map)}, which
+    * starts as a field by field copy of its prototype. Replaces fields which
+    * hold values or reference other data elements. Subclasses with such
+    * fields must override this, calling super.
+    * 
+    * @param instances the instances created for the document, by prototype.
+    */
+   protected void initInstance(Map <DataElement, DataElement> instances) {
+      List <Triplet <String, String, DataElement>> xpvs = xpathVariables;
+      xpathVariables = new ArrayList <>(xpvs.size());
+      for (Triplet <String, String, DataElement> xpv : xpvs)
+         xpathVariables.add(xpv.setAt2(xpv.getValue2().newInstance(instances)));
+      loadXpathVariables = xpathVariables.isEmpty() == false;
+      vars = new HashMap <>();
+   }
+
    /**
     * Determines actual type of passed DataElement or subclass and performs
     * the appropriate loadValue method
@@ -14,14 +14,13 @@
 package edu.wustl.mir.erl.ihe.rfd.cda;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
 import javax.xml.xpath.XPath;
 
 import org.apache.commons.lang3.StringUtils;
@@ -95,6 +94,7 @@ public class FunctionDataElement extends DataElement {
     */
    public void setFunction(String function) {
       this.function = normalizeFunction(function);
+      functionScript = null;
    }
 
    /**
@@ -174,9 +174,23 @@ public class FunctionDataElement extends DataElement {
          };
 
 
-   @Override
-   public void loadValue(Element element2) throws Exception {
+   /**
+    * Compiled form of {@link #function}, built by {@link #getFunctionScript()}
+    * the first time it is needed. Reset when the function, its mappings, or
+    * its variables change.
+    */
+   private transient FunctionScript functionScript = null;
 
+   /**
+    * Applies the function mappings, variable mappings and standard
+    * {@link #replacements} to {@link #function}, and compiles the result. Done
+    * once, not on each evaluation; the result does not depend on the values
+    * of the variables, which are passed to the script when it is evaluated.
+    * 
+    * @return compiled function script.
+    */
+   public FunctionScript getFunctionScript() {
+      if (functionScript != null) return functionScript;
       String func = function;
       log.trace("Original = " + func);
       
@@ -188,13 +202,6 @@ public class FunctionDataElement extends DataElement {
       }
       log.trace("Function maps = " + func);
       
-      // ------------------------------- load local variables
-      for (Variable variable : variables) {
-         DataElement dataElement = variable.getDataElement();
-         if (dataElement.isLoadFromDocument() == false)
-            DataElement.downLoadValue(dataElement, element2);
-      }
-      
       // ----------------------------- resolve maps in variables
       for (Variable variable : variables) {
          Map<String, String> mappings = variable.getMappings();
@@ -211,21 +218,64 @@ public class FunctionDataElement extends DataElement {
          func = StringUtils.replace(func, replacements[i][0], replacements[i][1]);
 
       log.trace("Replacements = " + func);
+      functionScript = FunctionScript.compile(func);
+      return functionScript;
+   }
+
+   /**
+    * The instance has its own variables, referring to the instances of their
+    * data elements, and shares the compiled function script.
+    */
+   @Override
+   protected void initInstance(Map <DataElement, DataElement> instances) {
+      super.initInstance(instances);
+      List <Variable> vs = variables;
+      variables = new ArrayList <>(vs.size());
+      for (Variable variable : vs)
+         variables.add(variable.newInstance(instances));
+   }
+
+   /**
+    * Adds the expressions of variables which are loaded when the function is,
+    * rather than with the rest of the document.
+    */
+   @Override
+   public void addDocumentExpressions(
+      Collection <PathMatcher.Expression> expressions) {
+      super.addDocumentExpressions(expressions);
+      for (Variable variable : variables) {
+         DataElement dataElement = variable.getDataElement();
+         if (dataElement.isLoadFromDocument() == false)
+            dataElement.addDocumentExpressions(expressions);
+      }
+   }
+
+   @Override
+   public void loadValue(Element element2) throws Exception {
+
+      FunctionScript script = getFunctionScript();
+      
+      // ------------------------------- load local variables
+      for (Variable variable : variables) {
+         DataElement dataElement = variable.getDataElement();
+         if (dataElement.isLoadFromDocument() == false)
+            DataElement.downLoadValue(dataElement, element2);
+      }
       
-      // --------------------------------------------------- Plug in values
+      // ------------------------------------------ Bind parameter values
      DataElement[] dataElements = new DataElement[variables.size()];
      for (int i=0; i < variables.size(); i++)
         dataElements[i] = variables.get(i).getDataElement();
-     func = new CDAPlug(func).setDataElement(dataElements).get();
-     log.trace("Parameter maps = " + func);
+     CDAPlug plug = new CDAPlug("");
+     plug.setDataElement(dataElements);
+     Map <String, String> values = plug.getMap();
       
       value = defaultValue;
       try {
-         ScriptEngine engine = new ScriptEngineManager().getEngineByName("javascript");
-         value = (String) engine.eval(func);
+         value = (String) script.evaluate(values);
       } catch (Exception e) {
-         log.warn("Error evaluating function " + parName + nl + "function: " + function + nl + "script  : " + func + nl
-            + "default : " + ((value == null) ? "null" : value) + nl + Util.getEM(e));
+         log.warn("Error evaluating function " + parName + nl + "function: " + function + nl + "script  : " + script.getScript() + nl
+            + "values  : " + values + nl + "default : " + ((value == null) ? "null" : value) + nl + Util.getEM(e));
       }
       log.trace("Result = " + value);
 } // EO load value 
@@ -273,6 +323,7 @@ public void loadWSLog(WSLog wsLog) {
     */
    public FunctionDataElement addVariable(Variable variable) {
       variables.add(variable);
+      functionScript = null;
       return this;
    }
    
@@ -304,6 +355,7 @@ public void loadWSLog(WSLog wsLog) {
       from = FunctionDataElement.normalizeFunction(from);
       to = FunctionDataElement.normalizeFunction(to);
       maps.put(from, to);
+      functionScript = null;
       return this;
    }
 
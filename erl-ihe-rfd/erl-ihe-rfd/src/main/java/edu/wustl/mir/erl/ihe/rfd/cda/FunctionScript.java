@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ ******************************************************************************/
+package edu.wustl.mir.erl.ihe.rfd.cda;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Compiled form of a {@link FunctionDataElement} function, after its mappings
+ * and standard replacements have been applied. Each ${parameter} in the
+ * script text is replaced once by a script variable, and values are passed to
+ * each evaluation as bindings, rather than being spliced into the source and
+ * the source evaluated again.
+ * <ul>
+ * <li>Instances are immutable and cached by script text, so data elements
+ * with the same function, for example copies of a form for different
+ * requests, share one instance.</li>
+ * <li>Script engines are not thread safe, so each thread has its own engine
+ * and its own compiled copy of each script, compiled on the first evaluation
+ * on that thread.</li>
+ * <li>A ${parameter} which is the whole content of a quoted string literal,
+ * for example '${name}', replaces the literal, quotes included, and its value
+ * is bound as a String, so '20150312' stays text. One within a longer literal
+ * is concatenated into it, also as a String.</li>
+ * <li>Other values which look like numbers or booleans are bound as such, so
+ * the script behaves as it did when the value text was part of the source.
+ * </li>
+ * <li>Blank values of quoted parameters are bound as the empty String. If an
+ * unquoted parameter is blank, the values are spliced into the source, as
+ * they were before scripts were compiled, and that source is evaluated once,
+ * so the evaluation fails only if the spliced source does not parse or
+ * run.</li>
+ * </ul>
+ */
+public class FunctionScript {
+
+   private static final String ENGINE_NAME = "javascript";
+   private static final String VARIABLE_PREFIX = "__fp";
+
+   private static final Map <String, FunctionScript> cache =
+      new ConcurrentHashMap <>();
+
+   private static final ScriptEngineManager manager = new ScriptEngineManager();
+
+   /** Per thread engine, with the scripts compiled for it by script text. */
+   private static final ThreadLocal <ThreadEngine> engines =
+      new ThreadLocal <ThreadEngine>() {
+         @Override
+         protected ThreadEngine initialValue() {
+            return new ThreadEngine();
+         }
+      };
+
+   /** Script text, with ${parameter} placeholders. */
+   private final String text;
+   /** Script text, ${parameters} replaced by script variables. */
+   private final String script;
+   /**
+    * Parameter names, in script variable order. A name used both in and out
+    * of string literals has a variable for each.
+    */
+   private final List <String> parameterNames;
+   /** For each script variable, is it bound as a String? */
+   private final boolean[] quoted;
+
+   private FunctionScript(String text, String script,
+      List <String> parameterNames, List <Boolean> quoted) {
+      this.text = text;
+      this.script = script;
+      this.parameterNames = Collections.unmodifiableList(parameterNames);
+      this.quoted = new boolean[quoted.size()];
+      for (int i = 0; i < this.quoted.length; i++ )
+         this.quoted[i] = quoted.get(i);
+   }
+
+   /**
+    * Returns the compiled form of the passed script text, creating it on first
+    * use.
+    *
+    * @param text script text with ${parameter} placeholders.
+    * @return instance for text, never null.
+    */
+   public static FunctionScript compile(String text) {
+      FunctionScript fs = cache.get(text);
+      if (fs == null) {
+         fs = parse(text);
+         cache.put(text, fs);
+      }
+      return fs;
+   }
+
+   /**
+    * Replaces each ${parameter} with a script variable, tracking '…' and
+    * "…" string literals, so a parameter within one is bound as a String.
+    */
+   private static FunctionScript parse(String text) {
+      List <String> names = new ArrayList <>();
+      List <Boolean> quoted = new ArrayList <>();
+      Map <String, Integer> indexes = new HashMap <>();
+      StringBuilder out = new StringBuilder(text.length());
+      char quote = 0; // quote character of the literal we are in, if any
+      int opening = -1; // position in out of its opening quote
+      int i = 0;
+      while (i < text.length()) {
+         char c = text.charAt(i);
+         int end = text.startsWith("${", i) ? text.indexOf('}', i + 2) : -1;
+         if (end < 0) {
+            out.append(c);
+            i++ ;
+            if (quote == 0) {
+               if (c == '\'' || c == '"') {
+                  quote = c;
+                  opening = out.length() - 1;
+               }
+            } else if (c == '\\' && i < text.length()) {
+               out.append(text.charAt(i));
+               i++ ;
+            } else if (c == quote) {
+               quote = 0;
+            }
+            continue;
+         }
+         String name = text.substring(i + 2, end);
+         String key = (quote == 0 ? "" : "'") + name;
+         Integer index = indexes.get(key);
+         if (index == null) {
+            index = names.size();
+            indexes.put(key, index);
+            names.add(name);
+            quoted.add(quote != 0);
+         }
+         String variable = VARIABLE_PREFIX + index;
+         i = end + 1;
+         if (quote == 0) {
+            out.append(variable);
+         } else if (opening == out.length() - 1 && i < text.length()
+            && text.charAt(i) == quote) {
+            // whole content of the literal; replace the literal
+            out.setLength(out.length() - 1);
+            out.append(variable);
+            quote = 0;
+            i++ ;
+         } else {
+            // part of a longer literal; concatenate into it
+            out.append(quote).append(" + ").append(variable).append(" + ")
+               .append(quote);
+            opening = out.length() - 1;
+         }
+      }
+      return new FunctionScript(text, out.toString(), names, quoted);
+   }
+
+   /**
+    * Evaluates the script on the current thread's engine.
+    *
+    * @param values parameter values by name, for example from
+    * {@link CDAPlug#getMap()}.
+    * @return the result of the script.
+    * @throws Exception if no script engine is available, or the script fails,
+    * including, if an unquoted parameter is blank, failing to parse with the
+    * values spliced in.
+    */
+   public Object evaluate(Map <String, String> values) throws Exception {
+      ThreadEngine te = engines.get();
+      if (te.engine == null)
+         throw new Exception("no " + ENGINE_NAME + " script engine available");
+      for (int i = 0; i < parameterNames.size(); i++ )
+         if (quoted[i] == false
+            && StringUtils.isBlank(values.get(parameterNames.get(i))))
+            return te.engine.eval(splice(values));
+      Bindings bindings = te.engine.getBindings(ScriptContext.ENGINE_SCOPE);
+      try {
+         for (int i = 0; i < parameterNames.size(); i++ ) {
+            String value =
+               StringUtils.defaultString(values.get(parameterNames.get(i)));
+            bindings.put(VARIABLE_PREFIX + i,
+               quoted[i] ? value : toScriptValue(value));
+         }
+         return te.eval(script);
+      } finally {
+         for (int i = 0; i < parameterNames.size(); i++ )
+            bindings.remove(VARIABLE_PREFIX + i);
+      }
+   }
+
+   /**
+    * @return {@link #text} with each ${parameter} replaced by its value, or
+    * left as is if it has none, as values were applied before scripts were
+    * compiled.
+    */
+   private String splice(Map <String, String> values) {
+      StringBuilder out = new StringBuilder(text.length());
+      int i = 0;
+      while (true) {
+         int start = text.indexOf("${", i);
+         int end = start < 0 ? -1 : text.indexOf('}', start + 2);
+         if (end < 0) break;
+         String value = values.get(text.substring(start + 2, end));
+         out.append(text, i, start);
+         out.append(value == null ? text.substring(start, end + 1) : value);
+         i = end + 1;
+      }
+      return out.append(text, i, text.length()).toString();
+   }
+
+   /**
+    * Converts a parameter value to the type its text would have had as part of
+    * the script source.
+    */
+   private static Object toScriptValue(String value) {
+      String v = value.trim();
+      if (v.equals("true")) return Boolean.TRUE;
+      if (v.equals("false")) return Boolean.FALSE;
+      try {
+         return Double.valueOf(v);
+      } catch (NumberFormatException e) {
+         return value;
+      }
+   }
+
+   /**
+    * @return the {@link #script} value.
+    */
+   public String getScript() {
+      return script;
+   }
+
+   /**
+    * @return the {@link #text} value.
+    */
+   public String getText() {
+      return text;
+   }
+
+   /**
+    * @return the {@link #parameterNames} value.
+    */
+   public List <String> getParameterNames() {
+      return parameterNames;
+   }
+
+   /**
+    * @return number of distinct script texts compiled.
+    */
+   public static int size() {
+      return cache.size();
+   }
+
+   /**
+    * A script engine and the scripts compiled on it, owned by one thread.
+    */
+   private static class ThreadEngine {
+      final ScriptEngine engine;
+      final Map <String, CompiledScript> compiled = new HashMap <>();
+
+      ThreadEngine() {
+         engine = manager.getEngineByName(ENGINE_NAME);
+      }
+
+      Object eval(String script) throws Exception {
+         if (!(engine instanceof Compilable)) return engine.eval(script);
+         CompiledScript cs = compiled.get(script);
+         if (cs == null) {
+            cs = ((Compilable) engine).compile(script);
+            compiled.put(script, cs);
+         }
+         return cs.eval();
+      }
+   } // EO ThreadEngine inner class
+
+} // EO FunctionScript class
@@ -0,0 +1,997 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ ******************************************************************************/
+package edu.wustl.mir.erl.ihe.rfd.cda;
+
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.xpath.XPathConstants;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import edu.wustl.mir.erl.ihe.util.Util;
+import edu.wustl.mir.erl.ihe.util.XmlFactories;
+
+/**
+ * Matches the XPath expressions of the data elements of a
+ * {@link edu.wustl.mir.erl.ihe.rfd.cda.document.CDADocument CDADocument}
+ * against a document in a single pass, rather than evaluating each expression
+ * from the document root.
+ * <ul>
+ * <li>Expressions in the streaming subset are compiled into one tree of
+ * location steps, in which expressions with a common prefix, for example
+ * "/nl:ClinicalDocument/nl:component/nl:structuredBody/...", share the steps
+ * of the prefix. The subset is absolute paths of named child elements,
+ * optionally starting with "//", and optionally ending with /@attribute or
+ * /text(). Steps may have predicates made of relative element paths,
+ * @attribute='value' comparisons, and, or and parentheses.</li>
+ * <li>{@link #match(Element)} walks the DOM tree once, recording the nodes
+ * each expression selects, and makes them available to
+ * {@link DataElement#evaluate DataElement.evaluate} on the current thread
+ * until the returned {@link Matches} is closed. Other expressions, and
+ * expressions evaluated against other nodes, are evaluated with XPath.</li>
+ * <li>{@link #load(InputStream)} reads a document with StAX in a single pass,
+ * building a DOM of only the elements the expressions can select or test,
+ * with the full content of selected elements. If any expression is outside
+ * the streaming subset the whole document is parsed instead, so that it can
+ * be evaluated with XPath.</li>
+ * </ul>
+ * Instances are immutable, and shared between documents with the same
+ * expressions.
+ */
+public class PathMatcher {
+
+   private static Logger log = Util.getLog();
+
+   /** Result of {@link #evaluate} for expressions which were not matched. */
+   public static final Object NOT_MATCHED = new Object();
+
+   private static final Map <List <Expression>, PathMatcher> cache =
+      new ConcurrentHashMap <>();
+
+   /** Matches for the document being loaded on this thread. */
+   private static final ThreadLocal <Matches> current = new ThreadLocal <>();
+
+   /** Root of the step tree for absolute paths. */
+   private final State root = new State(null);
+   /** Root of the step tree for paths starting with //. */
+   private final State anywhere = new State(null);
+   /** Elements to keep when loading with StAX, for absolute paths. */
+   private final Prune pruneRoot = new Prune(null, null);
+   /** Elements to keep when loading with StAX, for paths starting with //. */
+   private final Prune pruneAnywhere = new Prune(null, null);
+
+   /** Result index for each expression in the streaming subset. */
+   private final Map <Expression, Integer> indices = new HashMap <>();
+   /** Expressions outside the streaming subset. */
+   private final List <Expression> unsupported = new ArrayList <>();
+
+   private PathMatcher(Collection <Expression> expressions) {
+      for (Expression x : expressions) {
+         Path path;
+         try {
+            path = new Parser(x.xpath, x.nsc).path();
+         } catch (Exception e) {
+            log.trace("XPath not streamed: " + x.xpath + " - " + e.getMessage());
+            unsupported.add(x);
+            continue;
+         }
+         State s = path.anywhere ? anywhere : root;
+         for (Step step : path.steps)
+            s = s.child(step);
+         int index = indices.size();
+         s.targets.add(new Target(path.kind, path.attrUri, path.attrLocal,
+            index));
+         indices.put(x, index);
+      }
+      addPrune(root, pruneRoot);
+      addPrune(anywhere, pruneAnywhere);
+   }
+
+   /**
+    * Returns the matcher for the passed expressions, compiling it the first
+    * time it is requested.
+    *
+    * @param expressions to match. Blank expressions are ignored.
+    * @return matcher, never null.
+    */
+   public static PathMatcher getInstance(Collection <Expression> expressions) {
+      List <Expression> key = new ArrayList <>(expressions.size());
+      for (Expression x : expressions)
+         if (StringUtils.isNotBlank(x.xpath) && !key.contains(x)) key.add(x);
+      PathMatcher pm = cache.get(key);
+      if (pm == null) {
+         pm = new PathMatcher(key);
+         cache.put(key, pm);
+         log.debug("PathMatcher compiled: " + pm.indices.size()
+            + " streamed, " + pm.unsupported.size() + " XPath");
+      }
+      return pm;
+   }
+
+   // ---------------------------------------------------------- matching
+
+   /**
+    * Matches the expressions against the document containing element, in one
+    * walk of the DOM tree, and makes the results available to
+    * {@link #evaluate} on this thread for evaluations against element, until
+    * the returned instance is closed.
+    *
+    * @param element passed to {@link DataElement#loadValue(Element)}.
+    * @return results, which must be closed when loading is complete.
+    */
+   public Matches match(Element element) {
+      Matches m = new Matches(this, element);
+      Node top = element;
+      while (top.getParentNode() != null)
+         top = top.getParentNode();
+      // Absolute paths are from the document root; anything else, or a DOM
+      // which is not namespace aware, is left to XPath.
+      if (top.getNodeType() == Node.DOCUMENT_NODE
+         && element.getLocalName() != null && !indices.isEmpty()) {
+         m.results = newResults(indices.size());
+         walk(top, Collections.singletonList(root), m.results);
+      }
+      m.previous = current.get();
+      current.set(m);
+      return m;
+   }
+
+   @SuppressWarnings("unchecked")
+   private static List <Node>[] newResults(int size) {
+      return new List[size];
+   }
+
+   private void walk(Node parent, List <State> active, List <Node>[] results) {
+      for (Node n = parent.getFirstChild(); n != null; n = n.getNextSibling()) {
+         if (n.getNodeType() != Node.ELEMENT_NODE) continue;
+         Element e = (Element) n;
+         String local = e.getLocalName();
+         String uri = StringUtils.defaultString(e.getNamespaceURI());
+         List <State> next = null;
+         for (State s : active)
+            next = s.next(local, uri, e, next);
+         next = anywhere.next(local, uri, e, next);
+         if (next != null) {
+            for (State s : next)
+               s.record(e, results);
+            walk(e, next, results);
+         } else if (!anywhere.children.isEmpty()) {
+            walk(e, Collections.<State> emptyList(), results);
+         }
+      }
+   }
+
+   /**
+    * Returns the result of an expression matched by {@link #match(Element)}
+    * on this thread, if there is one.
+    *
+    * @param node context node of the evaluation.
+    * @param expression XPath expression.
+    * @param nsc {@link NamespaceContext} of the expression, or null.
+    * @param returnType one of the return types in {@link XPathConstants}.
+    * @return the result, or {@link #NOT_MATCHED} if the expression must be
+    * evaluated with XPath.
+    */
+   public static Object evaluate(Node node, String expression,
+      NamespaceContext nsc, QName returnType) {
+      Matches m = current.get();
+      if (m == null || m.results == null || node != m.element)
+         return NOT_MATCHED;
+      Integer index = m.matcher.indices.get(new Expression(expression, nsc));
+      if (index == null) return NOT_MATCHED;
+      List <Node> nodes = m.results[index];
+      if (nodes == null) nodes = Collections.emptyList();
+      if (XPathConstants.NODE.equals(returnType))
+         return nodes.isEmpty() ? null : nodes.get(0);
+      if (XPathConstants.NODESET.equals(returnType))
+         return new ListNodeList(nodes);
+      if (XPathConstants.STRING.equals(returnType))
+         return nodes.isEmpty() ? "" : stringValue(nodes.get(0));
+      if (XPathConstants.BOOLEAN.equals(returnType))
+         return Boolean.valueOf(!nodes.isEmpty());
+      return NOT_MATCHED;
+   }
+
+   /**
+    * XPath string value of a node. Adjacent text and CDATA nodes are one text
+    * node in XPath.
+    */
+   private static String stringValue(Node node) {
+      if (isText(node)) {
+         StringBuilder b = new StringBuilder();
+         for (Node n = node; n != null && isText(n); n = n.getNextSibling())
+            b.append(n.getNodeValue());
+         return b.toString();
+      }
+      if (node.getNodeType() == Node.ATTRIBUTE_NODE) return node.getNodeValue();
+      return StringUtils.defaultString(node.getTextContent());
+   }
+
+   private static boolean isText(Node node) {
+      short t = node.getNodeType();
+      return t == Node.TEXT_NODE || t == Node.CDATA_SECTION_NODE;
+   }
+
+   // ---------------------------------------------------------- loading
+
+   /**
+    * Reads a document, building a DOM containing what the expressions need.
+    * If all expressions are in the streaming subset this is a single StAX
+    * pass which keeps only the elements on the paths of the expressions and
+    * their predicates, and the full content of the elements the expressions
+    * select. Otherwise the whole document is parsed.
+    *
+    * @param in document, for example prepopData or an uploaded CDA file.
+    * @return the document.
+    * @throws Exception on error reading or parsing the document.
+    */
+   public Document load(InputStream in) throws Exception {
+      if (!unsupported.isEmpty())
+         return XmlFactories.getDocumentBuilder().parse(in);
+      XMLStreamReader r =
+         XmlFactories.getXMLInputFactory(true).createXMLStreamReader(in);
+      try {
+         return prune(r);
+      } finally {
+         r.close();
+      }
+   }
+
+   /**
+    * @return true if all the expressions are in the streaming subset, in
+    * which case {@link #load(InputStream)} does not build the whole document.
+    */
+   public boolean isStreamable() {
+      return unsupported.isEmpty();
+   }
+
+   /**
+    * An element being read, which may not have been added to the DOM yet.
+    * Elements which no path selects are only added, without attributes or
+    * content, if there is a selected element below them.
+    */
+   private static class Frame {
+      final XMLStreamReaderName name;
+      final List <Prune> active;
+      Node node;
+
+      Frame(XMLStreamReaderName name, List <Prune> active, Node node) {
+         this.name = name;
+         this.active = active;
+         this.node = node;
+      }
+   }
+
+   /** Name of the current element of an {@link XMLStreamReader}. */
+   private static class XMLStreamReaderName {
+      final String uri;
+      final String qname;
+
+      XMLStreamReaderName(XMLStreamReader r) {
+         uri = StringUtils.defaultIfEmpty(r.getNamespaceURI(), null);
+         String prefix = r.getPrefix();
+         qname = StringUtils.isEmpty(prefix) ? r.getLocalName() : prefix + ":"
+            + r.getLocalName();
+      }
+   }
+
+   private Document prune(XMLStreamReader r) throws Exception {
+      Document doc = XmlFactories.getDocumentBuilder().newDocument();
+      Deque <Frame> frames = new ArrayDeque <>();
+      frames.push(new Frame(null, Collections.singletonList(pruneRoot), doc));
+      int skip = 0; // depth within an element no path needs
+      int copy = 0; // depth within an element being copied in full
+      Node copyParent = null;
+      while (r.hasNext()) {
+         int event = r.next();
+         switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+               if (skip > 0) {
+                  skip++ ;
+                  break;
+               }
+               if (copy > 0) {
+                  copyParent = copyParent.appendChild(newElement(doc, r));
+                  copy++ ;
+                  break;
+               }
+               String local = r.getLocalName();
+               String uri = StringUtils.defaultString(r.getNamespaceURI());
+               List <Prune> next = null;
+               for (Prune p : frames.peek().active)
+                  next = p.next(local, uri, next);
+               next = pruneAnywhere.next(local, uri, next);
+               if (next == null) {
+                  // The document element is always kept.
+                  if (frames.peek().node == doc) {
+                     Element de = newElement(doc, r);
+                     doc.appendChild(de);
+                     frames.push(new Frame(null,
+                        Collections.<Prune> emptyList(), de));
+                  } else if (pruneAnywhere.children.isEmpty()) {
+                     skip = 1;
+                  } else {
+                     frames.push(new Frame(new XMLStreamReaderName(r),
+                        Collections.<Prune> emptyList(), null));
+                  }
+                  break;
+               }
+               Element e = newElement(doc, r);
+               materialize(doc, frames).appendChild(e);
+               frames.push(new Frame(null, next, e));
+               for (Prune p : next) {
+                  if (p.subtree) {
+                     copy = 1;
+                     copyParent = e;
+                     break;
+                  }
+               }
+               break;
+            case XMLStreamConstants.END_ELEMENT:
+               if (skip > 0) {
+                  skip-- ;
+                  break;
+               }
+               if (copy > 1) {
+                  copy-- ;
+                  copyParent = copyParent.getParentNode();
+                  break;
+               }
+               copy = 0;
+               frames.pop();
+               break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+               if (copy > 0) copyParent.appendChild(doc.createTextNode(r
+                  .getText()));
+               break;
+            case XMLStreamConstants.CDATA:
+               if (copy > 0) copyParent.appendChild(doc.createCDATASection(r
+                  .getText()));
+               break;
+            default:
+         }
+      }
+      return doc;
+   }
+
+   /**
+    * @return the DOM node of the innermost frame, adding it and any of its
+    * ancestors which have not been added yet.
+    */
+   private static Node materialize(Document doc, Deque <Frame> frames) {
+      Node parent = null;
+      List <Frame> pending = new ArrayList <>();
+      for (Frame f : frames) {
+         if (f.node != null) {
+            parent = f.node;
+            break;
+         }
+         pending.add(f);
+      }
+      for (int i = pending.size() - 1; i >= 0; i-- ) {
+         Frame f = pending.get(i);
+         f.node = doc.createElementNS(f.name.uri, f.name.qname);
+         parent.appendChild(f.node);
+         parent = f.node;
+      }
+      return parent;
+   }
+
+   /**
+    * @return a new element for the current element of r, with its namespace
+    * declarations and attributes.
+    */
+   private static Element newElement(Document doc, XMLStreamReader r) {
+      XMLStreamReaderName name = new XMLStreamReaderName(r);
+      Element e = doc.createElementNS(name.uri, name.qname);
+      for (int i = 0; i < r.getNamespaceCount(); i++ ) {
+         String prefix = r.getNamespacePrefix(i);
+         e.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+            StringUtils.isEmpty(prefix) ? XMLConstants.XMLNS_ATTRIBUTE
+               : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix,
+            StringUtils.defaultString(r.getNamespaceURI(i)));
+      }
+      for (int i = 0; i < r.getAttributeCount(); i++ ) {
+         String prefix = r.getAttributePrefix(i);
+         String local = r.getAttributeLocalName(i);
+         e.setAttributeNS(
+            StringUtils.defaultIfEmpty(r.getAttributeNamespace(i), null),
+            StringUtils.isEmpty(prefix) ? local : prefix + ":" + local,
+            r.getAttributeValue(i));
+      }
+      return e;
+   }
+
+   private static void addPrune(State state, Prune prune) {
+      for (State s : state.children.values()) {
+         Prune p = prune.child(s.step.uri, s.step.local);
+         for (Target t : s.targets)
+            if (t.kind != Kind.ATTRIBUTE) p.subtree = true;
+         if (s.step.test != null) s.step.test.addPrune(p);
+         addPrune(s, p);
+      }
+   }
+
+   // ---------------------------------------------------------- model
+
+   /**
+    * An XPath expression and the {@link NamespaceContext} it is evaluated
+    * with.
+    */
+   public static class Expression {
+      private final String xpath;
+      private final NamespaceContext nsc;
+
+      /**
+       * @param xpath the {@link #xpath} value.
+       * @param nsc the {@link #nsc} value, or null.
+       */
+      public Expression(String xpath, NamespaceContext nsc) {
+         this.xpath = xpath;
+         this.nsc = nsc;
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (this == obj) return true;
+         if (!(obj instanceof Expression)) return false;
+         Expression other = (Expression) obj;
+         return xpath.equals(other.xpath) && Objects.equals(nsc, other.nsc);
+      }
+
+      @Override
+      public int hashCode() {
+         return 31 * xpath.hashCode() + Objects.hashCode(nsc);
+      }
+
+      @Override
+      public String toString() {
+         return xpath;
+      }
+   } // EO Expression class
+
+   /**
+    * Results of {@link PathMatcher#match(Element)}, in effect on the current
+    * thread until closed.
+    */
+   public static class Matches implements AutoCloseable {
+      private final PathMatcher matcher;
+      private final Element element;
+      /** Nodes selected by each expression, in document order. */
+      private List <Node>[] results;
+      private Matches previous;
+
+      Matches(PathMatcher matcher, Element element) {
+         this.matcher = matcher;
+         this.element = element;
+      }
+
+      /**
+       * Stops using these results for evaluations on this thread.
+       */
+      @Override
+      public void close() {
+         if (previous == null) current.remove();
+         else current.set(previous);
+      }
+   } // EO Matches class
+
+   private enum Kind {
+      ELEMENT, ATTRIBUTE, TEXT
+   }
+
+   /** What an expression selects from the elements matching its last step. */
+   private static class Target {
+      final Kind kind;
+      final String attrUri;
+      final String attrLocal;
+      final int index;
+
+      Target(Kind kind, String attrUri, String attrLocal, int index) {
+         this.kind = kind;
+         this.attrUri = attrUri;
+         this.attrLocal = attrLocal;
+         this.index = index;
+      }
+   }
+
+   /** A node of the step tree. */
+   private static class State {
+      final Step step;
+      /** Child states, by step, including predicates. */
+      final Map <String, State> children = new LinkedHashMap <>();
+      /** Child states, by element local name. */
+      final Map <String, List <State>> byLocal = new HashMap <>();
+      final List <Target> targets = new ArrayList <>();
+
+      State(Step step) {
+         this.step = step;
+      }
+
+      State child(Step s) {
+         String key = s.toString();
+         State c = children.get(key);
+         if (c == null) {
+            c = new State(s);
+            children.put(key, c);
+            List <State> l = byLocal.get(s.local);
+            if (l == null) {
+               l = new ArrayList <>();
+               byLocal.put(s.local, l);
+            }
+            l.add(c);
+         }
+         return c;
+      }
+
+      /** Adds the child states element matches to next. */
+      List <State> next(String local, String uri, Element element,
+         List <State> next) {
+         List <State> l = byLocal.get(local);
+         if (l == null) return next;
+         for (State c : l) {
+            if (!c.step.uri.equals(uri)) continue;
+            if (c.step.test != null && !c.step.test.test(element)) continue;
+            if (next == null) next = new ArrayList <>();
+            next.add(c);
+         }
+         return next;
+      }
+
+      void record(Element e, List <Node>[] results) {
+         for (Target t : targets) {
+            switch (t.kind) {
+               case ELEMENT:
+                  add(results, t.index, e);
+                  break;
+               case ATTRIBUTE:
+                  Attr a = e.getAttributeNodeNS(
+                     t.attrUri.isEmpty() ? null : t.attrUri, t.attrLocal);
+                  if (a != null) add(results, t.index, a);
+                  break;
+               case TEXT:
+                  Node prev = null;
+                  for (Node n = e.getFirstChild(); n != null; n =
+                     n.getNextSibling()) {
+                     if (isText(n) && (prev == null || !isText(prev)))
+                        add(results, t.index, n);
+                     prev = n;
+                  }
+                  break;
+               default:
+            }
+         }
+      }
+
+      private static void add(List <Node>[] results, int index, Node node) {
+         if (results[index] == null) results[index] = new ArrayList <>(1);
+         results[index].add(node);
+      }
+   } // EO State class
+
+   /**
+    * A node of the tree of element names kept when loading with StAX.
+    */
+   private static class Prune {
+      final String uri;
+      final String local;
+      final Map <String, List <Prune>> children = new HashMap <>();
+      /** Keep the full content of matching elements. */
+      boolean subtree;
+
+      Prune(String uri, String local) {
+         this.uri = uri;
+         this.local = local;
+      }
+
+      Prune child(String u, String l) {
+         List <Prune> list = children.get(l);
+         if (list == null) {
+            list = new ArrayList <>();
+            children.put(l, list);
+         }
+         for (Prune p : list)
+            if (p.uri.equals(u)) return p;
+         Prune p = new Prune(u, l);
+         list.add(p);
+         return p;
+      }
+
+      List <Prune> next(String l, String u, List <Prune> next) {
+         List <Prune> list = children.get(l);
+         if (list == null) return next;
+         for (Prune p : list) {
+            if (!p.uri.equals(u)) continue;
+            if (next == null) next = new ArrayList <>();
+            next.add(p);
+         }
+         return next;
+      }
+   } // EO Prune class
+
+   /** A location step: a named child element, and an optional predicate. */
+   private static class Step {
+      final String uri;
+      final String local;
+      final Test test;
+
+      Step(String uri, String local, Test test) {
+         this.uri = uri;
+         this.local = local;
+         this.test = test;
+      }
+
+      boolean matches(Element e) {
+         return local.equals(e.getLocalName())
+            && uri.equals(StringUtils.defaultString(e.getNamespaceURI()))
+            && (test == null || test.test(e));
+      }
+
+      @Override
+      public String toString() {
+         return "{" + uri + "}" + local + (test == null ? "" : "[" + test + "]");
+      }
+   }
+
+   /** A predicate. toString gives a canonical form, used as a key. */
+   private interface Test {
+      boolean test(Element element);
+
+      /** Adds the elements the predicate reads to prune. */
+      void addPrune(Prune prune);
+   }
+
+   /** @name or @name='value'. */
+   private static class AttrTest implements Test {
+      final String uri;
+      final String local;
+      final String value;
+
+      AttrTest(String uri, String local, String value) {
+         this.uri = uri.isEmpty() ? null : uri;
+         this.local = local;
+         this.value = value;
+      }
+
+      @Override
+      public boolean test(Element element) {
+         if (!element.hasAttributeNS(uri, local)) return false;
+         return value == null || value.equals(element.getAttributeNS(uri, local));
+      }
+
+      @Override
+      public void addPrune(Prune prune) {}
+
+      @Override
+      public String toString() {
+         return "@{" + StringUtils.defaultString(uri) + "}" + local
+            + (value == null ? "" : "='" + value + "'");
+      }
+   }
+
+   /** Relative element path, true if it selects any element. */
+   private static class PathTest implements Test {
+      final List <Step> steps;
+
+      PathTest(List <Step> steps) {
+         this.steps = steps;
+      }
+
+      @Override
+      public boolean test(Element element) {
+         return test(element, 0);
+      }
+
+      private boolean test(Element element, int i) {
+         Step s = steps.get(i);
+         for (Node n = element.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() != Node.ELEMENT_NODE) continue;
+            Element c = (Element) n;
+            if (!s.matches(c)) continue;
+            if (i == steps.size() - 1 || test(c, i + 1)) return true;
+         }
+         return false;
+      }
+
+      @Override
+      public void addPrune(Prune prune) {
+         Prune p = prune;
+         for (Step s : steps) {
+            p = p.child(s.uri, s.local);
+            if (s.test != null) s.test.addPrune(p);
+         }
+      }
+
+      @Override
+      public String toString() {
+         return StringUtils.join(steps, "/");
+      }
+   }
+
+   /** and / or of predicates. */
+   private static class BooleanTest implements Test {
+      final boolean and;
+      final List <Test> tests;
+
+      BooleanTest(boolean and, List <Test> tests) {
+         this.and = and;
+         this.tests = tests;
+      }
+
+      @Override
+      public boolean test(Element element) {
+         for (Test t : tests)
+            if (t.test(element) != and) return !and;
+         return and;
+      }
+
+      @Override
+      public void addPrune(Prune prune) {
+         for (Test t : tests)
+            t.addPrune(prune);
+      }
+
+      @Override
+      public String toString() {
+         return "(" + StringUtils.join(tests, and ? " and " : " or ") + ")";
+      }
+   }
+
+   /** A parsed expression in the streaming subset. */
+   private static class Path {
+      boolean anywhere;
+      final List <Step> steps = new ArrayList <>();
+      Kind kind = Kind.ELEMENT;
+      String attrUri;
+      String attrLocal;
+   }
+
+   /**
+    * Parses expressions in the streaming subset. Anything else throws an
+    * Exception saying why, and is left to XPath.
+    */
+   private static class Parser {
+      private final String s;
+      private final NamespaceContext nsc;
+      private int pos = 0;
+
+      Parser(String s, NamespaceContext nsc) {
+         this.s = s;
+         this.nsc = nsc;
+      }
+
+      Path path() throws Exception {
+         Path p = new Path();
+         ws();
+         if (s.startsWith("//", pos)) {
+            p.anywhere = true;
+            pos += 2;
+         } else if (s.startsWith("/", pos)) {
+            pos++ ;
+         } else {
+            throw new Exception("not an absolute path");
+         }
+         while (true) {
+            ws();
+            if (peek() == '@') {
+               pos++ ;
+               String[] n = name();
+               p.kind = Kind.ATTRIBUTE;
+               p.attrUri = n[0];
+               p.attrLocal = n[1];
+               break;
+            }
+            if (s.startsWith("text()", pos)) {
+               pos += 6;
+               p.kind = Kind.TEXT;
+               break;
+            }
+            p.steps.add(step());
+            ws();
+            if (pos >= s.length()) break;
+            if (s.startsWith("//", pos))
+               throw new Exception("// after the first step");
+            expect('/');
+         }
+         ws();
+         if (pos < s.length())
+            throw new Exception("unexpected " + s.substring(pos));
+         if (p.steps.isEmpty()) throw new Exception("no element steps");
+         return p;
+      }
+
+      private Step step() throws Exception {
+         String[] n = name();
+         List <Test> tests = new ArrayList <>();
+         ws();
+         while (peek() == '[') {
+            pos++ ;
+            tests.add(or());
+            ws();
+            expect(']');
+            ws();
+         }
+         Test t = null;
+         if (tests.size() == 1) t = tests.get(0);
+         if (tests.size() > 1) t = new BooleanTest(true, tests);
+         return new Step(n[0], n[1], t);
+      }
+
+      private Test or() throws Exception {
+         List <Test> tests = new ArrayList <>();
+         tests.add(and());
+         while (keyword("or"))
+            tests.add(and());
+         return tests.size() == 1 ? tests.get(0) : new BooleanTest(false, tests);
+      }
+
+      private Test and() throws Exception {
+         List <Test> tests = new ArrayList <>();
+         tests.add(term());
+         while (keyword("and"))
+            tests.add(term());
+         return tests.size() == 1 ? tests.get(0) : new BooleanTest(true, tests);
+      }
+
+      private Test term() throws Exception {
+         ws();
+         if (peek() == '(') {
+            pos++ ;
+            Test t = or();
+            ws();
+            expect(')');
+            return t;
+         }
+         if (peek() == '@') {
+            pos++ ;
+            String[] n = name();
+            ws();
+            if (peek() == '=') {
+               pos++ ;
+               ws();
+               return new AttrTest(n[0], n[1], literal());
+            }
+            comparison();
+            return new AttrTest(n[0], n[1], null);
+         }
+         List <Step> steps = new ArrayList <>();
+         steps.add(step());
+         while (peek() == '/') {
+            pos++ ;
+            if (peek() == '/' || peek() == '@')
+               throw new Exception("unsupported predicate path");
+            steps.add(step());
+         }
+         comparison();
+         return new PathTest(steps);
+      }
+
+      /** Fails on comparisons other than @name='value'. */
+      private void comparison() throws Exception {
+         ws();
+         char c = peek();
+         if (c == '=' || c == '!' || c == '<' || c == '>')
+            throw new Exception("unsupported comparison");
+      }
+
+      private boolean keyword(String k) {
+         ws();
+         if (!s.startsWith(k, pos)) return false;
+         int end = pos + k.length();
+         if (end < s.length() && isNameChar(s.charAt(end))) return false;
+         pos = end;
+         return true;
+      }
+
+      private String literal() throws Exception {
+         char q = peek();
+         if (q != '\'' && q != '"') throw new Exception("expected literal");
+         int end = s.indexOf(q, pos + 1);
+         if (end < 0) throw new Exception("unterminated literal");
+         String v = s.substring(pos + 1, end);
+         pos = end + 1;
+         return v;
+      }
+
+      /**
+       * @return namespace URI ("" for none) and local name of a QName.
+       */
+      private String[] name() throws Exception {
+         int start = pos;
+         while (pos < s.length() && isNameChar(s.charAt(pos)))
+            pos++ ;
+         String prefix = null;
+         if (peek() == ':' && pos + 1 < s.length()
+            && s.charAt(pos + 1) != ':') {
+            prefix = s.substring(start, pos);
+            start = ++pos;
+            while (pos < s.length() && isNameChar(s.charAt(pos)))
+               pos++ ;
+         }
+         String local = s.substring(start, pos);
+         if (local.isEmpty() || !Character.isLetter(local.charAt(0))
+            && local.charAt(0) != '_')
+            throw new Exception("unsupported step at " + start);
+         if (peek() == '(' || peek() == ':')
+            throw new Exception("function or axis at " + start);
+         if (prefix == null) return new String[] { "", local };
+         String uri = nsc == null ? null : nsc.getNamespaceURI(prefix);
+         if (StringUtils.isEmpty(uri))
+            throw new Exception("unbound prefix " + prefix);
+         return new String[] { uri, local };
+      }
+
+      private static boolean isNameChar(char c) {
+         return Character.isLetterOrDigit(c) || c == '_' || c == '-'
+            || c == '.';
+      }
+
+      private char peek() {
+         return pos < s.length() ? s.charAt(pos) : 0;
+      }
+
+      private void expect(char c) throws Exception {
+         if (peek() != c) throw new Exception("expected " + c + " at " + pos);
+         pos++ ;
+      }
+
+      private void ws() {
+         while (pos < s.length() && Character.isWhitespace(s.charAt(pos)))
+            pos++ ;
+      }
+   } // EO Parser class
+
+   /** {@link NodeList} of a List. */
+   private static class ListNodeList implements NodeList {
+      private final List <Node> nodes;
+
+      ListNodeList(List <Node> nodes) {
+         this.nodes = nodes;
+      }
+
+      @Override
+      public Node item(int index) {
+         return index >= 0 && index < nodes.size() ? nodes.get(index) : null;
+      }
+
+      @Override
+      public int getLength() {
+         return nodes.size();
+      }
+   }
+
+} // EO PathMatcher class
@@ -3,6 +3,8 @@
  */
 package edu.wustl.mir.erl.ihe.rfd.cda;
 
+import java.util.Map;
+
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 
@@ -101,6 +103,20 @@ public class ProcedureDataElement extends DataElement {
       interval = new IntervalDataElement(other.interval);
    }
    
+   /**
+    * The instance has its own contained data elements, which hold values.
+    */
+   @Override
+   protected void initInstance(Map <DataElement, DataElement> instances) {
+      super.initInstance(instances);
+      id = (IdDataElement) id.newInstance(instances);
+      code = (CodedDataElement) code.newInstance(instances);
+      methodCode = (CodedDataElement) methodCode.newInstance(instances);
+      observationValue =
+         (ValueDataElement) observationValue.newInstance(instances);
+      interval = (IntervalDataElement) interval.newInstance(instances);
+   }
+
    @Override
    public ProcedureDataElement loadSnippet(String key) {
       super.loadSnippet(key);
@@ -15,6 +15,7 @@ package edu.wustl.mir.erl.ihe.rfd.cda;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
@@ -284,6 +285,17 @@ public class SequenceDataElement <T extends DataElement> extends DataElement {
       return rdes;
    }
 
+   /**
+    * The instance has its own list of sequenced data elements and trigger.
+    * The data element being sequenced is shared, as it is only copied.
+    */
+   @Override
+   protected void initInstance(Map <DataElement, DataElement> instances) {
+      super.initInstance(instances);
+      dataElements = new ArrayList <>();
+      triggerFunction = triggerFunction.newInstance(instances);
+   }
+
    @Override
    public void loadValue(Element element2) throws Exception {
 
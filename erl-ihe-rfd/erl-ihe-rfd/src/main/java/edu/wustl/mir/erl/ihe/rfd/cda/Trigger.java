@@ -3,6 +3,8 @@
  */
 package edu.wustl.mir.erl.ihe.rfd.cda;
 
+import java.util.Map;
+
 /**
  * Trigger function interface, used to 'fire' actions.
  */
@@ -25,4 +27,19 @@ public interface Trigger {
    public default void plug(CDAPlug plug) {
       return;
    }
+
+   /**
+    * Returns the trigger for a new instance of the data element using it,
+    * created by {@link DataElement#newInstance(Map)}. By default triggers
+    * have no state, and are shared, so this returns the trigger itself.
+    * Triggers which keep state, or refer to other data elements, must return
+    * a new trigger, referring to the instances of those data elements.
+    * 
+    * @param instances the data element instances for the document, by
+    * prototype.
+    * @return trigger for the instance.
+    */
+   public default Trigger newInstance(Map <DataElement, DataElement> instances) {
+      return this;
+   }
 }
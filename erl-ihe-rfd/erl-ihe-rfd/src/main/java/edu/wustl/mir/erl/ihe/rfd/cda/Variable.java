@@ -19,6 +19,26 @@ public class Variable  {
       this.dataElement = dataElement;
    }
 
+   /**
+    * @param other variable to copy
+    * @param dataElement DataElement or subclass for the copy
+    */
+   private Variable(Variable other, DataElement dataElement) {
+      this.mappings = other.mappings;
+      this.dataElement = dataElement;
+   }
+
+   /**
+    * @param instances the data element instances for a document, by
+    * prototype.
+    * @return a variable with the same mappings, for the instance of this
+    * variable's data element.
+    * @see DataElement#newInstance(Map)
+    */
+   Variable newInstance(Map <DataElement, DataElement> instances) {
+      return new Variable(this, dataElement.newInstance(instances));
+   }
+
    /**
     * @return the {@link #mappings} value.
     */
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ ******************************************************************************/
+package edu.wustl.mir.erl.ihe.rfd.cda;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathVariableResolver;
+
+import org.w3c.dom.Node;
+
+import edu.wustl.mir.erl.ihe.util.XmlFactories;
+
+/**
+ * Shared cache of compiled {@link XPathExpression}s used by
+ * {@link DataElement#evaluate DataElement.evaluate}, keyed by expression string
+ * and {@link NamespaceContext}.
+ * <ul>
+ * <li>A compiled XPathExpression is not safe for concurrent use, so each key
+ * holds a pool of compiled instances. An evaluation borrows one, or compiles a
+ * new one if none is free, and returns it when done. The pool for a key never
+ * grows beyond the number of threads evaluating that expression at once.</li>
+ * <li>Every expression is compiled with the same {@link XPathVariableResolver},
+ * which reads variable values bound for the current evaluation on the current
+ * thread. Data elements using
+ * {@link DataElement#addXpathVariable(String, String, DataElement)
+ * addXpathVariable} pass their values to each evaluation, rather than setting a
+ * resolver on a shared {@link XPath}.</li>
+ * <li>{@link #getHits()} and {@link #getMisses()} count evaluations which
+ * reused a compiled expression and those which had to compile one.</li>
+ * </ul>
+ */
+public class XPathCache {
+
+   private static final Map <Key, Queue <XPathExpression>> cache =
+      new ConcurrentHashMap <>();
+
+   private static final AtomicLong hits = new AtomicLong();
+   private static final AtomicLong misses = new AtomicLong();
+
+   /** XPath variable values for the evaluation in progress on this thread. */
+   private static final ThreadLocal <Map <String, Object>> variables =
+      new ThreadLocal <>();
+
+   private static final XPathVariableResolver resolver =
+      new XPathVariableResolver() {
+         @Override
+         public Object resolveVariable(QName name) {
+            Map <String, Object> vars = variables.get();
+            return vars == null ? null : vars.get(name.getLocalPart());
+         }
+      };
+
+   private XPathCache() {}
+
+   /**
+    * Evaluates an XPath expression against a node, using a cached compiled
+    * expression if one is available.
+    *
+    * @param expression XPath expression string.
+    * @param nsc {@link NamespaceContext} for the expression, or null.
+    * @param vars XPath variable values by name, without the leading $, or null
+    * if the expression uses no variables.
+    * @param node context node for the evaluation.
+    * @param returnType one of the return types in
+    * {@link javax.xml.xpath.XPathConstants XPathConstants}.
+    * @return the result of the evaluation, converted to returnType.
+    * @throws XPathExpressionException if the expression is invalid or can not
+    * be evaluated.
+    */
+   public static Object evaluate(String expression, NamespaceContext nsc,
+      Map <String, Object> vars, Node node, QName returnType)
+      throws XPathExpressionException {
+      Key key = new Key(expression, nsc);
+      Queue <XPathExpression> pool = cache.get(key);
+      if (pool == null) {
+         cache.putIfAbsent(key, new ConcurrentLinkedQueue <XPathExpression>());
+         pool = cache.get(key);
+      }
+      XPathExpression expr = pool.poll();
+      if (expr == null) {
+         misses.incrementAndGet();
+         XPath xpath = XmlFactories.newXPath();
+         if (nsc != null) xpath.setNamespaceContext(nsc);
+         xpath.setXPathVariableResolver(resolver);
+         expr = xpath.compile(expression);
+      } else {
+         hits.incrementAndGet();
+      }
+      Map <String, Object> previous = variables.get();
+      variables.set(vars);
+      try {
+         return expr.evaluate(node, returnType);
+      } finally {
+         variables.set(previous);
+         pool.offer(expr);
+      }
+   }
+
+   /**
+    * @return number of evaluations which reused a compiled expression.
+    */
+   public static long getHits() {
+      return hits.get();
+   }
+
+   /**
+    * @return number of evaluations which compiled an expression.
+    */
+   public static long getMisses() {
+      return misses.get();
+   }
+
+   /**
+    * @return number of distinct expression / namespace context keys cached.
+    */
+   public static int size() {
+      return cache.size();
+   }
+
+   /**
+    * Discards all cached expressions and resets the counters.
+    */
+   public static void clear() {
+      cache.clear();
+      hits.set(0);
+      misses.set(0);
+   }
+
+   /**
+    * @return short summary of the cache statistics, for logging.
+    */
+   public static String stats() {
+      return "XPathCache: " + cache.size() + " expressions, " + hits.get()
+         + " hits, " + misses.get() + " misses";
+   }
+
+   /** Cache key, expression plus namespace context. */
+   private static class Key {
+      final String expression;
+      final NamespaceContext nsc;
+      final int hash;
+
+      Key(String expression, NamespaceContext nsc) {
+         this.expression = expression;
+         this.nsc = nsc;
+         hash = 31 * expression.hashCode() + (nsc == null ? 0 : nsc.hashCode());
+      }
+
+      @Override
+      public int hashCode() {
+         return hash;
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (this == obj) return true;
+         if (!(obj instanceof Key)) return false;
+         Key other = (Key) obj;
+         if (!expression.equals(other.expression)) return false;
+         if (nsc == null) return other.nsc == null;
+         return nsc.equals(other.nsc);
+      }
+   } // EO Key inner class
+
+} // EO XPathCache class
@@ -36,6 +36,11 @@ public class BFDRBirth extends CDADocument {
     * Create new BFDRBirth instance
     */
    public BFDRBirth() {
+      super();
+   }
+
+   @Override
+   protected void addDataElements() {
       
    }
 
@@ -13,14 +13,16 @@
  ******************************************************************************/
 package edu.wustl.mir.erl.ihe.rfd.cda.document;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathFactory;
 
 import org.apache.commons.lang.StringUtils;
 import org.w3c.dom.Document;
@@ -28,40 +30,131 @@ import org.w3c.dom.Element;
 
 import edu.wustl.mir.erl.ihe.rfd.cda.CDAPlug;
 import edu.wustl.mir.erl.ihe.rfd.cda.DataElement;
+import edu.wustl.mir.erl.ihe.rfd.cda.PathMatcher;
 import edu.wustl.mir.erl.ihe.util.Plug;
+import edu.wustl.mir.erl.ihe.util.Template;
 import edu.wustl.mir.erl.ihe.util.UtilProperties;
+import edu.wustl.mir.erl.ihe.util.XmlFactories;
 import edu.wustl.mir.erl.ihe.ws.db.WSLog;
 
 /**
- * Base class for CDA CDADocument handler beans
+ * Base class for CDA CDADocument handler beans. Subclasses add their data
+ * elements in {@link #addDataElements()}, which is run once per class to
+ * build its {@link CDASchema}. Each instance gets its own data element
+ * instances from the schema, holding the values loaded for one request.
  */
 public abstract class CDADocument implements Serializable, UtilProperties {
    private static final long serialVersionUID = 1L;
 
    /**
     * List of DataElements that make up the form, in the order they were
-    * inserted.
+    * inserted. The index of each is its {@link CDASchema#getOrdinal ordinal}.
     */
    protected List <DataElement> elements = new ArrayList <>();
 
-   private XPathFactory xpathFactory = XPathFactory.newInstance();
+   protected XPath newXPath() {
+      return XmlFactories.newXPath();
+   }
+
+   /**
+    * Model shared by all instances of this class. Null if this instance was
+    * deserialized.
+    */
+   private transient CDASchema schema;
+
+   /**
+    * true if data elements have been added since this instance was created,
+    * so that it no longer matches its {@link #schema}.
+    */
+   private boolean elementsChanged = false;
 
-   protected synchronized XPath newXPath() {
-      return xpathFactory.newXPath();
+   /**
+    * Creates an instance with its own data element instances from the
+    * {@link CDASchema} for its class, which is built the first time the class
+    * is instantiated.
+    */
+   protected CDADocument() {
+      CDASchema s = CDASchema.getInstance(this);
+      elements = s.newDataElements();
+      schema = s;
    }
 
+   /**
+    * Adds the data elements of this document type using
+    * {@link #addDataElement(DataElement)}. Run once per class, by the
+    * constructor of its first instance, to build the prototype data elements
+    * in its {@link CDASchema}. As it runs before subclass constructors and
+    * field initializers, it must not rely on instance fields of the subclass.
+    */
+   protected abstract void addDataElements();
+
    /**
     * Load Values from CDA xml {@link Document} to the corresponding
     * {@link DataElement} instances in this {@link CDADocument}. In most cases,
     * the Element is the prepopData from an RFD RetrieveFormRequest (ITI-34).
+    * The document is matched against the XPath expressions of all the
+    * {@link DataElement}s in one pass by {@link PathMatcher}, rather than each
+    * DataElement evaluating its expression from the root.
     * 
     * @param element {@link Document} to search.
     * @throws Exception on error.
     */
    public void loadValue(Element element) throws Exception {
       if (element == null) return;
+      PathMatcher.Matches matches = getPathMatcher().match(element);
+      try {
+         for (DataElement de : elements)
+            if (de.isLoadFromDocument()) de.loadValue(element);
+      } finally {
+         matches.close();
+      }
+   }
+
+   /**
+    * Load Values from CDA xml {@link Document} to the named
+    * {@link DataElement}s only, in the order passed. For use when only a few
+    * values are needed, for example to determine the type of document.
+    * 
+    * @param element {@link Document} to search.
+    * @param parNames parameter names of the data elements to load.
+    * @throws Exception if any of the named DataElements do not exist, or on
+    * error loading them.
+    */
+   public void loadValue(Element element, String... parNames)
+      throws Exception {
+      if (element == null) return;
+      for (DataElement de : getElementsByName(parNames))
+         de.loadValue(element);
+   }
+
+   /**
+    * Load Values from a serialized CDA xml document, for example an uploaded
+    * file. The document is read with StAX in a single pass, keeping only the
+    * parts which the {@link DataElement}s in this {@link CDADocument} load
+    * from, unless some of their XPath expressions are too complex to stream,
+    * in which case the whole document is parsed.
+    * 
+    * @param in document.
+    * @throws Exception on error reading or parsing the document.
+    * @see PathMatcher#load(InputStream)
+    */
+   public void loadValue(InputStream in) throws Exception {
+      loadValue(getPathMatcher().load(in).getDocumentElement());
+   }
+
+   /**
+    * @return the {@link PathMatcher} for the XPath expressions of the
+    * {@link DataElement}s in this {@link CDADocument} which are loaded from
+    * the document.
+    */
+   protected PathMatcher getPathMatcher() {
+      if (schema != null && elementsChanged == false)
+         return schema.getPathMatcher();
+      LinkedHashSet <PathMatcher.Expression> expressions =
+         new LinkedHashSet <>();
       for (DataElement de : elements)
-         if (de.isLoadFromDocument()) de.loadValue(element);
+         if (de.isLoadFromDocument()) de.addDocumentExpressions(expressions);
+      return PathMatcher.getInstance(expressions);
    }
 
    /**
@@ -84,6 +177,13 @@ public abstract class CDADocument implements Serializable, UtilProperties {
     */
    public abstract String populate();
 
+   /**
+    * Names of snippet parameters, ${parNameSnippet}, which are replaced with
+    * the resolved snippet of the named data element.
+    */
+   private static final Pattern SNIPPET_PARAMETER =
+      Pattern.compile("[A-Z|a-z|0-9|\\-]+Snippet");
+
    /**
     * Load passed form with Snippets and prepop values.
     * 
@@ -95,23 +195,56 @@ public abstract class CDADocument implements Serializable, UtilProperties {
     * @see Plug
     */
    public String populate(String form) {
-      String frm = form;
-      Matcher matcher =
-         Pattern.compile("\\$\\{[A-Z|a-z|0-9|\\-]+Snippet}").matcher(form);
-      while (matcher.find()) {
-         String snipPar = form.substring(matcher.start(), matcher.end());
-         String snipP = StringUtils.substringAfter(snipPar, "${");
-         snipP = StringUtils.substringBefore(snipP, "Snippet}");
-         DataElement snipDe = getDataElementByName(snipP);
-         if (snipDe == null) continue;
-         String snippet = snipDe.getResolvedSnippet();
-         frm = StringUtils.replace(frm, snipPar, snippet);
+      return populate(Template.compile(form));
+   }
+
+   /**
+    * Load passed form with Snippets and prepop values. Use with forms which
+    * are parsed once and kept, such as the master form of a document type.
+    * 
+    * @param form {@link Template} form containing parameters of the form
+    * ${paramName}, which will be replaced with prepopData values.
+    * @return String form with prepopData filled in.
+    * @see #populate(String)
+    */
+   public String populate(Template form) {
+      StringBuilder out = new StringBuilder(form.getSource().length() + 1024);
+      try {
+         populate(form, out);
+      } catch (IOException e) {
+         // StringBuilder does not throw IOException
       }
+      return out.toString();
+   }
+
+   /**
+    * Load passed form with Snippets and prepop values, writing it to out in a
+    * single pass. ${parNameSnippet} parameters are replaced by the resolved
+    * snippet of the parName data element, with its own parameters filled in.
+    * Other parameters are replaced with the values of the data elements which
+    * are plugged into the form.
+    * 
+    * @param form {@link Template} form.
+    * @param out destination, for example a Writer.
+    * @throws IOException on error writing to out.
+    */
+   public void populate(Template form, Appendable out) throws IOException {
       List <DataElement> es = new ArrayList <>();
       for (DataElement element : elements)
          if (element.isPlugInForm()) es.add(element);
-      return new CDAPlug(frm).setDataElement(es.toArray(new DataElement[0]))
-         .get();
+      final Map <String, String> values = new CDAPlug("")
+         .setDataElement(es.toArray(new DataElement[0])).getMap();
+      form.render(new Template.Resolver() {
+         @Override
+         public String resolve(String name) {
+            if (SNIPPET_PARAMETER.matcher(name).matches()) {
+               DataElement snipDe = getDataElementByName(
+                  StringUtils.removeEnd(name, "Snippet"));
+               if (snipDe != null) return snipDe.getResolvedSnippet();
+            }
+            return values.get(name);
+         }
+      }, out);
    }
 
    /**
@@ -122,6 +255,12 @@ public abstract class CDADocument implements Serializable, UtilProperties {
     * found.
     */
    public DataElement getDataElementByName(String parName) {
+      if (schema != null && elementsChanged == false) {
+         int ordinal = schema.getOrdinal(parName);
+         if (ordinal < 0) return null;
+         DataElement e = elements.get(ordinal);
+         if (e.getParName().equals(parName)) return e;
+      }
       for (DataElement e : elements)
          if (e.getParName().equals(parName)) return e;
       return null;
@@ -164,6 +303,15 @@ public abstract class CDADocument implements Serializable, UtilProperties {
    public void addDataElement(boolean plugInForm, DataElement element) {
       element.setPlugInForm(plugInForm);
       elements.add(element);
+      if (schema != null) elementsChanged = true;
+   }
+
+   /**
+    * @return the {@link #schema} value, or null if this instance was
+    * deserialized.
+    */
+   public CDASchema getSchema() {
+      return schema;
    }
 
 } // EO CDADocument class
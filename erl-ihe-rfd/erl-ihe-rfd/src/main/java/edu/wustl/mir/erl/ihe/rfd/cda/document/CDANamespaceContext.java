@@ -82,4 +82,34 @@ public class CDANamespaceContext implements Serializable, NamespaceContext {
       return list.iterator();
    }
 
+   /**
+    * Two contexts are equal if they map the same prefixes to the same
+    * namespace URIs, in the same order. Used to share compiled XPath
+    * expressions between documents of the same type, each of which has its
+    * own instance.
+    */
+   @Override
+   public boolean equals(Object obj) {
+      if (this == obj) return true;
+      if (!(obj instanceof CDANamespaceContext)) return false;
+      QName[] other = ((CDANamespaceContext) obj).gnames;
+      if (gnames.length != other.length) return false;
+      for (int i = 0; i < gnames.length; i++ ) {
+         if (!gnames[i].getPrefix().equals(other[i].getPrefix())) return false;
+         if (!gnames[i].getNamespaceURI().equals(other[i].getNamespaceURI()))
+            return false;
+      }
+      return true;
+   }
+
+   @Override
+   public int hashCode() {
+      int hash = 1;
+      for (QName qname : gnames) {
+         hash = 31 * hash + qname.getPrefix().hashCode();
+         hash = 31 * hash + qname.getNamespaceURI().hashCode();
+      }
+      return hash;
+   }
+
 }
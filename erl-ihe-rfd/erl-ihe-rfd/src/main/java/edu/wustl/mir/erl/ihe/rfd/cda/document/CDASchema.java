@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ ******************************************************************************/
+package edu.wustl.mir.erl.ihe.rfd.cda.document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import edu.wustl.mir.erl.ihe.rfd.cda.DataElement;
+import edu.wustl.mir.erl.ihe.rfd.cda.FunctionDataElement;
+import edu.wustl.mir.erl.ihe.rfd.cda.PathMatcher;
+
+/**
+ * The data element model of one {@link CDADocument} class, built once, the
+ * first time the class is instantiated, and shared by all its instances:
+ * <ul>
+ * <li>The prototype {@link DataElement}s, as added by
+ * {@link CDADocument#addDataElements()}. These are never loaded, so their
+ * XPath expressions, snippets, triggers and compiled function scripts are
+ * built once, not for each request.</li>
+ * <li>The ordinal of each data element, by parName.</li>
+ * <li>The {@link PathMatcher} for the data elements loaded from the
+ * document.</li>
+ * </ul>
+ * Each document instance holds only the values: the data elements created
+ * from the prototypes by {@link DataElement#newInstance(Map)}, indexed by
+ * ordinal.
+ */
+public class CDASchema {
+
+   /** Schemas, by document class. */
+   private static final Map <Class <?>, CDASchema> schemas = new HashMap <>();
+
+   private final Class <? extends CDADocument> documentClass;
+   private final List <DataElement> prototypes;
+   private final Map <String, Integer> ordinals;
+   private final PathMatcher pathMatcher;
+
+   private CDASchema(Class <? extends CDADocument> documentClass,
+      List <DataElement> dataElements) {
+      this.documentClass = documentClass;
+      prototypes = Collections.unmodifiableList(
+         new ArrayList <DataElement>(dataElements));
+      ordinals = new HashMap <>();
+      LinkedHashSet <PathMatcher.Expression> expressions =
+         new LinkedHashSet <>();
+      for (int i = 0; i < prototypes.size(); i++ ) {
+         DataElement de = prototypes.get(i);
+         if (ordinals.containsKey(de.getParName()) == false)
+            ordinals.put(de.getParName(), i);
+         if (de.isLoadFromDocument()) de.addDocumentExpressions(expressions);
+         // Compile once, so all instances share the script.
+         if (de instanceof FunctionDataElement)
+            ((FunctionDataElement) de).getFunctionScript();
+      }
+      pathMatcher = PathMatcher.getInstance(expressions);
+   }
+
+   /**
+    * Gets the schema for the class of the passed document, building it from
+    * the document's data elements if this is the first instance of the class.
+    * Called by the {@link CDADocument} constructor.
+    *
+    * @param document new document instance.
+    * @return schema for the document's class.
+    */
+   static CDASchema getInstance(CDADocument document) {
+      synchronized (schemas) {
+         CDASchema schema = schemas.get(document.getClass());
+         if (schema == null) {
+            document.addDataElements();
+            schema = new CDASchema(document.getClass(), document.elements);
+            schemas.put(document.getClass(), schema);
+         }
+         return schema;
+      }
+   }
+
+   /**
+    * @return new data element instances for one document, in the same order
+    * as the prototypes.
+    */
+   List <DataElement> newDataElements() {
+      Map <DataElement, DataElement> instances = new IdentityHashMap <>();
+      List <DataElement> dataElements = new ArrayList <>(prototypes.size());
+      for (DataElement prototype : prototypes)
+         dataElements.add(prototype.newInstance(instances));
+      return dataElements;
+   }
+
+   /**
+    * @param parName parameter name of a data element.
+    * @return the ordinal of the first data element with parName, or -1 if
+    * there is none.
+    */
+   public int getOrdinal(String parName) {
+      Integer ordinal = ordinals.get(parName);
+      return ordinal == null ? -1 : ordinal;
+   }
+
+   /**
+    * @return the {@link #documentClass} value.
+    */
+   public Class <? extends CDADocument> getDocumentClass() {
+      return documentClass;
+   }
+
+   /**
+    * @return the {@link #prototypes} value, unmodifiable. These must not be
+    * loaded or changed.
+    */
+   public List <DataElement> getPrototypes() {
+      return prototypes;
+   }
+
+   /**
+    * @return the {@link #pathMatcher} value.
+    */
+   public PathMatcher getPathMatcher() {
+      return pathMatcher;
+   }
+
+   /**
+    * @return number of data elements.
+    */
+   public int size() {
+      return prototypes.size();
+   }
+
+} // EO CDASchema class
@@ -25,6 +25,7 @@ import org.javatuples.Pair;
 import edu.wustl.mir.erl.ihe.rfd.cda.CodedDataElement;
 import edu.wustl.mir.erl.ihe.rfd.cda.DataElement;
 import edu.wustl.mir.erl.ihe.rfd.cda.ValueDataElement;
+import edu.wustl.mir.erl.ihe.util.Template;
 import edu.wustl.mir.erl.ihe.util.Util;
 
 /**
@@ -54,13 +55,12 @@ public class HWS extends CDADocument {
 
    // ------------------------ Load master form for this document
    
-   private static String MASTER_FORM;
+   private static Template MASTER_FORM;
 
    static {
       try {
-         MASTER_FORM =
-            IOUtils.toString(HWS.class.getResource("HWSForm.html"),
-               CHAR_SET_UTF_8);
+         MASTER_FORM = Template.compile(IOUtils.toString(
+            HWS.class.getResource("HWSForm.html"), CHAR_SET_UTF_8));
       } catch (IOException e) {
          Util.exit(Util.getEM(e));
       }
@@ -71,6 +71,11 @@ public class HWS extends CDADocument {
     * Create new HWS instance
     */
    public HWS() {
+      super();
+   }
+
+   @Override
+   protected void addDataElements() {
 
       addDataElement(
          new CodedDataElement(
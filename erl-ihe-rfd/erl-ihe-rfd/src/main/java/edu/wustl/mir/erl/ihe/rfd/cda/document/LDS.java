@@ -8,6 +8,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.namespace.NamespaceContext;
 import javax.xml.namespace.QName;
@@ -26,8 +27,10 @@ import edu.wustl.mir.erl.ihe.rfd.cda.InValueSetTrigger;
 import edu.wustl.mir.erl.ihe.rfd.cda.PersonNameDataElement;
 import edu.wustl.mir.erl.ihe.rfd.cda.ProcedureDataElement;
 import edu.wustl.mir.erl.ihe.rfd.cda.SequenceDataElement;
+import edu.wustl.mir.erl.ihe.rfd.cda.Trigger;
 import edu.wustl.mir.erl.ihe.rfd.cda.ValueSet;
 import edu.wustl.mir.erl.ihe.rfd.cda.Variable;
+import edu.wustl.mir.erl.ihe.util.Template;
 import edu.wustl.mir.erl.ihe.util.Util;
 
 /**
@@ -57,12 +60,12 @@ public class LDS extends CDADocument {
 
    // ------------------------ Load master form for this document
 
-   private static String MASTER_FORM;
+   private static Template MASTER_FORM;
 
    static {
       try {
-         MASTER_FORM = IOUtils.toString(HWS.class.getResource("LDSForm.html"),
-            CHAR_SET_UTF_8);
+         MASTER_FORM = Template.compile(IOUtils.toString(
+            HWS.class.getResource("LDSForm.html"), CHAR_SET_UTF_8));
       } catch (IOException e) {
          Util.exit(Util.getEM(e));
       }
@@ -72,6 +75,11 @@ public class LDS extends CDADocument {
     * Create new LDS instance
     */
    public LDS() {
+      super();
+   }
+
+   @Override
+   protected void addDataElements() {
       
       try {
       // @formatter:off
@@ -1694,6 +1702,9 @@ public class LDS extends CDADocument {
    public class Aven1Trigger extends InValueSetTrigger {
       private static final long serialVersionUID = 1L;
 
+      /** Infant date of birth data element. */
+      private DataElement idob;
+
       /**
        * Create Aven1Trigger instance
        * 
@@ -1701,6 +1712,22 @@ public class LDS extends CDADocument {
        */
       public Aven1Trigger() throws Exception {
          super(ValueSet.getValueSetForName("Assisted Ventilation (NCHS)"));
+         idob = getDataElementByName("idob");
+      }
+
+      private Aven1Trigger(Aven1Trigger other, DataElement idob) {
+         valuesets = other.valuesets;
+         matchOID = other.matchOID;
+         this.idob = idob;
+      }
+
+      /**
+       * Each instance refers to the infant date of birth of its document.
+       */
+      @Override
+      public Trigger newInstance(Map <DataElement, DataElement> instances) {
+         return new Aven1Trigger(this,
+            idob == null ? null : idob.newInstance(instances));
       }
 
       @Override
@@ -1714,7 +1741,7 @@ public class LDS extends CDADocument {
          if (super.trigger(pde, msg) == false) return false;
          SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMddHHmmss");
          try {
-            Date btime = sdf.parse(getDataElementByName("idob").getValue());
+            Date btime = sdf.parse(idob.getValue());
             Date stime = sdf.parse(pde.getInterval().getValue());
             long i = stime.getTime() - btime.getTime();
             if (i < (1000 * 60 * 5)) return true;
@@ -1794,6 +1821,22 @@ public class LDS extends CDADocument {
 
       }
 
+      private BplaceTrigger(BplaceTrigger other) {
+         valuesets = other.valuesets;
+         matchOID = other.matchOID;
+         sets = new ArrayList <>();
+         for (MutablePair <ValueSet, Boolean> set : other.sets)
+            sets.add(new MutablePair <ValueSet, Boolean>(set.getLeft(), false));
+      }
+
+      /**
+       * Each instance records which Value Sets its document matched.
+       */
+      @Override
+      public Trigger newInstance(Map <DataElement, DataElement> instances) {
+         return new BplaceTrigger(this);
+      }
+
       @Override
       public boolean trigger(DataElement dataElement, StringBuilder msg) {
          if ((dataElement instanceof ProcedureDataElement) == false) {
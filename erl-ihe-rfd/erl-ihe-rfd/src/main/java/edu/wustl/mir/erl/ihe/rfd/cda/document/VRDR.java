@@ -19,6 +19,7 @@ import edu.wustl.mir.erl.ihe.rfd.cda.IntervalDataElement;
 import edu.wustl.mir.erl.ihe.rfd.cda.PersonNameDataElement;
 import edu.wustl.mir.erl.ihe.rfd.cda.SequenceDataElement;
 import edu.wustl.mir.erl.ihe.util.TS;
+import edu.wustl.mir.erl.ihe.util.Template;
 import edu.wustl.mir.erl.ihe.util.Util;
 
 /**
@@ -48,13 +49,12 @@ public class VRDR extends CDADocument {
 
    // ------------------------ Load master form for this document
 
-   private static String MASTER_FORM;
+   private static Template MASTER_FORM;
 
    static {
       try {
-         MASTER_FORM =
-            IOUtils.toString(HWS.class.getResource("VRDRForm.html"),
-               CHAR_SET_UTF_8);
+         MASTER_FORM = Template.compile(IOUtils.toString(
+            HWS.class.getResource("VRDRForm.html"), CHAR_SET_UTF_8));
       } catch (IOException e) {
          Util.exit(Util.getEM(e));
       }
@@ -64,6 +64,11 @@ public class VRDR extends CDADocument {
     * Creates new VRDR instance
     */
    public VRDR() {
+      super();
+   }
+
+   @Override
+   protected void addDataElements() {
 
       addDataElement(
          new IntervalDataElement(
@@ -225,7 +230,7 @@ public class VRDR extends CDADocument {
             "//nl:section[nl:templateId[@root='1.3.6.1.4.1.19376.1.7.3.1.3.23.2']]/nl:entry/nl:organizer[nl:templateId[@root='2.16.840.1.113883.10.20.26.1.9']]/nl:component/nl:observation[nl:code[@code='69451-3']]/nl:value",
             "2.16.840.1.113883.6.96", "SNOMED-CT"));
 
-   } // EO no argument constructor
+   } // EO addDataElements method
 
    /*
     * (non-Javadoc)
@@ -27,6 +27,7 @@ import edu.wustl.mir.erl.ihe.rfd.cda.ValueSet;
 import edu.wustl.mir.erl.ihe.rfd.cda.ValueSet.Code;
 import edu.wustl.mir.erl.ihe.rfd.cda.Variable;
 import edu.wustl.mir.erl.ihe.util.TS;
+import edu.wustl.mir.erl.ihe.util.Template;
 import edu.wustl.mir.erl.ihe.util.Util;
 
 /**
@@ -57,17 +58,15 @@ public class VRDRPrepop extends CDADocument {
 
    // ------------------------ Load master form for this document
 
-   private static String MASTER_FORM;
-   private static String SHORT_FORM;
+   private static Template MASTER_FORM;
+   private static Template SHORT_FORM;
 
    static {
       try {
-         MASTER_FORM =
-            IOUtils.toString(HWS.class.getResource("VRDRMasterForm.html"),
-               CHAR_SET_UTF_8);
-         SHORT_FORM =
-            IOUtils.toString(HWS.class.getResource("VRDRShortForm.html"),
-               CHAR_SET_UTF_8);
+         MASTER_FORM = Template.compile(IOUtils.toString(
+            HWS.class.getResource("VRDRMasterForm.html"), CHAR_SET_UTF_8));
+         SHORT_FORM = Template.compile(IOUtils.toString(
+            HWS.class.getResource("VRDRShortForm.html"), CHAR_SET_UTF_8));
       } catch (IOException e) {
          Util.exit(Util.getEM(e));
       }
@@ -77,6 +76,11 @@ public class VRDRPrepop extends CDADocument {
     * Creates new VRDRPrepop instance
     */
    public VRDRPrepop() {
+      super();
+   }
+
+   @Override
+   protected void addDataElements() {
 
       
       try {
@@ -379,7 +383,7 @@ public class VRDRPrepop extends CDADocument {
       Util.exit(Util.getEM(e));
    }
       
-   } // EO no argument constructor
+   } // EO addDataElements method
 
    /**
     * If the data used to populate the form is from an MS-VRDR pre-population 
@@ -474,7 +478,8 @@ public class VRDRPrepop extends CDADocument {
    
    /**
     * Determines if the passed {@link Element} is the root ClinicalDocument
-    * element of a valid VRDR Prepop CDA document.
+    * element of a valid VRDR Prepop CDA document. Loads only the data
+    * elements needed to determine the type.
     * @param element element to evaluate
     * @return {@link PREPOP_DOCUMENT_TYPE}
     */
@@ -482,7 +487,7 @@ public class VRDRPrepop extends CDADocument {
       if (element == null) return PREPOP_DOCUMENT_TYPE.INVALID;
       VRDRPrepop v = new VRDRPrepop();
       try {
-         v.loadValue(element);
+         v.loadValue(element, "prepopDocument$roots", "prepopDocument");
       } catch (Exception e) {
          Util.getLog().warn(Util.getEM(e));
          return PREPOP_DOCUMENT_TYPE.INVALID;
@@ -29,7 +29,6 @@ import javax.xml.ws.BindingType;
 import javax.xml.ws.soap.SOAPFaultException;
 
 import org.apache.commons.configuration.HierarchicalConfiguration;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Level;
 
 import edu.wustl.mir.erl.ihe.util.Result;
@@ -39,6 +38,7 @@ import edu.wustl.mir.erl.ihe.util.StatusType;
 import edu.wustl.mir.erl.ihe.util.StatusUpdateType;
 import edu.wustl.mir.erl.ihe.util.TestFailException;
 import edu.wustl.mir.erl.ihe.util.Util;
+import edu.wustl.mir.erl.ihe.ws.db.LogTransaction;
 import edu.wustl.mir.erl.ihe.ws.server.WSServerTest;
 
 /**
@@ -58,34 +58,21 @@ public class FormManagerSimulator extends WSServerTest implements
    FormManagerPortType {
    private static final long serialVersionUID = 1L;
 
-   private Map <String, FormManagerTest> tests = new HashMap <>();
+   private Map <String, TestFactory <FormManagerTest>> tests =
+      new HashMap <>();
 
    @Override
    public void addTests(List <HierarchicalConfiguration> testsProperties)
       throws Exception {
       for (HierarchicalConfiguration testProperties : testsProperties) {
-         String fid = testProperties.getString("[@formId]");
-         if (StringUtils.isBlank(fid))
-            throw new Exception("invalid Test.formId");
+         TestFactory <FormManagerTest> factory =
+            new TestFactory <>(testProperties, FormManagerTest.class);
+         String fid = factory.getFormId();
          if (tests.containsKey(fid))
             throw new Exception("Duplicate Test.formId");
          log.info("Loading Test ID: " + fid);
-         String tcn = testProperties.getString("[@class]");
-         if (StringUtils.isBlank(tcn))
-            throw new Exception("fid: " + fid + " - invalid Test.class");
-         log.info(" test class: " + tcn);
-         Class <?> tc = null;
-         try {
-            tc = Class.forName(tcn, false, ClassLoader.getSystemClassLoader());
-         } catch (ClassNotFoundException cnfe) {
-            throw new Exception("fid: " + fid
-               + " - Could not load endpoint class: " + tcn);
-         }
-         if (FormManagerTest.class.isAssignableFrom(tc) == false)
-            throw new Exception("fid: " + fid + " class " + tcn
-               + " does not extend " + FormManagerTest.class.getCanonicalName());
-         FormManagerTest test = (FormManagerTest) tc.newInstance();
-         tests.put(fid, test);
+         log.info(" test class: " + factory.getTestClass().getName());
+         tests.put(fid, factory);
       } // EO process tests loop
       if (tests.isEmpty())
          throw new Exception("FormManagerSimulator, no valid tests");
@@ -101,7 +88,7 @@ public class FormManagerSimulator extends WSServerTest implements
    @Override
    public RetrieveFormResponseType formManagerRetrieveForm(
       RetrieveFormRequestType request) throws SOAPFaultException {
-      setup();
+      LogTransaction logTrans = setup();
       Util.invoked(log);
 
       // ------------------------ Pull workflow data
@@ -115,10 +102,16 @@ public class FormManagerSimulator extends WSServerTest implements
          throw new SOAPFaultException(senderFault(TSTStatus.UFI_FORMID_NULL));
 
       // -------------------------- Pull test
-      FormManagerTest test = tests.get(fid);
-      if (test == null)
+      TestFactory <FormManagerTest> factory = tests.get(fid);
+      if (factory == null)
          throw new SOAPFaultException(senderFault(TSTStatus.UFI_FORMID_INV));
-      test.setup(wsLogTransaction);
+      FormManagerTest test = null;
+      try {
+         test = factory.newTest(logTrans);
+      } catch (Exception e) {
+         log.warn(Util.getEM(e));
+         throw new SOAPFaultException(receiverFault(TSTStatus.SRV_TEST));
+      }
       RetrieveFormResponseType response = null;
       try {
          response = test.formManagerRetrieveForm(request);
@@ -150,31 +143,37 @@ public class FormManagerSimulator extends WSServerTest implements
    @SuppressWarnings("javadoc")
    public enum TSTStatus implements Status {
 
-      TST_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_FAIL(1, Phase.TST, Result.FAIL, Level.DEBUG,
          "one or more test requirement failures"),
 
-      TST_RETRIEVE(Phase.TST, Result.FAIL, Level.WARN,
+      SRV_TEST(2, Phase.SRV, Result.FAIL, Level.ERROR,
+         "could not create test instance"),
+
+      TST_RETRIEVE(3, Phase.TST, Result.FAIL, Level.WARN,
          "formManagerRetrieveClarification not part of this test"),
 
-      TST_CLARIFICATION(Phase.TST, Result.FAIL, Level.WARN,
+      TST_CLARIFICATION(4, Phase.TST, Result.FAIL, Level.WARN,
          "formManagerRetrieveForm not part of this test"),
 
-      RIM_WORKFLOW_NULL(Phase.RIM, Result.FAIL, Level.WARN,
+      RIM_WORKFLOW_NULL(5, Phase.RIM, Result.FAIL, Level.WARN,
          "workFlowData null"),
 
-      UFI_FORMID_NULL(Phase.UFI, Result.FAIL, Level.WARN, "formID null"),
+      UFI_FORMID_NULL(6, Phase.UFI, Result.FAIL, Level.WARN, "formID null"),
 
-      UFI_FORMID_INV(Phase.UFI, Result.FAIL, Level.DEBUG,
+      UFI_FORMID_INV(7, Phase.UFI, Result.FAIL, Level.DEBUG,
          "Unknown or invalid formID");
 
+      private final int id;
       private Phase phase;
       private Result result;
       private Level logLevel;
       private String statusMsg;
 
       private static final String setCode = "FMSim";
+      private static final int setId = 10;
 
-      private TSTStatus(Phase ph, Result pf, Level ll, String msg) {
+      private TSTStatus(int id, Phase ph, Result pf, Level ll, String msg) {
+         this.id = id;
          phase = ph;
          result = pf;
          logLevel = ll;
@@ -216,6 +215,11 @@ public class FormManagerSimulator extends WSServerTest implements
          return phase.phaseMsg;
       }
 
+      @Override
+      public int getId() {
+         return id;
+      }
+
       @Override
       public String getSetCode() {
          return setCode;
@@ -237,7 +241,7 @@ public class FormManagerSimulator extends WSServerTest implements
 
       // ----------------------- Phases for this status code
       static {
-         StatusHelper.addCodeSet(setCode, TSTStatus.class);
+         StatusHelper.addCodeSet(setCode, setId, TSTStatus.class);
       }
    } // EO TSTStatus enum
 
@@ -41,6 +41,7 @@ import edu.wustl.mir.erl.ihe.util.StatusType;
 import edu.wustl.mir.erl.ihe.util.StatusUpdateType;
 import edu.wustl.mir.erl.ihe.util.TestFailException;
 import edu.wustl.mir.erl.ihe.util.Util;
+import edu.wustl.mir.erl.ihe.ws.db.LogTransaction;
 import edu.wustl.mir.erl.ihe.ws.server.WSServerTest;
 
 /**
@@ -60,35 +61,21 @@ public class FormProcessorSimulator extends WSServerTest implements
    FormProcessorPortType {
    private static final long serialVersionUID = 1L;
 
-   private Map <String, FormProcessorTest> tests = new HashMap <>();
+   private Map <String, TestFactory <FormProcessorTest>> tests =
+      new HashMap <>();
 
    @Override
    public void addTests(List <HierarchicalConfiguration> testsProperties)
       throws Exception {
       for (HierarchicalConfiguration testProperties : testsProperties) {
-         String fid = testProperties.getString("[@formId]");
-         if (StringUtils.isBlank(fid))
-            throw new Exception("invalid Test.formId");
+         TestFactory <FormProcessorTest> factory =
+            new TestFactory <>(testProperties, FormProcessorTest.class);
+         String fid = factory.getFormId();
          if (tests.containsKey(fid))
             throw new Exception("Duplicate Test.formId");
          log.info("Loading Test ID: " + fid);
-         String tcn = testProperties.getString("[@class]");
-         if (StringUtils.isBlank(tcn))
-            throw new Exception("fid: " + fid + " - invalid Test.class");
-         log.info(" test class: " + tcn);
-         Class <?> tc = null;
-         try {
-            tc = Class.forName(tcn, false, ClassLoader.getSystemClassLoader());
-         } catch (ClassNotFoundException cnfe) {
-            throw new Exception("fid: " + fid
-               + " - Could not load endpoint class: " + tcn);
-         }
-         if (FormProcessorTest.class.isAssignableFrom(tc) == false)
-            throw new Exception("fid: " + fid + " class " + tcn
-               + " does not extend "
-               + FormProcessorTest.class.getCanonicalName());
-         FormProcessorTest test = (FormProcessorTest) tc.newInstance();
-         tests.put(fid, test);
+         log.info(" test class: " + factory.getTestClass().getName());
+         tests.put(fid, factory);
       } // EO process tests loop
       if (tests.isEmpty())
          throw new Exception("FormReceiverSimulator, no valid tests");
@@ -96,7 +83,7 @@ public class FormProcessorSimulator extends WSServerTest implements
 
    @Override
    public SubmitFormResponseType submitForm(AnyXMLContentType request) {
-      setup();
+      LogTransaction logTrans = setup();
       Util.invoked(log);
 
       if (request == null)
@@ -114,10 +101,16 @@ public class FormProcessorSimulator extends WSServerTest implements
                break;
             }
          }
-         FormProcessorTest test = tests.get(fid);
-         if (test == null)
+         TestFactory <FormProcessorTest> factory = tests.get(fid);
+         if (factory == null)
             throw new SOAPFaultException(senderFault(TSTStatus.UFI_FORMID_NULL));
-         test.setup(wsLogTransaction);
+         FormProcessorTest test = null;
+         try {
+            test = factory.newTest(logTrans);
+         } catch (Exception e) {
+            log.warn(Util.getEM(e));
+            throw new SOAPFaultException(receiverFault(TSTStatus.SRV_TEST));
+         }
          try {
             response = test.submitForm(request);
          } catch (UnsupportedOperationException uoe) {
@@ -142,7 +135,7 @@ public class FormProcessorSimulator extends WSServerTest implements
    @Override
    public RetrieveFormResponseType formProcessorRetrieveForm(
       RetrieveFormRequestType request)  throws SOAPFaultException {
-      setup();
+      LogTransaction logTrans = setup();
       Util.invoked(log);
 
       // ------------------------ Pull workflow data
@@ -156,10 +149,16 @@ public class FormProcessorSimulator extends WSServerTest implements
          throw new SOAPFaultException(senderFault(TSTStatus.UFI_FORMID_NULL));
 
       // -------------------------- Pull test
-      FormProcessorTest test = tests.get(fid);
-      if (test == null)
+      TestFactory <FormProcessorTest> factory = tests.get(fid);
+      if (factory == null)
          throw new SOAPFaultException(senderFault(TSTStatus.UFI_FORMID_INV));
-      test.setup(wsLogTransaction);
+      FormProcessorTest test = null;
+      try {
+         test = factory.newTest(logTrans);
+      } catch (Exception e) {
+         log.warn(Util.getEM(e));
+         throw new SOAPFaultException(receiverFault(TSTStatus.SRV_TEST));
+      }
       RetrieveFormResponseType response = null;
       try {
          response = test.formProcessorRetrieveForm(request);
@@ -191,37 +190,43 @@ public class FormProcessorSimulator extends WSServerTest implements
    @SuppressWarnings("javadoc")
    public enum TSTStatus implements Status {
       
-      RIM_UNRECOGNIZED_DATA(Phase.TST, Result.FAIL, Level.WARN,
+      RIM_UNRECOGNIZED_DATA(1, Phase.TST, Result.FAIL, Level.WARN,
          "Cannot recognize the posted data"),
 
-      TST_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_FAIL(2, Phase.TST, Result.FAIL, Level.DEBUG,
          "one or more test requirement failures"),
 
-      TST_RETRIEVE(Phase.TST, Result.FAIL, Level.WARN,
+      SRV_TEST(3, Phase.SRV, Result.FAIL, Level.ERROR,
+         "could not create test instance"),
+
+      TST_RETRIEVE(4, Phase.TST, Result.FAIL, Level.WARN,
          "formManagerRetrieveClarification not part of this test"),
 
-      TST_CLARIFICATION(Phase.TST, Result.FAIL, Level.WARN,
+      TST_CLARIFICATION(5, Phase.TST, Result.FAIL, Level.WARN,
          "formManagerRetrieveForm not part of this test"),
          
-      TST_SUBMIT(Phase.TST, Result.FAIL, Level.WARN,
+      TST_SUBMIT(6, Phase.TST, Result.FAIL, Level.WARN,
          "submitForm not part of this test"),
 
-      RIM_WORKFLOW_NULL(Phase.RIM, Result.FAIL, Level.WARN,
+      RIM_WORKFLOW_NULL(7, Phase.RIM, Result.FAIL, Level.WARN,
          "workFlowData null"),
 
-      UFI_FORMID_NULL(Phase.UFI, Result.FAIL, Level.WARN, "formID null"),
+      UFI_FORMID_NULL(8, Phase.UFI, Result.FAIL, Level.WARN, "formID null"),
 
-      UFI_FORMID_INV(Phase.UFI, Result.FAIL, Level.DEBUG,
+      UFI_FORMID_INV(9, Phase.UFI, Result.FAIL, Level.DEBUG,
          "Unknown or invalid formID");
 
+      private final int id;
       private Phase phase;
       private Result result;
       private Level logLevel;
       private String statusMsg;
 
-      private static final String setCode = "FMSim";
+      private static final String setCode = "FPSim";
+      private static final int setId = 11;
 
-      private TSTStatus(Phase ph, Result pf, Level ll, String msg) {
+      private TSTStatus(int id, Phase ph, Result pf, Level ll, String msg) {
+         this.id = id;
          phase = ph;
          result = pf;
          logLevel = ll;
@@ -263,6 +268,11 @@ public class FormProcessorSimulator extends WSServerTest implements
          return phase.phaseMsg;
       }
 
+      @Override
+      public int getId() {
+         return id;
+      }
+
       @Override
       public String getSetCode() {
          return setCode;
@@ -284,7 +294,7 @@ public class FormProcessorSimulator extends WSServerTest implements
 
       // ----------------------- Phases for this status code
       static {
-         StatusHelper.addCodeSet(setCode, TSTStatus.class);
+         StatusHelper.addCodeSet(setCode, setId, TSTStatus.class);
       }
    } // EO TSTStatus enum
 
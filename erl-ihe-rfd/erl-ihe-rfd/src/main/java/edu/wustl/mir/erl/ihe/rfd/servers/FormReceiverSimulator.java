@@ -37,6 +37,7 @@ import edu.wustl.mir.erl.ihe.util.StatusType;
 import edu.wustl.mir.erl.ihe.util.StatusUpdateType;
 import edu.wustl.mir.erl.ihe.util.TestFailException;
 import edu.wustl.mir.erl.ihe.util.Util;
+import edu.wustl.mir.erl.ihe.ws.db.LogTransaction;
 import edu.wustl.mir.erl.ihe.ws.server.WSServerTest;
 
 /**
@@ -56,34 +57,21 @@ public class FormReceiverSimulator extends WSServerTest implements
    RFDFormReceiverPortType {
    private static final long serialVersionUID = 1L;
    
-   private Map<String, FormReceiverTest> tests = new HashMap<>();
+   private Map <String, TestFactory <FormReceiverTest>> tests =
+      new HashMap <>();
 
    @Override
    public void addTests(List <HierarchicalConfiguration> testsProperties)
       throws Exception {
       for (HierarchicalConfiguration testProperties : testsProperties) {
-         String fid = testProperties.getString("[@formId]");
-         if (StringUtils.isBlank(fid))
-            throw new Exception("invalid Test.formId");
+         TestFactory <FormReceiverTest> factory =
+            new TestFactory <>(testProperties, FormReceiverTest.class);
+         String fid = factory.getFormId();
          if (tests.containsKey(fid))
             throw new Exception("Duplicate Test.formId");
          log.info("Loading Test ID: " + fid);
-         String tcn = testProperties.getString("[@class]");
-         if (StringUtils.isBlank(tcn))
-            throw new Exception("fid: " + fid + " - invalid Test.class");
-         log.info(" test class: " + tcn);
-         Class <?> tc = null;
-         try {
-            tc = Class.forName(tcn, false, ClassLoader.getSystemClassLoader());
-         } catch (ClassNotFoundException cnfe) {
-            throw new Exception("fid: " + fid
-               + " - Could not load endpoint class: " + tcn);
-         }
-         if (FormReceiverTest.class.isAssignableFrom(tc) == false)
-            throw new Exception("fid: " + fid + " class " + tcn
-               + " does not extend " + FormReceiverTest.class.getCanonicalName());
-         FormReceiverTest test = (FormReceiverTest) tc.newInstance();
-         tests.put(fid, test);
+         log.info(" test class: " + factory.getTestClass().getName());
+         tests.put(fid, factory);
       } // EO process tests loop
       if (tests.isEmpty())
          throw new Exception("FormReceiverSimulator, no valid tests");
@@ -91,7 +79,7 @@ public class FormReceiverSimulator extends WSServerTest implements
 
    @Override
    public SubmitFormResponseType submitForm(AnyXMLContentType body) {
-      setup();
+      LogTransaction logTrans = setup();
       Util.invoked(log);
 
       if (body == null)
@@ -109,10 +97,16 @@ public class FormReceiverSimulator extends WSServerTest implements
                break;
             }
          }
-         FormReceiverTest test = tests.get(fid);
-         if (test == null)
+         TestFactory <FormReceiverTest> factory = tests.get(fid);
+         if (factory == null)
             throw new SOAPFaultException(senderFault(TSTStatus.TST_INV_FORMID));
-         test.setup(wsLogTransaction);
+         FormReceiverTest test = null;
+         try {
+            test = factory.newTest(logTrans);
+         } catch (Exception e) {
+            log.warn(Util.getEM(e));
+            throw new SOAPFaultException(receiverFault(TSTStatus.SRV_TEST));
+         }
          try {
             response = test.submitForm(body);
          } catch (UnsupportedOperationException uoe) {
@@ -133,26 +127,32 @@ public class FormReceiverSimulator extends WSServerTest implements
    @SuppressWarnings("javadoc")
    public enum TSTStatus implements Status {
       
-      RIM_UNRECOGNIZED_DATA(Phase.TST, Result.FAIL, Level.WARN,
+      RIM_UNRECOGNIZED_DATA(1, Phase.TST, Result.FAIL, Level.WARN,
          "Cannot recognize the posted data"),
 
-      TST_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_FAIL(2, Phase.TST, Result.FAIL, Level.DEBUG,
          "one or more test requirement failures"),
+
+      SRV_TEST(3, Phase.SRV, Result.FAIL, Level.ERROR,
+         "could not create test instance"),
       
-      TST_SUBMIT(Phase.TST, Result.FAIL, Level.WARN,
+      TST_SUBMIT(4, Phase.TST, Result.FAIL, Level.WARN,
          "submitForm not part of this test"),
 
-      TST_INV_FORMID(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_INV_FORMID(5, Phase.TST, Result.FAIL, Level.DEBUG,
          "Missing/invalid test form ID");
 
+      private final int id;
       private Phase phase;
       private Result result;
       private Level logLevel;
       private String statusMsg;
 
       private static final String setCode = "RFSim";
+      private static final int setId = 12;
 
-      private TSTStatus(Phase ph, Result pf, Level ll, String msg) {
+      private TSTStatus(int id, Phase ph, Result pf, Level ll, String msg) {
+         this.id = id;
          phase = ph;
          result = pf;
          logLevel = ll;
@@ -189,6 +189,11 @@ public class FormReceiverSimulator extends WSServerTest implements
          return phase.phaseMsg;
       }
 
+      @Override
+      public int getId() {
+         return id;
+      }
+
       @Override
       public String getSetCode() {
          return setCode;
@@ -205,7 +210,7 @@ public class FormReceiverSimulator extends WSServerTest implements
 
       // ----------------------- Phases for this status code
       static {
-         StatusHelper.addCodeSet(setCode, TSTStatus.class);
+         StatusHelper.addCodeSet(setCode, setId, TSTStatus.class);
       }
 
       @Override
@@ -21,7 +21,6 @@ import javax.xml.soap.Detail;
 import javax.xml.soap.DetailEntry;
 import javax.xml.soap.SOAPConstants;
 import javax.xml.soap.SOAPException;
-import javax.xml.soap.SOAPFactory;
 import javax.xml.soap.SOAPFault;
 
 import org.apache.commons.lang3.StringUtils;
@@ -33,6 +32,7 @@ import edu.wustl.mir.erl.ihe.util.Status;
 import edu.wustl.mir.erl.ihe.util.StatusType;
 import edu.wustl.mir.erl.ihe.util.StatusUpdateType;
 import edu.wustl.mir.erl.ihe.util.Util;
+import edu.wustl.mir.erl.ihe.util.XmlFactories;
 import edu.wustl.mir.erl.ihe.ws.WSProperties;
 import edu.wustl.mir.erl.ihe.ws.db.LogTransaction;
 import edu.wustl.mir.erl.ihe.ws.db.WSLog;
@@ -69,7 +69,7 @@ public class Test implements Serializable , WSProperties {
       try {
             wsLog.addStatus(status);
          SOAPFault fault =
-            (SOAPFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL))
+            XmlFactories.getSOAPFactory(SOAPConstants.SOAP_1_2_PROTOCOL)
                .createFault(status.getPhaseMsg(),
                   SOAPConstants.SOAP_SENDER_FAULT);
          Detail detail = fault.addDetail();
@@ -93,7 +93,7 @@ public class Test implements Serializable , WSProperties {
          
             wsLog.addStatus(status);
          SOAPFault fault =
-            (SOAPFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL))
+            XmlFactories.getSOAPFactory(SOAPConstants.SOAP_1_2_PROTOCOL)
                .createFault(status.getPhaseMsg(),
                   SOAPConstants.SOAP_RECEIVER_FAULT);
          Detail detail = fault.addDetail();
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ ******************************************************************************/
+package edu.wustl.mir.erl.ihe.rfd.servers;
+
+import java.io.Serializable;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.lang3.StringUtils;
+
+import edu.wustl.mir.erl.ihe.ws.db.LogTransaction;
+
+/**
+ * Creates {@link Test} instances for one formId of a server simulator. A
+ * {@link Test} holds the state of the transaction it is processing, so the
+ * simulators create a new instance for each request from the factory for the
+ * requested formId, rather than sharing one instance between concurrent
+ * requests.
+ *
+ * @param <T> Test subclass for the simulator, for example
+ * {@link FormManagerTest}.
+ */
+public class TestFactory <T extends Test> implements Serializable {
+   private static final long serialVersionUID = 1L;
+
+   private final String formId;
+   private final Class <? extends T> testClass;
+
+   /**
+    * Loads the test class named by a Test element of the simulator properties,
+    * and checks that it can be instantiated.
+    *
+    * @param testProperties Test element, with formId and class attributes.
+    * @param baseClass the class test classes for this simulator must extend.
+    * @throws Exception if the formId or class are missing or invalid.
+    */
+   public TestFactory(HierarchicalConfiguration testProperties,
+      Class <T> baseClass) throws Exception {
+      String fid = testProperties.getString("[@formId]");
+      if (StringUtils.isBlank(fid))
+         throw new Exception("invalid Test.formId");
+      String tcn = testProperties.getString("[@class]");
+      if (StringUtils.isBlank(tcn))
+         throw new Exception("fid: " + fid + " - invalid Test.class");
+      Class <?> tc = null;
+      try {
+         tc = Class.forName(tcn, false, ClassLoader.getSystemClassLoader());
+      } catch (ClassNotFoundException cnfe) {
+         throw new Exception("fid: " + fid
+            + " - Could not load endpoint class: " + tcn);
+      }
+      if (baseClass.isAssignableFrom(tc) == false)
+         throw new Exception("fid: " + fid + " class " + tcn
+            + " does not extend " + baseClass.getCanonicalName());
+      formId = fid;
+      testClass = tc.asSubclass(baseClass);
+      // Fail at startup, not on the first request, if it can't be created.
+      create();
+   }
+
+   private T create() throws Exception {
+      try {
+         return testClass.newInstance();
+      } catch (InstantiationException | IllegalAccessException e) {
+         throw new Exception("fid: " + formId + " - Could not instantiate "
+            + testClass.getName() + ": " + e.getMessage());
+      }
+   }
+
+   /**
+    * Creates a test instance for one request.
+    *
+    * @param logTrans {@link LogTransaction} for the request, passed to
+    * {@link Test#setup(LogTransaction)}.
+    * @return new test instance, set up for the request.
+    * @throws Exception if the instance can not be created.
+    */
+   public T newTest(LogTransaction logTrans) throws Exception {
+      T test = create();
+      test.setup(logTrans);
+      return test;
+   }
+
+   /**
+    * @return the {@link #formId} value.
+    */
+   public String getFormId() {
+      return formId;
+   }
+
+   /**
+    * @return the {@link #testClass} value.
+    */
+   public Class <? extends T> getTestClass() {
+      return testClass;
+   }
+
+} // EO TestFactory class
@@ -158,56 +158,59 @@ public class FormManager extends FormManagerTest {
    @SuppressWarnings("javadoc")
    public enum TSTStatus implements Status {
 
-      TST_PREPOP_LDS_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_PREPOP_LDS_FAIL(1, Phase.TST, Result.FAIL, Level.DEBUG,
          "pre-population data is CDA LDS document: FAIL"),
 
-      TST_PREPOP_LDS_PASS(Phase.TST, Result.PASS, Level.TRACE,
+      TST_PREPOP_LDS_PASS(2, Phase.TST, Result.PASS, Level.TRACE,
          "pre-population data is CDA LDS document: PASS"),
 
-      TST_FORMID_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_FORMID_FAIL(3, Phase.TST, Result.FAIL, Level.DEBUG,
          "workflowData.formId is RFD 0-10000-FF: FAIL"),
 
-      TST_FORMID_PASS(Phase.TST, Result.PASS, Level.TRACE,
+      TST_FORMID_PASS(4, Phase.TST, Result.PASS, Level.TRACE,
          "workflowData.formId is RFD 0-10000-FF: PASS"),
 
-      TST_ENCODED_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_ENCODED_FAIL(5, Phase.TST, Result.FAIL, Level.DEBUG,
          "workflowData.encodedResponse is false: FAIL"),
 
-      TST_ENCODED_PASS(Phase.TST, Result.PASS, Level.TRACE,
+      TST_ENCODED_PASS(6, Phase.TST, Result.PASS, Level.TRACE,
          "workflowData.encodedResponse is false: PASS"),
 
-      TST_ARCH_URL_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_ARCH_URL_FAIL(7, Phase.TST, Result.FAIL, Level.DEBUG,
          "workflowData.archiveURL is null: FAIL"),
 
-      TST_ARCH_URL_PASS(Phase.TST, Result.PASS, Level.TRACE,
+      TST_ARCH_URL_PASS(8, Phase.TST, Result.PASS, Level.TRACE,
          "workflowData.archiveURL is null: PASS"),
 
-      TST_CONTXT_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_CONTXT_FAIL(9, Phase.TST, Result.FAIL, Level.DEBUG,
          "workflowData.context is null: FAIL"),
 
-      TST_CONTXT_PASS(Phase.TST, Result.PASS, Level.TRACE,
+      TST_CONTXT_PASS(10, Phase.TST, Result.PASS, Level.TRACE,
          "workflowData.context is null: PASS"),
 
-      TST_INSTANCEID_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_INSTANCEID_FAIL(11, Phase.TST, Result.FAIL, Level.DEBUG,
          "workflowData.instanceID is null: FAIL"),
 
-      TST_INSTANCEID_PASS(Phase.TST, Result.PASS, Level.TRACE,
+      TST_INSTANCEID_PASS(12, Phase.TST, Result.PASS, Level.TRACE,
          "workflowData.instanceID is null: PASS"),
 
-      TST_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_FAIL(13, Phase.TST, Result.FAIL, Level.DEBUG,
          "one or more test requirement failures"),
 
-      TST_CLARIFICATION(Phase.TST, Result.FAIL, Level.WARN,
+      TST_CLARIFICATION(14, Phase.TST, Result.FAIL, Level.WARN,
          "formManagerRetrieveClarification not part of this test");
 
+      private final int id;
       private Phase phase;
       private Result result;
       private Level logLevel;
       private String statusMsg;
 
       private static final String setCode = TEST_ID + "_FM";
+      private static final int setId = 20;
 
-      private TSTStatus(Phase ph, Result pf, Level ll, String msg) {
+      private TSTStatus(int id, Phase ph, Result pf, Level ll, String msg) {
+         this.id = id;
          phase = ph;
          result = pf;
          logLevel = ll;
@@ -249,6 +252,11 @@ public class FormManager extends FormManagerTest {
          return phase.phaseMsg;
       }
 
+      @Override
+      public int getId() {
+         return id;
+      }
+
       @Override
       public String getSetCode() {
          return setCode;
@@ -270,7 +278,7 @@ public class FormManager extends FormManagerTest {
 
       // ----------------------- Phases for this status code
       static {
-         StatusHelper.addCodeSet(setCode, TSTStatus.class);
+         StatusHelper.addCodeSet(setCode, setId, TSTStatus.class);
       }
    } // EO TSTStatus enum
 
@@ -57,18 +57,21 @@ public class FormReceiver extends FormReceiverTest {
    public enum TSTStatus implements Status {
 
       //@formatter:off
-      RIM_UNRECOGNIZED_DATA(Phase.TST, Result.FAIL, Level.WARN, "Cannot recognize the posted data"), 
-      TST_FAIL(Phase.TST, Result.FAIL, Level.DEBUG, "one or more test requirement failures");
+      RIM_UNRECOGNIZED_DATA(1, Phase.TST, Result.FAIL, Level.WARN, "Cannot recognize the posted data"), 
+      TST_FAIL(2, Phase.TST, Result.FAIL, Level.DEBUG, "one or more test requirement failures");
       //@formatter:on
 
+      private final int id;
       private Phase phase;
       private Result result;
       private Level logLevel;
       private String statusMsg;
 
       private static final String setCode = TEST_ID + "_FR";
+      private static final int setId = 21;
 
-      private TSTStatus(Phase ph, Result pf, Level ll, String msg) {
+      private TSTStatus(int id, Phase ph, Result pf, Level ll, String msg) {
+         this.id = id;
          phase = ph;
          result = pf;
          logLevel = ll;
@@ -105,6 +108,11 @@ public class FormReceiver extends FormReceiverTest {
          return phase.phaseMsg;
       }
 
+      @Override
+      public int getId() {
+         return id;
+      }
+
       @Override
       public String getSetCode() {
          return setCode;
@@ -121,7 +129,7 @@ public class FormReceiver extends FormReceiverTest {
 
       // ----------------------- Phases for this status code
       static {
-         StatusHelper.addCodeSet(setCode, TSTStatus.class);
+         StatusHelper.addCodeSet(setCode, setId, TSTStatus.class);
       }
 
       @Override
@@ -41,6 +41,7 @@ import edu.wustl.mir.erl.ihe.util.Status;
 import edu.wustl.mir.erl.ihe.util.StatusHelper;
 import edu.wustl.mir.erl.ihe.util.StatusType;
 import edu.wustl.mir.erl.ihe.util.StatusUpdateType;
+import edu.wustl.mir.erl.ihe.util.Template;
 import edu.wustl.mir.erl.ihe.util.TestFailException;
 import edu.wustl.mir.erl.ihe.util.Util;
 import edu.wustl.mir.erl.ihe.util.XmlUtil;
@@ -171,13 +172,12 @@ public class FormManager extends FormManagerTest {
    private static final String FS_ID = "FS";
    private static final String TEST_ID = "RFD_1_10000";
    private static FileServer fileServer = WSServer.getFileServerById(FS_ID);
-   private static String MASTER_FORM;
+   private static Template MASTER_FORM;
 
    static {
       try {
-         MASTER_FORM =
-            IOUtils.toString(FormManager.class.getResource("Form.html"),
-               CHAR_SET_UTF_8);
+         MASTER_FORM = Template.compile(IOUtils.toString(
+            FormManager.class.getResource("Form.html"), CHAR_SET_UTF_8));
       } catch (IOException e) {
          Util.exit(Util.getEM(e));
       }
@@ -303,59 +303,62 @@ public class FormManager extends FormManagerTest {
    @SuppressWarnings("javadoc")
    public enum TSTStatus implements Status {
 
-      TST_PREPOP_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_PREPOP_FAIL(1, Phase.TST, Result.FAIL, Level.DEBUG,
          "pre-population data has <RFD><age> tag: FAIL"),
 
-      TST_PREPOP_PASS(Phase.TST, Result.PASS, Level.TRACE,
+      TST_PREPOP_PASS(2, Phase.TST, Result.PASS, Level.TRACE,
          "pre-population data has <RFD><age> tag: PASS"),
 
-      TST_AGE_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_AGE_FAIL(3, Phase.TST, Result.FAIL, Level.DEBUG,
          "prepop age integer 1-85: FAIL"),
 
-      TST_AGE_PASS(Phase.TST, Result.PASS, Level.TRACE,
+      TST_AGE_PASS(4, Phase.TST, Result.PASS, Level.TRACE,
          "prepop age integer 1-85: PASS"),
 
-      TST_ENCODED_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_ENCODED_FAIL(5, Phase.TST, Result.FAIL, Level.DEBUG,
          "workflowData.encodedResponse is false: FAIL"),
 
-      TST_ENCODED_PASS(Phase.TST, Result.PASS, Level.TRACE,
+      TST_ENCODED_PASS(6, Phase.TST, Result.PASS, Level.TRACE,
          "workflowData.encodedResponse is false: PASS"),
 
-      TST_ARCH_URL_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_ARCH_URL_FAIL(7, Phase.TST, Result.FAIL, Level.DEBUG,
          "workflowData.archiveURL is null: FAIL"),
 
-      TST_ARCH_URL_PASS(Phase.TST, Result.PASS, Level.TRACE,
+      TST_ARCH_URL_PASS(8, Phase.TST, Result.PASS, Level.TRACE,
          "workflowData.archiveURL is null: PASS"),
 
-      TST_CONTXT_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_CONTXT_FAIL(9, Phase.TST, Result.FAIL, Level.DEBUG,
          "workflowData.context is null: FAIL"),
 
-      TST_CONTXT_PASS(Phase.TST, Result.PASS, Level.TRACE,
+      TST_CONTXT_PASS(10, Phase.TST, Result.PASS, Level.TRACE,
          "workflowData.context is null: PASS"),
 
-      TST_INSTANCEID_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_INSTANCEID_FAIL(11, Phase.TST, Result.FAIL, Level.DEBUG,
          "workflowData.instanceID is null: FAIL"),
 
-      TST_INSTANCEID_PASS(Phase.TST, Result.PASS, Level.TRACE,
+      TST_INSTANCEID_PASS(12, Phase.TST, Result.PASS, Level.TRACE,
          "workflowData.instanceID is null: PASS"),
 
-      TST_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_FAIL(13, Phase.TST, Result.FAIL, Level.DEBUG,
          "one or more test requirement failures"),
 
-      TST_CLARIFICATION(Phase.TST, Result.FAIL, Level.WARN,
+      TST_CLARIFICATION(14, Phase.TST, Result.FAIL, Level.WARN,
          "formManagerRetrieveClarification not part of this test"),
          
-      SRV_IO_ERR(Phase.TST, Result.FAIL, Level.WARN,
+      SRV_IO_ERR(15, Phase.TST, Result.FAIL, Level.WARN,
          "server IO error processing test");
 
+      private final int id;
       private Phase phase;
       private Result result;
       private Level logLevel;
       private String statusMsg;
 
       private static final String setCode = TEST_ID + "_FM";
+      private static final int setId = 34;
 
-      private TSTStatus(Phase ph, Result pf, Level ll, String msg) {
+      private TSTStatus(int id, Phase ph, Result pf, Level ll, String msg) {
+         this.id = id;
          phase = ph;
          result = pf;
          logLevel = ll;
@@ -397,6 +400,11 @@ public class FormManager extends FormManagerTest {
          return phase.phaseMsg;
       }
 
+      @Override
+      public int getId() {
+         return id;
+      }
+
       @Override
       public String getSetCode() {
          return setCode;
@@ -418,7 +426,7 @@ public class FormManager extends FormManagerTest {
 
       // ----------------------- Phases for this status code
       static {
-         StatusHelper.addCodeSet(setCode, TSTStatus.class);
+         StatusHelper.addCodeSet(setCode, setId, TSTStatus.class);
       }
    } // EO TSTStatus enum
 
@@ -134,22 +134,25 @@ public class FormReceiver extends FormReceiverTest {
    public enum TSTStatus implements Status {
 
       //@formatter:off
-      TST_AGE_FAIL(Phase.TST, Result.FAIL, Level.DEBUG, "Age value missing: Fail"), 
-      TST_AGE_PASS(Phase.TST, Result.PASS, Level.TRACE, "Age value found: Pass"), 
-      TST_BMI_FAIL(Phase.TST, Result.FAIL, Level.DEBUG, "BMI value missing: Fail"), 
-      TST_BMI_PASS(Phase.TST, Result.PASS, Level.TRACE, "BMI value found: Pass"),
-      RIM_UNRECOGNIZED_DATA(Phase.TST, Result.FAIL, Level.WARN, "Cannot recognize the posted data"),
-      TST_FAIL(Phase.TST, Result.FAIL, Level.DEBUG, "one or more test requirement failures");
+      TST_AGE_FAIL(1, Phase.TST, Result.FAIL, Level.DEBUG, "Age value missing: Fail"), 
+      TST_AGE_PASS(2, Phase.TST, Result.PASS, Level.TRACE, "Age value found: Pass"), 
+      TST_BMI_FAIL(3, Phase.TST, Result.FAIL, Level.DEBUG, "BMI value missing: Fail"), 
+      TST_BMI_PASS(4, Phase.TST, Result.PASS, Level.TRACE, "BMI value found: Pass"),
+      RIM_UNRECOGNIZED_DATA(5, Phase.TST, Result.FAIL, Level.WARN, "Cannot recognize the posted data"),
+      TST_FAIL(6, Phase.TST, Result.FAIL, Level.DEBUG, "one or more test requirement failures");
       //@formatter:on
 
+      private final int id;
       private Phase phase;
       private Result result;
       private Level logLevel;
       private String statusMsg;
 
       private static final String setCode = TEST_ID + "_FR";
+      private static final int setId = 35;
 
-      private TSTStatus(Phase ph, Result pf, Level ll, String msg) {
+      private TSTStatus(int id, Phase ph, Result pf, Level ll, String msg) {
+         this.id = id;
          phase = ph;
          result = pf;
          logLevel = ll;
@@ -186,6 +189,11 @@ public class FormReceiver extends FormReceiverTest {
          return phase.phaseMsg;
       }
 
+      @Override
+      public int getId() {
+         return id;
+      }
+
       @Override
       public String getSetCode() {
          return setCode;
@@ -202,7 +210,7 @@ public class FormReceiver extends FormReceiverTest {
 
       // ----------------------- Phases for this status code
       static {
-         StatusHelper.addCodeSet(setCode, TSTStatus.class);
+         StatusHelper.addCodeSet(setCode, setId, TSTStatus.class);
       }
 
       @Override
@@ -131,13 +131,14 @@ public class FormFiller extends ClientTest {
    @SuppressWarnings("javadoc")
    public enum TSTStatus implements Status {
       
-      TST_URL_MISSING(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_URL_MISSING(1, Phase.TST, Result.FAIL, Level.DEBUG,
                "form URL required, not present: FAIL"),
-      TST_URL_INVALID(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_URL_INVALID(2, Phase.TST, Result.FAIL, Level.DEBUG,
                "valid form URL required, URL invalid: FAIL"),
-      TST_URL_PASS(Phase.TST, Result.PASS, Level.TRACE,
+      TST_URL_PASS(3, Phase.TST, Result.PASS, Level.TRACE,
                "valid form URL required: PASS");
       
+      private final int id;
       private Phase phase;
       private Result result;
       private Level logLevel;
@@ -145,7 +146,8 @@ public class FormFiller extends ClientTest {
 
       private static final String setCode = TEST_ID + "_FF";
 
-      private TSTStatus(Phase ph, Result pf, Level ll, String msg) {
+      private TSTStatus(int id, Phase ph, Result pf, Level ll, String msg) {
+         this.id = id;
          phase = ph;
          result = pf;
          logLevel = ll;
@@ -219,6 +221,11 @@ public class FormFiller extends ClientTest {
       /* (non-Javadoc)
        * @see edu.wustl.mir.erl.ihe.util.Status#getSetCode()
        */
+      @Override
+      public int getId() {
+         return id;
+      }
+
       @Override
       public String getSetCode() {
          return setCode;
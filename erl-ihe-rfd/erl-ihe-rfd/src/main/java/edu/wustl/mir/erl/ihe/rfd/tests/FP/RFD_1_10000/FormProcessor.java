@@ -42,6 +42,7 @@ import edu.wustl.mir.erl.ihe.util.Status;
 import edu.wustl.mir.erl.ihe.util.StatusHelper;
 import edu.wustl.mir.erl.ihe.util.StatusType;
 import edu.wustl.mir.erl.ihe.util.StatusUpdateType;
+import edu.wustl.mir.erl.ihe.util.Template;
 import edu.wustl.mir.erl.ihe.util.TestFailException;
 import edu.wustl.mir.erl.ihe.util.Util;
 import edu.wustl.mir.erl.ihe.util.XmlUtil;
@@ -58,13 +59,12 @@ public class FormProcessor extends FormProcessorTest {
    private static final String FS_ID = "FS";
    private static final String TEST_ID = "RFD_1_10000";
    private static FileServer fileServer = WSServer.getFileServerById(FS_ID);
-   private static String MASTER_FORM;
+   private static Template MASTER_FORM;
 
    static {
       try {
-         MASTER_FORM =
-            IOUtils.toString(FormProcessor.class.getResource("Form.html"),
-               CHAR_SET_UTF_8);
+         MASTER_FORM = Template.compile(IOUtils.toString(
+            FormProcessor.class.getResource("Form.html"), CHAR_SET_UTF_8));
       } catch (IOException e) {
          Util.exit(Util.getEM(e));
       }
@@ -217,66 +217,69 @@ public class FormProcessor extends FormProcessorTest {
    @SuppressWarnings("javadoc")
    public enum TSTStatus implements Status {
       
-      TST_AGE_FAIL(Phase.TST, Result.FAIL, Level.DEBUG, "Age value missing: Fail"), 
-      TST_AGE_PASS(Phase.TST, Result.PASS, Level.TRACE, "Age value found: Pass"), 
-      TST_BMI_FAIL(Phase.TST, Result.FAIL, Level.DEBUG, "BMI value missing: Fail"), 
-      TST_BMI_PASS(Phase.TST, Result.PASS, Level.TRACE, "BMI value found: Pass"),
-      RIM_UNRECOGNIZED_DATA(Phase.TST, Result.FAIL, Level.WARN, "Cannot recognize the posted data"),
+      TST_AGE_FAIL(1, Phase.TST, Result.FAIL, Level.DEBUG, "Age value missing: Fail"), 
+      TST_AGE_PASS(2, Phase.TST, Result.PASS, Level.TRACE, "Age value found: Pass"), 
+      TST_BMI_FAIL(3, Phase.TST, Result.FAIL, Level.DEBUG, "BMI value missing: Fail"), 
+      TST_BMI_PASS(4, Phase.TST, Result.PASS, Level.TRACE, "BMI value found: Pass"),
+      RIM_UNRECOGNIZED_DATA(5, Phase.TST, Result.FAIL, Level.WARN, "Cannot recognize the posted data"),
      
 
-      TST_PREPOP_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_PREPOP_FAIL(6, Phase.TST, Result.FAIL, Level.DEBUG,
          "pre-population data has <RFD><age> tag: FAIL"),
 
-      TST_PREPOP_PASS(Phase.TST, Result.PASS, Level.TRACE,
+      TST_PREPOP_PASS(7, Phase.TST, Result.PASS, Level.TRACE,
          "pre-population data has <RFD><age> tag: PASS"),
 
-      TST_AGE_VALUE_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_AGE_VALUE_FAIL(8, Phase.TST, Result.FAIL, Level.DEBUG,
          "prepop age integer 1-85: FAIL"),
 
-      TST_AGE_VALUE_PASS(Phase.TST, Result.PASS, Level.TRACE,
+      TST_AGE_VALUE_PASS(9, Phase.TST, Result.PASS, Level.TRACE,
          "prepop age integer 1-85: PASS"),
 
-      TST_ENCODED_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_ENCODED_FAIL(10, Phase.TST, Result.FAIL, Level.DEBUG,
          "workflowData.encodedResponse is false: FAIL"),
 
-      TST_ENCODED_PASS(Phase.TST, Result.PASS, Level.TRACE,
+      TST_ENCODED_PASS(11, Phase.TST, Result.PASS, Level.TRACE,
          "workflowData.encodedResponse is false: PASS"),
 
-      TST_ARCH_URL_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_ARCH_URL_FAIL(12, Phase.TST, Result.FAIL, Level.DEBUG,
          "workflowData.archiveURL is null: FAIL"),
 
-      TST_ARCH_URL_PASS(Phase.TST, Result.PASS, Level.TRACE,
+      TST_ARCH_URL_PASS(13, Phase.TST, Result.PASS, Level.TRACE,
          "workflowData.archiveURL is null: PASS"),
 
-      TST_CONTXT_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_CONTXT_FAIL(14, Phase.TST, Result.FAIL, Level.DEBUG,
          "workflowData.context is null: FAIL"),
 
-      TST_CONTXT_PASS(Phase.TST, Result.PASS, Level.TRACE,
+      TST_CONTXT_PASS(15, Phase.TST, Result.PASS, Level.TRACE,
          "workflowData.context is null: PASS"),
 
-      TST_INSTANCEID_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_INSTANCEID_FAIL(16, Phase.TST, Result.FAIL, Level.DEBUG,
          "workflowData.instanceID is null: FAIL"),
 
-      TST_INSTANCEID_PASS(Phase.TST, Result.PASS, Level.TRACE,
+      TST_INSTANCEID_PASS(17, Phase.TST, Result.PASS, Level.TRACE,
          "workflowData.instanceID is null: PASS"),
 
-      TST_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_FAIL(18, Phase.TST, Result.FAIL, Level.DEBUG,
          "one or more test requirement failures"),
 
-      TST_CLARIFICATION(Phase.TST, Result.FAIL, Level.WARN,
+      TST_CLARIFICATION(19, Phase.TST, Result.FAIL, Level.WARN,
          "formManagerRetrieveClarification not part of this test"),
          
-      SRV_IO_ERR(Phase.TST, Result.FAIL, Level.WARN,
+      SRV_IO_ERR(20, Phase.TST, Result.FAIL, Level.WARN,
          "server IO error processing test");
 
+      private final int id;
       private Phase phase;
       private Result result;
       private Level logLevel;
       private String statusMsg;
 
       private static final String setCode = TEST_ID + "_FM";
+      private static final int setId = 49;
 
-      private TSTStatus(Phase ph, Result pf, Level ll, String msg) {
+      private TSTStatus(int id, Phase ph, Result pf, Level ll, String msg) {
+         this.id = id;
          phase = ph;
          result = pf;
          logLevel = ll;
@@ -318,6 +321,11 @@ public class FormProcessor extends FormProcessorTest {
          return phase.phaseMsg;
       }
 
+      @Override
+      public int getId() {
+         return id;
+      }
+
       @Override
       public String getSetCode() {
          return setCode;
@@ -339,7 +347,7 @@ public class FormProcessor extends FormProcessorTest {
 
       // ----------------------- Phases for this status code
       static {
-         StatusHelper.addCodeSet(setCode, TSTStatus.class);
+         StatusHelper.addCodeSet(setCode, setId, TSTStatus.class);
       }
    } // EO TSTStatus enum
 
@@ -19,9 +19,6 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -41,6 +38,7 @@ import edu.wustl.mir.erl.ihe.util.StatusHelper;
 import edu.wustl.mir.erl.ihe.util.StatusType;
 import edu.wustl.mir.erl.ihe.util.StatusUpdateType;
 import edu.wustl.mir.erl.ihe.util.Util;
+import edu.wustl.mir.erl.ihe.util.XmlFactories;
 import edu.wustl.mir.erl.ihe.util.XmlUtil;
 import edu.wustl.mir.erl.ihe.ws.WSProperties;
 import edu.wustl.mir.erl.ihe.ws.db.MessageType;
@@ -77,10 +75,7 @@ public class CDAInspector implements Serializable, WSProperties {
             CHAR_SET_UTF_8);
          InputStream is =
             CDAInspector.class.getResourceAsStream("SubmitFormRequest.xml");
-         DocumentBuilderFactory dbFactory =
-            DocumentBuilderFactory.newInstance();
-         DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-         Document doc = dBuilder.parse(is);
+         Document doc = XmlFactories.getDocumentBuilder().parse(is);
          Element de = doc.getDocumentElement();
          NodeList nodeList = de.getElementsByTagName("*");
          for (int i = 0; i < nodeList.getLength(); i++ ) {
@@ -109,16 +104,11 @@ public class CDAInspector implements Serializable, WSProperties {
       try {
          if (bytes == null || bytes.length == 0) return "null file uploaded";
          String msg = new String(bytes, CHAR_SET_UTF_8);
-         InputStream is = new ByteArrayInputStream(bytes);
-         DocumentBuilderFactory dbFactory =
-            DocumentBuilderFactory.newInstance();
-         DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-         Document doc = dBuilder.parse(is);
 
          // TODO code here to determine if doc is valid BFDRBirth CDA document.
 
          BFDRBirth cdaDoc = new BFDRBirth();
-         cdaDoc.loadValue(doc.getDocumentElement());
+         cdaDoc.loadValue(new ByteArrayInputStream(bytes));
 
          wsLog = new WSLog();
          wsLog.setTransactionType(TransactionType.CDA_CLIENT);
@@ -174,20 +164,23 @@ public class CDAInspector implements Serializable, WSProperties {
    @SuppressWarnings("javadoc")
    public enum TSTStatus implements Status {
 
-      TST_PASS(Phase.TST, Result.PASS, Level.TRACE,
+      TST_PASS(1, Phase.TST, Result.PASS, Level.TRACE,
          "BFDRBirth CDA document values match SubmitFormRequest: PASS"),
 
-      TST_FAIL(Phase.TST, Result.FAIL, Level.DEBUG,
+      TST_FAIL(2, Phase.TST, Result.FAIL, Level.DEBUG,
          "BFDRBirth CDA document values match SubmitFormRequest: FAIL");
 
+      private final int id;
       private Phase phase;
       private Result result;
       private Level logLevel;
       private String statusMsg;
 
       private static final String setCode = TEST_ID + "_FM";
+      private static final int setId = 50;
 
-      private TSTStatus(Phase ph, Result pf, Level ll, String msg) {
+      private TSTStatus(int id, Phase ph, Result pf, Level ll, String msg) {
+         this.id = id;
          phase = ph;
          result = pf;
          logLevel = ll;
@@ -229,6 +222,11 @@ public class CDAInspector implements Serializable, WSProperties {
          return phase.phaseMsg;
       }
 
+      @Override
+      public int getId() {
+         return id;
+      }
+
       @Override
       public String getSetCode() {
          return setCode;
@@ -250,7 +248,7 @@ public class CDAInspector implements Serializable, WSProperties {
 
       // ----------------------- Phases for this status code
       static {
-         StatusHelper.addCodeSet(setCode, TSTStatus.class);
+         StatusHelper.addCodeSet(setCode, setId, TSTStatus.class);
       }
    } // EO TSTStatus enum
 
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ ******************************************************************************/
+package edu.wustl.mir.erl.ihe.rfd.cda;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link FunctionScript}, using the VRDRPrepop functions as they
+ * are after their mappings and replacements have been applied.
+ */
+public class FunctionScriptTest {
+
+   private static final String PREPOP_DOCUMENT =
+      "if (${prepopDocument$rootsCount} > 0) {'${prepopDocument$rootValue}'} else { '' }";
+
+   private static final String DATE_CERTIFIED =
+      "if (${dateCertified$ProceduresCount} > 0) "
+         + "{'${dateCertified$Procedure-intervalLowValue}'} else {''}";
+
+   private static final String DATE_PRONOUNCED =
+      "if (${datePronounced$ProceduresCount} > 0) "
+         + "{'${datePronounced$Procedure-intervalLowValue}'} else { "
+         + "if (${datePronounced$FindingsCount} > 0) "
+         + "{'${datePronounced$Finding-intervalLowValue}'} else {''}}";
+
+   private static final String SEX =
+      "if (${sex$MalesCount} > 0) {'M'} else if (${sex$FemalesCount} > 0) "
+         + "{'F'} else {'U'}";
+
+   private static Map <String, String> values(String... pairs) {
+      Map <String, String> values = new HashMap <>();
+      for (int i = 0; i < pairs.length; i += 2)
+         values.put(pairs[i], pairs[i + 1]);
+      return values;
+   }
+
+   @Test
+   public void quotedLiteralIsReplaced() throws Exception {
+      FunctionScript fs = FunctionScript.compile(PREPOP_DOCUMENT);
+      assertFalse(fs.getScript(), fs.getScript().contains("'__fp"));
+      assertEquals("2.16.840.1.113883.10.20.26.1.2",
+         fs.evaluate(values("prepopDocument$rootsCount", "1",
+            "prepopDocument$rootValue", "2.16.840.1.113883.10.20.26.1.2")));
+   }
+
+   @Test
+   public void quotedNumberStaysString() throws Exception {
+      FunctionScript fs = FunctionScript.compile(DATE_CERTIFIED);
+      assertEquals("20150312", fs.evaluate(values(
+         "dateCertified$ProceduresCount", "1",
+         "dateCertified$Procedure-intervalLowValue", "20150312")));
+   }
+
+   @Test
+   public void blankQuotedValueIsEmptyString() throws Exception {
+      FunctionScript fs = FunctionScript.compile(DATE_CERTIFIED);
+      assertEquals("", fs.evaluate(values(
+         "dateCertified$ProceduresCount", "1",
+         "dateCertified$Procedure-intervalLowValue", "")));
+      assertEquals("", fs.evaluate(values(
+         "dateCertified$ProceduresCount", "0")));
+      assertEquals("", FunctionScript.compile(PREPOP_DOCUMENT).evaluate(
+         values("prepopDocument$rootsCount", "0",
+            "prepopDocument$rootValue", " ")));
+   }
+
+   @Test
+   public void nestedQuotedValues() throws Exception {
+      FunctionScript fs = FunctionScript.compile(DATE_PRONOUNCED);
+      assertEquals("20150312", fs.evaluate(values(
+         "datePronounced$ProceduresCount", "1",
+         "datePronounced$Procedure-intervalLowValue", "20150312",
+         "datePronounced$FindingsCount", "1",
+         "datePronounced$Finding-intervalLowValue", "20150313")));
+      assertEquals("20150313", fs.evaluate(values(
+         "datePronounced$ProceduresCount", "0",
+         "datePronounced$Procedure-intervalLowValue", "",
+         "datePronounced$FindingsCount", "1",
+         "datePronounced$Finding-intervalLowValue", "20150313")));
+      assertEquals("", fs.evaluate(values(
+         "datePronounced$ProceduresCount", "0",
+         "datePronounced$FindingsCount", "0")));
+   }
+
+   @Test
+   public void unquotedValues() throws Exception {
+      FunctionScript fs = FunctionScript.compile(SEX);
+      assertEquals("M", fs.evaluate(values(
+         "sex$MalesCount", "1", "sex$FemalesCount", "0")));
+      assertEquals("F", fs.evaluate(values(
+         "sex$MalesCount", "0", "sex$FemalesCount", "2")));
+      assertEquals("U", fs.evaluate(values(
+         "sex$MalesCount", "0", "sex$FemalesCount", "0")));
+   }
+
+   @Test
+   public void literalContainingPlaceholder() throws Exception {
+      FunctionScript fs = FunctionScript.compile("'id: ${id}.' + \"${id}\"");
+      assertEquals("id: 007.007", fs.evaluate(values("id", "007")));
+   }
+
+   @Test
+   public void blankUnquotedValueFailsToParse() {
+      FunctionScript fs = FunctionScript.compile(SEX);
+      try {
+         fs.evaluate(values("sex$MalesCount", "", "sex$FemalesCount", "0"));
+         fail("blank unquoted value evaluated");
+      } catch (Exception e) {
+         // expected; the spliced source does not parse
+      }
+   }
+
+} // EO FunctionScriptTest class
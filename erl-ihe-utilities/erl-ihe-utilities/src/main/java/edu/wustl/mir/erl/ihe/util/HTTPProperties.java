@@ -67,8 +67,11 @@ public interface HTTPProperties {
       
       // @formatter:off
       OK(200, "OK"), 
+      PARTIAL_CONTENT(206, "Partial Content"),
+      NOT_MODIFIED(304, "Not Modified"),
       NOT_FOUND(404, "Not Found"), 
       METHOD_NOT_ALLOWED(405, "Method Not Allowed"), 
+      RANGE_NOT_SATISFIABLE(416, "Requested Range Not Satisfiable"),
       SERVER_ERROR(500, "Internal Server Error"),
       NOT_IMPLEMENTED(501, "Not Implemented");
       // @formatter:on
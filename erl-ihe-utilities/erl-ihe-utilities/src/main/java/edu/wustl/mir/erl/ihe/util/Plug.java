@@ -18,13 +18,14 @@
 package edu.wustl.mir.erl.ihe.util;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.lang.text.StrSubstitutor;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 
@@ -64,6 +65,11 @@ public class Plug implements Serializable, UtilProperties {
 
    Map <String, String> map = new HashMap <>();
 
+   /**
+    * Parsed form of {@link #strng}, built on first use.
+    */
+   private Template template = null;
+
    /**
     * Builds new Plug instance from passed String.
     * 
@@ -73,6 +79,18 @@ public class Plug implements Serializable, UtilProperties {
       this.strng = string;
    }
 
+   /**
+    * Builds new Plug instance from a parsed {@link Template}. Use for text
+    * which is plugged repeatedly, such as a master form, so that it is parsed
+    * only once.
+    * 
+    * @param template parsed variable string.
+    */
+   public Plug(Template template) {
+      this.strng = template.getSource();
+      this.template = template;
+   }
+
    /**
     * Builds new Plug instance from contents of file at passed
     * {@link java.nio.file.Path Path}.
@@ -110,6 +128,7 @@ public class Plug implements Serializable, UtilProperties {
     */
    public Plug append(String string) {
       this.strng += string;
+      template = null;
       return this;
    }
 
@@ -143,13 +162,21 @@ public class Plug implements Serializable, UtilProperties {
 		return this;
 	}
 
+   /**
+    * @return unmodifiable view of the name-value pairs set so far, for callers
+    * which need the values themselves rather than the plugged string.
+    */
+   public Map <String, String> getMap() {
+      return Collections.unmodifiableMap(map);
+   }
+
    /**
     * @return the value of the {@link #strng variable string} after all
     * instances of ${key} where an entry for "key" exists in the map are
     * replaced with the corresponding value from the map.
     */
    public String get() {
-      return StrSubstitutor.replace(strng, map);
+      return getTemplate().render(map);
    }
    
    /** 
@@ -165,7 +192,7 @@ public class Plug implements Serializable, UtilProperties {
     * @throws Exception on error creating or writing to file.
     */
    public String get(Path pathToFile, boolean append) throws Exception {
-      String out = StrSubstitutor.replace(strng, map);
+      String out = getTemplate().render(map);
       FileUtils.writeStringToFile(pathToFile.toFile(), out, CHAR_SET_UTF_8, append);
       return out;
    }
@@ -183,11 +210,28 @@ public class Plug implements Serializable, UtilProperties {
     * @throws Exception on error creating or writing to file.
     */
    public String get(File file, boolean append) throws Exception {
-      String out = StrSubstitutor.replace(strng, map);
+      String out = getTemplate().render(map);
       FileUtils.writeStringToFile(file, out, CHAR_SET_UTF_8, append);
       return out;
    }
 
+   /**
+    * Writes the value of the {@link #strng variable string}, with parameters
+    * replaced as for {@link #get()}, to out in a single pass, without building
+    * the result as a String.
+    * 
+    * @param out destination, for example a Writer.
+    * @throws IOException on error writing to out.
+    */
+   public void write(Appendable out) throws IOException {
+      getTemplate().render(map, out);
+   }
+
+   private Template getTemplate() {
+      if (template == null) template = Template.compile(strng);
+      return template;
+   }
+
    private String smish(Object o) {
       if (o == null) return "";
       String str = o.toString();
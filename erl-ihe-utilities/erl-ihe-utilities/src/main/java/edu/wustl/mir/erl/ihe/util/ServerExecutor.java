@@ -0,0 +1,262 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ *******************************************************************************/
+package edu.wustl.mir.erl.ihe.util;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.log4j.Logger;
+
+/**
+ * Named, bounded thread pool for one HTTP server, for example a WSEndpoint or
+ * FileServer, obtained with {@link Util#getExec(String, HierarchicalConfiguration)}.
+ * Each server has its own pool, so a burst of requests to one server can not
+ * starve the others or create an unbounded number of threads.
+ * <p>
+ * Configured by an optional {@code <Executor>} child element of the server's
+ * element in the application properties file, for example:
+ * </p>
+ * <pre>
+ * {@code
+ * <Executor coreSize="10" maxSize="50" queueSize="100" keepAliveSeconds="60"
+ *           rejection="callerRuns" />
+ * }
+ * </pre>
+ * <ul>
+ * <li><b>coreSize</b> threads started as requests arrive, and kept when idle.
+ * Default 10.</li>
+ * <li><b>maxSize</b> maximum number of threads. Default 50.</li>
+ * <li><b>queueSize</b> requests waiting for a thread once coreSize threads
+ * are busy. Threads above coreSize, up to maxSize, are started only when the
+ * queue is full. 0 for no queue, in which case threads are started up to
+ * maxSize as needed. Default 100.</li>
+ * <li><b>keepAliveSeconds</b> how long threads above coreSize are kept when
+ * idle. Default 60.</li>
+ * <li><b>rejection</b> what happens to a request when all threads are busy
+ * and the queue is full: "callerRuns" runs it on the submitting thread, which
+ * for an HTTP server is the thread accepting connections, so new connections
+ * wait until it completes; "abort" throws RejectedExecutionException;
+ * "discard" drops it. Default "callerRuns".</li>
+ * </ul>
+ * Active, queued, completed and rejected counts are available from the
+ * getters and {@link #getStats()}, and for all pools from
+ * {@link #getExecutors()}.
+ */
+public class ServerExecutor extends ThreadPoolExecutor implements Closeable {
+
+   /**
+    * What happens to a task when the pool and queue are full.
+    */
+   public enum Rejection {
+      /** Run the task on the submitting thread. */
+      CALLERRUNS,
+      /** Throw {@link RejectedExecutionException}. */
+      ABORT,
+      /** Drop the task. */
+      DISCARD;
+   }
+
+   private static Logger log = Util.getLog();
+
+   /** All pools, by name. */
+   private static final Map <String, ServerExecutor> executors =
+      Collections.synchronizedMap(new TreeMap <String, ServerExecutor>());
+
+   private final String name;
+   private final Rejection rejection;
+   private final int queueSize;
+   private final AtomicLong rejected = new AtomicLong();
+
+   private ServerExecutor(String name, int coreSize, int maxSize,
+      int queueSize, long keepAliveSeconds, Rejection rejection) {
+      super(coreSize, maxSize, keepAliveSeconds, TimeUnit.SECONDS,
+         queueSize == 0 ? new SynchronousQueue <Runnable>()
+            : new ArrayBlockingQueue <Runnable>(queueSize),
+         new NamedThreadFactory(name));
+      this.name = name;
+      this.rejection = rejection;
+      this.queueSize = queueSize;
+      setRejectedExecutionHandler(new CountingHandler());
+   }
+
+   /**
+    * Returns the pool with the passed name, creating it from the properties
+    * the first time it is requested.
+    *
+    * @param name pool name, for example "wse-FMS". Also used to name the
+    * pool's threads.
+    * @param properties element of the owning server in the application
+    * properties, which may contain an {@code <Executor>} element. May be null,
+    * in which case defaults are used.
+    * @return the pool.
+    * @throws Exception if the executor properties are invalid.
+    */
+   public static ServerExecutor getInstance(String name,
+      HierarchicalConfiguration properties) throws Exception {
+      synchronized (executors) {
+         ServerExecutor exec = executors.get(name);
+         if (exec != null) return exec;
+         if (properties == null) properties = new HierarchicalConfiguration();
+         int core = properties.getInt("Executor[@coreSize]", 10);
+         int max = properties.getInt("Executor[@maxSize]", 50);
+         int queue = properties.getInt("Executor[@queueSize]", 100);
+         long keepAlive = properties.getLong("Executor[@keepAliveSeconds]", 60L);
+         String r = properties.getString("Executor[@rejection]", "callerRuns");
+         Rejection rej;
+         try {
+            rej = Rejection.valueOf(r.trim().toUpperCase());
+         } catch (IllegalArgumentException e) {
+            throw new Exception(name + " Executor rejection " + r + " invalid");
+         }
+         if (core < 0 || max < 1 || max < core || queue < 0 || keepAlive < 0)
+            throw new Exception(name + " Executor sizes invalid: coreSize "
+               + core + ", maxSize " + max + ", queueSize " + queue
+               + ", keepAliveSeconds " + keepAlive);
+         exec = new ServerExecutor(name, core, max, queue, keepAlive, rej);
+         executors.put(name, exec);
+         ShutDown.addCloseable("ServerExecutor " + name, exec);
+         log.info(name + " executor: core " + core + ", max " + max
+            + ", queue " + queue + ", rejection " + rej);
+         return exec;
+      }
+   }
+
+   /**
+    * @return unmodifiable snapshot of all pools, by name.
+    */
+   public static Map <String, ServerExecutor> getExecutors() {
+      synchronized (executors) {
+         return Collections.unmodifiableMap(
+            new TreeMap <String, ServerExecutor>(executors));
+      }
+   }
+
+   /**
+    * Stops accepting tasks, and waits up to 5 seconds for running tasks to
+    * complete.
+    */
+   @Override
+   public void close() {
+      shutdown();
+      try {
+         if (awaitTermination(5, TimeUnit.SECONDS) == false) shutdownNow();
+      } catch (InterruptedException e) {
+         shutdownNow();
+         Thread.currentThread().interrupt();
+      }
+      executors.remove(name);
+   }
+
+   /**
+    * @return the {@link #name} value.
+    */
+   public String getName() {
+      return name;
+   }
+
+   /**
+    * @return the {@link #rejection} value.
+    */
+   public Rejection getRejection() {
+      return rejection;
+   }
+
+   /**
+    * @return number of tasks waiting for a thread.
+    */
+   public int getQueuedCount() {
+      return getQueue().size();
+   }
+
+   /**
+    * @return number of tasks which arrived when the pool and queue were full,
+    * however they were then handled.
+    */
+   public long getRejectedCount() {
+      return rejected.get();
+   }
+
+   /**
+    * @return one line summary of the pool's metrics, for logging.
+    */
+   public String getStats() {
+      return name + ": threads " + getPoolSize() + "/" + getMaximumPoolSize()
+         + " (largest " + getLargestPoolSize() + "), active "
+         + getActiveCount() + ", queued " + getQueuedCount() + "/" + queueSize
+         + ", completed " + getCompletedTaskCount() + ", rejected "
+         + rejected.get();
+   }
+
+   @Override
+   public String toString() {
+      return getStats();
+   }
+
+   /**
+    * Counts rejections, then applies the configured {@link Rejection}.
+    */
+   private class CountingHandler implements RejectedExecutionHandler {
+      @Override
+      public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+         long n = rejected.incrementAndGet();
+         if (n == 1 || n % 100 == 0)
+            log.warn(name + " executor saturated, " + n + " rejected; "
+               + getStats());
+         if (executor.isShutdown()) return;
+         switch (rejection) {
+            case CALLERRUNS:
+               r.run();
+               break;
+            case ABORT:
+               throw new RejectedExecutionException(name
+                  + " executor saturated");
+            case DISCARD:
+            default:
+         }
+      }
+   } // EO CountingHandler inner class
+
+   /**
+    * Names threads for the pool, so they can be identified in thread dumps
+    * and logs.
+    */
+   private static class NamedThreadFactory implements ThreadFactory {
+      private final String prefix;
+      private final AtomicInteger count = new AtomicInteger();
+
+      NamedThreadFactory(String name) {
+         prefix = name + "-";
+      }
+
+      @Override
+      public Thread newThread(Runnable r) {
+         Thread t = new Thread(r, prefix + count.incrementAndGet());
+         t.setDaemon(false);
+         return t;
+      }
+   } // EO NamedThreadFactory inner class
+
+} // EO ServerExecutor class
@@ -43,7 +43,7 @@ import org.apache.log4j.Level;
  * 
  * <pre>
  * static {
- *    StatusHelper.addCodeSet(RFDStatus.class);
+ *    StatusHelper.addCodeSet(setCode, setId, RFDStatus.class);
  * }
  * </pre>
  */
@@ -102,6 +102,15 @@ public interface Status {
     */
    public StatusType getStatusType();
 
+   /**
+    * @return the id of this status within its enum, a small positive integer
+    * given explicitly for each member, and used with the set id of the enum to
+    * store the status in a database. Ids must not be changed or reused once
+    * statuses have been stored; a new member takes the next unused id. See
+    * {@link StatusHelper} for details.
+    */
+   public int getId();
+
    /**
     * @return the set code for this Phase/Status pair.
     *         see {@link StatusHelper} for details.
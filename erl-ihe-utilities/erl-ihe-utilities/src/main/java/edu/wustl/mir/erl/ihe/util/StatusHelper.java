@@ -17,9 +17,10 @@ import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
@@ -39,10 +40,19 @@ import org.apache.log4j.Logger;
  * When new ZZZStatus values are added to the log, they are converted to
  * instances of this class.</p>
  * <p>
- * To store status codes in the RDBMS, they are converted to a String of the
- * form set code,Status enum name. Multiple status values are stored as a single
- * text string, with "|" delimiters. When status codes are retrieved from the
- * RDBMS, the string is converted into an array of objects of this class.</p>
+ * Each Status enum is registered with a set id, and each of its members has
+ * an id, see {@link Status#getId()}. Both are small positive integers, given
+ * explicitly in the enum source, never reused and never changed, so that
+ * stored values remain readable when members are added to or reordered in an
+ * enum. To store status codes in the RDBMS, each is packed into a single int,
+ * set id &lt;&lt; 16 | member id, and a list of statuses is stored as an SQL
+ * array of these ints, see {@link #exportCodesToDb(List)}. When a code set is
+ * added, each of its members is entered in a table by its packed code, so
+ * decoding is a single lookup.</p>
+ * <p>
+ * Rows written before the packed codes were introduced hold a String of the
+ * form set code,Status enum name| for each status, which is still decoded by
+ * {@link #importFromDb(String)}.</p>
  * <p>
  * For an example of a Status enum, see RFDStatus in the erl-ihe-rfd project.</p>
  */
@@ -52,55 +62,154 @@ public class StatusHelper implements Serializable {
    private static Logger log = Util.getLog();
 
    /**
-    * Map of CodeSet instances for Phase-Status enum pairs in use. Key is the
-    * setCode of the enum.
+    * Status enum classes in use. Key is the setCode of the enum.
+    */
+   private static Map <String, Class <?>> statusSets =
+      new ConcurrentHashMap <>();
+
+   /**
+    * Status enum classes in use. Key is the set id of the enum.
+    */
+   private static Map <Integer, Class <?>> statusSetIds =
+      new ConcurrentHashMap <>();
+
+   /**
+    * Members of the Status enums in use. Key is the encoded form of the
+    * member, without the trailing "|", that is, set code,Status enum name.
+    */
+   private static Map <String, Status> statusCodes =
+      new ConcurrentHashMap <>();
+
+   /**
+    * Members of the Status enums in use. Key is the packed code of the member,
+    * see {@link #pack(int, int)}.
+    */
+   private static Map <Integer, Status> statusesByPackedCode =
+      new ConcurrentHashMap <>();
+
+   /**
+    * Packed codes of the members of the Status enums in use.
     */
-   private static Map <String, Method> statusSets = new HashMap <>();
+   private static Map <Status, Integer> packedCodes =
+      new ConcurrentHashMap <>();
+
+   /** Largest set id, so that a packed code is a positive int. */
+   public static final int MAX_SET_ID = 0x7FFF;
+
+   /** Largest member id within a set. */
+   public static final int MAX_STATUS_ID = 0xFFFF;
+
+   private static int pack(int setId, int statusId) {
+      return setId << 16 | statusId;
+   }
 
    private static Status decode(String encodedStatus) {
-      Status status = null;
-      String str = StringUtils.removeEnd(encodedStatus, "|");
-      try {
-         String strs[] = str.split(",");
-         if (strs.length != 2)
-            throw new Exception("not of form xxx,statusName");
-         String sCode = strs[0];
-         String sName = strs[1];
-         if (!statusSets.containsKey(sCode))
-            throw new Exception("unknown status code type " + sCode);
-         Method getStatus = statusSets.get(sCode);
-         status = (Status) getStatus.invoke(null, sName);
-      } catch (Exception e) {
-         log.warn("StatusHelper.decode: error decoding: " + encodedStatus + " "
-            + e.getMessage());
+      Status status = statusCodes.get(encodedStatus);
+      if (status == null) {
+         String setCode = StringUtils.substringBefore(encodedStatus, ",");
+         log.warn("StatusHelper.decode: error decoding: " + encodedStatus
+            + (statusSets.containsKey(setCode) ? " unknown status name"
+               : " unknown status code type " + setCode));
       }
       return status;
    }
 
    /**
     * Converts a String containing one or more encoded status codes to a List of
-    * Status instances. This is usually done when querying a database for
-    * statuses which were previously encoded. The String is composed of
-    * sequences of the form SETCODE,STATUSCODENAME| with one sequence per status
-    * instance. {@link #exportToDb(List)} is used to encode statuses as a
-    * String.
+    * Status instances. This is done when querying a database for rows written
+    * before packed codes, see {@link #importCodesFromDb(String)}. The String
+    * is composed of sequences of the form SETCODE,STATUSCODENAME| with one
+    * sequence per status instance. {@link #exportToDb(List)} is used to encode
+    * statuses as a String. Sequences which can not be decoded are logged and
+    * skipped.
     * 
-    * @param dbValue The String of encoded Status values.
+    * @param dbValue The String of encoded Status values. May be null or
+    * empty.
     * @return The List of decoded Status instances.
     */
    public static List <Status> importFromDb(String dbValue) {
       List <Status> statuses = new ArrayList <>();
-      String statusStrings[] = dbValue.split("|");
-      for (String statusString : statusStrings) {
-         statuses.add(StatusHelper.decode(statusString));
+      if (dbValue == null) return statuses;
+      int start = 0;
+      while (start < dbValue.length()) {
+         int end = dbValue.indexOf('|', start);
+         if (end < 0) end = dbValue.length();
+         if (end > start) {
+            Status status = decode(dbValue.substring(start, end));
+            if (status != null) statuses.add(status);
+         }
+         start = end + 1;
+      }
+      return statuses;
+   }
+
+   /**
+    * Converts a String containing an SQL array of packed status codes, as
+    * written by {@link #exportCodesToDb(List)}, to a List of Status instances.
+    * Codes which can not be decoded are logged and skipped.
+    * 
+    * @param dbValue The array, for example "{65537,65539}". May be null or
+    * empty.
+    * @return The List of decoded Status instances.
+    */
+   public static List <Status> importCodesFromDb(String dbValue) {
+      List <Status> statuses = new ArrayList <>();
+      if (dbValue == null) return statuses;
+      int start = dbValue.startsWith("{") ? 1 : 0;
+      int last = dbValue.length();
+      if (dbValue.endsWith("}")) last--;
+      while (start < last) {
+         int end = dbValue.indexOf(',', start);
+         if (end < 0 || end > last) end = last;
+         String code = dbValue.substring(start, end).trim();
+         start = end + 1;
+         if (code.isEmpty()) continue;
+         Status status = null;
+         try {
+            status = statusesByPackedCode.get(Integer.valueOf(code));
+         } catch (NumberFormatException e) {
+            // logged below
+         }
+         if (status == null) {
+            log.warn("StatusHelper.importCodesFromDb: error decoding: " + code);
+            continue;
+         }
+         statuses.add(status);
       }
       return statuses;
    }
 
    /**
-    * Converts the passed List of Status instances to a single String for
-    * storage in an RDBMS table. The String is composed of sequences of the form
-    * SETCODE,STATUSCODENAME| with one sequence per status instance.
+    * Converts the passed List of Status instances to an SQL array of their
+    * packed codes, for storage in an RDBMS integer array column, for example
+    * "{65537,65539}". {@link #importCodesFromDb(String)} is used to reverse
+    * the process when querying the database. Null entries, and statuses whose
+    * code set has not been added, are logged and skipped.
+    * 
+    * @param statuses List of Status instances to encode.
+    * @return SQL array of the packed codes of the passed statuses.
+    */
+   public static String exportCodesToDb(List <Status> statuses) {
+      StringBuilder str = new StringBuilder(8 * statuses.size() + 2);
+      str.append('{');
+      for (Status status : statuses) {
+         if (status == null) continue;
+         Integer code = packedCodes.get(status);
+         if (code == null) {
+            log.warn("StatusHelper.exportCodesToDb: status code set "
+               + status.getSetCode() + " not added, " + status + " not stored");
+            continue;
+         }
+         if (str.length() > 1) str.append(',');
+         str.append(code.intValue());
+      }
+      return str.append('}').toString();
+   }
+
+   /**
+    * Converts the passed List of Status instances to a single String of the
+    * form used before packed codes. The String is composed of sequences of the
+    * form SETCODE,STATUSCODENAME| with one sequence per status instance.
     * {@link #importFromDb(String)} is used to reverse the process when querying
     * the database.
     * 
@@ -108,9 +217,9 @@ public class StatusHelper implements Serializable {
     * @return String encoding of the passed statuses
     */
    public static String exportToDb(List <Status> statuses) {
-      StringBuilder str = new StringBuilder();
+      StringBuilder str = new StringBuilder(32 * statuses.size());
       for (Status status : statuses) {
-         str.append(status.encode());
+         if (status != null) str.append(status.encode());
       }
       return str.toString();
    }
@@ -118,7 +227,8 @@ public class StatusHelper implements Serializable {
    /**
     * Sorts a {@link java.util.List List} of {@link Status} instances by their
     * {@link StatusType} ordinal. Within an ordinal, the original order of the
-    * Status instances is retained.
+    * Status instances is retained. Null entries are treated as
+    * {@link StatusType#UNKNOWN}.
     * 
     * @param unsorted the unsorted List
     * @param ascending boolean indicating the order of the sort. If true, the
@@ -128,38 +238,36 @@ public class StatusHelper implements Serializable {
     * @return sorted list.
     */
    public static List <Status> sortByStatusType(List <Status> unsorted, boolean ascending) {
-      boolean repeat;
-      Status[] work = unsorted.toArray(new Status[0]);
-      do {
-         repeat = false;
-         for (int i = 0; i < work.length - 1; i++ ) {
-            if (comp(work[i].getStatusType().ordinal(), 
-                     work[i + 1].getStatusType().ordinal(), 
-                     ascending)) {
-               Status hold = work[i];
-               work[i] = work[i + 1];
-               work[i + 1] = hold;
-               repeat = true;
-            }
+      Map <StatusType, List <Status>> byType = new EnumMap <>(StatusType.class);
+      for (Status status : unsorted) {
+         StatusType type = status == null ? StatusType.UNKNOWN : status
+            .getStatusType();
+         List <Status> list = byType.get(type);
+         if (list == null) {
+            list = new ArrayList <>();
+            byType.put(type, list);
          }
-      } while (repeat);
-      List <Status> sorted = new ArrayList <Status>();
-      for (Status s : work)
-         sorted.add(s);
+         list.add(status);
+      }
+      List <Status> sorted = new ArrayList <Status>(unsorted.size());
+      StatusType[] types = StatusType.values();
+      for (int i = 0; i < types.length; i++ ) {
+         List <Status> list =
+            byType.get(types[ascending ? i : types.length - 1 - i]);
+         if (list != null) sorted.addAll(list);
+      }
       return sorted;
    }
-   private static boolean comp(Integer i, Integer j, boolean ascending) {
-      if (i == j) return false;
-      if (i > j) return ascending;
-      return !ascending;
-   }
 
    /**
     * Adds a Status code set to those being handled by {@link StatusHelper} for
     * this application. Before being added, the passed class will be validated:
     * <ul>
     * <li>It must be an {@link java.lang.Enum enum}.</li>
-    * <li>The class must have a set code, unique for the application.</li>
+    * <li>The class must have a set code and a set id, each unique for the
+    * application.</li>
+    * <li>Each member must have an id, see {@link Status#getId()}, unique within
+    * the class.</li>
     * <li>It must implement a static method which takes as its only argument
     * the name of one of its members and returns the enum instance for that
     * member cast to the Status interface.</li>
@@ -167,10 +275,14 @@ public class StatusHelper implements Serializable {
     * 
     * @param setCode The setCode string for this enum. Must not contain white
     * space, commas (",") or vertical bars ("|"),
+    * @param setId The set id for this enum, 1 to {@link #MAX_SET_ID}. Once
+    * statuses have been stored, it must not be changed or given to another
+    * enum.
     * @param cls The {@link Class} of the Status enum for this set, which must
     * implement the {@link Status} interface.
     */
-   public static void addCodeSet(String setCode, Class <? extends Status> cls) {
+   public static void addCodeSet(String setCode, int setId,
+      Class <? extends Status> cls) {
       Method method = null;
       try {
 
@@ -193,8 +305,12 @@ public class StatusHelper implements Serializable {
             throw new Exception("invalid set code in: "
                + cls.getCanonicalName());
 
-         if (statusSets.containsKey(setCode)) {
-            Class <?> existingCls = statusSets.get(setCode).getClass();
+         if (setId < 1 || setId > MAX_SET_ID)
+            throw new Exception("invalid set id " + setId + " in: "
+               + cls.getCanonicalName());
+
+         Class <?> existingCls = statusSets.get(setCode);
+         if (existingCls != null) {
             if (!existingCls.equals(cls)) { throw new Exception(
                "More than one status class for code " + setCode + " "
                   + existingCls.getCanonicalName() + " and "
@@ -203,7 +319,34 @@ public class StatusHelper implements Serializable {
                + " registered more than once.");
             return;
          }
-         statusSets.put(setCode, method);
+         existingCls = statusSetIds.get(setId);
+         if (existingCls != null && !existingCls.equals(cls))
+            throw new Exception("More than one status class for set id "
+               + setId + " " + existingCls.getCanonicalName() + " and "
+               + cls.getCanonicalName());
+         /*
+          * Enter the encoding of each member. Called from the static block of
+          * the enum, after its members have been constructed.
+          */
+         for (Status status : cls.getEnumConstants()) {
+            String code = StringUtils.removeEnd(status.encode(), "|");
+            Status existing = statusCodes.put(code, status);
+            if (existing != null && existing != status)
+               throw new Exception("status encoding " + code + " used by "
+                  + existing.getClass().getCanonicalName() + " and "
+                  + cls.getCanonicalName());
+            int id = status.getId();
+            if (id < 1 || id > MAX_STATUS_ID)
+               throw new Exception("invalid id " + id + " for " + status
+                  + " in: " + cls.getCanonicalName());
+            existing = statusesByPackedCode.put(pack(setId, id), status);
+            if (existing != null && existing != status)
+               throw new Exception("status id " + id + " used by " + existing
+                  + " and " + status + " in: " + cls.getCanonicalName());
+            packedCodes.put(status, pack(setId, id));
+         }
+         statusSetIds.put(setId, cls);
+         statusSets.put(setCode, cls);
       } catch (Exception e) {
          Util.exit("StatusHelper.addCodeSet error: " + e.getMessage());
       }
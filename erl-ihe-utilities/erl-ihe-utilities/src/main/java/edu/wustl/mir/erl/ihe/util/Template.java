@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ *******************************************************************************/
+package edu.wustl.mir.erl.ihe.util;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A string with ${name} parameters, parsed once into literal and parameter
+ * segments so that it can be filled in many times, each in a single pass,
+ * optionally straight to a {@link java.io.Writer Writer}. Used by
+ * {@link Plug}, and for large forms which are filled in for each request.
+ * Substitution follows the rules Plug has always used:
+ * <ul>
+ * <li>A ${name} with no value is left in the output as is.</li>
+ * <li>A value which itself contains ${name} parameters is filled in from the
+ * same values. A value which refers back to itself is an error.</li>
+ * <li>$${name} is an escape, and is output as ${name}.</li>
+ * </ul>
+ * Instances are immutable and may be shared between threads. Keep the
+ * compiled instance for text used repeatedly, for example a master form
+ * loaded in a static initializer.
+ */
+public class Template implements Serializable {
+   private static final long serialVersionUID = 1L;
+
+   private static final int NESTED_CACHE_SIZE = 256;
+
+   /**
+    * Templates for values containing parameters, which are filled in when the
+    * value is substituted. Values such as snippets recur, so a few are kept.
+    */
+   private static final Map <String, Template> nested = Collections
+      .synchronizedMap(new LinkedHashMap <String, Template>(64, 0.75f, true) {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry <String, Template> e) {
+            return size() > NESTED_CACHE_SIZE;
+         }
+      });
+
+   /**
+    * Supplies parameter values for {@link Template#render(Resolver, Appendable)}.
+    */
+   public interface Resolver {
+      /**
+       * @param name parameter name, without the ${ }.
+       * @return value for the parameter, or null if it has none, in which case
+       * the parameter is left in the output.
+       */
+      String resolve(String name);
+   }
+
+   /** The source text. */
+   private final String source;
+   /**
+    * Segments, in order. Even indices are literal text, odd indices are
+    * parameter names, so there is always one more literal than parameter.
+    */
+   private final String[] segments;
+
+   private Template(String source, String[] segments) {
+      this.source = source;
+      this.segments = segments;
+   }
+
+   /**
+    * Parses the passed text.
+    *
+    * @param text with ${name} parameters. null is treated as the empty string.
+    * @return template for text.
+    */
+   public static Template compile(String text) {
+      if (text == null) text = "";
+      List <String> segs = new ArrayList <>();
+      StringBuilder literal = new StringBuilder();
+      int i = 0;
+      int len = text.length();
+      while (i < len) {
+         int d = text.indexOf('$', i);
+         if (d < 0) {
+            literal.append(text, i, len);
+            break;
+         }
+         literal.append(text, i, d);
+         // ------------------------------------------ $${name} escape
+         if (text.startsWith("$${", d)) {
+            int end = text.indexOf('}', d + 3);
+            if (end >= 0) {
+               literal.append(text, d + 1, end + 1);
+               i = end + 1;
+               continue;
+            }
+         }
+         if (text.startsWith("${", d)) {
+            int end = text.indexOf('}', d + 2);
+            if (end >= 0) {
+               segs.add(literal.toString());
+               literal.setLength(0);
+               segs.add(text.substring(d + 2, end));
+               i = end + 1;
+               continue;
+            }
+         }
+         literal.append('$');
+         i = d + 1;
+      }
+      segs.add(literal.toString());
+      return new Template(text, segs.toArray(new String[segs.size()]));
+   }
+
+   /**
+    * Fills in the template from a map of values.
+    *
+    * @param values parameter values by name.
+    * @return filled in text.
+    */
+   public String render(Map <String, String> values) {
+      StringBuilder out = new StringBuilder(source.length() + 256);
+      try {
+         render(mapResolver(values), out);
+      } catch (IOException e) {
+         // StringBuilder does not throw IOException
+      }
+      return out.toString();
+   }
+
+   /**
+    * Fills in the template from a map of values, writing it to out.
+    *
+    * @param values parameter values by name.
+    * @param out destination, for example a Writer.
+    * @throws IOException on error writing to out.
+    */
+   public void render(Map <String, String> values, Appendable out)
+      throws IOException {
+      render(mapResolver(values), out);
+   }
+
+   /**
+    * Fills in the template, getting values from resolver, writing it to out.
+    *
+    * @param resolver supplies values.
+    * @param out destination, for example a Writer.
+    * @throws IOException on error writing to out.
+    */
+   public void render(Resolver resolver, Appendable out) throws IOException {
+      render(resolver, out, new ArrayList <String>());
+   }
+
+   private void render(Resolver resolver, Appendable out, List <String> active)
+      throws IOException {
+      out.append(segments[0]);
+      for (int i = 1; i < segments.length; i += 2) {
+         String name = segments[i];
+         String value = resolver.resolve(name);
+         if (value == null) {
+            out.append("${").append(name).append('}');
+         } else if (value.indexOf('$') < 0) {
+            out.append(value);
+         } else {
+            if (active.contains(name))
+               throw new IllegalStateException("Infinite loop in template: ${"
+                  + name + "} refers to itself");
+            active.add(name);
+            nestedTemplate(value).render(resolver, out, active);
+            active.remove(active.size() - 1);
+         }
+         out.append(segments[i + 1]);
+      }
+   }
+
+   private static Template nestedTemplate(String text) {
+      Template t = nested.get(text);
+      if (t == null) {
+         t = compile(text);
+         nested.put(text, t);
+      }
+      return t;
+   }
+
+   private static Resolver mapResolver(final Map <String, String> values) {
+      return new Resolver() {
+         @Override
+         public String resolve(String name) {
+            return values.get(name);
+         }
+      };
+   }
+
+   /**
+    * @return the {@link #source} value.
+    */
+   public String getSource() {
+      return source;
+   }
+
+   /**
+    * @return number of ${name} parameters in the template.
+    */
+   public int getParameterCount() {
+      return segments.length / 2;
+   }
+
+} // EO Template class
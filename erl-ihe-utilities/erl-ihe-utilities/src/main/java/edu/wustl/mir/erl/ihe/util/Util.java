@@ -16,8 +16,6 @@ package edu.wustl.mir.erl.ihe.util;
 import java.io.File;
 import java.io.InputStream;
 import java.io.Serializable;
-import java.io.StringReader;
-import java.io.StringWriter;
 import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.URL;
@@ -40,8 +38,6 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.HelpFormatter;
@@ -58,18 +54,12 @@ import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
 import org.apache.tools.ant.DirectoryScanner;
 import org.javatuples.LabelValue;
-import org.w3c.dom.Document;
-import org.xml.sax.InputSource;
-
-import com.sun.org.apache.xml.internal.serialize.OutputFormat;
-import com.sun.org.apache.xml.internal.serialize.XMLSerializer;
 
 /**
  * General utility methods for IHE Connectathon tools software.
  * 
  * @author Ralph Moulton / MIR WUSTL IHE Development Project
  */
-@SuppressWarnings("restriction")
 public class Util implements Serializable, UtilProperties {
    private static final long serialVersionUID = 1L;
 
@@ -288,6 +278,22 @@ public class Util implements Serializable, UtilProperties {
       return exec;
    }
 
+   /**
+    * Gets the thread pool for one HTTP server, creating it the first time it
+    * is requested.
+    * 
+    * @param name pool name, for example "wse-" + endpointId.
+    * @param properties element of the server in the application properties,
+    * which may contain an {@code <Executor>} element. May be null.
+    * @return {@link ServerExecutor} for the server.
+    * @throws Exception if the executor properties are invalid.
+    * @see ServerExecutor
+    */
+   public static ServerExecutor getExec(String name,
+      HierarchicalConfiguration properties) throws Exception {
+      return ServerExecutor.getInstance(name, properties);
+   }
+
    /**
     * @return String the fully qualified domain name for the server the
     * application is running on. This defaults to the
@@ -869,7 +875,9 @@ public class Util implements Serializable, UtilProperties {
    }
 
    /**
-    * Attempts to format an XML String for pretty printing.
+    * Attempts to format an XML String for pretty printing. Any text preceding
+    * the XML declaration, for example HTTP headers, is kept. See
+    * {@link XmlPrettyPrinter}.
     * 
     * @param msg XML String to format.
     * @return String If the attempt to format the XML message for pretty print
@@ -879,7 +887,20 @@ public class Util implements Serializable, UtilProperties {
     * exception is thrown.</p>
     */
    public static String prettyPrintXML(String msg) {
-      String xml;
+      return prettyPrintXML(msg, 0);
+   }
+
+   /**
+    * Attempts to format an XML String for pretty printing, as
+    * {@link #prettyPrintXML(String)}, with a limit on the length of the
+    * formatted document.
+    * 
+    * @param msg XML String to format.
+    * @param maxChars maximum length of the formatted document, 0 for no
+    * limit. Longer documents are truncated, with a note.
+    * @return formatted message, or the original message on error.
+    */
+   public static String prettyPrintXML(String msg, int maxChars) {
       String n = System.getProperty("line.separator");
       try {
          // ---------------------------- make sure something is there
@@ -888,26 +909,9 @@ public class Util implements Serializable, UtilProperties {
          String hdr = StringUtils.substringBefore(m, "<?xml");
          if (hdr.length() == m.length())
             throw new Exception("no XML document in message");
-         xml = StringUtils.substringAfter(m, hdr);
-         // -------------------------------------- String => Document
-         InputSource src = new InputSource(new StringReader(xml));
-         DocumentBuilderFactory dbFactory =
-            DocumentBuilderFactory.newInstance();
-         dbFactory.setNamespaceAware(true);
-         Document doc = dbFactory.newDocumentBuilder().parse(src);
-         // ------------------------------------ Pretty print format
-         OutputFormat format = new OutputFormat();
-         format.setMediaType("text");
-         format.setLineWidth(80);
-         format.setIndenting(true);
-         format.setIndent(3);
-         format.setEncoding(UTF_8);
-         // -------------------------------------- Document => String
-         StringWriter stringOut = new StringWriter();
-         XMLSerializer serial = new XMLSerializer(stringOut, format);
-         serial.serialize(doc);
-         return hdr + n + stringOut.toString();
-
+         String xml = m.substring(hdr.length());
+         return hdr + n + XmlPrettyPrinter.XML.withMaxChars(maxChars)
+            .format(xml);
       } catch (Exception e) {
          log.warn("prettyPrintXML error:" + e.getMessage());
          return msg;
@@ -915,7 +919,8 @@ public class Util implements Serializable, UtilProperties {
    } // EO prettyPrintXML
 
    /**
-    * Attempts to format a SOAP message for pretty printing.
+    * Attempts to format a SOAP message for pretty printing. See
+    * {@link XmlPrettyPrinter}.
     * 
     * @param msg SOAP msg to format.
     * @return String If the attempt to format the SOAP message for pretty print
@@ -925,35 +930,30 @@ public class Util implements Serializable, UtilProperties {
     * exception is thrown.</p>
     */
    public static String prettyPrintSOAP(String msg) {
+      return prettyPrintSOAP(msg, 0);
+   }
+
+   /**
+    * Attempts to format a SOAP message for pretty printing, as
+    * {@link #prettyPrintSOAP(String)}, with a limit on the length of the
+    * formatted message.
+    * 
+    * @param msg SOAP msg to format.
+    * @param maxChars maximum length of the formatted message, 0 for no limit.
+    * Longer messages are truncated, with a note.
+    * @return formatted message, or the original message on error.
+    */
+   public static String prettyPrintSOAP(String msg, int maxChars) {
       try {
          // ---------------------------- make sure something is there
          String xml = StringUtils.stripToEmpty(msg);
          if (xml.length() == 0) throw new Exception("message empty or null");
-         // -------------------------------------- String => Document
-         InputSource src = new InputSource(new StringReader(xml));
-         DocumentBuilderFactory dbFactory =
-            DocumentBuilderFactory.newInstance();
-         dbFactory.setNamespaceAware(true);
-         Document doc = dbFactory.newDocumentBuilder().parse(src);
-         // ------------------------------------ Pretty print format
-         OutputFormat format = new OutputFormat();
-         format.setMediaType("text");
-         format.setLineWidth(80);
-         format.setIndenting(true);
-         format.setIndent(3);
-         format.setEncoding(UTF_8);
-         format.setOmitXMLDeclaration(true);
-         // -------------------------------------- Document => String
-         StringWriter stringOut = new StringWriter();
-         XMLSerializer serial = new XMLSerializer(stringOut, format);
-         serial.serialize(doc);
-         return stringOut.toString();
-
+         return XmlPrettyPrinter.SOAP.withMaxChars(maxChars).format(xml);
       } catch (Exception e) {
-         log.warn("prettyPrintXML error:" + e.getMessage());
+         log.warn("prettyPrintSOAP error:" + e.getMessage());
          return nl + msg;
       }
-   } // EO prettyPrintXML
+   } // EO prettyPrintSOAP
 
    /**
     * Throw an exception if the passed object is null
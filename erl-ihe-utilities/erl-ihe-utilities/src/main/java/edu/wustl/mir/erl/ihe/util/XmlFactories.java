@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ ******************************************************************************/
+package edu.wustl.mir.erl.ihe.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.soap.SOAPException;
+import javax.xml.soap.SOAPFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathFactory;
+
+/**
+ * Shared XML parsers, transformers, XPath and SOAP factories. Each JAXP
+ * factory lookup searches system properties, jaxp.properties and the class
+ * path, so it is done once here, rather than on each parse or transform.
+ * <ul>
+ * <li>The DocumentBuilder, Transformer and XPath factories are created once,
+ * when this class is loaded, and used under their own locks, since JAXP
+ * factories are not thread safe.</li>
+ * <li>{@link #getDocumentBuilder()} returns a builder confined to the calling
+ * thread, reset to its initial state on each call. It must not be passed to
+ * another thread, or kept after the next call on the same thread.</li>
+ * <li>{@link #transform(Source, Result)} copies a source to a result with an
+ * identity transformer confined to the calling thread. The transformer is not
+ * handed out, since the JDK transformer does not clear output properties,
+ * such as indent, on reset. {@link #newTransformer()} returns a new one for
+ * callers which set properties.</li>
+ * <li>{@link #newXPath()} returns a new XPath, which may be kept.</li>
+ * <li>{@link #getXMLInputFactory(boolean)} and
+ * {@link #getSOAPFactory(String)} return factories confined to the calling
+ * thread, created the first time the thread asks for them.</li>
+ * </ul>
+ * Document builders are namespace aware.
+ */
+public class XmlFactories {
+
+   private static final String REPORT_CDATA =
+      "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+   private static final DocumentBuilderFactory documentBuilderFactory;
+   private static final TransformerFactory transformerFactory;
+   private static final XPathFactory xpathFactory;
+
+   static {
+      documentBuilderFactory = DocumentBuilderFactory.newInstance();
+      documentBuilderFactory.setNamespaceAware(true);
+      transformerFactory = TransformerFactory.newInstance();
+      xpathFactory = XPathFactory.newInstance();
+   }
+
+   private static final ThreadLocal <DocumentBuilder> documentBuilder =
+      new ThreadLocal <DocumentBuilder>() {
+         @Override
+         protected DocumentBuilder initialValue() {
+            try {
+               synchronized (documentBuilderFactory) {
+                  return documentBuilderFactory.newDocumentBuilder();
+               }
+            } catch (ParserConfigurationException e) {
+               throw new IllegalStateException(e);
+            }
+         }
+      };
+
+   private static final ThreadLocal <Transformer> transformer =
+      new ThreadLocal <Transformer>() {
+         @Override
+         protected Transformer initialValue() {
+            try {
+               return newTransformer();
+            } catch (TransformerConfigurationException e) {
+               throw new IllegalStateException(e);
+            }
+         }
+      };
+
+   /** StAX factories, [0] not coalescing, [1] coalescing. */
+   private static final ThreadLocal <XMLInputFactory[]> inputFactories =
+      new ThreadLocal <XMLInputFactory[]>() {
+         @Override
+         protected XMLInputFactory[] initialValue() {
+            return new XMLInputFactory[2];
+         }
+      };
+
+   /** SOAP factories by protocol. */
+   private static final ThreadLocal <Map <String, SOAPFactory>> soapFactories =
+      new ThreadLocal <Map <String, SOAPFactory>>() {
+         @Override
+         protected Map <String, SOAPFactory> initialValue() {
+            return new HashMap <>();
+         }
+      };
+
+   private XmlFactories() {}
+
+   /**
+    * @return namespace aware DocumentBuilder for the calling thread, reset,
+    * so without any ErrorHandler or EntityResolver set by an earlier caller.
+    */
+   public static DocumentBuilder getDocumentBuilder() {
+      DocumentBuilder db = documentBuilder.get();
+      db.reset();
+      return db;
+   }
+
+   /**
+    * Copies a source to a result, with the identity transformer for the
+    * calling thread, using default output properties.
+    *
+    * @param source the source.
+    * @param result the result.
+    * @throws TransformerException on error.
+    */
+   public static void transform(Source source, Result result)
+      throws TransformerException {
+      transformer.get().transform(source, result);
+   }
+
+   /**
+    * @return new identity Transformer, from the shared factory, which the
+    * caller may configure.
+    * @throws TransformerConfigurationException on error.
+    */
+   public static Transformer newTransformer()
+      throws TransformerConfigurationException {
+      synchronized (transformerFactory) {
+         return transformerFactory.newTransformer();
+      }
+   }
+
+   /**
+    * @return new XPath, from the shared factory.
+    */
+   public static XPath newXPath() {
+      synchronized (xpathFactory) {
+         return xpathFactory.newXPath();
+      }
+   }
+
+   /**
+    * Gets the StAX input factory for the calling thread. Factories are
+    * namespace aware, and do not support DTDs or external entities. One which
+    * is not coalescing reports CDATA sections as CDATA events, where the
+    * implementation supports it.
+    *
+    * @param coalescing true for a factory which coalesces adjacent text,
+    * including CDATA sections, into one CHARACTERS event.
+    * @return the factory. Must not be reconfigured.
+    */
+   public static XMLInputFactory getXMLInputFactory(boolean coalescing) {
+      XMLInputFactory[] factories = inputFactories.get();
+      int i = coalescing ? 1 : 0;
+      if (factories[i] == null) {
+         XMLInputFactory f = XMLInputFactory.newInstance();
+         f.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+         f.setProperty(XMLInputFactory.IS_COALESCING, coalescing);
+         f.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+         f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+            Boolean.FALSE);
+         // JDK parser reports CDATA as characters unless asked not to.
+         if (coalescing == false && f.isPropertySupported(REPORT_CDATA))
+            f.setProperty(REPORT_CDATA, Boolean.TRUE);
+         factories[i] = f;
+      }
+      return factories[i];
+   }
+
+   /**
+    * Gets the SAAJ SOAPFactory for a protocol, for the calling thread.
+    *
+    * @param protocol for example
+    * {@link javax.xml.soap.SOAPConstants#SOAP_1_2_PROTOCOL SOAP_1_2_PROTOCOL}.
+    * @return the factory.
+    * @throws SOAPException if there is no factory for the protocol.
+    */
+   public static SOAPFactory getSOAPFactory(String protocol)
+      throws SOAPException {
+      Map <String, SOAPFactory> factories = soapFactories.get();
+      SOAPFactory f = factories.get(protocol);
+      if (f == null) {
+         f = SOAPFactory.newInstance(protocol);
+         factories.put(protocol, f);
+      }
+      return f;
+   }
+
+} // EO XmlFactories class
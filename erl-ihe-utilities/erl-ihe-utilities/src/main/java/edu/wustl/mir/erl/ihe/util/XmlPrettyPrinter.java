@@ -0,0 +1,340 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ ******************************************************************************/
+package edu.wustl.mir.erl.ihe.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Streaming XML pretty printer. Reads the document with StAX and writes it,
+ * indented, directly to a {@link Writer}, in one pass and without building a
+ * DOM, so memory use does not depend on the size of the document.
+ * <ul>
+ * <li>Elements are indented {@link #getIndent()} spaces per level.
+ * Whitespace between elements is replaced by the indentation; other text is
+ * written as is, escaped, on the line of its element, as it is read, so a
+ * long text node is not held in memory. Entity references which the parser
+ * reports, rather than replaces, are written unchanged.</li>
+ * <li>Comments, processing instructions and CDATA sections are kept.</li>
+ * <li>Output may be capped at {@link #getMaxChars()} characters. Reading
+ * stops when the cap is reached, and a note is appended.</li>
+ * </ul>
+ * Instances are immutable and may be shared. The StAX factory comes from
+ * {@link XmlFactories#getXMLInputFactory(boolean)}.
+ */
+public class XmlPrettyPrinter implements UtilProperties {
+
+   /** Indent 3, XML declaration, no cap. */
+   public static final XmlPrettyPrinter XML = new XmlPrettyPrinter(3, false, 0);
+   /** Indent 3, no XML declaration, no cap. */
+   public static final XmlPrettyPrinter SOAP = new XmlPrettyPrinter(3, true, 0);
+
+   private static final String SPACES = StringUtils.repeat(" ", 120);
+
+   private final int indent;
+   private final boolean omitXmlDeclaration;
+   private final int maxChars;
+
+   /**
+    * @param indent number of spaces per level.
+    * @param omitXmlDeclaration true to omit the XML declaration.
+    * @param maxChars maximum number of characters to write, or 0 for no
+    * limit. Output is cut at the limit, and a note is appended.
+    */
+   public XmlPrettyPrinter(int indent, boolean omitXmlDeclaration,
+      int maxChars) {
+      this.indent = Math.max(0, indent);
+      this.omitXmlDeclaration = omitXmlDeclaration;
+      this.maxChars = Math.max(0, maxChars);
+   }
+
+   /**
+    * @param max maximum number of characters to write, 0 for no limit.
+    * @return a printer like this one, with the passed limit.
+    */
+   public XmlPrettyPrinter withMaxChars(int max) {
+      return new XmlPrettyPrinter(indent, omitXmlDeclaration, max);
+   }
+
+   /**
+    * Formats a document.
+    *
+    * @param in XML document.
+    * @param out destination.
+    * @return true if the whole document was written, false if output was cut
+    * at {@link #getMaxChars()}.
+    * @throws XMLStreamException if the document is not well formed.
+    * @throws IOException on error writing out.
+    */
+   public boolean format(Reader in, Writer out)
+      throws XMLStreamException, IOException {
+      XMLStreamReader r =
+         XmlFactories.getXMLInputFactory(false).createXMLStreamReader(in);
+      Output o = new Output(out, maxChars);
+      try {
+         if (omitXmlDeclaration == false) {
+            String version = r.getVersion();
+            o.write("<?xml version=\"" + (version == null ? "1.0" : version)
+               + "\" encoding=\"" + UTF_8 + "\"?>");
+         }
+         int depth = 0;
+         boolean startOpen = false; // start tag written up to the ">"
+         boolean inlineText = false; // element has text on its line
+         boolean inText = false; // writing a run of text which is not space
+         // whitespace at the start of a run of text, dropped if nothing else
+         // follows it before the next tag, so never more than fits the cap.
+         StringBuilder space = new StringBuilder();
+         while (r.hasNext() && o.full == false) {
+            int event = r.next();
+            boolean entity = event == XMLStreamConstants.ENTITY_REFERENCE;
+            if (entity || event == XMLStreamConstants.CHARACTERS
+               || event == XMLStreamConstants.SPACE) {
+               CharBuffer chars = entity ? null : CharBuffer.wrap(
+                  r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+               if (inText == false) {
+                  if (entity == false && isWhitespace(chars)) {
+                     if (maxChars == 0 || o.count + space.length() < maxChars)
+                        space.append(chars);
+                     continue;
+                  }
+                  if (startOpen) o.write(">");
+                  startOpen = false;
+                  o.write(space.toString());
+                  space.setLength(0);
+                  inText = true;
+                  inlineText = true;
+               }
+               // entity references are written as they were in the document
+               if (entity) o.write("&" + r.getLocalName() + ";");
+               else escape(o, chars, false);
+               continue;
+            }
+            // ------------------------- end of any run of text
+            space.setLength(0);
+            inText = false;
+            switch (event) {
+               case XMLStreamConstants.START_ELEMENT:
+                  if (startOpen) o.write(">");
+                  newLine(o, depth);
+                  o.write("<");
+                  o.write(qName(r.getPrefix(), r.getLocalName()));
+                  for (int i = 0; i < r.getNamespaceCount(); i++ ) {
+                     String p = r.getNamespacePrefix(i);
+                     o.write(StringUtils.isEmpty(p) ? " xmlns=\"" : " xmlns:"
+                        + p + "=\"");
+                     escape(o, StringUtils.defaultString(
+                        r.getNamespaceURI(i)), true);
+                     o.write("\"");
+                  }
+                  for (int i = 0; i < r.getAttributeCount(); i++ ) {
+                     o.write(" ");
+                     o.write(qName(r.getAttributePrefix(i),
+                        r.getAttributeLocalName(i)));
+                     o.write("=\"");
+                     escape(o, r.getAttributeValue(i), true);
+                     o.write("\"");
+                  }
+                  startOpen = true;
+                  inlineText = false;
+                  depth++ ;
+                  break;
+               case XMLStreamConstants.END_ELEMENT:
+                  depth-- ;
+                  if (startOpen) {
+                     o.write("/>");
+                  } else {
+                     if (inlineText == false) newLine(o, depth);
+                     o.write("</");
+                     o.write(qName(r.getPrefix(), r.getLocalName()));
+                     o.write(">");
+                  }
+                  startOpen = false;
+                  inlineText = false;
+                  break;
+               case XMLStreamConstants.CDATA:
+                  if (startOpen) o.write(">");
+                  startOpen = false;
+                  o.write("<![CDATA[");
+                  o.write(r.getText());
+                  o.write("]]>");
+                  inlineText = true;
+                  break;
+               case XMLStreamConstants.COMMENT:
+                  if (startOpen) o.write(">");
+                  startOpen = false;
+                  newLine(o, depth);
+                  o.write("<!--");
+                  o.write(r.getText());
+                  o.write("-->");
+                  break;
+               case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                  if (startOpen) o.write(">");
+                  startOpen = false;
+                  newLine(o, depth);
+                  o.write("<?");
+                  o.write(r.getPITarget());
+                  String data = r.getPIData();
+                  if (StringUtils.isNotEmpty(data)) o.write(" " + data);
+                  o.write("?>");
+                  break;
+               default:
+            }
+         }
+      } finally {
+         r.close();
+      }
+      if (o.full) {
+         out.write(nl + "... output truncated at " + maxChars + " characters");
+         return false;
+      }
+      return true;
+   }
+
+   /**
+    * Formats a document held in a String.
+    *
+    * @param xml XML document.
+    * @return formatted document.
+    * @throws XMLStreamException if the document is not well formed.
+    */
+   public String format(String xml) throws XMLStreamException {
+      StringWriter out = new StringWriter(xml.length() + xml.length() / 4);
+      try {
+         format(new StringReader(xml), out);
+      } catch (IOException e) {
+         // StringWriter does not throw IOException
+         throw new XMLStreamException(e);
+      }
+      return out.toString();
+   }
+
+   private void newLine(Output o, int depth) throws IOException {
+      if (o.count > 0) o.write(nl);
+      int n = depth * indent;
+      while (n > 0) {
+         int m = Math.min(n, SPACES.length());
+         o.write(SPACES, 0, m);
+         n -= m;
+      }
+   }
+
+   private static String qName(String prefix, String localName) {
+      if (StringUtils.isEmpty(prefix)) return localName;
+      return prefix + ":" + localName;
+   }
+
+   private static boolean isWhitespace(CharSequence s) {
+      for (int i = 0; i < s.length(); i++ )
+         if (Character.isWhitespace(s.charAt(i)) == false) return false;
+      return true;
+   }
+
+   private static void escape(Output o, CharSequence s, boolean attribute)
+      throws IOException {
+      if (o.full) return;
+      String str = s.toString();
+      int run = 0; // start of characters not yet written
+      for (int i = 0; i < str.length(); i++ ) {
+         char c = str.charAt(i);
+         String e;
+         switch (c) {
+            case '<':
+               e = "&lt;";
+               break;
+            case '>':
+               e = "&gt;";
+               break;
+            case '&':
+               e = "&amp;";
+               break;
+            case '"':
+               e = attribute ? "&quot;" : null;
+               break;
+            case '\n':
+            case '\r':
+            case '\t':
+               e = attribute ? "&#" + (int) c + ";" : null;
+               break;
+            default:
+               e = null;
+         }
+         if (e == null) continue;
+         o.write(str, run, i - run);
+         o.write(e);
+         run = i + 1;
+      }
+      o.write(str, run, str.length() - run);
+   }
+
+   /**
+    * @return the {@link #indent} value.
+    */
+   public int getIndent() {
+      return indent;
+   }
+
+   /**
+    * @return the {@link #omitXmlDeclaration} value.
+    */
+   public boolean isOmitXmlDeclaration() {
+      return omitXmlDeclaration;
+   }
+
+   /**
+    * @return the {@link #maxChars} value.
+    */
+   public int getMaxChars() {
+      return maxChars;
+   }
+
+   /**
+    * Counts characters written, and drops them once the cap is reached.
+    */
+   private static class Output {
+      private final Writer out;
+      private final int max;
+      private long count = 0;
+      private boolean full = false;
+
+      Output(Writer out, int max) {
+         this.out = out;
+         this.max = max;
+      }
+
+      void write(String s) throws IOException {
+         write(s, 0, s.length());
+      }
+
+      void write(String s, int off, int len) throws IOException {
+         if (full || len <= 0) return;
+         if (max > 0 && count + len > max) {
+            len = (int) (max - count);
+            full = true;
+         }
+         out.write(s, off, len);
+         count += len;
+      }
+   } // EO Output inner class
+
+} // EO XmlPrettyPrinter class
@@ -23,9 +23,6 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -92,10 +89,7 @@ public class XmlUtil implements Serializable, UtilProperties {
    public static Element strToElement(String xmlStr) throws Exception {
       InputStream sbis =
          new ByteArrayInputStream(xmlStr.getBytes(CHAR_SET_UTF_8));
-      DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-      dbf.setNamespaceAware(true);
-      DocumentBuilder db = dbf.newDocumentBuilder();
-      Document doc = db.parse(sbis);
+      Document doc = XmlFactories.getDocumentBuilder().parse(sbis);
       return doc.getDocumentElement();
    }
    
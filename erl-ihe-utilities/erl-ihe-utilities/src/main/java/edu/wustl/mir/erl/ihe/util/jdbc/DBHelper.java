@@ -1,17 +1,29 @@
 package edu.wustl.mir.erl.ihe.util.jdbc;
 
 import java.io.Serializable;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
-import org.apache.commons.dbutils.ResultSetHandler;
-import org.apache.commons.dbutils.handlers.BeanHandler;
-import org.apache.commons.dbutils.handlers.BeanListHandler;
+import org.apache.commons.lang.ClassUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
@@ -45,7 +57,10 @@ import edu.wustl.mir.erl.ihe.util.UtilProperties;
  * 
  * DBHelper will scan the bean on class load, and generate a table of properties
  * which use standard java getters and setters (including the isProperty for for
- * booleans). Properties whose return type implements the
+ * booleans). For each getter and setter, an accessor is generated once, using
+ * {@link LambdaMetafactory}, so that property values are read and written by
+ * direct calls rather than by reflection. Properties whose return type
+ * implements the
  * {@link java.lang.Comparable Comparable} interface, will be considered as
  * Comparable properties. The {@link edu.wustl.mir.erl.ihe.util.jdbc.Helper
  * Helper} annotation can be used to modify how properties are processed.
@@ -108,14 +123,21 @@ public class DBHelper <T> implements Serializable, UtilProperties {
    private Class <?> cls;
    private String clsName;
 
-   private ResultSetHandler <T> nextRowHandler = null;
-   private ResultSetHandler <List <T>> allHandler = null;
+   /** no argument constructor of the class, or null if it has none. */
+   private transient MethodHandle constructor = null;
 
    /**
     * map of bean property names and Property objects;
     */
    private SortedMap <String, Property> properties = new TreeMap <>();
 
+   /**
+    * properties by name as passed to {@link #compare}, so that comparisons
+    * need not fold case.
+    */
+   private Map <String, Property> compareProperties =
+      new ConcurrentHashMap <>();
+
    /**
     * Creates an instance of DBHelper for passed database class type, which
     * should be placed as a static property in the class. For example:
@@ -128,8 +150,13 @@ public class DBHelper <T> implements Serializable, UtilProperties {
     */
    public DBHelper(Class <T> t) {
 
-      nextRowHandler = new BeanHandler <T>(t);
-      allHandler = new BeanListHandler <T>(t);
+      try {
+         constructor =
+            lookup.findConstructor(t, MethodType.methodType(void.class))
+               .asType(MethodType.methodType(Object.class));
+      } catch (NoSuchMethodException | IllegalAccessException e) {
+         // loadNextRow and loadRows will fail.
+      }
 
       try {
          cls = t;
@@ -256,12 +283,15 @@ public class DBHelper <T> implements Serializable, UtilProperties {
                if (property.getter != null) { throw new Exception(
                   "Duplicate getter for property " + propertyName); }
                property.getter = method;
+               property.get = getterFor(method);
                property.type = returnType;
             } else {
                if (property.setter != null) { throw new Exception(
                   "Duplicate setter for property " + propertyName); }
                property.type = parameters[0];
                property.setter = method;
+               property.set = setterFor(method);
+               properties.put(propertyname, property);
                continue;
             }
 
@@ -321,6 +351,11 @@ public class DBHelper <T> implements Serializable, UtilProperties {
              * or be a primitive type, or it will be ignored for Comparisons.
              */
             property.compareMethod = compareMethod;
+            if (compareMethod != null)
+               property.compare =
+                  lookup.unreflect(compareMethod).asType(
+                     MethodType.methodType(int.class, Object.class,
+                        Object.class));
 
             properties.put(propertyname, property);
 
@@ -382,52 +417,50 @@ public class DBHelper <T> implements Serializable, UtilProperties {
          if (!two.getClass().equals(cls))
             throw new Exception("second object not " + clsName);
          // --------------------- Pull property information
-         if (!properties.containsKey(propertyName.toLowerCase()))
-            throw new Exception(clsName + " has no property " + propertyName);
-         Property p = properties.get(propertyName.toLowerCase());
-         if (p.getter == null) throw new Exception(" property has no getter");
+         Property p = compareProperties.get(propertyName);
+         if (p == null) {
+            p = properties.get(propertyName.toLowerCase());
+            if (p == null)
+               throw new Exception(clsName + " has no property " + propertyName);
+            compareProperties.put(propertyName, p);
+         }
+         if (p.get == null) throw new Exception(" property has no getter");
          // --------------- load properties values for bean objects
-         Object pone = p.getter.invoke(one);
-         Object ptwo = p.getter.invoke(two);
+         Object pone = p.get.apply(one);
+         Object ptwo = p.get.apply(two);
          if (!ascending) {
-            Object t = one;
-            one = two;
-            two = t;
+            Object t = pone;
+            pone = ptwo;
+            ptwo = t;
          }
          // ------------------- using override compare method
-         if (p.compareMethod != null) { return (int) p.compareMethod.invoke(
-            null, pone, ptwo); }
-         // ------------------ types with Comparable interface
-         try {
-            if (Comparable.class.isAssignableFrom(p.getClass())) {
-               Method com = p.type.getMethod("compareTo", p.type);
-               return (int) com.invoke(pone, ptwo);
+         if (p.compare != null) {
+            try {
+               return (int) p.compare.invokeExact(pone, ptwo);
+            } catch (Exception | Error e) {
+               throw e;
+            } catch (Throwable e) {
+               throw new UndeclaredThrowableException(e);
             }
-         } catch (Exception ee) {};
+         }
+         // ------------------------------- nulls sort first
+         if (pone == null || ptwo == null) {
+            if (pone == ptwo) return 0;
+            return pone == null ? -1 : 1;
+         }
+         // ---- types with Comparable interface, including boxed primitives
+         if (pone instanceof Comparable) {
+            @SuppressWarnings("unchecked")
+            Comparable <Object> c = (Comparable <Object>) pone;
+            return c.compareTo(ptwo);
+         }
          // ----------------------- other types
          String typeName = p.type.getName();
          switch (typeName) {
-         // Primitive types
-            case "byte":
-               return Byte.compare((byte) one, (byte) two);
-            case "short":
-               return Short.compare((short) one, (short) two);
-            case "long":
-               return Long.compare((long) one, (long) two);
-            case "float":
-               return Float.compare((float) one, (float) two);
-            case "double":
-               return Double.compare((double) one, (double) two);
-            case "char":
-               return Character.compare((char) one, (char) two);
-            case "boolean":
-               return Boolean.compare((boolean) one, (boolean) two);
-            case "int":
-               return Integer.compare((int) one, (int) two);
-               // MOD add other types with relevant toString() methods here.
+         // MOD add other types with relevant toString() methods here.
             case "java.lang.StringBuffer":
             case "org.apache.commons.lang3.text.StrBuilder":
-               return one.toString().compareTo(two.toString());
+               return pone.toString().compareTo(ptwo.toString());
             default:
                throw new Exception("no compare method for type " + typeName);
          }
@@ -456,6 +489,12 @@ public class DBHelper <T> implements Serializable, UtilProperties {
       private Class <?> type = null;
       /** compare method (if null, use standard for type */
       private Method compareMethod = null;
+      /** generated accessor for getter. */
+      private Function <Object, Object> get = null;
+      /** generated accessor for setter. */
+      private BiConsumer <Object, Object> set = null;
+      /** {@link #compareMethod} as (Object, Object)int */
+      private MethodHandle compare = null;
       /** ignore this property in compare processing. */
       private boolean ignoreComp = false;
       /** ignore this property in ResultSet processing. */
@@ -536,6 +575,32 @@ public class DBHelper <T> implements Serializable, UtilProperties {
          return compareMethod;
       }
 
+      /**
+       * Gets the value of this property from a bean, using the generated
+       * accessor for its getter.
+       * 
+       * @param bean instance of the database class.
+       * @return the property value.
+       * @throws Exception if the property has no getter, or the getter fails.
+       */
+      public Object getValue(Object bean) throws Exception {
+         if (get == null) throw new Exception(name + " has no getter");
+         return get.apply(bean);
+      }
+
+      /**
+       * Sets the value of this property in a bean, using the generated
+       * accessor for its setter.
+       * 
+       * @param bean instance of the database class.
+       * @param value new value, which must be of the property {@link #type}.
+       * @throws Exception if the property has no setter, or the setter fails.
+       */
+      public void setValue(Object bean, Object value) throws Exception {
+         if (set == null) throw new Exception(name + " has no setter");
+         set.accept(bean, value);
+      }
+
       /**
        * @return {@link #ignoreComp}
        */
@@ -573,6 +638,10 @@ public class DBHelper <T> implements Serializable, UtilProperties {
     * been repositioned after the query, this will return an instance of T for
     * the first row of the ResultSet. If this method is invoked repeatedly, it
     * will return instances for successive rows of the ResultSet.
+    * <p>
+    * A column matches a property if its label, ignoring case, is the property
+    * name, and the property has a setter and is not ignored for ResultSets.
+    * </p>
     * 
     * @param resultSet Passed result set
     * @return new instance of T, with matching properties loaded, or null if
@@ -580,22 +649,220 @@ public class DBHelper <T> implements Serializable, UtilProperties {
     * @throws Exception on SQL error
     */
    public T loadNextRow(ResultSet resultSet) throws Exception {
-      return nextRowHandler.handle(resultSet);
+      if (resultSet.next() == false) return null;
+      return loadRow(resultSet, columnProperties(resultSet));
    }
 
    /**
     * Generates a List of new instances of T, one for each row of the passed
     * result set after its current position, loading all properties which have a
-    * matching column in the ResultSet. If the ResultSet has not been
-    * repositioned after the query, this will return an instance of T for every
-    * row of the ResultSet.
+    * matching column in the ResultSet, as for {@link #loadNextRow(ResultSet)}.
+    * If the ResultSet has not been repositioned after the query, this will
+    * return an instance of T for every row of the ResultSet.
     * 
     * @param resultSet Passed result set
     * @return a List of instances of T, empty if there are no rows.
     * @throws Exception on SQL error
     */
    public List <T> loadRows(ResultSet resultSet) throws Exception {
-      return allHandler.handle(resultSet);
+      List <T> rows = new ArrayList <>();
+      if (resultSet.next() == false) return rows;
+      List <Property> columns = columnProperties(resultSet);
+      do {
+         rows.add(loadRow(resultSet, columns));
+      } while (resultSet.next());
+      return rows;
+   }
+
+   /**
+    * @return the property loaded from each column of the ResultSet, indexed
+    * by column number - 1, null for columns which load no property.
+    */
+   private List <Property> columnProperties(ResultSet resultSet)
+      throws SQLException {
+      ResultSetMetaData md = resultSet.getMetaData();
+      List <Property> columns = new ArrayList <>(md.getColumnCount());
+      for (int col = 1; col <= md.getColumnCount(); col++ ) {
+         String label = md.getColumnLabel(col);
+         if (StringUtils.isEmpty(label)) label = md.getColumnName(col);
+         Property p = label == null ? null : properties.get(label.toLowerCase());
+         if (p != null && (p.set == null || p.ignoreResultSet)) p = null;
+         columns.add(p);
+      }
+      return columns;
+   }
+
+   /**
+    * Creates an instance of T from the current row of the ResultSet.
+    */
+   @SuppressWarnings("unchecked")
+   private T loadRow(ResultSet resultSet, List <Property> columns)
+      throws Exception {
+      if (constructor == null)
+         throw new Exception(clsName + " has no public no argument constructor");
+      T row;
+      try {
+         row = (T) constructor.invokeExact();
+      } catch (Exception | Error e) {
+         throw e;
+      } catch (Throwable e) {
+         throw new UndeclaredThrowableException(e);
+      }
+      for (int col = 1; col <= columns.size(); col++ ) {
+         Property p = columns.get(col - 1);
+         if (p == null) continue;
+         Object value = getColumn(resultSet, col, p.type);
+         if (value != null && ClassUtils.isAssignable(value.getClass(), p.type,
+            true) == false) throw new SQLException("Cannot set " + p.name
+               + ": incompatible types, cannot convert "
+               + value.getClass().getName() + " to " + p.type.getName());
+         p.set.accept(row, value);
+      }
+      return row;
+   }
+
+   /**
+    * Reads a column value as the type of the property it is loaded into.
+    * SQL NULL is returned as null, or as the default value for primitive
+    * types.
+    */
+   private static Object getColumn(ResultSet resultSet, int col, Class <?> type)
+      throws SQLException {
+      Object value;
+      if (type == String.class) value = resultSet.getString(col);
+      else if (type == Integer.class || type == int.class) value =
+         resultSet.getInt(col);
+      else if (type == Boolean.class || type == boolean.class) value =
+         resultSet.getBoolean(col);
+      else if (type == Long.class || type == long.class) value =
+         resultSet.getLong(col);
+      else if (type == Double.class || type == double.class) value =
+         resultSet.getDouble(col);
+      else if (type == Float.class || type == float.class) value =
+         resultSet.getFloat(col);
+      else if (type == Short.class || type == short.class) value =
+         resultSet.getShort(col);
+      else if (type == Byte.class || type == byte.class) value =
+         resultSet.getByte(col);
+      else if (type == java.util.Date.class || type == java.sql.Timestamp.class)
+         value = resultSet.getTimestamp(col);
+      else if (type == java.sql.Date.class) value = resultSet.getDate(col);
+      else if (type == java.sql.Time.class) value = resultSet.getTime(col);
+      else value = resultSet.getObject(col);
+      if (resultSet.wasNull()) return type.isPrimitive() ? primitiveDefaults
+         .get(type) : null;
+      return value;
+   }
+
+   private static final Map <Class <?>, Object> primitiveDefaults =
+      new HashMap <>();
+   static {
+      primitiveDefaults.put(int.class, 0);
+      primitiveDefaults.put(boolean.class, Boolean.FALSE);
+      primitiveDefaults.put(long.class, 0L);
+      primitiveDefaults.put(double.class, 0.0D);
+      primitiveDefaults.put(float.class, 0.0F);
+      primitiveDefaults.put(short.class, (short) 0);
+      primitiveDefaults.put(byte.class, (byte) 0);
+      primitiveDefaults.put(char.class, (char) 0);
+   }
+
+   // ********************************************************
+   // Generated accessors
+   // ********************************************************
+
+   private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+   /**
+    * Generates a Function which calls the passed getter. Where the bean class
+    * can be linked from this class, the function is generated by
+    * {@link LambdaMetafactory}, and runs as fast as a direct call. Otherwise
+    * it invokes a {@link MethodHandle}.
+    */
+   @SuppressWarnings("unchecked")
+   private static Function <Object, Object> getterFor(Method method)
+      throws Exception {
+      MethodHandle mh = lookup.unreflect(method);
+      if (linkable(method.getDeclaringClass())) {
+         try {
+            CallSite site =
+               LambdaMetafactory.metafactory(lookup, "apply",
+                  MethodType.methodType(Function.class),
+                  MethodType.methodType(Object.class, Object.class), mh, mh
+                     .type().wrap());
+            return (Function <Object, Object>) site.getTarget().invokeExact();
+         } catch (Throwable e) {
+            // fall through to MethodHandle
+         }
+      }
+      final MethodHandle h =
+         mh.asType(MethodType.methodType(Object.class, Object.class));
+      return new Function <Object, Object>() {
+         @Override
+         public Object apply(Object bean) {
+            try {
+               return h.invokeExact(bean);
+            } catch (RuntimeException | Error e) {
+               throw e;
+            } catch (Throwable e) {
+               throw new UndeclaredThrowableException(e);
+            }
+         }
+      };
+   }
+
+   /**
+    * Generates a BiConsumer which calls the passed setter, as for
+    * {@link #getterFor(Method)}.
+    */
+   @SuppressWarnings("unchecked")
+   private static BiConsumer <Object, Object> setterFor(Method method)
+      throws Exception {
+      MethodHandle mh = lookup.unreflect(method);
+      if (linkable(method.getDeclaringClass())) {
+         try {
+            CallSite site =
+               LambdaMetafactory.metafactory(lookup, "accept",
+                  MethodType.methodType(BiConsumer.class),
+                  MethodType.methodType(void.class, Object.class, Object.class),
+                  mh, MethodType.methodType(void.class, mh.type().wrap()
+                     .parameterArray()));
+            return (BiConsumer <Object, Object>) site.getTarget()
+               .invokeExact();
+         } catch (Throwable e) {
+            // fall through to MethodHandle
+         }
+      }
+      final MethodHandle h =
+         mh.asType(MethodType.methodType(void.class, Object.class,
+            Object.class));
+      return new BiConsumer <Object, Object>() {
+         @Override
+         public void accept(Object bean, Object value) {
+            try {
+               h.invokeExact(bean, value);
+            } catch (RuntimeException | Error e) {
+               throw e;
+            } catch (Throwable e) {
+               throw new UndeclaredThrowableException(e);
+            }
+         }
+      };
+   }
+
+   /**
+    * @return true if the generated accessor class, which is defined with
+    * DBHelper as its host, can link to the passed class; that is, the class is
+    * public and visible from the DBHelper class loader.
+    */
+   private static boolean linkable(Class <?> c) {
+      if (Modifier.isPublic(c.getModifiers()) == false) return false;
+      try {
+         return Class.forName(c.getName(), false, DBHelper.class
+            .getClassLoader()) == c;
+      } catch (ClassNotFoundException e) {
+         return false;
+      }
    }
 
    /*
@@ -620,28 +887,47 @@ public class DBHelper <T> implements Serializable, UtilProperties {
    public static final String COMPARE_IP = "compareIp";
 
    /**
-    * Comparator for ipv4 address strings in dot notation.
+    * Comparator for ipv4 address strings in dot notation. Strings which are
+    * not ipv4 addresses, for example ipv6 addresses, sort after those which
+    * are, in String order; nulls sort first.
     * 
     * @param one ipv4 address
     * @param two ipv4 address
     * @return int comparison value.
     */
    public static int compareIp(String one, String two) {
-      Long lone, ltwo;
-      Scanner s;
-      s = new Scanner(one);
-      s.useDelimiter("\\.");
-      lone =
-         (s.nextLong() << 24) + (s.nextLong() << 16) + (s.nextLong() << 8)
-            + s.nextLong();
-      s.close();
-      s = new Scanner(two);
-      s.useDelimiter("\\.");
-      ltwo =
-         (s.nextLong() << 24) + (s.nextLong() << 16) + (s.nextLong() << 8)
-            + s.nextLong();
-      s.close();
-      return lone.compareTo(ltwo);
+      if (one == null || two == null) {
+         if (one == two) return 0;
+         return one == null ? -1 : 1;
+      }
+      long lone = ipv4(one);
+      long ltwo = ipv4(two);
+      if (lone < 0 && ltwo < 0) return one.compareTo(two);
+      if (lone < 0) return 1;
+      if (ltwo < 0) return -1;
+      return Long.compare(lone, ltwo);
+   }
+
+   /**
+    * @return value of ipv4 address in dot notation, or -1 if ip is not one.
+    */
+   private static long ipv4(String ip) {
+      long value = 0;
+      int octet = -1;
+      int octets = 0;
+      for (int i = 0; i < ip.length(); i++ ) {
+         char c = ip.charAt(i);
+         if (c >= '0' && c <= '9') {
+            octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+            if (octet > 255) return -1;
+         } else if (c == '.' && octet >= 0 && octets < 3) {
+            value = (value << 8) + octet;
+            octet = -1;
+            octets++ ;
+         } else return -1;
+      }
+      if (octet < 0 || octets != 3) return -1;
+      return (value << 8) + octet;
    }
 
    private enum TYPE {
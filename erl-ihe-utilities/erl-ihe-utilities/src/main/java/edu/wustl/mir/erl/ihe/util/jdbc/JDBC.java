@@ -3,14 +3,18 @@ package edu.wustl.mir.erl.ihe.util.jdbc;
 import java.io.Closeable;
 import java.io.Serializable;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -183,6 +187,31 @@ public class JDBC implements Serializable, UtilProperties {
 	 * "appUser".</li>
 	 * <li><b>Password</b> The password for the user. For example, "appPw".</li>
 	 * </ul>
+	 * <p>
+	 * Physical connections to each database are pooled. The following optional
+	 * key value pairs control the pool for the database:
+	 * </p>
+	 * <ul>
+	 * <li><b>PoolMinSize</b> The number of idle connections which will be kept
+	 * open even when they exceed the idle time limit. Defaults to 0.</li>
+	 * <li><b>PoolMaxSize</b> The maximum number of physical connections which
+	 * may be open at one time, in use or idle. Defaults to 10.</li>
+	 * <li><b>PoolMaxIdleSeconds</b> Idle connections in excess of PoolMinSize
+	 * which have not been used for this many seconds are closed. Defaults to
+	 * 300.</li>
+	 * <li><b>PoolBorrowTimeoutSeconds</b> How long a request for a connection
+	 * will wait when PoolMaxSize connections are in use before failing.
+	 * Defaults to 30.</li>
+	 * <li><b>PoolLeakSeconds</b> A connection held for longer than this is
+	 * logged as a possible leak, along with the stack trace of the code which
+	 * obtained it. Defaults to 0, no leak detection.</li>
+	 * <li><b>ValidationQuery</b> SQL run against an idle connection before it
+	 * is handed out, to make sure it is still usable. Defaults to 
+	 * "SELECT 1".</li>
+	 * <li><b>StatementCacheSize</b> The number of prepared statements cached
+	 * for each physical connection, see {@link Query#prepared()}. Defaults to
+	 * 50.</li>
+	 * </ul>
 	 * 
 	 * @param databasesProperties
 	 *            zero or more database definitions
@@ -282,6 +311,7 @@ public class JDBC implements Serializable, UtilProperties {
 				Database database = new Database(logicalDbName, physicalDbName,
 						administrativeDbName, userId, password,
 						connectionString, r);
+				database.configurePool(databaseProperties);
 
 				/*
 				 * If the logical database is being redefined, close any open
@@ -340,15 +370,19 @@ public class JDBC implements Serializable, UtilProperties {
 	}
 
 	/**
-	 * Create and return a new {@link Connection} instance for a database.
+	 * Create and return a new {@link Connection} instance for a database. The
+	 * underlying {@link java.sql.Connection} is borrowed from the pool for the
+	 * database, and is returned to the pool when {@link Connection#close()} is
+	 * invoked.
 	 * 
 	 * @param logicalDbName
 	 *            logical database name for the database
-	 * @return Connection instance with a new, open {@link java.sql.Connection}
+	 * @return Connection instance with an open {@link java.sql.Connection}
 	 *         to the database.
 	 * @throws Exception
-	 *             if the named database has not been initialized or it was not
-	 *             possible to open a connection to the database.
+	 *             if the named database has not been initialized, it was not
+	 *             possible to open a connection to the database, or no pooled
+	 *             connection became available within the borrow timeout.
 	 * @see #init(String, List)
 	 */
 	public static Connection getConnection(String logicalDbName)
@@ -357,9 +391,7 @@ public class JDBC implements Serializable, UtilProperties {
 			if (databases.containsKey(logicalDbName) == false)
 				throw new Exception("DB " + logicalDbName + " not defined.");
 			Database db = databases.get(logicalDbName);
-			java.sql.Connection conn = DriverManager.getConnection(
-					db.getConnectionString(), db.getUserId(), db.getPassword());
-			return new Connection(db, conn);
+			return new Connection(db, db.borrow());
 		} catch (Exception e) {
 			log.warn("Error in JDBC.getConnection: " + e.getMessage());
 			throw e;
@@ -510,6 +542,179 @@ public class JDBC implements Serializable, UtilProperties {
 		}
 	}
 
+	/**
+	 * Executes a bound {@link PreparedStatement} obtained from
+	 * {@link Connection#prepare(String, boolean)}, returning its ResultSet. The
+	 * statement belongs to the statement cache of the connection and is not
+	 * closed; the ResultSet is closed by {@link Connection#closeResultSet()}
+	 * or {@link Connection#close()}, or when the same statement is next used.
+	 * 
+	 * @param c open {@link Connection} instance for database.
+	 * @param stmt bound prepared statement.
+	 * @param querySQL SQL of the statement, for log messages.
+	 * @return {@link java.sql.ResultSet ResultSet}
+	 * @throws Exception on error
+	 */
+	static ResultSet dbQuery(Connection c, PreparedStatement stmt,
+			Object querySQL) throws Exception {
+		try {
+			log.debug(c.getDbName() + " prepared query = " + querySQL);
+			c.lastStatement = null;
+			c.lastResultSet = stmt.executeQuery();
+			c.lastMetaData = c.lastResultSet.getMetaData();
+			return c.lastResultSet;
+		} catch (Exception e) {
+			StringBuilder b = new StringBuilder();
+			b.append(c.getDbName());
+			b.append(" prepared query: ").append(querySQL);
+			b.append("\n Error: ").append(e.getMessage());
+			log.warn(b.toString());
+			throw e;
+		}
+	}
+
+	/**
+	 * Executes a bound {@link PreparedStatement} obtained from
+	 * {@link Connection#prepare(String, boolean)} as an update, returning the
+	 * record count. The statement is not closed.
+	 * 
+	 * @param c open {@link Connection} instance for database.
+	 * @param stmt bound prepared statement.
+	 * @param querySQL SQL of the statement, for log messages.
+	 * @return integer record count appropriate to the update.
+	 * @throws Exception on error
+	 */
+	static int dbUpdate(Connection c, PreparedStatement stmt, Object querySQL)
+			throws Exception {
+		log.debug(c.getDbName() + " prepared query = " + querySQL);
+		try {
+			return stmt.executeUpdate();
+		} catch (Exception e) {
+			StringBuilder b = new StringBuilder();
+			b.append(c.getDbName());
+			b.append(" prepared query: ").append(querySQL);
+			b.append("\n Error: ").append(e.getMessage());
+			log.error(b.toString());
+			throw e;
+		}
+	}
+
+	/**
+	 * SQLSTATE of a unique key violation, standard SQL.
+	 */
+	private static final String UNIQUE_VIOLATION = "23505";
+
+	/**
+	 * Executes an insert, returning 0 rather than failing if it violates a
+	 * unique key. If the connection is not in auto-commit mode, the insert is
+	 * made under a savepoint, which is rolled back on error, so that the
+	 * transaction can continue. Savepoints are set with SQL, rather than
+	 * {@link java.sql.Connection#setSavepoint()}, which the 8.3 PostgreSQL
+	 * driver refuses on servers numbered 10 and later, mistaking them for
+	 * versions before 8.0.
+	 * 
+	 * @param c open {@link Connection} instance for database.
+	 * @param stmt bound prepared statement, or null to run querySQL as text.
+	 * @param querySQL SQL of the statement.
+	 * @return record count, 0 if the row was already present.
+	 * @throws Exception on any other error.
+	 */
+	static int dbInsertIfAbsent(Connection c, PreparedStatement stmt,
+			Object querySQL) throws Exception {
+		log.debug(c.getDbName() + " insert if absent = " + querySQL);
+		java.sql.Connection conn = c.getConnection();
+		boolean savepoint = conn.getAutoCommit() == false;
+		if (savepoint) c.prepare("SAVEPOINT insert_if_absent", false).execute();
+		try {
+			int rc;
+			if (stmt != null) rc = stmt.executeUpdate();
+			else try (Statement update = conn.createStatement()) {
+				rc = update.executeUpdate(querySQL.toString());
+			}
+			if (savepoint)
+				c.prepare("RELEASE SAVEPOINT insert_if_absent", false).execute();
+			return rc;
+		} catch (SQLException e) {
+			if (savepoint)
+				c.prepare("ROLLBACK TO SAVEPOINT insert_if_absent", false)
+						.execute();
+			if (UNIQUE_VIOLATION.equals(e.getSQLState())) {
+				log.debug(c.getDbName() + " row already present: "
+						+ e.getMessage());
+				return 0;
+			}
+			StringBuilder b = new StringBuilder();
+			b.append(c.getDbName());
+			b.append(" query: ").append(querySQL);
+			b.append("\n Error: ").append(e.getMessage());
+			log.error(b.toString());
+			throw e;
+		}
+	}
+
+	/**
+	 * Executes the batch of parameter sets added to a {@link PreparedStatement}
+	 * obtained from {@link Connection#prepare(String, boolean)}, returning the
+	 * record count for each. The statement is not closed.
+	 * 
+	 * @param c open {@link Connection} instance for database.
+	 * @param stmt prepared statement with one or more batched parameter sets.
+	 * @param querySQL SQL of the statement, for log messages.
+	 * @return record count for each parameter set, in order.
+	 * @throws Exception on error. The batch is cleared.
+	 */
+	static int[] dbBatch(Connection c, PreparedStatement stmt, Object querySQL)
+			throws Exception {
+		log.debug(c.getDbName() + " prepared batch = " + querySQL);
+		try {
+			return stmt.executeBatch();
+		} catch (Exception e) {
+			stmt.clearBatch();
+			StringBuilder b = new StringBuilder();
+			b.append(c.getDbName());
+			b.append(" prepared batch: ").append(querySQL);
+			b.append("\n Error: ").append(e.getMessage());
+			if (e instanceof SQLException
+					&& ((SQLException) e).getNextException() != null)
+				b.append("\n Cause: ").append(
+						((SQLException) e).getNextException().getMessage());
+			log.error(b.toString());
+			throw e;
+		}
+	}
+
+	/**
+	 * Executes a bound {@link PreparedStatement} obtained from
+	 * {@link Connection#prepare(String, boolean) Connection.prepare(sql, true)}
+	 * which inserts one row, returning the primary key assigned to that row.
+	 * The statement is not closed.
+	 * 
+	 * @param c open {@link Connection} instance for database.
+	 * @param stmt bound prepared statement.
+	 * @param querySQL SQL of the statement, for log messages.
+	 * @return The primary key value assigned to the created row.
+	 * @throws Exception on error.
+	 */
+	static int dbInsertOne(Connection c, PreparedStatement stmt,
+			Object querySQL) throws Exception {
+		log.debug(c.getDbName() + " prepared query = " + querySQL);
+		try {
+			int rc = stmt.executeUpdate();
+			if (rc != 1) throw new Exception("record count " + rc);
+			try (ResultSet rs = stmt.getGeneratedKeys()) {
+				rs.next();
+				return rs.getInt("id");
+			}
+		} catch (Exception e) {
+			StringBuilder b = new StringBuilder();
+			b.append(c.getDbName());
+			b.append(" prepared query: ").append(querySQL);
+			b.append("\n Error: ").append(e.getMessage());
+			log.error(b.toString());
+			throw e;
+		}
+	}
+
    /**
     * Generates a {@link Queries} instance for a particular database table class for the
     * selected RDBMS. For example, assuming that we had selected
@@ -599,10 +804,39 @@ public class JDBC implements Serializable, UtilProperties {
 
 		RDBMS rdbms = null;
 
+		/**
+		 * {@link Connection} instances currently handed out for this database.
+		 * Used to close them if the database is redefined, and for leak
+		 * detection.
+		 */
 		private Set<Connection> connections = Collections
 				.synchronizedSet(new HashSet<Connection>());
 
-		
+		// ---------------------------------------------------- pool parameters
+		/** Idle connections which are never evicted. */
+		private int poolMinSize = 0;
+		/** Maximum physical connections open at once, in use or idle. */
+		private int poolMaxSize = 10;
+		/** Milliseconds an idle connection may sit before it is evicted. */
+		private long poolMaxIdleMs = 300000L;
+		/** Milliseconds to wait for a connection when the pool is exhausted. */
+		private long poolBorrowTimeoutMs = 30000L;
+		/** Milliseconds a connection may be held before it is logged as a
+		 * possible leak; 0 for no leak detection. */
+		private long poolLeakMs = 0L;
+		/** SQL used to validate an idle connection before it is handed out. */
+		private String validationQuery = "SELECT 1";
+		/** Maximum prepared statements cached for each physical connection. */
+		private int statementCacheSize = 50;
+
+		// --------------------------------------------------------- pool state
+		/** Idle physical connections, most recently used first. */
+		private transient LinkedList<PooledConnection> idle = new LinkedList<>();
+		/** Number of physical connections currently open, in use or idle. */
+		private transient int open = 0;
+		/** Set when this database definition has been replaced. */
+		private transient boolean closed = false;
+
 		private Database(String logDbName, String physDbName,
 				String adminDbName, String usrId, String passwrd,
 				String connString, RDBMS dbms) {
@@ -688,6 +922,22 @@ public class JDBC implements Serializable, UtilProperties {
 			return rdbms;
 		}
 
+		/**
+		 * @return number of physical connections currently open for this
+		 * database, in use or idle.
+		 */
+		public synchronized int getOpenCount() {
+			return open;
+		}
+
+		/**
+		 * @return number of idle physical connections in the pool for this
+		 * database.
+		 */
+		public synchronized int getIdleCount() {
+			return idle.size();
+		}
+
 		protected boolean addConnection(Connection connection) {
 			return connections.add(connection);
 		}
@@ -696,19 +946,284 @@ public class JDBC implements Serializable, UtilProperties {
 			return connections.remove(connection);
 		}
 
+		/**
+		 * Loads optional pool parameters for this database. See
+		 * {@link JDBC#init(List, String)} for the keys.
+		 * @param props database properties
+		 * @throws Exception if a pool parameter is invalid.
+		 */
+		private void configurePool(Map<String, String> props) throws Exception {
+			poolMinSize = poolInt(props, "PoolMinSize", poolMinSize);
+			poolMaxSize = poolInt(props, "PoolMaxSize", poolMaxSize);
+			poolMaxIdleMs = poolInt(props, "PoolMaxIdleSeconds",
+					(int) (poolMaxIdleMs / 1000)) * 1000L;
+			poolBorrowTimeoutMs = poolInt(props, "PoolBorrowTimeoutSeconds",
+					(int) (poolBorrowTimeoutMs / 1000)) * 1000L;
+			poolLeakMs = poolInt(props, "PoolLeakSeconds", 0) * 1000L;
+			statementCacheSize = poolInt(props, "StatementCacheSize",
+					statementCacheSize);
+			String vq = StringUtils.trimToNull(props.get("ValidationQuery"));
+			if (vq != null)
+				validationQuery = vq;
+			if (poolMaxSize < 1 || poolMinSize > poolMaxSize)
+				throw new Exception(" for DB " + logicalDbName
+						+ ": PoolMinSize " + poolMinSize + " PoolMaxSize "
+						+ poolMaxSize + " invalid");
+		}
+
+		private int poolInt(Map<String, String> props, String key, int dflt)
+				throws Exception {
+			String value = StringUtils.trimToNull(props.get(key));
+			if (value == null)
+				return dflt;
+			try {
+				int i = Integer.parseInt(value);
+				if (i < 0)
+					throw new NumberFormatException();
+				return i;
+			} catch (NumberFormatException e) {
+				throw new Exception(" for DB " + logicalDbName + ": " + key
+						+ " " + value + " invalid");
+			}
+		}
+
+		/**
+		 * Borrows a physical connection from the pool, opening a new one if no
+		 * idle connection is available and the pool is not at its maximum size.
+		 * Idle connections are validated before they are returned, and dropped
+		 * if invalid. If the pool is exhausted, waits up to the borrow timeout
+		 * for a connection to be returned.
+		 * 
+		 * @return open pooled connection
+		 * @throws Exception on error opening a connection, or if no connection
+		 * became available within the borrow timeout.
+		 */
+		private PooledConnection borrow() throws Exception {
+			long deadline = System.currentTimeMillis() + poolBorrowTimeoutMs;
+			while (true) {
+				PooledConnection candidate = null;
+				synchronized (this) {
+					if (closed)
+						throw new Exception("DB " + logicalDbName + " closed.");
+					evictIdle();
+					if (idle.isEmpty() == false) {
+						candidate = idle.removeFirst();
+					} else if (open < poolMaxSize) {
+						open++;
+					} else {
+						long wait = deadline - System.currentTimeMillis();
+						if (wait <= 0) {
+							checkForLeaks();
+							throw new Exception("DB " + logicalDbName
+									+ " pool exhausted, " + open
+									+ " connections in use.");
+						}
+						wait(wait);
+						continue;
+					}
+				}
+				// -------------- validate or open outside of the pool monitor
+				if (candidate != null) {
+					if (isValid(candidate.conn))
+						return candidate;
+					discard(candidate);
+					continue;
+				}
+				try {
+					return new PooledConnection(DriverManager.getConnection(
+							connectionString, userId, password),
+							statementCacheSize);
+				} catch (Exception e) {
+					synchronized (this) {
+						open--;
+						notifyAll();
+					}
+					throw e;
+				}
+			}
+		}
+
+		/**
+		 * Returns a physical connection to the pool. Any open transaction is
+		 * rolled back. If the connection can not be reset, or this database has
+		 * been closed, the connection is closed instead.
+		 * 
+		 * @param pc pooled connection being returned.
+		 */
+		private void release(PooledConnection pc) {
+			if (pc == null)
+				return;
+			java.sql.Connection conn = pc.conn;
+			boolean reusable;
+			try {
+				reusable = !conn.isClosed();
+				if (reusable && conn.getAutoCommit() == false) {
+					conn.rollback();
+					conn.setAutoCommit(true);
+				}
+			} catch (Exception e) {
+				reusable = false;
+			}
+			synchronized (this) {
+				if (reusable && !closed) {
+					pc.lastUsed = System.currentTimeMillis();
+					idle.addFirst(pc);
+					notifyAll();
+					return;
+				}
+			}
+			discard(pc);
+		}
+
+		/**
+		 * Closes a physical connection which will not be returned to the pool
+		 * and releases its slot. Exceptions are swallowed.
+		 */
+		private void discard(PooledConnection pc) {
+			pc.close();
+			synchronized (this) {
+				open--;
+				notifyAll();
+			}
+		}
+
+		private boolean isValid(java.sql.Connection conn) {
+			try (Statement s = conn.createStatement()) {
+				s.execute(validationQuery);
+				return true;
+			} catch (Exception e) {
+				log.debug("DB " + logicalDbName
+						+ " pooled connection failed validation: "
+						+ e.getMessage());
+				return false;
+			}
+		}
+
+		/**
+		 * Closes idle connections which have exceeded the idle time limit,
+		 * oldest first, keeping at least {@link #poolMinSize}. Must be called
+		 * holding the monitor for this Database.
+		 */
+		private void evictIdle() {
+			long cutoff = System.currentTimeMillis() - poolMaxIdleMs;
+			while (idle.size() > poolMinSize
+					&& idle.getLast().lastUsed < cutoff) {
+				idle.removeLast().close();
+				open--;
+			}
+		}
+
+		/**
+		 * Logs any {@link Connection} which has been held longer than the leak
+		 * threshold, with the stack trace of the code which obtained it. Each
+		 * connection is reported only once.
+		 */
+		private void checkForLeaks() {
+			if (poolLeakMs <= 0)
+				return;
+			long cutoff = System.currentTimeMillis() - poolLeakMs;
+			synchronized (connections) {
+				for (Connection c : connections) {
+					if (c.borrowed < cutoff && c.leakReported == false) {
+						c.leakReported = true;
+						log.warn("DB " + logicalDbName + " connection held "
+								+ (System.currentTimeMillis() - c.borrowed)
+								+ " ms, possible leak", c.borrowedAt);
+					}
+				}
+			}
+		}
+
 		/**
 		 * A Database instance is closed only when the logical database name is
 		 * being assigned to another database connection, in which case any open
-		 * {@link Connection} instances are closed.
+		 * {@link Connection} instances are closed, as are all pooled physical
+		 * connections.
 		 */
 		@Override
       public void close() {
-			for (Connection c : connections)
+			Connection[] cs;
+			synchronized (connections) {
+				cs = connections.toArray(new Connection[0]);
+			}
+			synchronized (this) {
+				closed = true;
+			}
+			for (Connection c : cs)
 				c.close();
+			synchronized (this) {
+				for (PooledConnection pc : idle) {
+					pc.close();
+					open--;
+				}
+				idle.clear();
+				notifyAll();
+			}
 		}
 
 	} // ################################## EO Database inner class
 
+	/**
+	 * A pooled physical connection, the time it was last returned to the pool,
+	 * and its cache of {@link PreparedStatement}s. The cache lives as long as
+	 * the physical connection, so statements are prepared once per connection
+	 * rather than once per use. Used by one thread at a time.
+	 */
+	private static class PooledConnection {
+		final java.sql.Connection conn;
+		long lastUsed = System.currentTimeMillis();
+		final Map<String, PreparedStatement> statements;
+
+		@SuppressWarnings("serial")
+		PooledConnection(java.sql.Connection conn, final int cacheSize) {
+			this.conn = conn;
+			statements = new LinkedHashMap<String, PreparedStatement>(16,
+					0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<String, PreparedStatement> eldest) {
+					if (size() <= cacheSize)
+						return false;
+					try {
+						eldest.getValue().close();
+					} catch (Exception e) {
+					}
+					return true;
+				}
+			};
+		}
+
+		/**
+		 * Returns the cached statement for the SQL, preparing it if needed.
+		 * Parameters from the previous use are cleared.
+		 */
+		PreparedStatement prepare(String sql, boolean generatedKeys)
+				throws SQLException {
+			String key = (generatedKeys ? "K:" : "S:") + sql;
+			PreparedStatement ps = statements.get(key);
+			if (ps == null) {
+				ps = generatedKeys ? conn.prepareStatement(sql,
+						Statement.RETURN_GENERATED_KEYS) : conn
+						.prepareStatement(sql,
+								ResultSet.TYPE_SCROLL_INSENSITIVE,
+								ResultSet.CONCUR_READ_ONLY);
+				statements.put(key, ps);
+			} else {
+				ps.clearParameters();
+			}
+			return ps;
+		}
+
+		/** Closes the physical connection. Exceptions are swallowed. */
+		void close() {
+			statements.clear();
+			try {
+				conn.close();
+			} catch (Exception e) {
+			}
+		}
+	} // EO PooledConnection inner class
+
 	/**
 	 * POJO to contain information about a {@link java.sql.Connection
 	 * Connection} An instance of this class is created for each connection. Can
@@ -752,20 +1267,40 @@ public class JDBC implements Serializable, UtilProperties {
 		 * ResultSet} is closed.
 		 */
 		private ResultSetMetaData lastMetaData = null;
+		/** Time this Connection was obtained, for leak detection. */
+		private long borrowed = System.currentTimeMillis();
+		/** Where this Connection was obtained, if leak detection is on. */
+		private transient Throwable borrowedAt = null;
+		/** Set once this Connection has been logged as a possible leak. */
+		private boolean leakReported = false;
+
+		/**
+		 * The pooled connection wrapping {@link #conn}, which holds its
+		 * prepared statement cache.
+		 */
+		private transient PooledConnection pooled;
 
-		protected Connection(Database databse, java.sql.Connection cn) {
+		private Connection(Database databse, PooledConnection pc) {
 			this.database = databse;
-			this.conn = cn;
+			this.pooled = pc;
+			this.conn = pc.conn;
+			if (databse.poolLeakMs > 0)
+				borrowedAt = new Throwable("connection obtained here");
 			this.database.addConnection(this);
 		}
 
 		// --- Implements Closeable interface, allowing use in try with
-		// resources
+		// resources. The java.sql.Connection goes back to the pool.
 		@Override
       public void close() {
+			if (database == null)
+				return;
 			closeResultSet();
-			closeConnection();
+			PooledConnection pc = pooled;
+			pooled = null;
+			conn = null;
 			database.removeConnection(this);
+			database.release(pc);
 			database = null;
 		}
 
@@ -791,21 +1326,6 @@ public class JDBC implements Serializable, UtilProperties {
 			lastMetaData = null;
 		}
 
-      /**
-       * Closes the {@link java.sql.Connection Connection} for this
-       * {@link JDBC.Connection Connection} if open. Any exceptions are
-       * swallowed.
-       */
-		private void closeConnection() {
-			if (conn != null) {
-				try {
-					conn.close();
-				} catch (Exception e) {
-				}
-			}
-			conn = null;
-		}
-
 		/**
 		 * @return {@link #lastResultSet}
 		 */
@@ -824,10 +1344,57 @@ public class JDBC implements Serializable, UtilProperties {
 			return lastMetaData;
 		}
 
+		/**
+		 * Sets the auto-commit mode of the underlying connection, so that
+		 * several updates can be grouped in one transaction. Auto-commit is
+		 * restored when the connection is returned to the pool.
+		 * @param autoCommit true for auto-commit, false to group updates until
+		 * {@link #commit()} or {@link #rollback()} is invoked.
+		 * @throws Exception on SQL error.
+		 */
+		public void setAutoCommit(boolean autoCommit) throws Exception {
+			conn.setAutoCommit(autoCommit);
+		}
+
+		/**
+		 * Commits the current transaction.
+		 * @throws Exception on SQL error.
+		 */
+		public void commit() throws Exception {
+			conn.commit();
+		}
+
+		/**
+		 * Rolls back the current transaction. Any exceptions are swallowed.
+		 */
+		public void rollback() {
+			try {
+				if (conn.getAutoCommit() == false)
+					conn.rollback();
+			} catch (Exception e) {
+			}
+		}
+
 		private java.sql.Connection getConnection() {
 			return conn;
 		}
 
+		/**
+		 * Returns a {@link PreparedStatement} for the SQL from the statement
+		 * cache of the underlying physical connection, preparing it the first
+		 * time it is used on that connection. The statement must not be closed
+		 * by the caller.
+		 * @param sql SQL with positional ? parameters.
+		 * @param generatedKeys true if the statement is an insert whose
+		 * generated keys will be retrieved.
+		 * @return PreparedStatement with its parameters cleared.
+		 * @throws Exception on SQL error.
+		 */
+		protected PreparedStatement prepare(String sql, boolean generatedKeys)
+				throws Exception {
+			return pooled.prepare(sql, generatedKeys);
+		}
+
 		protected String getDbName() {
 			return database.getLogicalDbName();
 		}
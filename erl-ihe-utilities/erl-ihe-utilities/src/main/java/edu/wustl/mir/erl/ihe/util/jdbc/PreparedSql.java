@@ -0,0 +1,137 @@
+package edu.wustl.mir.erl.ihe.util.jdbc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A SQL statement with ${parameterName} placeholders compiled into JDBC
+ * positional ? parameters, for use with {@link Query#prepared()}. Compiled
+ * statements are immutable and cached by their source SQL, so each distinct
+ * statement is scanned only once.
+ * <ul>
+ * <li>An unquoted placeholder, for example ${errorLine}, becomes ?.</li>
+ * <li>A placeholder which is the entire contents of a string literal, for
+ * example '${clientIp}', becomes ? including the quotes; the value is bound
+ * with its JDBC type, so quoting and escaping are not needed.</li>
+ * <li>A placeholder inside a larger string literal, for example '%${name}%',
+ * can not be a parameter, and segments using the &lt;{ }&gt; syntax depend on
+ * which parameters are set. Such statements are not
+ * {@link #isPreparable() preparable}; {@link Query} runs them as text.</li>
+ * </ul>
+ *
+ * @author Ralph Moulton / MIR WUSTL IHE Development Project
+ */
+public class PreparedSql {
+
+   private static final Map <String, PreparedSql> cache =
+      new ConcurrentHashMap <>();
+
+   /** The source SQL, with ${parameterName} placeholders. */
+   private final String source;
+   /** The SQL with ? parameters, or null if not preparable. */
+   private final String jdbcSql;
+   /** Parameter names, in positional order. A name may appear more than once. */
+   private final List <String> parameterNames;
+
+   private PreparedSql(String source, String jdbcSql, List <String> names) {
+      this.source = source;
+      this.jdbcSql = jdbcSql;
+      this.parameterNames = Collections.unmodifiableList(names);
+   }
+
+   /**
+    * Returns the compiled form of the passed SQL, compiling it on first use.
+    *
+    * @param sql SQL with ${parameterName} placeholders.
+    * @return compiled instance, never null. Check {@link #isPreparable()}.
+    */
+   public static PreparedSql compile(String sql) {
+      PreparedSql ps = cache.get(sql);
+      if (ps == null) {
+         ps = parse(sql);
+         cache.put(sql, ps);
+      }
+      return ps;
+   }
+
+   private static PreparedSql parse(String sql) {
+      List <String> names = new ArrayList <>();
+      if (sql.contains("<{")) return new PreparedSql(sql, null, names);
+      StringBuilder out = new StringBuilder(sql.length());
+      boolean inQuote = false;
+      int i = 0;
+      while (i < sql.length()) {
+         char c = sql.charAt(i);
+         if (c == '\'') {
+            // ------------- '${name}' as a whole literal becomes a parameter
+            if (!inQuote && sql.startsWith("${", i + 1)) {
+               int end = sql.indexOf('}', i + 3);
+               if (end > 0 && end + 1 < sql.length()
+                  && sql.charAt(end + 1) == '\'') {
+                  names.add(sql.substring(i + 3, end));
+                  out.append('?');
+                  i = end + 2;
+                  continue;
+               }
+            }
+            // ------------------------------- '' is an escaped quote
+            if (inQuote && i + 1 < sql.length() && sql.charAt(i + 1) == '\'') {
+               out.append("''");
+               i += 2;
+               continue;
+            }
+            inQuote = !inQuote;
+            out.append(c);
+            i++ ;
+            continue;
+         }
+         if (c == '$' && sql.startsWith("${", i)) {
+            int end = sql.indexOf('}', i + 2);
+            if (end < 0 || inQuote) return new PreparedSql(sql, null, names);
+            names.add(sql.substring(i + 2, end));
+            out.append('?');
+            i = end + 1;
+            continue;
+         }
+         out.append(c);
+         i++ ;
+      }
+      // JDBC statements do not take a trailing semicolon
+      String jdbcSql = out.toString().trim();
+      while (jdbcSql.endsWith(";"))
+         jdbcSql = jdbcSql.substring(0, jdbcSql.length() - 1).trim();
+      return new PreparedSql(sql, jdbcSql, names);
+   }
+
+   /**
+    * @return true if this statement can be run as a prepared statement.
+    */
+   public boolean isPreparable() {
+      return jdbcSql != null;
+   }
+
+   /**
+    * @return {@link #source}
+    */
+   public String getSource() {
+      return source;
+   }
+
+   /**
+    * @return {@link #jdbcSql}
+    */
+   public String getJdbcSql() {
+      return jdbcSql;
+   }
+
+   /**
+    * @return {@link #parameterNames}
+    */
+   public List <String> getParameterNames() {
+      return parameterNames;
+   }
+
+} // EO PreparedSql class
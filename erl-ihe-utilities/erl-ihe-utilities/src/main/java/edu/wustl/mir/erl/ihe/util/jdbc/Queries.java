@@ -38,9 +38,11 @@ import edu.wustl.mir.erl.ihe.util.Util;
  * to be concatenated with other segments and information to create a complete
  * query.
  * </p>
- * When the Query subclass is loaded, it loads its named queries into
- * {@link #queries} and its named query segments into {@link #segments}. They 
- * can then be retrieved by name from the application.
+ * When the Query subclass is instantiated, it loads its named queries into
+ * {@link #queries} and its named query segments into {@link #segments}, in an
+ * instance initializer block. They can then be retrieved by name from the
+ * application. Each subclass instance has its own maps, so different tables
+ * may use the same query names, for example "create" and "insert".
  * 
  * @author Ralph Moulton / MIR WUSTL IHE Development Project
  */
@@ -49,12 +51,12 @@ public class Queries implements Serializable {
    /**
     * Map of named queries for a particular RDBMS type, for example, "Postgres".
     */
-   protected static Map <String, String[]> queries = new HashMap <>();
+   protected final Map <String, String[]> queries = new HashMap <>();
    /**
     * Map of named query segments for a particular RDBMS type, for example,
     * "Postgres".
     */
-   protected static Map<String, String> segments = new HashMap<>();
+   protected final Map<String, String> segments = new HashMap<>();
 
    /**
     * Load {@link Queries query} matching the passed query name. Used to load
@@ -1,11 +1,18 @@
 package edu.wustl.mir.erl.ihe.util.jdbc;
 
 import java.io.Serializable;
-import java.lang.reflect.Method;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -33,6 +40,12 @@ import edu.wustl.mir.erl.ihe.util.jdbc.JDBC.Connection;
  * dbUpdate methods.</li></ol>
  * <p><b>Note:</b> Many methods in this class return the Query instance to allow
  * method chaining.</p>
+ * <p>By default parameter values are escaped and substituted into the SQL
+ * text. After {@link #prepared()} is invoked, the query is run instead as a
+ * {@link java.sql.PreparedStatement PreparedStatement}: ${parameterName}
+ * placeholders are compiled once into positional parameters (see
+ * {@link PreparedSql}), values are bound with their JDBC types, and the
+ * statement is reused from the statement cache of the connection.</p>
  * 
  * @author Ralph Moulton / MIR WUSTL IHE Development Project
  */
@@ -44,6 +57,12 @@ public class Query implements Serializable {
    private ArrayList <String> lastSql = new ArrayList <String>();
    private Map <String, String> vars = new HashMap <String, String>();
    private Map <String, String> nulls = new HashMap <String, String>();
+   /** Unescaped parameter values, for prepared mode. */
+   private Map <String, Object> values = new HashMap <String, Object>();
+   /** Java types of parameters set from bean properties, for binding nulls. */
+   private Map <String, Class <?>> types = new HashMap <String, Class <?>>();
+   /** Run as a PreparedStatement? See {@link #prepared()}. */
+   private boolean prepared = false;
 
    private static String lstCommand = null;
    private static ArrayList <String> lstSql = new ArrayList <String>();
@@ -170,6 +189,20 @@ public class Query implements Serializable {
       return this;
    }
 
+   /**
+    * Runs this query as a {@link java.sql.PreparedStatement PreparedStatement}
+    * from the statement cache of the connection, binding parameter values
+    * rather than substituting them into the SQL text. Statements which can not
+    * be compiled into positional parameters, see {@link PreparedSql}, are run
+    * as text as usual.
+    * 
+    * @return a reference to this Query object.
+    */
+   public Query prepared() {
+      prepared = true;
+      return this;
+   }
+
    /**
     * Sets a parameter value in the SQL Query string. Parameters must be of the
     * form ${parameter name}, and are handled by a default
@@ -189,6 +222,7 @@ public class Query implements Serializable {
     * @return a reference to this Query object.
     */
    public Query set(Object key, Object value) {
+      values.put(key.toString(), value);
       if (value == null) {
          nulls.put(key.toString(), "NULL");
          vars.put(key.toString(), "NULL");
@@ -233,8 +267,14 @@ public class Query implements Serializable {
       // Get all unique parameters in query
       Set <String> pars = new HashSet <>();
       for (StringBuilder str : sql) {
-         for (String s : StringUtils.substringsBetween(str.toString(), "${",
-            "}")) {
+         PreparedSql ps = PreparedSql.compile(str.toString());
+         if (ps.isPreparable()) {
+            pars.addAll(ps.getParameterNames());
+            continue;
+         }
+         String[] ss = StringUtils.substringsBetween(str.toString(), "${", "}");
+         if (ss == null) continue;
+         for (String s : ss) {
             pars.add(s);
          }
       }
@@ -244,12 +284,12 @@ public class Query implements Serializable {
          // Must have property, with getter, not ignored for SQL
          DBHelper<?>.Property property = helper.getProperty(par);
          if (property == null) continue;
-         Method getter = property.getGetter();
-         if (getter == null) continue;
+         if (property.getGetter() == null) continue;
          if (property.isIgnoreSQL()) continue;
          try {
-            Object ret = getter.invoke(instance);
+            Object ret = property.getValue(instance);
             set(par, ret);
+            types.put(par, property.getType());
          } catch (Exception e) {
             log.warn("DBHelper property get error - " + e.getMessage());
          }
@@ -269,6 +309,8 @@ public class Query implements Serializable {
       lstCommand = lastCommand = "dbQuery(" + c.getDbName() + ")";
       if (sql.size() > 1)
          throw new Exception("Multi-line query; Use dbQueries");
+      PreparedSql ps = compiled(0);
+      if (ps != null) return JDBC.dbQuery(c, bind(c, ps, false), ps.getJdbcSql());
       return JDBC.dbQuery(c, prepQuery(0));
    }
 
@@ -301,9 +343,34 @@ public class Query implements Serializable {
       lstCommand = lastCommand = "dbUpdate(" + c.getDbName() + ")";
       if (sql.size() > 1)
          throw new Exception("Multi-line query; Use dbUpdates");
+      PreparedSql ps = compiled(0);
+      if (ps != null)
+         return JDBC.dbUpdate(c, bind(c, ps, false), ps.getJdbcSql());
       return JDBC.dbUpdate(c, prepQuery(0));
    }
 
+   /**
+    * Executes a single line insert on the passed Connection, as
+    * {@link #dbUpdate(Connection)} does, but treats a unique key violation,
+    * for example because another connection has just inserted the same row,
+    * as inserting nothing. If the connection is not in auto-commit mode, the
+    * insert is made under a savepoint, so that the violation does not abort
+    * the rest of the transaction.
+    * 
+    * @param c open {@link Connection} instance for database.
+    * @return record count, 0 if the row was already present.
+    * @throws Exception on any other error.
+    */
+   public int dbInsertIfAbsent(Connection c) throws Exception {
+      lstCommand = lastCommand = "dbInsertIfAbsent(" + c.getDbName() + ")";
+      if (sql.size() > 1)
+         throw new Exception("Multi-line query; Use dbUpdates");
+      PreparedSql ps = compiled(0);
+      if (ps != null)
+         return JDBC.dbInsertIfAbsent(c, bind(c, ps, false), ps.getJdbcSql());
+      return JDBC.dbInsertIfAbsent(c, null, prepQuery(0));
+   }
+
    /**
     * Executes the query on the passed Connection. This call is for multiple
     * line queries which return record counts or nothing. Uses
@@ -316,8 +383,13 @@ public class Query implements Serializable {
    public int[] dbUpdates(Connection c) throws Exception {
       lstCommand = lastCommand = "dbUpdates(" + c.getDbName() + ")";
       int[] ret = new int[sql.size()];
-      for (int i = 0; i < sql.size(); i++ )
-         ret[i] = JDBC.dbUpdate(c, prepQuery(i));
+      for (int i = 0; i < sql.size(); i++ ) {
+         PreparedSql ps = compiled(i);
+         if (ps != null)
+            ret[i] = JDBC.dbUpdate(c, bind(c, ps, false), ps.getJdbcSql());
+         else
+            ret[i] = JDBC.dbUpdate(c, prepQuery(i));
+      }
       return ret;
    }
 
@@ -333,9 +405,156 @@ public class Query implements Serializable {
       lstCommand = lastCommand = "dbUpdate(" + c.getDbName() + ")";
       if (sql.size() > 1)
          throw new Exception("Multi-line query; Use dbUpdates");
+      PreparedSql ps = compiled(0);
+      if (ps != null)
+         return JDBC.dbInsertOne(c, bind(c, ps, true), ps.getJdbcSql());
       return JDBC.dbInsertOne(c, prepQuery(0));
    }
 
+   /**
+    * Executes the query once for each of the passed rows as a single JDBC
+    * batch, rather than one round trip per row. For each row, the parameters
+    * of the query are set from its properties as by {@link #setAll(DBTable)};
+    * parameters set with {@link #set(Object, Object)} which are not
+    * properties of the row keep their value. The query must be a single line
+    * which can be prepared, see {@link PreparedSql}, and is run as a
+    * {@link java.sql.PreparedStatement PreparedStatement} whether or not
+    * {@link #prepared()} has been invoked. Does not commit; to insert the
+    * rows in one transaction, the connection must not be in auto-commit mode.
+    * 
+    * @param c open {@link Connection} instance for database.
+    * @param rows instances of the table class, may be empty.
+    * @return the record count for each row, in order.
+    * @throws Exception on error, or if the query has multiple lines or can not
+    * be prepared.
+    */
+   public int[] dbBatch(Connection c, Collection <? extends DBTable> rows)
+      throws Exception {
+      lstCommand = lastCommand = "dbBatch(" + c.getDbName() + ")";
+      if (sql.size() > 1)
+         throw new Exception("Multi-line query; can not be batched");
+      PreparedSql ps = PreparedSql.compile(sql.get(0).toString());
+      if (ps.isPreparable() == false)
+         throw new Exception("Query can not be prepared; can not be batched");
+      if (rows.isEmpty()) return new int[0];
+      PreparedStatement stmt = null;
+      for (DBTable row : rows) {
+         setAll(row);
+         stmt = bind(c, ps, false);
+         stmt.addBatch();
+      }
+      return JDBC.dbBatch(c, stmt, ps.getJdbcSql() + " x " + rows.size());
+   }
+
+   /**
+    * @return the compiled form of query line index if this query is in
+    * prepared mode and the line can be prepared, otherwise null.
+    */
+   private PreparedSql compiled(int index) {
+      if (prepared == false) return null;
+      PreparedSql ps = PreparedSql.compile(sql.get(index).toString());
+      return ps.isPreparable() ? ps : null;
+   }
+
+   /**
+    * Gets the cached statement for the compiled query from the connection and
+    * binds the parameter values to it.
+    */
+   private PreparedStatement bind(Connection c, PreparedSql ps,
+      boolean generatedKeys) throws Exception {
+      PreparedStatement stmt = c.prepare(ps.getJdbcSql(), generatedKeys);
+      List <String> names = ps.getParameterNames();
+      boolean debug = log.isDebugEnabled();
+      StringBuilder str = debug ? new StringBuilder(ps.getJdbcSql()) : null;
+      for (int i = 0; i < names.size(); i++ ) {
+         String name = names.get(i);
+         if (values.containsKey(name) == false)
+            throw new Exception("Query parameter " + name + " not set");
+         Object value = values.get(name);
+         setParameter(stmt, i + 1, value, types.get(name));
+         if (debug) {
+            str.append(i == 0 ? " [" : ", ").append(name).append("=")
+               .append(StringUtils.abbreviate(String.valueOf(value), LOG_LENGTH));
+         }
+      }
+      if (debug) {
+         if (names.isEmpty() == false) str.append("]");
+         log.debug("    prepared = " + str);
+      }
+      // Statement text only, once, so that batches do not grow the list.
+      if (lastSql.isEmpty()
+         || lastSql.get(lastSql.size() - 1).equals(ps.getJdbcSql()) == false)
+         lastSql.add(ps.getJdbcSql());
+      return stmt;
+   }
+
+   /**
+    * Longest parameter value written to the log in full. Longer values, for
+    * example message bodies, are abbreviated.
+    */
+   private static final int LOG_LENGTH = 256;
+
+   /**
+    * Strings longer than this are bound as character streams, so that the
+    * driver can send them without building another copy of the value.
+    */
+   private static final int STREAM_LENGTH = 4096;
+
+   /**
+    * Binds one parameter value using the JDBC setter for its type. Null values
+    * are bound as SQL NULL of the type of the bean property, if known. Long
+    * strings are bound as character streams, using the JDBC 3 setter with a
+    * length, which the PostgreSQL driver this project uses supports.
+    */
+   private static void setParameter(PreparedStatement stmt, int index,
+      Object value, Class <?> type) throws Exception {
+      if (value == null) {
+         stmt.setNull(index, sqlType(type));
+      } else if (value instanceof String) {
+         String str = (String) value;
+         if (str.length() > STREAM_LENGTH)
+            stmt.setCharacterStream(index, new StringReader(str), str.length());
+         else
+            stmt.setString(index, str);
+      } else if (value instanceof Integer) {
+         stmt.setInt(index, (Integer) value);
+      } else if (value instanceof Long) {
+         stmt.setLong(index, (Long) value);
+      } else if (value instanceof Short) {
+         stmt.setShort(index, (Short) value);
+      } else if (value instanceof Boolean) {
+         stmt.setBoolean(index, (Boolean) value);
+      } else if (value instanceof Double) {
+         stmt.setDouble(index, (Double) value);
+      } else if (value instanceof Float) {
+         stmt.setFloat(index, (Float) value);
+      } else if (value instanceof BigDecimal) {
+         stmt.setBigDecimal(index, (BigDecimal) value);
+      } else if (value instanceof Date) {
+         stmt.setTimestamp(index, new Timestamp(((Date) value).getTime()));
+      } else if (value instanceof byte[]) {
+         stmt.setBytes(index, (byte[]) value);
+      } else if (value instanceof Enum) {
+         stmt.setString(index, ((Enum <?>) value).name());
+      } else {
+         stmt.setString(index, value.toString());
+      }
+   }
+
+   private static int sqlType(Class <?> type) {
+      if (type == null) return Types.VARCHAR;
+      if (type == Integer.class || type == Integer.TYPE) return Types.INTEGER;
+      if (type == Long.class || type == Long.TYPE) return Types.BIGINT;
+      if (type == Short.class || type == Short.TYPE) return Types.SMALLINT;
+      if (type == Boolean.class || type == Boolean.TYPE) return Types.BOOLEAN;
+      if (type == Double.class || type == Double.TYPE) return Types.DOUBLE;
+      if (type == Float.class || type == Float.TYPE) return Types.REAL;
+      if (type == BigDecimal.class) return Types.NUMERIC;
+      if (Date.class.isAssignableFrom(type)) return Types.TIMESTAMP;
+      if (type == byte[].class) return Types.BINARY;
+      return Types.VARCHAR;
+   }
+
    private String prepQuery(int index) {
       String query = sql.get(index).toString();
       if (!nulls.isEmpty())
@@ -367,7 +586,8 @@ public class Query implements Serializable {
 
    /**
     * Returns last call to Util db routines executed by any instance of Query.
-    * Returns "N/A" if no routine has been executed.
+    * Returns "N/A" if no routine has been executed. Statements run in prepared
+    * mode or as batches are not listed; see {@link #lastCommand()}.
     * 
     * @return string representation of command, with variables replaced.
     */
@@ -65,7 +65,7 @@
  * <li>The {@link edu.wustl.mir.erl.ihe.util.StatusHelper StatusHelper} class,
  * which encapsulates all the Status enums in use in a particular application.
  * Each Status enum is registered with StatusHelper using the
- * {@link edu.wustl.mir.erl.ihe.util.StatusHelper#addCodeSet(String, Class)
+ * {@link edu.wustl.mir.erl.ihe.util.StatusHelper#addCodeSet(String, int, Class)
  * addCodeSet} method, usually as part of a static initialization block in the
  * Status enum. StatusHelper then keeps track of all the code sets in use and
  * handles their storage and retrieval.</li>
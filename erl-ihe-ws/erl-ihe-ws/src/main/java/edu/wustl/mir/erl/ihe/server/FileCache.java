@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ *******************************************************************************/
+package edu.wustl.mir.erl.ihe.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * File metadata and content cache for {@link FileServer}.
+ * <ul>
+ * <li>Content types are probed once per file extension.</li>
+ * <li>Files up to maxFileBytes are kept in memory, in a least recently used
+ * cache of up to maxEntries files. A cached file is used only if its size and
+ * modification time are unchanged, so regenerated forms are reloaded.</li>
+ * <li>Larger files are not read into memory; {@link Entry#write} copies them
+ * from a {@link FileChannel} to the response.</li>
+ * </ul>
+ * Configured by an optional {@code <FileCache>} child element of the
+ * {@code <FileServer>} element, for example:
+ * <pre>
+ * {@code
+ * <FileCache maxEntries="64" maxFileBytes="1048576" />
+ * }
+ * </pre>
+ * maxEntries 0 disables content caching.
+ */
+public class FileCache {
+
+   private static final String DEFAULT_CONTENT_TYPE =
+      "application/octet-stream";
+
+   private final int maxEntries;
+   private final long maxFileBytes;
+
+   private final Map <Path, Entry> entries;
+   private final Map <String, String> contentTypes = new ConcurrentHashMap <>();
+
+   private final AtomicLong hits = new AtomicLong();
+   private final AtomicLong misses = new AtomicLong();
+
+   /**
+    * @param properties {@code <FileServer>} element, which may contain a
+    * {@code <FileCache>} element. May be null, in which case defaults are used.
+    * @throws Exception if the properties are invalid.
+    */
+   public FileCache(HierarchicalConfiguration properties) throws Exception {
+      if (properties == null) properties = new HierarchicalConfiguration();
+      maxEntries = properties.getInt("FileCache[@maxEntries]", 64);
+      maxFileBytes = properties.getLong("FileCache[@maxFileBytes]", 1048576L);
+      if (maxEntries < 0 || maxFileBytes < 0)
+         throw new Exception("FileCache maxEntries and maxFileBytes must not "
+            + "be negative");
+      entries = new LinkedHashMap <Path, Entry>(16, 0.75f, true) {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry <Path, Entry> eldest) {
+            return size() > FileCache.this.maxEntries;
+         }
+      };
+   }
+
+   /**
+    * Gets the current entry for a file, reading it into the cache if it is
+    * small enough and not already cached with the same size and modification
+    * time.
+    *
+    * @param path of a readable file.
+    * @return entry for the file.
+    * @throws IOException on error reading the file or its attributes.
+    */
+   public Entry get(Path path) throws IOException {
+      BasicFileAttributes attrs =
+         Files.readAttributes(path, BasicFileAttributes.class);
+      long size = attrs.size();
+      long modified = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+      boolean cacheable = maxEntries > 0 && size <= maxFileBytes;
+      if (cacheable) {
+         synchronized (entries) {
+            Entry entry = entries.get(path);
+            if (entry != null && entry.size == size
+               && entry.modified == modified) {
+               hits.incrementAndGet();
+               return entry;
+            }
+         }
+      }
+      misses.incrementAndGet();
+      byte[] content = null;
+      if (cacheable) {
+         content = Files.readAllBytes(path);
+         // File changed between reading attributes and contents
+         if (content.length != size) size = content.length;
+      }
+      Entry entry = new Entry(path, size, modified, contentType(path), content);
+      if (cacheable) {
+         synchronized (entries) {
+            entries.put(path, entry);
+         }
+      }
+      return entry;
+   }
+
+   private String contentType(Path path) {
+      String name = path.getFileName().toString();
+      String ext = StringUtils.substringAfterLast(name, ".").toLowerCase();
+      String type = contentTypes.get(ext);
+      if (type == null) {
+         try {
+            type = Files.probeContentType(path);
+         } catch (IOException e) {}
+         if (type == null) type = DEFAULT_CONTENT_TYPE;
+         contentTypes.put(ext, type);
+      }
+      return type;
+   }
+
+   /**
+    * @return number of requests served from memory.
+    */
+   public long getHits() {
+      return hits.get();
+   }
+
+   /**
+    * @return number of requests which read the file.
+    */
+   public long getMisses() {
+      return misses.get();
+   }
+
+   /**
+    * A file, as of the time it was read.
+    */
+   public static class Entry {
+      private final Path path;
+      private final long size;
+      private final long modified;
+      private final String contentType;
+      private final String etag;
+      /** File contents, or null if the file is too large to cache. */
+      private final byte[] content;
+
+      Entry(Path path, long size, long modified, String contentType,
+         byte[] content) {
+         this.path = path;
+         this.size = size;
+         this.modified = modified;
+         this.contentType = contentType;
+         this.content = content;
+         etag = "\"" + Long.toHexString(size) + "-"
+            + Long.toHexString(modified) + "\"";
+      }
+
+      /**
+       * Writes part of the file to out.
+       *
+       * @param out destination.
+       * @param start offset of first byte.
+       * @param length number of bytes.
+       * @throws IOException on error reading the file or writing to out.
+       */
+      public void write(OutputStream out, long start, long length)
+         throws IOException {
+         if (content != null) {
+            out.write(content, (int) start, (int) length);
+            return;
+         }
+         try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            WritableByteChannel wbc = Channels.newChannel(out);
+            long pos = start;
+            long end = start + length;
+            while (pos < end) {
+               long n = fc.transferTo(pos, end - pos, wbc);
+               if (n <= 0) throw new IOException(path + " truncated at " + pos);
+               pos += n;
+            }
+         }
+      }
+
+      /**
+       * @return the {@link #size} value.
+       */
+      public long getSize() {
+         return size;
+      }
+
+      /**
+       * @return last modified time, in milliseconds.
+       */
+      public long getLastModified() {
+         return TimeUnit.NANOSECONDS.toMillis(modified);
+      }
+
+      /**
+       * @return the {@link #contentType} value.
+       */
+      public String getContentType() {
+         return contentType;
+      }
+
+      /**
+       * @return the {@link #etag} value, a strong entity tag including quotes.
+       */
+      public String getEtag() {
+         return etag;
+      }
+
+      /**
+       * @return the {@link #content} value, or null if not cached.
+       */
+      public byte[] getContent() {
+         return content;
+      }
+
+      /**
+       * @return the {@link #path} value.
+       */
+      public Path getPath() {
+         return path;
+      }
+   } // EO Entry inner class
+
+} // EO FileCache class
@@ -20,8 +20,10 @@ import java.io.Serializable;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.URI;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
@@ -46,6 +48,7 @@ import edu.wustl.mir.erl.ihe.util.HTTPProperties;
 import edu.wustl.mir.erl.ihe.util.NotificationThread;
 import edu.wustl.mir.erl.ihe.util.Plug;
 import edu.wustl.mir.erl.ihe.util.Result;
+import edu.wustl.mir.erl.ihe.util.ServerExecutor;
 import edu.wustl.mir.erl.ihe.util.Status;
 import edu.wustl.mir.erl.ihe.util.StatusHelper;
 import edu.wustl.mir.erl.ihe.util.StatusType;
@@ -57,6 +60,7 @@ import edu.wustl.mir.erl.ihe.ws.db.LogTransaction;
 import edu.wustl.mir.erl.ihe.ws.db.MessageType;
 import edu.wustl.mir.erl.ihe.ws.db.TransactionType;
 import edu.wustl.mir.erl.ihe.ws.db.WSLog;
+import edu.wustl.mir.erl.ihe.ws.db.WSLogWriter;
 import edu.wustl.mir.erl.ihe.ws.db.rmi.WSLogRMIClient;
 import edu.wustl.mir.erl.ihe.ws.server.WSServer;
 
@@ -81,6 +85,11 @@ public class FileServer extends NotificationThread implements Serializable,
     */
    private String fileServerId;
    private HttpServer fileServer;
+   /**
+    * Thread pool for this file server, configured by the optional
+    * {@code <Executor>} element.
+    */
+   private ServerExecutor executor;
    private Logger log = Util.getLog();
    private String host = Util.getExternalHostName();
    private int port;
@@ -88,14 +97,23 @@ public class FileServer extends NotificationThread implements Serializable,
    private Path formDirectory;
    private AtomicInteger nextFormNumber = new AtomicInteger(0);
    private Handler getHandler;
+   /**
+    * Content types, and contents of small files, for this file server,
+    * configured by the optional {@code <FileCache>} element.
+    */
+   private FileCache fileCache;
    private String desc;
 
    private List <WSLogRMIClient> senders = new ArrayList <>();
    private Boolean storeToDB = false;
+   /**
+    * Write behind queue persisting {@link WSLog} instances for this file
+    * server, or null if there are no RMI senders and storeToDB is false.
+    */
+   private WSLogWriter wsLogWriter = null;
 
    private boolean WSLogging() {
-      if (storeToDB == false && senders.isEmpty()) return false;
-      return true;
+      return wsLogWriter != null;
    }
 
    /**
@@ -232,7 +250,8 @@ public class FileServer extends NotificationThread implements Serializable,
                int rmiPort =
                   rmiProperties.getInt("[@port]", DEFAULT_RMI_REGISTRY_PORT);
                try {
-                  WSLogRMIClient sndr = new WSLogRMIClient(rmiPort, null);
+                  WSLogRMIClient sndr =
+                     new WSLogRMIClient(rmiPort, null, rmiProperties);
                   senders.add(sndr);
                } catch (Exception e) {
                   log.info(e.getMessage());
@@ -241,12 +260,19 @@ public class FileServer extends NotificationThread implements Serializable,
          }
 
          storeToDB = fileServerProperties.getBoolean("[@storeToDB]", false);
+         if (storeToDB || senders.isEmpty() == false)
+            wsLogWriter =
+               new WSLogWriter(fileServerId, log, senders, storeToDB,
+                  fileServerProperties);
+
+         fileCache = new FileCache(fileServerProperties);
 
          fileServer = HttpServer.create(new InetSocketAddress(port), 0);
          getHandler = new Handler();
          HttpContext httpContext = fileServer.createContext("/", getHandler);
          httpContext.getFilters().add(new FaviconFilter(log));
-         fileServer.setExecutor(Util.getExec());
+         executor = Util.getExec("fs-" + fileServerId, fileServerProperties);
+         fileServer.setExecutor(executor);
          fileServer.start();
          desc = fileServerId + " - " + getFileUriPrefix();
          log.info(desc + " started.");
@@ -267,6 +293,8 @@ public class FileServer extends NotificationThread implements Serializable,
                (new Socket(Util.getExternalHostName(), port)).close();
             }
             log.trace(desc + " running.");
+            log.debug(executor.getStats() + ", file cache hits "
+               + fileCache.getHits() + ", misses " + fileCache.getMisses());
          }
       } catch (Exception e) {
          log.warn(desc + " shut down.");
@@ -307,7 +335,9 @@ public class FileServer extends NotificationThread implements Serializable,
 
          // - Response items, probably will be updated before sending
          STATUS responseStatus = STATUS.OK;
-         String responseBody = null;
+         FileCache.Entry responseFile = null;
+         long start = 0;
+         long length = 0;
          String contentType = MediaType.TEXT_PLAIN.typeSubtype;
 
          // ----- Build first part of log message for transaction.
@@ -351,17 +381,50 @@ public class FileServer extends NotificationThread implements Serializable,
                   wsLog.addStatus(FStatus.HTTP_IN_FNF);
                   break process;
                }
-               // -------------------------------------- Content type
+               // ------------------------ file, from cache if unchanged
+               FileCache.Entry entry;
                try {
-                  contentType = Files.probeContentType(filePath);
-               } catch (Exception e) {}
-               // ----------------------------------- load file
-               try {
-                  responseBody = FileUtils.readFileToString(filePath.toFile());
+                  entry = fileCache.get(filePath);
                } catch (IOException io) {
                   responseStatus = STATUS.SERVER_ERROR;
                   wsLog.addStatus(FStatus.HTTP_IN_FILE_ERROR);
+                  break process;
                }
+               contentType = entry.getContentType();
+               responseHeaders.add("ETag", entry.getEtag());
+               responseHeaders.add("Last-Modified",
+                  httpDate(entry.getLastModified()));
+               responseHeaders.add("Accept-Ranges", "bytes");
+               // ------------------------- client copy still current
+               if (etagMatches(requestHeaders.getFirst("If-None-Match"),
+                  entry.getEtag())) {
+                  responseStatus = STATUS.NOT_MODIFIED;
+                  break process;
+               }
+               responseFile = entry;
+               length = entry.getSize();
+               // --------------------------------------- byte range
+               String range = requestHeaders.getFirst("Range");
+               String ifRange = requestHeaders.getFirst("If-Range");
+               if (range == null
+                  || (ifRange != null && !ifRange.equals(entry.getEtag())))
+                  break process;
+               long[] r = parseRange(range, entry.getSize());
+               if (r == null) break process;
+               if (r.length == 0) {
+                  responseStatus = STATUS.RANGE_NOT_SATISFIABLE;
+                  responseHeaders.add("Content-Range",
+                     "bytes */" + entry.getSize());
+                  wsLog.addStatus(FStatus.HTTP_IN_RANGE);
+                  responseFile = null;
+                  length = 0;
+                  break process;
+               }
+               responseStatus = STATUS.PARTIAL_CONTENT;
+               start = r[0];
+               length = r[1] - r[0] + 1;
+               responseHeaders.add("Content-Range", "bytes " + r[0] + "-"
+                  + r[1] + "/" + entry.getSize());
                break process;
             } // ******************************************* EO Process GET
 
@@ -376,28 +439,38 @@ public class FileServer extends NotificationThread implements Serializable,
 
          } // EO process Request block
 
-         if (responseStatus == STATUS.OK) wsLog.addStatus(FStatus.HTTP_IN_OK);
+         if (responseStatus == STATUS.OK
+            || responseStatus == STATUS.PARTIAL_CONTENT
+            || responseStatus == STATUS.NOT_MODIFIED)
+            wsLog.addStatus(FStatus.HTTP_IN_OK);
 
          if (StringUtils.isBlank(requestBody)) requestBody = "empty";
          wsLog.addMessage("HTTP " + method.name() + "Request",
             MessageType.HTTP_IN_BODY, requestBody);
 
-         String bod =
-            (StringUtils.isNotBlank(responseBody)) ? responseBody : "empty";
+         String bod = "empty";
+         if (responseFile != null && length > 0) {
+            byte[] content = responseFile.getContent();
+            if (content == null)
+               bod = "[" + responseFile.getPath().getFileName() + ", "
+                  + length + " bytes, not logged]";
+            else if (WSLogging() || log.isTraceEnabled())
+               bod = new String(content, (int) start, (int) length,
+                  CHAR_SET_UTF_8);
+         }
          wsLog.addMessage("HTTP " + method.name() + "Response",
             MessageType.HTTP_OUT_BODY, bod);
 
          wsLog.addStatus(FStatus.HTTP_OUT_IN_PROGRESS);
 
          try {
-            if (StringUtils.isNotEmpty(responseBody)) {
-               byte[] body = responseBody.getBytes(CHAR_SET_UTF_8);
+            if (responseFile != null && length > 0) {
                responseHeaders.add("Content-Type", contentType);
                wsLog.setHttpResponseHeaders(responseHeaders);
                httpExchange.sendResponseHeaders(responseStatus.statusCode,
-                  body.length);
+                  length);
                OutputStream ob = httpExchange.getResponseBody();
-               IOUtils.write(body, ob);
+               responseFile.write(ob, start, length);
             } else {
                httpExchange.sendResponseHeaders(responseStatus.statusCode, -1);
             }
@@ -423,59 +496,114 @@ public class FileServer extends NotificationThread implements Serializable,
    } // EO Get Handler class
 
    /**
-    * Sends passed {@link WSLog} instance to all RMI destinations set up for
-    * this endpoint. Will not generate errors on failure.
-    * 
-    * @param wsLog instance to send.
+    * @param millis time, in milliseconds since the epoch.
+    * @return the time formatted for an HTTP date header.
     */
-   private synchronized void sendWSLog(WSLog wsLog) {
-      for (WSLogRMIClient sender : senders) {
-         sender.sendWSLog(wsLog);
+   private static String httpDate(long millis) {
+      return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(
+         millis).atZone(ZoneOffset.UTC));
+   }
+
+   /**
+    * Weak comparison of an If-None-Match header value with an entity tag.
+    *
+    * @param ifNoneMatch header value, "*" or a list of entity tags. May be
+    * null.
+    * @param etag current entity tag of the file.
+    * @return true if the client's copy is current.
+    */
+   private static boolean etagMatches(String ifNoneMatch, String etag) {
+      if (StringUtils.isBlank(ifNoneMatch)) return false;
+      for (String tag : ifNoneMatch.split(",")) {
+         tag = StringUtils.removeStart(tag.trim(), "W/");
+         if (tag.equals("*") || tag.equals(etag)) return true;
+      }
+      return false;
+   }
+
+   /**
+    * Parses a Range header value. Only a single byte range is supported;
+    * anything else is ignored and the whole file returned, as RFC 7233
+    * permits.
+    *
+    * @param range header value, for example "bytes=0-499", "bytes=500-" or
+    * "bytes=-500".
+    * @param size file size.
+    * @return first and last byte positions; an empty array if the range is not
+    * satisfiable; or null if the header is to be ignored.
+    */
+   private static long[] parseRange(String range, long size) {
+      range = range.trim();
+      if (!StringUtils.startsWithIgnoreCase(range, "bytes=")) return null;
+      String spec = range.substring(6).trim();
+      if (spec.contains(",")) return null;
+      int dash = spec.indexOf('-');
+      if (dash < 0) return null;
+      String first = spec.substring(0, dash).trim();
+      String last = spec.substring(dash + 1).trim();
+      try {
+         long from, to;
+         if (first.isEmpty()) {
+            // suffix range, last n bytes
+            long n = Long.parseLong(last);
+            if (n <= 0 || size == 0) return new long[0];
+            from = Math.max(0, size - n);
+            to = size - 1;
+         } else {
+            from = Long.parseLong(first);
+            to = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (to < from) return null;
+            if (from >= size) return new long[0];
+            to = Math.min(to, size - 1);
+         }
+         return new long[] { from, to };
+      } catch (NumberFormatException e) {
+         return null;
       }
    }
 
    /**
-    * Persists {@link WSLog} instance as indicated for this WSEndpoint:
+    * Persists {@link WSLog} instance as indicated for this FileServer:
     * <ul>
     * <li>To any RMI destinations which have been set up in the properties.</li>
     * <li>To the DB if the storeToDB attribute in the properties is true.</li>
     * </ul>
+    * The instance is queued on the {@link WSLogWriter} for this file server
+    * and written by its drain thread; this method does not wait for it.
     * 
     * @param wsLog logging instance to be persisted.
     */
-   public synchronized void persistWSLog(WSLog wsLog) {
-      sendWSLog(wsLog);
-      try {
-         if (storeToDB) wsLog.insert();
-      } catch (Exception e) {
-         log.error("Error persisting wslog instance for "
-            + wsLog.getClientHostName() + " to database." + e.getMessage());
-      }
+   public void persistWSLog(WSLog wsLog) {
+      if (wsLogWriter != null) wsLogWriter.enqueue(wsLog);
    }
 
    @SuppressWarnings("javadoc")
    public enum FStatus implements Status {
 
       // @formatter:off
-      HTTP_IN_IN_PROGRESS  (Phase.HTTP_IN, Result.NA, Level.TRACE, "HTTP Request processing in progress"),
-      HTTP_IN_FNF          (Phase.HTTP_IN, Result.FAIL, Level.DEBUG, "HTTP GET - File not Found"),
-      HTTP_IN_FILE_ERROR   (Phase.HTTP_IN, Result.FAIL, Level.DEBUG, "HTTP GET - Error reading File"),
-      HTTP_IN_METHOD       (Phase.HTTP_IN, Result.FAIL, Level.DEBUG, "HTTP GET - unsupported method"),
-      HTTP_IN_OK           (Phase.HTTP_IN, Result.PASS, Level.DEBUG, "HTTP Request processed OK."),
-      HTTP_OUT_IN_PROGRESS (Phase.HTTP_OUT, Result.NA, Level.TRACE, "HTTP Response processing in progress"),
-      HTTP_OUT_ERR         (Phase.HTTP_OUT, Result.FAIL, Level.DEBUG, "Error sending HTTP Response"),
-      HTTP_OUT_OK          (Phase.HTTP_OUT, Result.PASS, Level.DEBUG, "HTTP Request processed OK."),
-      HTTP_BODY_ERR        (Phase.HTTP_EX, Result.NA, Level.DEBUG, "Error reading HTTP Request body");
+      HTTP_IN_IN_PROGRESS  (1, Phase.HTTP_IN, Result.NA, Level.TRACE, "HTTP Request processing in progress"),
+      HTTP_IN_FNF          (2, Phase.HTTP_IN, Result.FAIL, Level.DEBUG, "HTTP GET - File not Found"),
+      HTTP_IN_FILE_ERROR   (3, Phase.HTTP_IN, Result.FAIL, Level.DEBUG, "HTTP GET - Error reading File"),
+      HTTP_IN_METHOD       (4, Phase.HTTP_IN, Result.FAIL, Level.DEBUG, "HTTP GET - unsupported method"),
+      HTTP_IN_RANGE        (5, Phase.HTTP_IN, Result.FAIL, Level.DEBUG, "HTTP GET - Range not satisfiable"),
+      HTTP_IN_OK           (6, Phase.HTTP_IN, Result.PASS, Level.DEBUG, "HTTP Request processed OK."),
+      HTTP_OUT_IN_PROGRESS (7, Phase.HTTP_OUT, Result.NA, Level.TRACE, "HTTP Response processing in progress"),
+      HTTP_OUT_ERR         (8, Phase.HTTP_OUT, Result.FAIL, Level.DEBUG, "Error sending HTTP Response"),
+      HTTP_OUT_OK          (9, Phase.HTTP_OUT, Result.PASS, Level.DEBUG, "HTTP Request processed OK."),
+      HTTP_BODY_ERR        (10, Phase.HTTP_EX, Result.NA, Level.DEBUG, "Error reading HTTP Request body");
       // @formatter:on
 
+      private final int id;
       private Phase phase;
       private Result result;
       private Level logLevel;
       private String statusMsg;
 
       private static final String setCode = "FileServer";
+      private static final int setId = 2;
 
-      private FStatus(Phase ph, Result pf, Level ll, String msg) {
+      private FStatus(int id, Phase ph, Result pf, Level ll, String msg) {
+         this.id = id;
          phase = ph;
          result = pf;
          logLevel = ll;
@@ -512,6 +640,11 @@ public class FileServer extends NotificationThread implements Serializable,
          return phase.phaseMsg;
       }
 
+      @Override
+      public int getId() {
+         return id;
+      }
+
       @Override
       public String getSetCode() {
          return setCode;
@@ -528,7 +661,7 @@ public class FileServer extends NotificationThread implements Serializable,
 
       // ----------------------- Phases for this status code
       static {
-         StatusHelper.addCodeSet(setCode, FStatus.class);
+         StatusHelper.addCodeSet(setCode, setId, FStatus.class);
       }
 
       @Override
@@ -32,6 +32,7 @@ import edu.wustl.mir.erl.ihe.util.Util;
 import edu.wustl.mir.erl.ihe.ws.WSProperties;
 import edu.wustl.mir.erl.ihe.ws.db.MessageType;
 import edu.wustl.mir.erl.ihe.ws.db.WSLog;
+import edu.wustl.mir.erl.ihe.ws.db.WSLogWriter;
 import edu.wustl.mir.erl.ihe.ws.db.rmi.WSLogRMIClient;
 import edu.wustl.mir.erl.ihe.ws.handlers.StoreSOAPMessages;
 import edu.wustl.mir.erl.ihe.ws.server.WSServer;
@@ -92,6 +93,11 @@ public abstract class ClientTest implements WSProperties {
    private String subDirectoryName;
    
    private List <WSLogRMIClient> senders = new ArrayList <>();
+   /**
+    * Write behind queue persisting {@link WSLog} instances for this test step,
+    * or null if there are no RMI senders and storeToDB is false.
+    */
+   private WSLogWriter wsLogWriter = null;
 
    /**
     * Method runs a test step in which it acts as a client sending a wsdl WS
@@ -194,6 +200,10 @@ public abstract class ClientTest implements WSProperties {
       }
       
       test.setupRMI(clientProperties);
+      if (storeToDB || test.senders.isEmpty() == false)
+         test.wsLogWriter =
+            new WSLogWriter(id, test.log, test.senders, storeToDB,
+               clientProperties);
       
       return test;
    } // EO initialize method
@@ -207,7 +217,7 @@ public abstract class ClientTest implements WSProperties {
          if (rmiProperties.getBoolean("[@on]", true) == false) continue;
          int rmiPort = rmiProperties.getInt("[@port]", DEFAULT_RMI_REGISTRY_PORT);
          try {
-            senders.add(new WSLogRMIClient(rmiPort, null));
+            senders.add(new WSLogRMIClient(rmiPort, null, rmiProperties));
          } catch (Exception e) {
             log.info(e.getMessage());
          }
@@ -388,34 +398,18 @@ public abstract class ClientTest implements WSProperties {
    } // EO setAction method
 
 
-   /**
-    * Sends passed {@link WSLog} instance to all RMI destinations set up for
-    * this endpoint. Will not generate errors on failure.
-    * 
-    * @param wsLog instance to send.
-    */
-   private synchronized void sendWSLog(WSLog wsLog) {
-      for (WSLogRMIClient sender : senders) {
-         sender.sendWSLog(wsLog);
-      }
-   }
-
    /**
     * Persists {@link WSLog} instance as indicated for this WSEndpoint:
     * <ul>
     * <li>To any RMI destinations which have been set up in the properties.</li>
     * <li>To the DB if the storeToDB attribute in the properties is true.</li>
     * </ul>
+    * The instance is queued on the {@link WSLogWriter} for this test step and
+    * written by its drain thread; this method does not wait for it.
     * @param wsLog WSLog instance to persist.
     */
-   public synchronized void persistWSLog(WSLog wsLog) {
-      sendWSLog(wsLog);
-      try {
-         if (storeToDB) wsLog.insert();
-      } catch (Exception e) {
-         log.error("Error persisting wslog instance for "
-            + wsLog.getClientHostName() + " to database." + e.getMessage());
-      }
+   public void persistWSLog(WSLog wsLog) {
+      if (wsLogWriter != null) wsLogWriter.enqueue(wsLog);
    }
    
    
@@ -32,6 +32,7 @@ import edu.wustl.mir.erl.ihe.server.FileServer;
 import edu.wustl.mir.erl.ihe.util.Status;
 import edu.wustl.mir.erl.ihe.util.Util;
 import edu.wustl.mir.erl.ihe.ws.client.ClientTest;
+import edu.wustl.mir.erl.ihe.ws.server.ExchangeCapture;
 import edu.wustl.mir.erl.ihe.ws.server.WSEndpoint;
 
 /**
@@ -64,7 +65,27 @@ public class LogTransaction implements Serializable, AutoCloseable {
    private TransactionType transactionType;
    
    private Path storeSOAPMessagesDirectoryPath = null;
-   
+
+   /**
+    * Raw bytes of the HTTP exchange, for SOAP server transactions received
+    * through {@link edu.wustl.mir.erl.ihe.ws.server.HTTPLoggingFilter
+    * HTTPLoggingFilter}, otherwise null.
+    */
+   private transient ExchangeCapture capture = null;
+
+   /**
+    * @return the {@link #capture} value.
+    */
+   public ExchangeCapture getCapture() {
+      return capture;
+   }
+
+   /**
+    * @param capture the {@link #capture} to set
+    */
+   public void setCapture(ExchangeCapture capture) {
+      this.capture = capture;
+   }
    
    /**
     * @return the {@link #storeSOAPMessagesDirectoryPath} value.
@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ ******************************************************************************/
+package edu.wustl.mir.erl.ihe.ws.db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * The body of a logged message, for example a SOAP request, held Deflate
+ * compressed and identified by the SHA-256 hash of its UTF-8 bytes. Instances
+ * are immutable, and are obtained from {@link MessageBodyStore}, which shares
+ * one instance between identical bodies, so a payload repeated across
+ * transactions is held, written to the database or file system, and sent by
+ * RMI once.
+ * <p>
+ * The text is inflated when it is first needed, and kept in a soft reference,
+ * so the memory can be reclaimed. When serialized, only the hash, length and
+ * compressed bytes are written; a deserialized body is replaced by the
+ * matching body in the store of the receiving JVM, if there is one.
+ * </p>
+ */
+public final class MessageBody implements Serializable {
+   private static final long serialVersionUID = 1L;
+
+   /** SHA-256 hash of the UTF-8 bytes of the body, lower case hex. */
+   private final String hash;
+   /** Length of the body in UTF-8 bytes. */
+   private final int length;
+   /** Deflate compressed UTF-8 bytes of the body. */
+   private final byte[] deflated;
+
+   private transient SoftReference <String> text;
+
+   private MessageBody(String hash, int length, byte[] deflated, String text) {
+      this.hash = hash;
+      this.length = length;
+      this.deflated = deflated;
+      this.text = new SoftReference <>(text);
+   }
+
+   /**
+    * Creates the body for text. Use {@link MessageBodyStore#getBody(String)},
+    * which shares instances, rather than this method.
+    * 
+    * @param text of the body.
+    * @param bytes UTF-8 bytes of text.
+    * @param hash SHA-256 hash of bytes, see {@link #hash(byte[])}.
+    * @return new body.
+    */
+   static MessageBody create(String text, byte[] bytes, String hash) {
+      return new MessageBody(hash, bytes.length, deflate(bytes), text);
+   }
+
+   /**
+    * Creates the body for UTF-8 bytes, for example captured from an HTTP
+    * exchange. The text is not decoded until it is asked for. Use
+    * {@link MessageBodyStore#getBody(ByteBuffer)} rather than this method.
+    * 
+    * @param bytes UTF-8 bytes of the body, from position to limit. Not
+    * changed.
+    * @param hash SHA-256 hash of bytes, see {@link #hash(ByteBuffer)}.
+    * @return new body.
+    */
+   static MessageBody create(ByteBuffer bytes, String hash) {
+      return new MessageBody(hash, bytes.remaining(), deflate(bytes.duplicate()),
+         null);
+   }
+
+   /**
+    * @param bytes UTF-8 bytes of a body.
+    * @return SHA-256 hash of bytes, lower case hex.
+    */
+   static String hash(byte[] bytes) {
+      return DigestUtils.sha256Hex(bytes);
+   }
+
+   /**
+    * @param bytes UTF-8 bytes of a body, from position to limit. Not changed.
+    * @return SHA-256 hash of bytes, lower case hex.
+    */
+   static String hash(ByteBuffer bytes) {
+      try {
+         MessageDigest digest = MessageDigest.getInstance("SHA-256");
+         digest.update(bytes.duplicate());
+         return Hex.encodeHexString(digest.digest());
+      } catch (NoSuchAlgorithmException e) {
+         // every Java platform supports SHA-256
+         throw new IllegalStateException(e);
+      }
+   }
+
+   /**
+    * Creates a body from its stored form, for example a database row. The
+    * hash is verified when the body is inflated.
+    * 
+    * @param hash the {@link #hash} value.
+    * @param length the {@link #length} value.
+    * @param deflated the {@link #deflated} value.
+    * @return new body.
+    * @throws Exception if the values are not valid.
+    */
+   static MessageBody create(String hash, int length, byte[] deflated)
+      throws Exception {
+      if (hash == null || hash.length() != 64 || length < 0 || deflated == null)
+         throw new Exception("invalid message body " + hash);
+      return new MessageBody(hash, length, deflated, null);
+   }
+
+   /**
+    * @return the text of the body.
+    * @throws IllegalStateException if the compressed bytes are corrupt, or do
+    * not match the hash.
+    */
+   public String getText() {
+      String t = text == null ? null : text.get();
+      if (t == null) {
+         byte[] bytes = inflate(deflated, length);
+         if (hash.equals(hash(bytes)) == false)
+            throw new IllegalStateException("message body " + hash
+               + " does not match its hash");
+         t = new String(bytes, StandardCharsets.UTF_8);
+         text = new SoftReference <>(t);
+      }
+      return t;
+   }
+
+   /**
+    * @return the {@link #hash} value.
+    */
+   public String getHash() {
+      return hash;
+   }
+
+   /**
+    * @return the {@link #length} value.
+    */
+   public int getLength() {
+      return length;
+   }
+
+   /**
+    * @return the {@link #deflated} value. Must not be modified.
+    */
+   public byte[] getDeflated() {
+      return deflated;
+   }
+
+   @Override
+   public boolean equals(Object obj) {
+      if (this == obj) return true;
+      if (obj instanceof MessageBody == false) return false;
+      return hash.equals(((MessageBody) obj).hash);
+   }
+
+   @Override
+   public int hashCode() {
+      return hash.hashCode();
+   }
+
+   @Override
+   public String toString() {
+      return hash + " (" + length + " bytes, " + deflated.length
+         + " compressed)";
+   }
+
+   private void readObject(ObjectInputStream in) throws IOException,
+      ClassNotFoundException {
+      in.defaultReadObject();
+      if (hash == null || length < 0 || deflated == null)
+         throw new IOException("invalid message body " + hash);
+   }
+
+   /**
+    * Replaces a deserialized body with the shared instance, if any.
+    */
+   private Object readResolve() {
+      return MessageBodyStore.intern(this);
+   }
+
+   private static byte[] deflate(byte[] bytes) {
+      return deflate(ByteBuffer.wrap(bytes));
+   }
+
+   /**
+    * Deflates the bytes from position to limit, which is moved to the limit.
+    * A buffer without an accessible array, such as a read only view, is fed
+    * to the Deflater in chunks.
+    */
+   private static byte[] deflate(ByteBuffer bytes) {
+      Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+      try {
+         ByteArrayOutputStream out =
+            new ByteArrayOutputStream(bytes.remaining() / 4 + 64);
+         byte[] buf = new byte[8192];
+         if (bytes.hasArray()) {
+            deflater.setInput(bytes.array(),
+               bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            bytes.position(bytes.limit());
+         } else {
+            byte[] chunk = new byte[8192];
+            while (bytes.hasRemaining()) {
+               int n = Math.min(chunk.length, bytes.remaining());
+               bytes.get(chunk, 0, n);
+               deflater.setInput(chunk, 0, n);
+               while (deflater.needsInput() == false)
+                  out.write(buf, 0, deflater.deflate(buf));
+            }
+         }
+         deflater.finish();
+         while (deflater.finished() == false) {
+            int n = deflater.deflate(buf);
+            out.write(buf, 0, n);
+         }
+         return out.toByteArray();
+      } finally {
+         deflater.end();
+      }
+   }
+
+   /**
+    * Inflates Deflate compressed bytes.
+    * 
+    * @param deflated compressed bytes.
+    * @param length expected length of the inflated bytes, or -1 if not known.
+    * @return inflated bytes.
+    * @throws IllegalStateException if the bytes are corrupt, or do not inflate
+    * to the expected length.
+    */
+   static byte[] inflate(byte[] deflated, int length) {
+      Inflater inflater = new Inflater();
+      try {
+         inflater.setInput(deflated);
+         ByteArrayOutputStream out = new ByteArrayOutputStream(
+            length >= 0 ? length : deflated.length * 4);
+         byte[] buf = new byte[8192];
+         while (inflater.finished() == false) {
+            int n = inflater.inflate(buf);
+            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+               throw new IllegalStateException("message body truncated");
+            out.write(buf, 0, n);
+         }
+         if (length >= 0 && out.size() != length)
+            throw new IllegalStateException("message body inflated to "
+               + out.size() + " bytes, expected " + length);
+         return out.toByteArray();
+      } catch (DataFormatException e) {
+         throw new IllegalStateException("corrupt message body: "
+            + e.getMessage());
+      } finally {
+         inflater.end();
+      }
+   }
+
+} // EO MessageBody class
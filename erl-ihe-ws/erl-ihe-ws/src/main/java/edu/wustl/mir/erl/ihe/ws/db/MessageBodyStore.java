@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ ******************************************************************************/
+package edu.wustl.mir.erl.ihe.ws.db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content addressed store of logged message bodies, shared by {@link WSMsg},
+ * the StoreSOAPMessages file store, and the RMI path.
+ * <ul>
+ * <li>In memory, {@link #getBody(String)} returns the same {@link MessageBody}
+ * for identical text, from a least recently used cache of up to
+ * {@link #setMaxEntries(int) maxEntries} bodies, keyed by hash. A repeated
+ * payload, for example the same prepop document sent on each test run, is
+ * compressed and held once.</li>
+ * <li>In the database, WSMsg rows reference their body by hash in the msgbody
+ * table, which holds each body once.</li>
+ * <li>In the file system, {@link #write(Path, MessageBody)} stores each body
+ * once, as {@code root/ab/abcd...ef.z}, where abcd...ef is its hash. The file
+ * is a zlib stream of the UTF-8 text.</li>
+ * </ul>
+ */
+public class MessageBodyStore {
+
+   private static int maxEntries = 256;
+
+   /** Bodies by hash, least recently used first. */
+   private static final Map <String, MessageBody> bodies =
+      new LinkedHashMap <String, MessageBody>(64, 0.75f, true) {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(
+            Map.Entry <String, MessageBody> eldest) {
+            return size() > maxEntries;
+         }
+      };
+
+   private static final AtomicLong hits = new AtomicLong();
+   private static final AtomicLong misses = new AtomicLong();
+
+   private MessageBodyStore() {}
+
+   /**
+    * Gets the body for text, sharing the instance if an identical body is
+    * in the cache, otherwise compressing the text and caching the new body.
+    * 
+    * @param text message text. May be null.
+    * @return body, or null if text is null.
+    */
+   public static MessageBody getBody(String text) {
+      if (text == null) return null;
+      byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+      String hash = MessageBody.hash(bytes);
+      synchronized (bodies) {
+         MessageBody body = bodies.get(hash);
+         if (body != null) {
+            hits.incrementAndGet();
+            return body;
+         }
+      }
+      misses.incrementAndGet();
+      return intern(MessageBody.create(text, bytes, hash));
+   }
+
+   /**
+    * As {@link #getBody(String)}, for the UTF-8 bytes of a message, for
+    * example a read only view of bytes captured from an HTTP exchange. The
+    * bytes are hashed and, if the body is not in the cache, compressed,
+    * without being decoded or copied.
+    * 
+    * @param bytes message bytes, from position to limit. Not changed. May be
+    * null.
+    * @return body, or null if bytes is null.
+    */
+   public static MessageBody getBody(ByteBuffer bytes) {
+      if (bytes == null) return null;
+      String hash = MessageBody.hash(bytes);
+      synchronized (bodies) {
+         MessageBody body = bodies.get(hash);
+         if (body != null) {
+            hits.incrementAndGet();
+            return body;
+         }
+      }
+      misses.incrementAndGet();
+      return intern(MessageBody.create(bytes, hash));
+   }
+
+   /**
+    * Gets the cached body with the same hash as the passed body, caching the
+    * passed body if there is none.
+    * 
+    * @param body message body, for example one just deserialized or loaded
+    * from the database.
+    * @return the shared instance.
+    */
+   public static MessageBody intern(MessageBody body) {
+      synchronized (bodies) {
+         MessageBody b = bodies.get(body.getHash());
+         if (b != null) return b;
+         if (maxEntries > 0) bodies.put(body.getHash(), body);
+         return body;
+      }
+   }
+
+   /**
+    * Gets a body from its stored form, for example a msgbody table row.
+    * 
+    * @param hash SHA-256 hash of the body.
+    * @param length length of the body in UTF-8 bytes.
+    * @param deflated Deflate compressed body.
+    * @return the shared instance.
+    * @throws Exception if the values are not valid.
+    */
+   public static MessageBody getBody(String hash, int length, byte[] deflated)
+      throws Exception {
+      synchronized (bodies) {
+         MessageBody b = bodies.get(hash);
+         if (b != null) return b;
+      }
+      return intern(MessageBody.create(hash, length, deflated));
+   }
+
+   /**
+    * @param root root directory of a file store.
+    * @param hash hash of a body.
+    * @return path of the file holding the body in the store.
+    */
+   public static Path getPath(Path root, String hash) {
+      return root.resolve(hash.substring(0, 2)).resolve(hash + ".z");
+   }
+
+   /**
+    * Writes a body to a file store, unless it is already there. The file is
+    * written under a temporary name, then renamed, so a partially written
+    * body is never visible.
+    * 
+    * @param root root directory of the file store.
+    * @param body to write.
+    * @return path of the file holding the body.
+    * @throws IOException on error writing the file.
+    */
+   public static Path write(Path root, MessageBody body) throws IOException {
+      Path path = getPath(root, body.getHash());
+      if (Files.exists(path)) return path;
+      Files.createDirectories(path.getParent());
+      Path tmp = Files.createTempFile(path.getParent(), body.getHash(), ".tmp");
+      try {
+         Files.write(tmp, body.getDeflated());
+         Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+      } catch (FileAlreadyExistsException e) {
+         // Written by another thread meanwhile
+      } finally {
+         Files.deleteIfExists(tmp);
+      }
+      return path;
+   }
+
+   /**
+    * Reads a body from a file store.
+    * 
+    * @param root root directory of the file store.
+    * @param hash hash of the body.
+    * @return the shared instance.
+    * @throws Exception if the body is not in the store, can not be read, or
+    * does not match its hash.
+    */
+   public static MessageBody read(Path root, String hash) throws Exception {
+      synchronized (bodies) {
+         MessageBody b = bodies.get(hash);
+         if (b != null) return b;
+      }
+      byte[] deflated = Files.readAllBytes(getPath(root, hash));
+      byte[] bytes = MessageBody.inflate(deflated, -1);
+      if (hash.equals(MessageBody.hash(bytes)) == false)
+         throw new Exception("message body file for " + hash
+            + " does not match its hash");
+      return intern(MessageBody.create(hash, bytes.length, deflated));
+   }
+
+   /**
+    * Sets the maximum number of bodies held in memory. 0 disables sharing.
+    * 
+    * @param entries new maximum.
+    */
+   public static void setMaxEntries(int entries) {
+      synchronized (bodies) {
+         maxEntries = Math.max(0, entries);
+         while (bodies.size() > maxEntries)
+            bodies.remove(bodies.keySet().iterator().next());
+      }
+   }
+
+   /**
+    * @return number of {@link #getBody(String)} calls which found an identical
+    * body in memory.
+    */
+   public static long getHits() {
+      return hits.get();
+   }
+
+   /**
+    * @return number of {@link #getBody(String)} calls which compressed a new
+    * body.
+    */
+   public static long getMisses() {
+      return misses.get();
+   }
+
+   /**
+    * @return number of bodies held in memory.
+    */
+   public static int size() {
+      synchronized (bodies) {
+         return bodies.size();
+      }
+   }
+
+} // EO MessageBodyStore class
@@ -13,10 +13,16 @@
  *******************************************************************************/
 package edu.wustl.mir.erl.ihe.ws.db;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.sql.ResultSet;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
@@ -57,8 +63,9 @@ import edu.wustl.mir.erl.ihe.util.jdbc.Query;
  * 
  * @author Ralph Moulton / MIR WUSTL IHE Development Project 
  */
-public class WSLog implements DBTable, UtilProperties, WSLogProperties {
-   private static final long serialVersionUID = 1L;
+public class WSLog implements DBTable, UtilProperties, WSLogProperties,
+   Externalizable {
+   private static final long serialVersionUID = 2L;
 
    @Override
    public String getLogicalDbName() {
@@ -107,7 +114,7 @@ public class WSLog implements DBTable, UtilProperties, WSLogProperties {
    /**
     * Is connection secure (https)
     */
-   private Boolean secure = null; 
+   private Boolean secure = false; 
    /**
     * Server certificate file name, or blank for non-secure connections.
     */
@@ -129,7 +136,8 @@ public class WSLog implements DBTable, UtilProperties, WSLogProperties {
     */
    private Date connOpenTime = new Date(); 
    /**
-    * Approximate time connection closed.
+    * Approximate time connection closed. If not set when the instance is
+    * inserted, {@link #connOpenTime} is stored.
     */
    private Date connCloseTime = null;
 
@@ -139,6 +147,14 @@ public class WSLog implements DBTable, UtilProperties, WSLogProperties {
     * {@link Status} compatible codes which have been posted to this WSLog.
     */
    private List <Status> statuses = new ArrayList <>();
+   /**
+    * Index in {@link #statuses} of the first status for each phase, by phase
+    * message, used by {@link #addStatus(Status)}. Built when needed, and
+    * discarded when statuses is replaced.
+    */
+   private transient Map <String, Integer> phaseSlots = null;
+   /** Size of {@link #statuses} when {@link #phaseSlots} was last updated. */
+   private transient int phaseSlotsSize = 0;
    /**
     * Human readable error message, or blank.
     */
@@ -146,19 +162,19 @@ public class WSLog implements DBTable, UtilProperties, WSLogProperties {
    // ----------------------- general status for parsing errors
    /**
     * For parsing errors where line/column information is provided, the line on
-    * which the error occurred. If no error of this type occurred, null.
+    * which the error occurred. If no error of this type occurred, 0.
     */
-   private Integer errorLine = null;
+   private Integer errorLine = 0;
    /**
     * For parsing errors where line/column information is provided, the column
-    * on which the error occurred. If no error of this type occurred, null.
+    * on which the error occurred. If no error of this type occurred, 0.
     */
-   private Integer errorColumn = null;
+   private Integer errorColumn = 0;
    /**
     * For parsing errors where substring information is provided, the substring
-    * in which the error occurred. If no error of this type occurred, null.
+    * in which the error occurred. If no error of this type occurred, blank.
     */
-   private String errorSubstring = null;
+   private String errorSubstring = "";
    // ---------------------------------------------- HTTP data
    /**
     * HTTP Request method code, for example "GET".
@@ -290,7 +306,12 @@ public class WSLog implements DBTable, UtilProperties, WSLogProperties {
       /**
        * Insert a single instance of WSLog as a new row in the database.
        */
-      insert();
+      insert(),
+      /**
+       * Add the status_codes column to a WSLog table created without it. Rows
+       * already in the table keep their statuses in statuses_txt.
+       */
+      addStatusCodes();
 
       private final String[] query;
 
@@ -383,10 +404,42 @@ public class WSLog implements DBTable, UtilProperties, WSLogProperties {
     */
    public int insert(JDBC.Connection conn) throws Exception {
       if (id != null) throw new Exception("attempt to re-insert WSLog record");
-      id = new Query(WSLog.sql.insert).setAll(this).dbInsertOne(conn);
+      fillNotNullColumns();
+      ResultSet rs =
+         new Query(WSLog.sql.insert).prepared().setAll(this).dbQuery(conn);
+      try {
+         if (rs.next() == false)
+            throw new Exception("WSLog insert returned no id");
+         id = rs.getInt("id");
+      } finally {
+         conn.closeResultSet();
+      }
       return id;
    }
 
+   /**
+    * The wslog columns are all NOT NULL, but setters accept null, for example
+    * an unknown secure flag, or a parse error without a line. Replaces those
+    * nulls with false, 0 or blank, and a missing close time with the open
+    * time, so that the insert does not fail.
+    */
+   private void fillNotNullColumns() {
+      if (clientIp == null) clientIp = "";
+      if (clientHostName == null) clientHostName = "";
+      if (serverIp == null) serverIp = "";
+      if (serverPort == null) serverPort = 0;
+      if (secure == null) secure = false;
+      if (certificates == null) certificates = "";
+      if (serviceName == null) serviceName = "";
+      if (serverName == null) serverName = "";
+      if (connOpenTime == null) connOpenTime = new Date();
+      if (connCloseTime == null) connCloseTime = connOpenTime;
+      if (errorMessage == null) errorMessage = "";
+      if (errorLine == null) errorLine = 0;
+      if (errorColumn == null) errorColumn = 0;
+      if (errorSubstring == null) errorSubstring = "";
+   }
+
    /**
     * Creates a new {@link WSMsg} instance and adds it to this WSLog instance.
     * Still must be persisted.
@@ -397,9 +450,25 @@ public class WSLog implements DBTable, UtilProperties, WSLogProperties {
     */
    public void addMessage(String description, MessageType msgType,
       String message) {
-      WSMsg wsMsg = new WSMsg(msgType, description, message);
+      addMessage(description, msgType, MessageBodyStore.getBody(message));
+   }
+
+   /**
+    * Creates a new {@link WSMsg} instance and adds it to this WSLog instance.
+    * Still must be persisted. Use this form when the same body is also
+    * stored elsewhere, for example by StoreSOAPMessages.
+    * 
+    * @param description {@link WSMsg#getDescription}
+    * @param msgType {@link WSMsg#getMsgType}
+    * @param body {@link WSMsg#getBody}, from {@link MessageBodyStore}.
+    */
+   public void addMessage(String description, MessageType msgType,
+      MessageBody body) {
+      WSMsg wsMsg = new WSMsg(msgType, description, body);
       wsMsgs.add(wsMsg);
-      log.trace(description + " " + msgType.toString() + nl + wsMsg.getPretty());
+      if (log.isTraceEnabled())
+         log.trace(description + " " + msgType.toString() + nl
+            + wsMsg.getPretty());
    }
 
    // ********************************************************
@@ -639,7 +708,8 @@ public class WSLog implements DBTable, UtilProperties, WSLogProperties {
       if (wsMsgs == null) {
          try (Connection conn = JDBC.getConnection(WSMsg.LOGICAL_DB_NAME)) {
             ResultSet m =
-               new Query(WSMsg.sql.wslogId).set("wslogId", id).dbQuery(conn);
+               new Query(WSMsg.sql.wslogId).prepared().set("wslogId", id)
+                  .dbQuery(conn);
             wsMsgs = WSMsg.loadRows(m);
          } catch (Exception e) {
             log.warn("Error loading WSMsgs: " + e.getMessage());
@@ -669,27 +739,58 @@ public class WSLog implements DBTable, UtilProperties, WSLogProperties {
    // Routines for db get and set for statuses
 
    /**
-    * Converts {@link #statuses} List to an encoded String which can be stored
-    * in the database.
+    * Converts {@link #statuses} List to an SQL array of packed status codes
+    * which can be stored in the database.
+    * 
+    * @return SQL array of packed status codes.
+    * @see StatusHelper#exportCodesToDb(List)
+    */
+   @Helper(ignoreComp = true)
+   public String getStatusCodes() {
+      return StatusHelper.exportCodesToDb(statuses);
+   }
+
+   /**
+    * Converts an SQL array of packed status codes from the database to a List
+    * and places it in the statuses property of this instance of WSLog. An
+    * empty array, as in rows written before the column was added, leaves the
+    * statuses from {@link #setStatusesTxt(String)}.
     * 
-    * @return encoded status string.
-    * @see StatusHelper#exportToDb(List)
+    * @param statusCodes String, SQL array of packed status codes.
+    * @see StatusHelper#importCodesFromDb(String)
+    */
+   public void setStatusCodes(String statusCodes) {
+      List <Status> s = StatusHelper.importCodesFromDb(statusCodes);
+      if (s.isEmpty()) return;
+      statuses = s;
+      phaseSlots = null;
+   }
+
+   /**
+    * Statuses are stored by {@link #getStatusCodes()}, so the text column is
+    * written empty. It is kept for rows written before the packed codes.
+    * 
+    * @return empty String.
     */
    @Helper(ignoreComp = true)
    public String getStatusesTxt() {
-      return StatusHelper.exportToDb(statuses);
+      return "";
    }
 
    /**
-    * Converts a {@link #statuses} List which has been encoded to be stores in a
-    * database to a List and places it in the statuses property of this instance
-    * of WSLog.
+    * Converts a {@link #statuses} List which has been encoded as text, in a
+    * row written before the packed codes, to a List and places it in the
+    * statuses property of this instance of WSLog. An empty String, as in rows
+    * written since, leaves the statuses from {@link #setStatusCodes(String)}.
     * 
     * @param statusesTxt String, encoded status List.
     * @see StatusHelper#importFromDb(String)
     */
    public void setStatusesTxt(String statusesTxt) {
-      statuses = StatusHelper.importFromDb(statusesTxt);
+      List <Status> s = StatusHelper.importFromDb(statusesTxt);
+      if (s.isEmpty()) return;
+      statuses = s;
+      phaseSlots = null;
    }
 
    /**
@@ -701,17 +802,21 @@ public class WSLog implements DBTable, UtilProperties, WSLogProperties {
     */
    public void addStatus(Status status) {
       log.log(status.getLogLevel(), status.getMsg());
+      Map <String, Integer> slots = getPhaseSlots();
+      String phase = status.getPhaseMsg();
       switch (status.getUpdateType()) {
          case UPDATE:
-            for (int i = 0; i < statuses.size(); i++ ) {
-               if (statuses.get(i).getPhaseMsg().equals(status.getPhaseMsg())) {
-                  statuses.set(i, status);
-                  return;
-               }
+            Integer slot = slots.get(phase);
+            if (slot != null) {
+               statuses.set(slot, status);
+               return;
             }
             //$FALL-THROUGH$
          case ADD:
+            if (slots.containsKey(phase) == false)
+               slots.put(phase, statuses.size());
             statuses.add(status);
+            phaseSlotsSize = statuses.size();
             break;
          default:
             Util.exit("WSLog.addStatus encountered unknown UpdateType "
@@ -719,6 +824,24 @@ public class WSLog implements DBTable, UtilProperties, WSLogProperties {
       }
    }
 
+   /**
+    * @return {@link #phaseSlots}, built from {@link #statuses} if it has been
+    * discarded, or if statuses has been changed other than by
+    * {@link #addStatus(Status)}.
+    */
+   private Map <String, Integer> getPhaseSlots() {
+      if (phaseSlots != null && phaseSlotsSize == statuses.size())
+         return phaseSlots;
+      phaseSlots = new HashMap <>();
+      phaseSlotsSize = statuses.size();
+      for (int i = 0; i < statuses.size(); i++ ) {
+         Status s = statuses.get(i);
+         if (s != null && phaseSlots.containsKey(s.getPhaseMsg()) == false)
+            phaseSlots.put(s.getPhaseMsg(), i);
+      }
+      return phaseSlots;
+   }
+
    /**
     * Convenience method adds status and error message together
     * 
@@ -1030,10 +1153,11 @@ public class WSLog implements DBTable, UtilProperties, WSLogProperties {
     * Convenience method to set values for a parsing type error.
     * 
     * @param errorMessage String message generated by exception
-    * @param errorLine Integer line error was on, null if substring based error.
+    * @param errorLine Integer line error was on, null or 0 if substring based
+    * error.
     * @param errorColumn Integer column error was noted in; used for both
     * line/column and substring based errors.
-    * @param subString for substring based errors, otherwise null.
+    * @param subString for substring based errors, otherwise null or blank.
     */
    public void setParseErrorLocation(String errorMessage, Integer errorLine,
       Integer errorColumn, String subString) {
@@ -1118,18 +1242,95 @@ public class WSLog implements DBTable, UtilProperties, WSLogProperties {
    public void close() {
       log.trace(Util.classMethod() + "invoked");
       try (Connection conn = JDBC.getConnection(LOGICAL_DB_NAME)) {
-         if (id == null) id = insert(conn);
-         for (WSMsg m : wsMsgs) {
-            if (m.getId() == null) {
-               m.setWslogId(id);
-               m.insert(conn);
-            }
+         try {
+            conn.setAutoCommit(false);
+            persist(conn);
+            conn.commit();
+         } catch (Exception e) {
+            conn.rollback();
+            clearIds();
+            throw e;
          }
       } catch (Exception e) {
          log.warn("WSLog.close() error: " + e.getMessage());
       }
    }
 
+   /**
+    * Persists this WSLog instance, if it has not already been persisted, and
+    * any of its {@link WSMsg} instances which have not been persisted, using
+    * the passed connection. Does not commit; if the connection is not in
+    * auto-commit mode, the caller is responsible for the transaction.
+    * 
+    * @param conn {@link edu.wustl.mir.erl.ihe.util.jdbc.JDBC.Connection
+    * Connection}
+    * @throws Exception on error.
+    */
+   public void persist(JDBC.Connection conn) throws Exception {
+      persist(conn, Collections.singletonList(this));
+   }
+
+   /**
+    * Persists the passed WSLog instances as {@link #persist(JDBC.Connection)}
+    * does, inserting the new {@link WSMsg} instances of all of them in one
+    * batch, see {@link WSMsg#insert(JDBC.Connection, List)}. Does not commit;
+    * to persist the logs and their messages in one transaction, the
+    * connection must not be in auto-commit mode.
+    * 
+    * @param conn {@link edu.wustl.mir.erl.ihe.util.jdbc.JDBC.Connection
+    * Connection}
+    * @param wsLogs instances to persist.
+    * @throws Exception on error.
+    */
+   public static void persist(JDBC.Connection conn, List <WSLog> wsLogs)
+      throws Exception {
+      List <WSMsg> pending = new ArrayList <>();
+      for (WSLog wsLog : wsLogs) {
+         if (wsLog.id == null) wsLog.insert(conn);
+         if (wsLog.wsMsgs == null) continue;
+         for (WSMsg m : wsLog.wsMsgs) {
+            if (m.getId() == null) {
+               m.setWslogId(wsLog.id);
+               pending.add(m);
+            }
+         }
+      }
+      WSMsg.insert(conn, pending);
+   }
+
+   /**
+    * Clears the database ids of this instance and its {@link WSMsg}
+    * instances, so that it can be persisted again after the transaction it
+    * was persisted in was rolled back.
+    */
+   void clearIds() {
+      id = null;
+      if (wsMsgs == null) return;
+      for (WSMsg m : wsMsgs) {
+         m.setId(null);
+         m.setWslogId(null);
+      }
+   }
+
+   /**
+    * Estimates the memory held by this instance, for callers which bound the
+    * number of instances they keep: a fixed allowance for the log and each
+    * of its {@link WSMsg} instances, plus the compressed length of each
+    * message body. Does not load messages from the database.
+    * 
+    * @return estimated size in bytes.
+    */
+   public long estimateSize() {
+      long size = 1024;
+      if (wsMsgs == null) return size;
+      for (WSMsg m : wsMsgs) {
+         size += 256;
+         byte[] deflated = m.getBodyDeflated();
+         if (deflated != null) size += deflated.length;
+      }
+      return size;
+   }
+
    /**
     * Instantiates a new instance of {@link WSLog} using value from the next row
     * of the passed result set.
@@ -1157,6 +1358,128 @@ public class WSLog implements DBTable, UtilProperties, WSLogProperties {
       return helper.loadRows(resultSet);
    }
 
+   // ********************************************************
+   // Serialization, see WireFormat
+   // ********************************************************
+
+   /**
+    * Writes this WSLog and its messages in {@link WireFormat}. Messages not
+    * yet loaded from the database are not written.
+    */
+   @Override
+   public void writeExternal(ObjectOutput out) throws IOException {
+      WireFormat.Out o = new WireFormat.Out(out);
+      o.writeInteger(id);
+      o.writeText(clientIp);
+      o.writeText(clientHostName);
+      o.writeText(serverIp);
+      o.writeInteger(serverPort);
+      o.writeBoolean(secure);
+      o.writeText(certificates);
+      o.writeString(serviceName);
+      o.writeString(serverName);
+      o.writeString(serviceEndpointAddress);
+      o.writeDate(connOpenTime);
+      o.writeDate(connCloseTime);
+      o.writeEnum(transactionType);
+      o.writeStatuses(statuses);
+      o.writeText(errorMessage);
+      o.writeInteger(errorLine);
+      o.writeInteger(errorColumn);
+      o.writeText(errorSubstring);
+      o.writeString(httpMethod);
+      o.writeText(httpRequestURI == null ? null : httpRequestURI.toString());
+      o.writeString(httpRequestProtocol);
+      o.writeHeaders(httpRequestHeaders);
+      o.writeInteger(httpResponseCode);
+      o.writeHeaders(httpResponseHeaders);
+      o.writeString(soapActionURI);
+      o.writeString(wsdlService);
+      o.writeText(soapMessageId);
+      o.writeString(soapRequestName);
+      writeLabelValuePairs(o, soapRequestLabelValuePairs);
+      o.writeString(soapResponseName);
+      writeLabelValuePairs(o, soapResponseLabelValuePairs);
+      out.writeBoolean(selected);
+      o.writeUInt(wsMsgs == null ? 0 : wsMsgs.size() + 1);
+      if (wsMsgs != null) for (WSMsg wsMsg : wsMsgs)
+         wsMsg.write(o);
+   }
+
+   @Override
+   public void readExternal(ObjectInput in)
+      throws IOException, ClassNotFoundException {
+      WireFormat.In i = new WireFormat.In(in, WSLog.class.getName());
+      id = i.readInteger();
+      clientIp = i.readText();
+      clientHostName = i.readText();
+      serverIp = i.readText();
+      serverPort = i.readInteger();
+      secure = i.readBoolean();
+      certificates = i.readText();
+      serviceName = i.readString();
+      serverName = i.readString();
+      serviceEndpointAddress = i.readString();
+      connOpenTime = i.readDate();
+      connCloseTime = i.readDate();
+      transactionType = i.readEnum(TransactionType.class);
+      statuses = i.readStatuses();
+      phaseSlots = null;
+      errorMessage = i.readText();
+      errorLine = i.readInteger();
+      errorColumn = i.readInteger();
+      errorSubstring = i.readText();
+      httpMethod = i.readString();
+      String uri = i.readText();
+      try {
+         httpRequestURI = uri == null ? null : new URI(uri);
+      } catch (URISyntaxException e) {
+         throw new IOException("WSLog httpRequestURI invalid: " + uri, e);
+      }
+      httpRequestProtocol = i.readString();
+      httpRequestHeaders = i.readHeaders();
+      httpResponseCode = i.readInteger();
+      httpResponseHeaders = i.readHeaders();
+      soapActionURI = i.readString();
+      wsdlService = i.readString();
+      soapMessageId = i.readText();
+      soapRequestName = i.readString();
+      soapRequestLabelValuePairs = readLabelValuePairs(i);
+      soapResponseName = i.readString();
+      soapResponseLabelValuePairs = readLabelValuePairs(i);
+      selected = in.readBoolean();
+      int count = i.readCount();
+      wsMsgs = null;
+      if (count > 0) {
+         wsMsgs = new ArrayList <>();
+         for (int n = 1; n < count; n++ ) {
+            WSMsg wsMsg = new WSMsg();
+            wsMsg.read(i);
+            wsMsgs.add(wsMsg);
+         }
+      }
+   }
+
+   private static void writeLabelValuePairs(WireFormat.Out o,
+      List <LabelValue <String, Object>> pairs) throws IOException {
+      o.writeUInt(pairs.size());
+      for (LabelValue <String, Object> pair : pairs) {
+         o.writeString(pair.getLabel());
+         o.writeValue(pair.getValue());
+      }
+   }
+
+   private static List <LabelValue <String, Object>> readLabelValuePairs(
+      WireFormat.In i) throws IOException, ClassNotFoundException {
+      int size = i.readCount();
+      List <LabelValue <String, Object>> pairs = new ArrayList <>();
+      for (int n = 0; n < size; n++ ) {
+         String label = i.readString();
+         pairs.add(LabelValue.with(label, i.readValue()));
+      }
+      return pairs;
+   }
+
    private Map <String, List <String>> copyHeaders(
       Map <String, List <String>> headers) {
       Map <String, List <String>> copy = new HashMap <>();
@@ -25,7 +25,7 @@ import edu.wustl.mir.erl.ihe.util.jdbc.RDBMS;
 public class WSLogPostgres extends Queries implements Serializable {
    private static final long serialVersionUID = 1L;
          
-   static { 
+ { 
       
       queries.put("create", new String[] {
          "CREATE SEQUENCE seq_wslog_id START 1;",
@@ -47,20 +47,28 @@ public class WSLogPostgres extends Queries implements Serializable {
             "error_message   TEXT NOT NULL, " +
             "error_line      SMALLINT NOT NULL, " +
             "error_column    SMALLINT NOT NULL, " +
-            "error_substring TEXT NOT NULL); ",
+            "error_substring TEXT NOT NULL, " +
+            "status_codes    INTEGER[] NOT NULL DEFAULT '{}'); ",
             
             "GRANT ALL ON wslog TO GROUP public;"
       });
       
       queries.put("insert", new String[] {
          "INSERT INTO wslog VALUES(NEXTVAL('seq_wslog_id'), " +
-         "'${clientIp}', '${clientHostName}', '${serverIp}', ${secure}, '${certificates}', " +
+         "'${clientIp}', '${clientHostName}', '${serverIp}', ${serverPort}, " +
+         "${secure}, '${certificates}', " +
          "'${serviceName}', '${serverName}', '${connOpenTime}', " + 
-         "'${connCloseTime}', '${statuses}', '{errorMessage}', " +
-         "${errorLine}, ${errorColumn}, '${errorSubstring}');"
+         "'${connCloseTime}', '${statusesTxt}', '${errorMessage}', " +
+         "${errorLine}, ${errorColumn}, '${errorSubstring}', " +
+         "CAST('${statusCodes}' AS INTEGER[])) RETURNING id;"
 
       });
+
+      queries.put("addStatusCodes", new String[] {
+         "ALTER TABLE wslog ADD COLUMN status_codes INTEGER[] NOT NULL " +
+            "DEFAULT '{}';"
+      });
       
-   } // EO static block
+   } // EO instance initializer block
 
 } // EO WSLogPostgres
@@ -30,5 +30,11 @@ public interface WSLogProperties {
     * this class.
     */
    public static final String LOGICAL_DB_NAME = "wslog";
+   /**
+    * {@link #LOGICAL_DB_NAME}, under the name which
+    * {@link edu.wustl.mir.erl.ihe.util.jdbc.JDBC#getQueries(Class)} looks up
+    * to load the queries for the table.
+    */
+   public static final String logicalDbName = LOGICAL_DB_NAME;
 
 }
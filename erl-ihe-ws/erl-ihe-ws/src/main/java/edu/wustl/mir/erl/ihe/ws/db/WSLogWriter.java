@@ -0,0 +1,343 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ *******************************************************************************/
+package edu.wustl.mir.erl.ihe.ws.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.log4j.Logger;
+
+import edu.wustl.mir.erl.ihe.util.ShutDown;
+import edu.wustl.mir.erl.ihe.util.jdbc.JDBC;
+import edu.wustl.mir.erl.ihe.ws.db.rmi.WSLogRMIClient;
+
+/**
+ * Write behind queue for {@link WSLog} instances. One instance is created for
+ * each WSEndpoint, FileServer, or ClientTest which persists transaction logs.
+ * {@link #enqueue(WSLog)} is called on the request thread and returns at once;
+ * a single drain thread per instance queues the logs on the RMI senders, which
+ * deliver them on their own threads, and, if storeToDB is set, inserts them
+ * into the database in batches, one transaction per batch.
+ * <p>
+ * Configured by an optional {@code <WSLogQueue>} child element of the owning
+ * element in the application properties file, for example:
+ * </p>
+ * <pre>
+ * {@code
+ * <WSLogQueue capacity="1000" flushSize="50" flushIntervalMs="500"
+ *             policy="block" blockTimeoutMs="5000" />
+ * }
+ * </pre>
+ * <ul>
+ * <li><b>capacity</b> maximum number of logs waiting to be written. Default
+ * 1000.</li>
+ * <li><b>flushSize</b> maximum number of logs written in one batch. Default
+ * 50.</li>
+ * <li><b>flushIntervalMs</b> how long the drain thread waits for a batch to
+ * fill before writing what it has. Default 500.</li>
+ * <li><b>policy</b> what to do when the queue is full: "block" waits up to
+ * blockTimeoutMs for room, then drops the log; "drop" drops it at once.
+ * Default "block".</li>
+ * <li><b>blockTimeoutMs</b> see policy. Default 5000.</li>
+ * </ul>
+ * Dropped logs are counted and logged as warnings.
+ */
+public class WSLogWriter implements Closeable {
+
+   /**
+    * What {@link WSLogWriter#enqueue(WSLog)} does when the queue is full.
+    */
+   public enum Policy {
+      /** Wait up to blockTimeoutMs for room, then drop. */
+      BLOCK,
+      /** Drop the log immediately. */
+      DROP;
+   }
+
+   private final String name;
+   private final Logger log;
+   private final List <WSLogRMIClient> senders;
+   private final boolean storeToDB;
+
+   private final int capacity;
+   private final int flushSize;
+   private final long flushIntervalMs;
+   private final Policy policy;
+   private final long blockTimeoutMs;
+
+   private final BlockingQueue <WSLog> queue;
+   private final Thread drainThread;
+   private volatile boolean closed = false;
+
+   // ------------------------------------------------------------ counters
+   private final AtomicLong enqueued = new AtomicLong();
+   private final AtomicLong dropped = new AtomicLong();
+   private final AtomicLong written = new AtomicLong();
+   private final AtomicLong failed = new AtomicLong();
+   private final AtomicLong batches = new AtomicLong();
+
+   /**
+    * Creates the writer and starts its drain thread.
+    *
+    * @param name used to name the drain thread and in log messages, for
+    * example the endpoint id.
+    * @param logger logger of the owning component.
+    * @param senders RMI destinations for logs; may be empty.
+    * @param storeToDB boolean, should logs be inserted in the database?
+    * @param properties the element of the owning component in the application
+    * properties, which may contain a {@code <WSLogQueue>} element. May be null,
+    * in which case defaults are used.
+    * @throws Exception if the queue properties are invalid.
+    */
+   public WSLogWriter(String name, Logger logger,
+      List <WSLogRMIClient> senders, boolean storeToDB,
+      HierarchicalConfiguration properties) throws Exception {
+      this.name = name;
+      this.log = logger;
+      this.senders = senders;
+      this.storeToDB = storeToDB;
+      if (properties == null) properties = new HierarchicalConfiguration();
+      capacity = properties.getInt("WSLogQueue[@capacity]", 1000);
+      flushSize = properties.getInt("WSLogQueue[@flushSize]", 50);
+      flushIntervalMs = properties.getLong("WSLogQueue[@flushIntervalMs]", 500L);
+      blockTimeoutMs = properties.getLong("WSLogQueue[@blockTimeoutMs]", 5000L);
+      String p = properties.getString("WSLogQueue[@policy]", "block");
+      try {
+         policy = Policy.valueOf(p.trim().toUpperCase());
+      } catch (IllegalArgumentException e) {
+         throw new Exception("WSLogQueue policy " + p + " invalid");
+      }
+      if (capacity < 1 || flushSize < 1 || flushIntervalMs < 1)
+         throw new Exception("WSLogQueue capacity, flushSize, and "
+            + "flushIntervalMs must be positive");
+
+      queue = new ArrayBlockingQueue <>(capacity);
+      drainThread = new Thread(new Drain(), "wslog-" + name);
+      drainThread.setDaemon(true);
+      drainThread.start();
+      ShutDown.addCloseable("WSLogWriter " + name, this);
+      log.info(" WSLog queue: capacity " + capacity + ", flush " + flushSize
+         + " / " + flushIntervalMs + " ms, policy " + policy);
+   }
+
+   /**
+    * Queues a log for persistence. Does not wait for it to be written. If the
+    * queue is full, follows the configured {@link Policy}.
+    *
+    * @param wsLog instance to persist.
+    * @return true if the log was queued, false if it was dropped.
+    */
+   public boolean enqueue(WSLog wsLog) {
+      boolean queued = false;
+      if (closed == false) {
+         try {
+            if (policy == Policy.BLOCK)
+               queued = queue.offer(wsLog, blockTimeoutMs, TimeUnit.MILLISECONDS);
+            else
+               queued = queue.offer(wsLog);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      }
+      if (queued) {
+         enqueued.incrementAndGet();
+         return true;
+      }
+      long d = dropped.incrementAndGet();
+      log.warn("WSLog queue " + name + (closed ? " closed" : " full")
+         + ", dropped log for " + wsLog.getClientHostName() + " (" + d
+         + " dropped)");
+      return false;
+   }
+
+   /**
+    * Encodes each log in a batch and queues the bytes on the RMI senders,
+    * then inserts the batch into the database in one transaction. The logs
+    * are encoded before they are persisted, so what the senders deliver does
+    * not depend on the ids assigned, or cleared, here. If the transaction
+    * fails, each log is retried in its own transaction, so one bad row does
+    * not lose the batch.
+    */
+   private void flush(List <WSLog> batch) {
+      batches.incrementAndGet();
+      if (senders.isEmpty() == false) {
+         for (WSLog wsLog : batch) {
+            byte[] bytes;
+            try {
+               bytes = WireFormat.toBytes(wsLog);
+            } catch (IOException e) {
+               log.error("WSLog queue " + name + " could not encode log for "
+                  + wsLog.getClientHostName() + ": " + e.getMessage());
+               continue;
+            }
+            for (WSLogRMIClient sender : senders)
+               sender.sendEncodedWSLog(bytes);
+         }
+      }
+      if (storeToDB == false) {
+         written.addAndGet(batch.size());
+         return;
+      }
+      try (JDBC.Connection conn = JDBC.getConnection(WSLog.LOGICAL_DB_NAME)) {
+         try {
+            conn.setAutoCommit(false);
+            WSLog.persist(conn, batch);
+            conn.commit();
+            written.addAndGet(batch.size());
+            return;
+         } catch (Exception e) {
+            conn.rollback();
+            log.warn("WSLog queue " + name + " batch of " + batch.size()
+               + " failed, retrying singly: " + e.getMessage());
+         }
+         for (WSLog wsLog : batch) {
+            try {
+               wsLog.clearIds();
+               wsLog.persist(conn);
+               conn.commit();
+               written.incrementAndGet();
+            } catch (Exception e) {
+               conn.rollback();
+               failed.incrementAndGet();
+               log.error("Error persisting wslog instance for "
+                  + wsLog.getClientHostName() + " to database. "
+                  + e.getMessage());
+            }
+         }
+      } catch (Exception e) {
+         failed.addAndGet(batch.size());
+         log.error("WSLog queue " + name + " could not get connection, "
+            + batch.size() + " logs not persisted: " + e.getMessage());
+      }
+   }
+
+   /**
+    * Drain thread. Waits for a log, then collects up to flushSize logs or
+    * whatever arrives within flushIntervalMs, and flushes them.
+    */
+   private class Drain implements Runnable {
+      @Override
+      public void run() {
+         List <WSLog> batch = new ArrayList <>(flushSize);
+         while (true) {
+            try {
+               WSLog first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+               if (first == null) {
+                  if (closed) break;
+                  continue;
+               }
+               batch.add(first);
+               long deadline = System.currentTimeMillis() + flushIntervalMs;
+               while (batch.size() < flushSize) {
+                  queue.drainTo(batch, flushSize - batch.size());
+                  long wait = deadline - System.currentTimeMillis();
+                  if (batch.size() >= flushSize || wait <= 0 || closed) break;
+                  WSLog next = queue.poll(wait, TimeUnit.MILLISECONDS);
+                  if (next == null) break;
+                  batch.add(next);
+               }
+            } catch (InterruptedException e) {
+               closed = true;
+            }
+            if (batch.isEmpty() == false) {
+               try {
+                  flush(batch);
+               } catch (Exception e) {
+                  log.error("WSLog queue " + name + " flush error: "
+                     + e.getMessage());
+               }
+               batch.clear();
+            }
+            if (closed && queue.isEmpty()) break;
+         }
+         log.info("WSLog queue " + name + " drained: " + toString());
+      }
+   } // EO Drain inner class
+
+   /**
+    * Stops accepting logs, and waits up to 30 seconds for those already queued
+    * to be written, then closes the RMI senders, which send what they have
+    * queued.
+    */
+   @Override
+   public void close() {
+      if (closed) return;
+      closed = true;
+      try {
+         drainThread.join(30000L);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      for (WSLogRMIClient sender : senders)
+         sender.close();
+   }
+
+   /**
+    * @return number of logs currently waiting to be written.
+    */
+   public int getQueueSize() {
+      return queue.size();
+   }
+
+   /**
+    * @return number of logs accepted by {@link #enqueue(WSLog)}.
+    */
+   public long getEnqueued() {
+      return enqueued.get();
+   }
+
+   /**
+    * @return number of logs dropped because the queue was full or closed.
+    */
+   public long getDropped() {
+      return dropped.get();
+   }
+
+   /**
+    * @return number of logs written.
+    */
+   public long getWritten() {
+      return written.get();
+   }
+
+   /**
+    * @return number of logs which could not be persisted to the database.
+    */
+   public long getFailed() {
+      return failed.get();
+   }
+
+   /**
+    * @return number of batches flushed.
+    */
+   public long getBatches() {
+      return batches.get();
+   }
+
+   @Override
+   public String toString() {
+      return "queued " + queue.size() + "/" + capacity + ", enqueued "
+         + enqueued.get() + ", written " + written.get() + ", failed "
+         + failed.get() + ", dropped " + dropped.get() + ", batches "
+         + batches.get();
+   }
+
+} // EO WSLogWriter class
@@ -1,10 +1,18 @@
 package edu.wustl.mir.erl.ihe.ws.db;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -15,6 +23,7 @@ import edu.wustl.mir.erl.ihe.util.jdbc.DBTable;
 import edu.wustl.mir.erl.ihe.util.jdbc.Helper;
 import edu.wustl.mir.erl.ihe.util.jdbc.JDBC;
 import edu.wustl.mir.erl.ihe.util.jdbc.Queries;
+import edu.wustl.mir.erl.ihe.util.jdbc.Query;
 
 /**
  * Java bean for WS transaction logging table. One row is made in the message
@@ -33,8 +42,8 @@ import edu.wustl.mir.erl.ihe.util.jdbc.Queries;
  * 
  * @author Ralph Moulton / MIR WUSTL IHE Development Project 
  */
-public class WSMsg implements DBTable, WSLogProperties {
-   private static final long serialVersionUID = 1L;
+public class WSMsg implements DBTable, WSLogProperties, Externalizable {
+   private static final long serialVersionUID = 2L;
 
    @Override
    public String getLogicalDbName() {
@@ -84,9 +93,12 @@ public class WSMsg implements DBTable, WSLogProperties {
     */
    private Date logTime = new Date();
    /**
-    * Text of message being logged, corresponding with the message type.
+    * Body of message being logged, corresponding with the message type.
+    * Compressed, and shared with identical messages, see
+    * {@link MessageBodyStore}. Persisted in the msgbody table, referenced by
+    * its hash.
     */
-   private String message = null;
+   private MessageBody body = null;
 
    // ********************************************************
    // Non-persisted (transient) properties
@@ -107,9 +119,19 @@ public class WSMsg implements DBTable, WSLogProperties {
        */
       create(),
       /**
-       * insert a new WSMsg row in database table.
+       * insert a new WSMsg row in database table, with an id from nextIds.
        */
       insert(),
+      /**
+       * get ${count} new WSMsg ids from the sequence.
+       */
+      nextIds(),
+      /**
+       * insert a message body in the msgbody table, if it is not already
+       * there. Run with {@link Query#dbInsertIfAbsent(JDBC.Connection)}, as
+       * another connection may insert the same body at the same time.
+       */
+      insertBody(),
       /**
        * select all WSMsg rows for a specific {@link WSLog}.
        */
@@ -159,9 +181,23 @@ public class WSMsg implements DBTable, WSLogProperties {
     */
    public WSMsg(MessageType messageType, String messageDescription,
       String messageString) {
+      this(messageType, messageDescription,
+         MessageBodyStore.getBody(messageString));
+   }
+
+   /**
+    * Constructor used to create instance when populating data is available.
+    * 
+    * @param messageType {@link MessageType} of message, for example, XML.
+    * @param messageDescription short human readable description of message, for
+    * example, "SOAP request body".
+    * @param messageBody Actual message, from {@link MessageBodyStore}.
+    */
+   public WSMsg(MessageType messageType, String messageDescription,
+      MessageBody messageBody) {
       this.msgType = messageType;
       this.description = messageDescription;
-      this.message = messageString;
+      this.body = messageBody;
    }
 
    /**
@@ -176,7 +212,15 @@ public class WSMsg implements DBTable, WSLogProperties {
       msgType = Enum.valueOf(MessageType.class, result.getString("msg_type"));
       description = result.getString("description");
       logTime = result.getTimestamp("log_time");
-      message = result.getString("message");
+      wslogId = result.getInt("wslog_id");
+      try {
+         body = MessageBodyStore.getBody(result.getString("body_hash"),
+            result.getInt("body_length"), result.getBytes("body"));
+      } catch (SQLException e) {
+         throw e;
+      } catch (Exception e) {
+         throw new SQLException(e.getMessage());
+      }
    }
 
    /**
@@ -203,8 +247,65 @@ public class WSMsg implements DBTable, WSLogProperties {
     * @throws Exception on SQL error.
     */
    public int insert(JDBC.Connection conn) throws Exception {
-      // TODO implement this method
-      return 0;
+      insert(conn, Collections.singletonList(this));
+      return id;
+   }
+
+   /**
+    * Inserts the passed instances into the table as one JDBC batch. Each
+    * distinct message body not already in the msgbody table is inserted
+    * there first, one at a time, ignoring a body inserted by another
+    * connection since the check, see
+    * {@link Query#dbInsertIfAbsent(JDBC.Connection)}. The ids of the new rows are taken from the sequence
+    * in one query, then the rows are inserted in one round trip, rather than
+    * one per message. Does not commit; if the connection is not
+    * in auto-commit mode, the caller is responsible for the transaction, for
+    * example to insert the messages with their {@link WSLog} row. If the
+    * insert fails, the ids of the instances are cleared.
+    * 
+    * @param conn an existing, open
+    * {@link edu.wustl.mir.erl.ihe.util.jdbc.JDBC.Connection Connection}
+    * @param wsMsgs instances to insert, none of which may already have an id.
+    * Each must have its {@link #wslogId} set.
+    * @throws Exception on SQL error.
+    */
+   public static void insert(JDBC.Connection conn, List <WSMsg> wsMsgs)
+      throws Exception {
+      if (wsMsgs.isEmpty()) return;
+      Map <String, WSMsg> bodies = new LinkedHashMap <>();
+      for (WSMsg m : wsMsgs) {
+         if (m.id != null)
+            throw new Exception("attempt to re-insert WSMsg record");
+         if (m.wslogId == null)
+            throw new Exception("attempt to insert WSMsg without wslogId");
+         if (m.body == null) m.body = MessageBodyStore.getBody("");
+         if (bodies.containsKey(m.body.getHash()) == false)
+            bodies.put(m.body.getHash(), m);
+      }
+      for (WSMsg m : bodies.values())
+         new Query(WSMsg.sql.insertBody).prepared().setAll(m)
+            .dbInsertIfAbsent(conn);
+      List <Integer> ids = new ArrayList <>(wsMsgs.size());
+      ResultSet rs = new Query(WSMsg.sql.nextIds).prepared()
+         .set("count", wsMsgs.size()).dbQuery(conn);
+      try {
+         while (rs.next())
+            ids.add(rs.getInt("id"));
+      } finally {
+         conn.closeResultSet();
+      }
+      if (ids.size() != wsMsgs.size())
+         throw new Exception("WSMsg got " + ids.size() + " ids for "
+            + wsMsgs.size() + " messages");
+      for (int i = 0; i < ids.size(); i++ )
+         wsMsgs.get(i).id = ids.get(i);
+      try {
+         new Query(WSMsg.sql.insert).dbBatch(conn, wsMsgs);
+      } catch (Exception e) {
+         for (WSMsg m : wsMsgs)
+            m.id = null;
+         throw e;
+      }
    }
 
    // ********************************************************
@@ -291,20 +392,61 @@ public class WSMsg implements DBTable, WSLogProperties {
    }
 
    /**
-    * @return current {@link #message} value
+    * @return text of the message, inflated from {@link #body}.
     */
-   @Helper(ignoreComp = true)
+   @Helper(ignoreComp = true, ignoreSQL = true)
    public String getMessage() {
-      return message;
+      return body == null ? null : body.getText();
    }
 
    /**
-    * set {@link #message} value
+    * set {@link #body} to the body for the passed text.
     * 
     * @param message new value
     */
    public void setMessage(String message) {
-      this.message = message;
+      this.body = MessageBodyStore.getBody(message);
+   }
+
+   /**
+    * @return current {@link #body} value
+    */
+   @Helper(ignoreComp = true, ignoreSQL = true, ignoreResultSet = true)
+   public MessageBody getBody() {
+      return body;
+   }
+
+   /**
+    * set {@link #body} value
+    * 
+    * @param body new value
+    */
+   public void setBody(MessageBody body) {
+      this.body = body;
+   }
+
+   /**
+    * @return hash of {@link #body}, referencing its msgbody row.
+    */
+   @Helper(ignoreComp = true)
+   public String getBodyHash() {
+      return body == null ? null : body.getHash();
+   }
+
+   /**
+    * @return length of {@link #body} in UTF-8 bytes.
+    */
+   @Helper(ignoreComp = true)
+   public Integer getBodyLength() {
+      return body == null ? null : body.getLength();
+   }
+
+   /**
+    * @return compressed {@link #body}, as stored in its msgbody row.
+    */
+   @Helper(ignoreComp = true)
+   public byte[] getBodyDeflated() {
+      return body == null ? null : body.getDeflated();
    }
    
    /**
@@ -313,14 +455,27 @@ public class WSMsg implements DBTable, WSLogProperties {
     * @return message, "pretty" if possible.
     */
    public String getPretty() {
+      return getPretty(0);
+   }
+
+   /**
+    * Returns message, formatting for "pretty print" if it is XML or SOAP, 
+    * otherwise returning raw message.
+    * @param maxChars maximum length of a formatted message, 0 for no limit.
+    * Longer messages are truncated, with a note. Raw messages are not
+    * truncated.
+    * @return message, "pretty" if possible.
+    */
+   public String getPretty(int maxChars) {
+      String message = getMessage();
       switch (msgType) {
          case SOAP_IN:
          case SOAP_PREPOP:
          case SOAP_OUT:
-            return Util.prettyPrintSOAP(message);
+            return Util.prettyPrintSOAP(message, maxChars);
          case WSDL_MSG:
          case XML:
-            return Util.prettyPrintXML(message);
+            return Util.prettyPrintXML(message, maxChars);
          case HTTP_IN_BODY:
          case HTTP_OUT_BODY:
          default:
@@ -370,7 +525,61 @@ public class WSMsg implements DBTable, WSLogProperties {
    } // EO Comparator inner class
 
    static List <WSMsg> loadRows(ResultSet resultSet) throws Exception {
-      return helper.loadRows(resultSet);
+      List <WSMsg> rows = new ArrayList <>();
+      while (resultSet.next())
+         rows.add(new WSMsg(resultSet));
+      return rows;
+   }
+
+   // ********************************************************
+   // Serialization, see WireFormat
+   // ********************************************************
+
+   @Override
+   public void writeExternal(ObjectOutput out) throws IOException {
+      write(new WireFormat.Out(out));
+   }
+
+   @Override
+   public void readExternal(ObjectInput in)
+      throws IOException, ClassNotFoundException {
+      read(new WireFormat.In(in, WSMsg.class.getName()));
+   }
+
+   /**
+    * Writes this message, using the string table of the enclosing object.
+    *
+    * @param out encoder.
+    * @throws IOException on error.
+    */
+   void write(WireFormat.Out out) throws IOException {
+      out.writeInteger(id);
+      out.writeInteger(wslogId);
+      out.writeEnum(msgType);
+      out.writeString(description);
+      out.writeDate(logTime);
+      out.getOut().writeObject(body);
+      out.getOut().writeBoolean(selected);
+   }
+
+   /**
+    * Reads a message written by {@link #write(WireFormat.Out)}.
+    *
+    * @param in decoder.
+    * @throws IOException on error.
+    * @throws ClassNotFoundException if the body class is not found.
+    */
+   void read(WireFormat.In in) throws IOException, ClassNotFoundException {
+      id = in.readInteger();
+      wslogId = in.readInteger();
+      msgType = in.readEnum(MessageType.class);
+      description = in.readString();
+      logTime = in.readDate();
+      Object b = in.getIn().readObject();
+      if (b != null && (b instanceof MessageBody) == false)
+         throw new IOException("WSMsg body is " + b.getClass().getName());
+      body = (MessageBody) b;
+      selected = in.getIn().readBoolean();
    }
 
    @Override
@@ -25,10 +25,15 @@ import edu.wustl.mir.erl.ihe.util.jdbc.RDBMS;
 public class WSMsgPostgres extends Queries implements Serializable {
 	private static final long serialVersionUID = 1L;
 	
-	static {
+	{
 		 queries.put("create", new String[] {
 		         "CREATE SEQUENCE seq_wsmsg_id START 1;",
 
+		         "CREATE TABLE msgbody (" +
+		            "hash        CHAR(64) PRIMARY KEY, " +
+		            "length      INT NOT NULL, " +
+		            "body        BYTEA NOT NULL); ",
+
 		         "CREATE TABLE wsmsg (" +
 		            "id INT PRIMARY KEY DEFAULT NEXTVAL ('seq_wsmsg_id'), " +
 		        		 
@@ -36,19 +41,34 @@ public class WSMsgPostgres extends Queries implements Serializable {
 		            "msg_type    VARCHAR(16) NOT NULL, " +
 		            "description VARCHAR(256) NOT NULL, " +
 		            "log_time    TIMESTAMP NOT NULL, " +
-		            "message     TEXT NOT NULL); ",
+		            "body_hash   CHAR(64) NOT NULL REFERENCES msgbody (hash)); ",
 		            
+		            "GRANT ALL ON msgbody TO GROUP public;",
 		            "GRANT ALL ON wsmsg TO GROUP public;"
 		      });
 		 
+		 queries.put("nextIds", new String[] {
+		         "SELECT NEXTVAL('seq_wsmsg_id') AS id " +
+		         "FROM generate_series(1, ${count});"
+		      });
+
+		 queries.put("insertBody", new String[] {
+		         "INSERT INTO msgbody (hash, length, body) " +
+		         "SELECT '${bodyHash}', ${bodyLength}, '${bodyDeflated}' " +
+		         "WHERE NOT EXISTS " +
+		         "(SELECT 1 FROM msgbody WHERE hash = '${bodyHash}');"
+		      });
+
 		 queries.put("insert", new String[] {
-		         "INSERT INTO wsmsg VALUES(NEXTVAL('seq_wsmsg_id'), " +
-		         "${wslogId}, '${msgType}' '${description}', " +
-		         "'${connOpenTime}', '{message}');"
+		         "INSERT INTO wsmsg (id, wslog_id, msg_type, description, " +
+		         "log_time, body_hash) VALUES(${id}, ${wslogId}, " +
+		         "'${msgType}', '${description}', '${logTime}', '${bodyHash}');"
 		      });
 		 
 		 queries.put("wslogId", new String[] {
-				 "SELECT * FROM wsmsg WHERE wslog_id = ${wslogId};"
+				 "SELECT m.*, b.length AS body_length, b.body FROM wsmsg m " +
+				 "JOIN msgbody b ON b.hash = m.body_hash " +
+				 "WHERE m.wslog_id = ${wslogId};"
 	      	  });
 	}
 
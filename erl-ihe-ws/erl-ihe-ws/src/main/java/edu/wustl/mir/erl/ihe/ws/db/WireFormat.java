@@ -0,0 +1,463 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ ******************************************************************************/
+package edu.wustl.mir.erl.ihe.ws.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.wustl.mir.erl.ihe.util.Status;
+
+/**
+ * Compact, versioned binary encoding of {@link WSLog} and {@link WSMsg}, used
+ * by their {@link java.io.Externalizable} implementations, and so by the RMI
+ * channel and anything else which serializes them, and by
+ * {@link #toBytes(WSLog)} and {@link #fromBytes(byte[])} for export to files
+ * or the database.
+ * <ul>
+ * <li>Each object starts with a version byte, {@link #VERSION}. Streams with
+ * any other version are rejected.</li>
+ * <li>Integers and times are variable length; small values take one
+ * byte.</li>
+ * <li>Enums, including {@link Status} codes and {@link MessageType}, are
+ * written as ordinals. Status codes are preceded by their enum class
+ * name.</li>
+ * <li>Header names and values, status class names and label names are
+ * written once per object, then referred to by index in a string table,
+ * which starts with the common HTTP header names.</li>
+ * <li>Message bodies are written with
+ * {@link ObjectOutput#writeObject(Object)}, so a body shared by several
+ * messages is written once per stream.</li>
+ * </ul>
+ * Adding, removing or reordering fields, enum values or
+ * {@link #COMMON_STRINGS} changes the format, and requires a new version.
+ */
+public final class WireFormat {
+
+   /** Current format version. */
+   public static final int VERSION = 1;
+
+   /**
+    * Initial string table entries, in order. Header names as normalized by
+    * {@link com.sun.net.httpserver.Headers}.
+    */
+   private static final List <String> COMMON_STRINGS = Arrays.asList(
+      "Accept", "Accept-encoding", "Cache-control", "Connection",
+      "Content-length", "Content-type", "Date", "Host", "Keep-alive", "Pragma",
+      "Server", "Soapaction", "Transfer-encoding", "User-agent", "chunked",
+      "close", "keep-alive", "no-cache", "text/xml; charset=utf-8",
+      "application/soap+xml; charset=utf-8");
+
+   // value type tags
+   private static final int T_NULL = 0;
+   private static final int T_STRING = 1;
+   private static final int T_INTEGER = 2;
+   private static final int T_LONG = 3;
+   private static final int T_BOOLEAN = 4;
+   private static final int T_DOUBLE = 5;
+   private static final int T_DATE = 6;
+   private static final int T_OBJECT = 7;
+
+   /** Status enum constants, by class name. */
+   private static final Map <String, Object[]> statusEnums =
+      new ConcurrentHashMap <>();
+
+   private WireFormat() {}
+
+   /**
+    * Encodes a WSLog, with its messages, for export.
+    *
+    * @param wsLog to encode.
+    * @return encoded WSLog.
+    * @throws IOException on error.
+    */
+   public static byte[] toBytes(WSLog wsLog) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+         wsLog.writeExternal(out);
+      }
+      return bytes.toByteArray();
+   }
+
+   /**
+    * Decodes a WSLog encoded by {@link #toBytes(WSLog)}.
+    *
+    * @param bytes encoded WSLog.
+    * @return WSLog, with its messages.
+    * @throws IOException if the bytes are not a WSLog of a known version.
+    */
+   public static WSLog fromBytes(byte[] bytes) throws IOException {
+      WSLog wsLog = new WSLog();
+      try (ObjectInputStream in =
+         new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+         wsLog.readExternal(in);
+      } catch (ClassNotFoundException e) {
+         throw new IOException("WSLog decode error: " + e.getMessage(), e);
+      }
+      return wsLog;
+   }
+
+   // ---------------------------------------------------------------- Encoder
+
+   /**
+    * Writes one object, with its own string table.
+    */
+   static final class Out {
+      private final ObjectOutput out;
+      private final Map <String, Integer> strings = new HashMap <>();
+
+      /**
+       * Writes the {@link #VERSION} byte.
+       *
+       * @param out stream to write to.
+       * @throws IOException on error.
+       */
+      Out(ObjectOutput out) throws IOException {
+         this.out = out;
+         for (String s : COMMON_STRINGS)
+            strings.put(s, strings.size());
+         out.writeByte(VERSION);
+      }
+
+      ObjectOutput getOut() {
+         return out;
+      }
+
+      void writeUInt(int v) throws IOException {
+         writeULong(v & 0xFFFFFFFFL);
+      }
+
+      void writeULong(long v) throws IOException {
+         while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+         }
+         out.writeByte((int) v);
+      }
+
+      /** Nullable, signed. */
+      void writeInteger(Integer v) throws IOException {
+         if (v == null) {
+            out.writeByte(0);
+            return;
+         }
+         writeULong(zigzag(v) + 1);
+      }
+
+      void writeDate(Date v) throws IOException {
+         writeULong(v == null ? 0 : zigzag(v.getTime()) + 1);
+      }
+
+      void writeBoolean(Boolean v) throws IOException {
+         out.writeByte(v == null ? 0 : v ? 2 : 1);
+      }
+
+      void writeEnum(Enum <?> v) throws IOException {
+         writeUInt(v == null ? 0 : v.ordinal() + 1);
+      }
+
+      /** Nullable, written in full. */
+      void writeText(String v) throws IOException {
+         if (v == null) {
+            out.writeByte(0);
+            return;
+         }
+         byte[] b = v.getBytes(StandardCharsets.UTF_8);
+         writeUInt(b.length + 1);
+         out.write(b);
+      }
+
+      /** Nullable, written in full the first time, then by table index. */
+      void writeString(String v) throws IOException {
+         if (v == null) {
+            out.writeByte(0);
+            return;
+         }
+         Integer index = strings.get(v);
+         if (index != null) {
+            writeUInt(index + 2);
+            return;
+         }
+         strings.put(v, strings.size());
+         out.writeByte(1);
+         writeText(v);
+      }
+
+      void writeHeaders(Map <String, List <String>> headers)
+         throws IOException {
+         if (headers == null) {
+            out.writeByte(0);
+            return;
+         }
+         writeUInt(headers.size() + 1);
+         for (Map.Entry <String, List <String>> e : headers.entrySet()) {
+            writeString(e.getKey());
+            List <String> values = e.getValue();
+            writeUInt(values == null ? 0 : values.size() + 1);
+            if (values != null) for (String value : values)
+               writeString(value);
+         }
+      }
+
+      void writeStatuses(List <Status> statuses) throws IOException {
+         writeUInt(statuses.size());
+         for (Status status : statuses) {
+            if (status == null) {
+               writeString(null);
+               continue;
+            }
+            if ((status instanceof Enum) == false)
+               throw new NotSerializableException(status.getClass().getName()
+                  + " is not an enum");
+            Enum <?> e = (Enum <?>) status;
+            writeString(e.getDeclaringClass().getName());
+            writeUInt(e.ordinal());
+         }
+      }
+
+      void writeValue(Object v) throws IOException {
+         if (v == null) {
+            out.writeByte(T_NULL);
+         } else if (v instanceof String) {
+            out.writeByte(T_STRING);
+            writeText((String) v);
+         } else if (v instanceof Integer) {
+            out.writeByte(T_INTEGER);
+            writeULong(zigzag((Integer) v));
+         } else if (v instanceof Long) {
+            out.writeByte(T_LONG);
+            writeULong(zigzag((Long) v));
+         } else if (v instanceof Boolean) {
+            out.writeByte(T_BOOLEAN);
+            out.writeBoolean((Boolean) v);
+         } else if (v instanceof Double) {
+            out.writeByte(T_DOUBLE);
+            out.writeDouble((Double) v);
+         } else if (v.getClass() == Date.class) {
+            out.writeByte(T_DATE);
+            writeULong(zigzag(((Date) v).getTime()));
+         } else {
+            out.writeByte(T_OBJECT);
+            out.writeObject(v);
+         }
+      }
+   } // EO Out inner class
+
+   // ---------------------------------------------------------------- Decoder
+
+   /**
+    * Reads one object written by {@link Out}.
+    */
+   static final class In {
+      private final ObjectInput in;
+      private final List <String> strings = new ArrayList <>(COMMON_STRINGS);
+
+      /**
+       * Reads and checks the version byte.
+       *
+       * @param in stream to read from.
+       * @param what name of the object being read, for error messages.
+       * @throws IOException on error, or if the version is unknown.
+       */
+      In(ObjectInput in, String what) throws IOException {
+         this.in = in;
+         int version = in.readUnsignedByte();
+         if (version != VERSION)
+            throw new InvalidClassException(what, "unknown wire format version "
+               + version + ", expected " + VERSION);
+      }
+
+      ObjectInput getIn() {
+         return in;
+      }
+
+      int readUInt() throws IOException {
+         long v = readULong();
+         if (v > 0xFFFFFFFFL)
+            throw new StreamCorruptedException("int out of range: " + v);
+         return (int) v;
+      }
+
+      long readULong() throws IOException {
+         long v = 0;
+         for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+         }
+         throw new StreamCorruptedException("varint too long");
+      }
+
+      /** index or count, which must not be negative. */
+      int readCount() throws IOException {
+         int v = readUInt();
+         if (v < 0) throw new StreamCorruptedException("bad count " + v);
+         return v;
+      }
+
+      Integer readInteger() throws IOException {
+         long v = readULong();
+         if (v == 0) return null;
+         return (int) unzigzag(v - 1);
+      }
+
+      Date readDate() throws IOException {
+         long v = readULong();
+         return v == 0 ? null : new Date(unzigzag(v - 1));
+      }
+
+      Boolean readBoolean() throws IOException {
+         int v = in.readUnsignedByte();
+         return v == 0 ? null : v == 2;
+      }
+
+      <E extends Enum <E>> E readEnum(Class <E> cls) throws IOException {
+         int v = readCount();
+         if (v == 0) return null;
+         E[] values = cls.getEnumConstants();
+         if (v > values.length)
+            throw new InvalidClassException(cls.getName(), "no ordinal "
+               + (v - 1));
+         return values[v - 1];
+      }
+
+      String readText() throws IOException {
+         int length = readCount();
+         if (length == 0) return null;
+         byte[] b = new byte[length - 1];
+         in.readFully(b);
+         return new String(b, StandardCharsets.UTF_8);
+      }
+
+      String readString() throws IOException {
+         int v = readCount();
+         if (v == 0) return null;
+         if (v == 1) {
+            String s = readText();
+            strings.add(s);
+            return s;
+         }
+         if (v - 2 >= strings.size())
+            throw new StreamCorruptedException("bad string index " + v);
+         return strings.get(v - 2);
+      }
+
+      Map <String, List <String>> readHeaders() throws IOException {
+         int size = readCount();
+         if (size == 0) return null;
+         Map <String, List <String>> headers = new HashMap <>();
+         for (int i = 1; i < size; i++ ) {
+            String key = readString();
+            int count = readCount();
+            List <String> values = null;
+            if (count > 0) {
+               values = new ArrayList <>();
+               for (int j = 1; j < count; j++ )
+                  values.add(readString());
+            }
+            headers.put(key, values);
+         }
+         return headers;
+      }
+
+      List <Status> readStatuses() throws IOException {
+         int size = readCount();
+         List <Status> statuses = new ArrayList <>();
+         for (int i = 0; i < size; i++ ) {
+            String cls = readString();
+            if (cls == null) {
+               statuses.add(null);
+               continue;
+            }
+            Object[] values = statusEnum(cls);
+            int ordinal = readCount();
+            if (ordinal >= values.length)
+               throw new InvalidClassException(cls, "no ordinal " + ordinal);
+            statuses.add((Status) values[ordinal]);
+         }
+         return statuses;
+      }
+
+      Object readValue() throws IOException, ClassNotFoundException {
+         int tag = in.readUnsignedByte();
+         switch (tag) {
+            case T_NULL:
+               return null;
+            case T_STRING:
+               return readText();
+            case T_INTEGER:
+               return (int) unzigzag(readULong());
+            case T_LONG:
+               return unzigzag(readULong());
+            case T_BOOLEAN:
+               return in.readBoolean();
+            case T_DOUBLE:
+               return in.readDouble();
+            case T_DATE:
+               return new Date(unzigzag(readULong()));
+            case T_OBJECT:
+               return in.readObject();
+            default:
+               throw new StreamCorruptedException("bad value tag " + tag);
+         }
+      }
+   } // EO In inner class
+
+   private static Object[] statusEnum(String name) throws IOException {
+      Object[] values = statusEnums.get(name);
+      if (values != null) return values;
+      Class <?> cls;
+      // not initialized until checked, so a stream can not run the static
+      // initializer of an arbitrary class
+      try {
+         ClassLoader loader = Thread.currentThread().getContextClassLoader();
+         try {
+            cls = Class.forName(name, false, loader);
+         } catch (ClassNotFoundException e) {
+            cls = Class.forName(name, false, WireFormat.class.getClassLoader());
+         }
+      } catch (ClassNotFoundException e) {
+         throw new InvalidClassException(name, "status class not found");
+      }
+      if (cls.isEnum() == false || Status.class.isAssignableFrom(cls) == false)
+         throw new InvalidClassException(name, "not a Status enum");
+      values = cls.getEnumConstants();
+      statusEnums.put(name, values);
+      return values;
+   }
+
+   private static long zigzag(long v) {
+      return (v << 1) ^ (v >> 63);
+   }
+
+   private static long unzigzag(long v) {
+      return (v >>> 1) ^ -(v & 1);
+   }
+
+} // EO WireFormat class
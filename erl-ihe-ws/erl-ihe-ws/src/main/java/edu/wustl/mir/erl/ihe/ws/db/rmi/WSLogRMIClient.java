@@ -13,79 +13,388 @@
  *******************************************************************************/
 package edu.wustl.mir.erl.ihe.ws.db.rmi;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.Serializable;
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.log4j.Logger;
 
 import edu.wustl.mir.erl.ihe.util.Util;
 import edu.wustl.mir.erl.ihe.ws.WSProperties;
 import edu.wustl.mir.erl.ihe.ws.db.WSLog;
+import edu.wustl.mir.erl.ihe.ws.db.WSLogWriter;
+import edu.wustl.mir.erl.ihe.ws.db.WireFormat;
 
 /**
  * RMI Client (Sender) for {@link WSLog} instances created when a WS message
- * is processed.
+ * is processed. {@link #sendWSLog(WSLog)} encodes the log with
+ * {@link WireFormat#toBytes(WSLog)}, queues the bytes and returns at once; a
+ * sender thread delivers queued logs in batches with
+ * {@link WSLogRemoteInterface#submitEncodedWSLogs(List)}, so a slow or absent
+ * receiver, for example a web application, does not stall the server. Since
+ * the log is encoded when it is queued, later changes to it, for example the
+ * ids assigned when it is persisted, are not sent.
+ * <p>
+ * If the receiver can not be reached, for example because its registry has
+ * restarted, the sender looks the receiver up again, waiting between attempts
+ * with exponential backoff. Logs queue meanwhile, up to the queue capacity,
+ * after which new logs are dropped and counted. A batch which fails because
+ * the connection was lost is sent again after reconnecting, so a receiver
+ * may rarely get a log twice.
+ * </p>
+ * Configured by an optional {@code <Queue>} child element of the
+ * {@code <RMI>} element in the application properties file, for example:
+ * <pre>
+ * {@code
+ * <RMI port="1099">
+ *    <Queue capacity="1000" flushSize="50" flushIntervalMs="200"
+ *           maxBackoffMs="30000" />
+ * </RMI>
+ * }
+ * </pre>
+ * <ul>
+ * <li><b>capacity</b> maximum number of logs waiting to be sent. Default
+ * 1000.</li>
+ * <li><b>flushSize</b> maximum number of logs sent in one call. Default
+ * 50.</li>
+ * <li><b>flushIntervalMs</b> how long the sender waits for a batch to fill
+ * before sending what it has. Default 200.</li>
+ * <li><b>maxBackoffMs</b> longest wait between reconnect attempts. Default
+ * 30000.</li>
+ * </ul>
  * 
  * @see WSLogRMIServer
  */
-public class WSLogRMIClient implements Serializable, WSProperties {
+public class WSLogRMIClient implements Serializable, Closeable, WSProperties {
    private static final long serialVersionUID = 1L;
 
+   private static final long MIN_BACKOFF_MS = 500L;
+
    private int rmiPort = DEFAULT_RMI_REGISTRY_PORT;
-   private WSLogRemoteInterface stub = null;
+   private transient volatile WSLogRemoteInterface stub = null;
    private Logger log = null;
    private String description;
 
+   private final int capacity;
+   private final int flushSize;
+   private final long flushIntervalMs;
+   private final long maxBackoffMs;
+
+   private final transient BlockingQueue <byte[]> queue;
+   private final transient Thread senderThread;
+   private volatile boolean closed = false;
+
+   // ------------------------------------------------------------ counters
+   private final AtomicLong sent = new AtomicLong();
+   private final AtomicLong dropped = new AtomicLong();
+   private final AtomicLong failed = new AtomicLong();
+   private final AtomicLong batches = new AtomicLong();
+   private final AtomicLong reconnects = new AtomicLong();
+
    /**
-    * Create WSLog RMI Sender (client) instance
+    * Create WSLog RMI Sender (client) instance, with default queue settings.
     * 
     * @param port rmi registry port name, default is
     * {@link WSProperties#DEFAULT_RMI_REGISTRY_PORT}.
     * @param logger {@link org.apache.log4j.Logger Logger} instance to use for
     * any log messages generated during the construction or use of this
     * WSLogRMISender instance, default is {@link Util#getLog() system log}.
-    * @throws Exception on errors, for example:
-    * <ul>
-    * <li>Not finding the rmi registry, which must exist before this
-    * constructor is called.</li>
-    * <li>Not finding the rmi entry for "name", or it is wrong type.</li>
-    * </ul>
+    * @throws Exception on errors, for example, invalid queue settings.
+    * @see #WSLogRMIClient(Integer, Logger, HierarchicalConfiguration)
     */
    public WSLogRMIClient(Integer port, Logger logger)
       throws Exception {
+      this(port, logger, null);
+   }
+
+   /**
+    * Create WSLog RMI Sender (client) instance and start its sender thread.
+    * If the rmi registry, or the receiver entry in it, can not be found, the
+    * error is logged, and the sender thread keeps trying to connect.
+    * 
+    * @param port rmi registry port name, default is
+    * {@link WSProperties#DEFAULT_RMI_REGISTRY_PORT}.
+    * @param logger {@link org.apache.log4j.Logger Logger} instance to use for
+    * any log messages generated during the construction or use of this
+    * WSLogRMISender instance, default is {@link Util#getLog() system log}.
+    * @param properties the {@code <RMI>} element in the application
+    * properties, which may contain a {@code <Queue>} element. May be null, in
+    * which case defaults are used.
+    * @throws Exception on errors, for example, invalid queue settings.
+    */
+   public WSLogRMIClient(Integer port, Logger logger,
+      HierarchicalConfiguration properties) throws Exception {
       if (port != null) rmiPort = port;
       if (logger == null) log = Logger.getLogger("rmi." + WSLOG_RMI_SHORT_NAME);
       else log = logger;
       description =
          "WSLogRMIClient: port=" + rmiPort + " name="
             + WSLOG_RMI_SHORT_NAME + " ";
+      if (properties == null) properties = new HierarchicalConfiguration();
+      capacity = properties.getInt("Queue[@capacity]", 1000);
+      flushSize = properties.getInt("Queue[@flushSize]", 50);
+      flushIntervalMs = properties.getLong("Queue[@flushIntervalMs]", 200L);
+      maxBackoffMs = properties.getLong("Queue[@maxBackoffMs]", 30000L);
+      if (capacity < 1 || flushSize < 1 || flushIntervalMs < 1
+         || maxBackoffMs < MIN_BACKOFF_MS)
+         throw new Exception(description + "Queue capacity, flushSize, and "
+            + "flushIntervalMs must be positive, and maxBackoffMs at least "
+            + MIN_BACKOFF_MS);
       try {
-         Registry registry = LocateRegistry.getRegistry(rmiPort);
-         stub = (WSLogRemoteInterface) registry.lookup(WSLOG_RMI_LONG_NAME);
-         log.info(description + " connection established.");
+         connect();
       } catch (Exception e) {
-         String em = description + "error: " + e.getMessage();
-         log.error(em);
-         throw new Exception(em);
+         log.error(description + "error: " + e.getMessage()
+            + "; will keep trying to connect.");
       }
+      queue = new ArrayBlockingQueue <>(capacity);
+      senderThread = new Thread(new Sender(), "rmi-wslog-" + rmiPort);
+      senderThread.setDaemon(true);
+      senderThread.start();
    } // EO constructor
 
    /**
-    * Sends passed {@link WSLog} transaction instance to rmi destination. On
-    * error, logs, but does not throw Exception.
+    * Looks up the receiver in the rmi registry.
+    * 
+    * @throws Exception if the registry or the receiver can not be reached.
+    */
+   private void connect() throws Exception {
+      Registry registry = LocateRegistry.getRegistry(rmiPort);
+      stub = (WSLogRemoteInterface) registry.lookup(WSLOG_RMI_LONG_NAME);
+      log.info(description + " connection established.");
+   }
+
+   /**
+    * Queues passed {@link WSLog} transaction instance to be sent to the rmi
+    * destination. Does not wait for it to be sent. The log is encoded at
+    * once, so the caller may go on to change it.
     * 
     * @param wsLog instance to send.
+    * @return true if the log was queued, false if it was dropped or could not
+    * be encoded.
+    * @see #sendEncodedWSLog(byte[])
     */
-   public void sendWSLog(WSLog wsLog) {
+   public boolean sendWSLog(WSLog wsLog) {
+      byte[] bytes;
       try {
-         stub.submitWSLog(wsLog);
-         log.info(description + " sent WSLog for message from "
-            + wsLog.getServerName());
-      } catch (Exception e) {
-         log.error(description + "error sending WSLog for message from: "
-            + wsLog.getServerName() + " " + e.getMessage());
+         bytes = WireFormat.toBytes(wsLog);
+      } catch (IOException e) {
+         failed.incrementAndGet();
+         log.error(description + "error encoding WSLog for message from "
+            + wsLog.getServerName() + ": " + e.getMessage());
+         return false;
       }
+      return sendEncodedWSLog(bytes);
+   }
+
+   /**
+    * Queues a {@link WSLog} encoded with {@link WireFormat#toBytes(WSLog)} to
+    * be sent to the rmi destination. Does not wait for it to be sent. If the
+    * queue is full or the sender closed, the log is dropped and counted.
+    * 
+    * @param encodedWSLog encoded instance to send, which must not be changed
+    * afterwards.
+    * @return true if the log was queued, false if it was dropped.
+    */
+   public boolean sendEncodedWSLog(byte[] encodedWSLog) {
+      if (closed == false && queue.offer(encodedWSLog)) return true;
+      long d = dropped.incrementAndGet();
+      if (d == 1 || d % 100 == 0)
+         log.warn(description + (closed ? "closed" : "queue full")
+            + ", dropped WSLog; " + toString());
+      return false;
+   }
+
+   /**
+    * Sends one batch, reconnecting as needed until it is delivered, it fails
+    * for a reason other than the connection, or the sender is closed.
+    */
+   private void send(List <byte[]> batch) {
+      long backoff = MIN_BACKOFF_MS;
+      while (true) {
+         WSLogRemoteInterface s = stub;
+         if (s != null) {
+            try {
+               s.submitEncodedWSLogs(new ArrayList <>(batch));
+               sent.addAndGet(batch.size());
+               batches.incrementAndGet();
+               log.debug(description + " sent " + batch.size() + " WSLogs");
+               return;
+            } catch (ConnectException | ConnectIOException
+               | NoSuchObjectException e) {
+               stub = null;
+               log.warn(description + "connection lost: " + e.getMessage());
+            } catch (Exception e) {
+               failed.addAndGet(batch.size());
+               log.error(description + "error sending " + batch.size()
+                  + " WSLogs: " + e.getMessage());
+               return;
+            }
+         }
+         if (closed) {
+            dropped.addAndGet(batch.size());
+            log.warn(description + "closed while not connected, dropped "
+               + batch.size() + " WSLogs");
+            return;
+         }
+         if (pause(backoff) == false) continue;
+         backoff = Math.min(backoff * 2, maxBackoffMs);
+         try {
+            connect();
+            reconnects.incrementAndGet();
+         } catch (RemoteException | NotBoundException e) {
+            log.debug(description + "reconnect failed: " + e.getMessage()
+               + "; next attempt in " + backoff + " ms");
+         } catch (Exception e) {
+            log.warn(description + "reconnect failed: " + e.getMessage());
+         }
+      }
+   }
+
+   /**
+    * Waits for ms, returning early if the sender is closed.
+    * 
+    * @return true if the full time elapsed.
+    */
+   private boolean pause(long ms) {
+      long end = System.currentTimeMillis() + ms;
+      try {
+         while (closed == false) {
+            long wait = end - System.currentTimeMillis();
+            if (wait <= 0) return true;
+            TimeUnit.MILLISECONDS.sleep(Math.min(wait, 200L));
+         }
+      } catch (InterruptedException e) {
+         closed = true;
+      }
+      return false;
+   }
+
+   /**
+    * Sender thread. Waits for a log, then collects up to flushSize logs or
+    * whatever arrives within flushIntervalMs, and sends them.
+    */
+   private class Sender implements Runnable {
+      @Override
+      public void run() {
+         List <byte[]> batch = new ArrayList <>(flushSize);
+         while (true) {
+            try {
+               byte[] first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+               if (first == null) {
+                  if (closed) break;
+                  continue;
+               }
+               batch.add(first);
+               long deadline = System.currentTimeMillis() + flushIntervalMs;
+               while (batch.size() < flushSize) {
+                  queue.drainTo(batch, flushSize - batch.size());
+                  long wait = deadline - System.currentTimeMillis();
+                  if (batch.size() >= flushSize || wait <= 0 || closed) break;
+                  byte[] next = queue.poll(wait, TimeUnit.MILLISECONDS);
+                  if (next == null) break;
+                  batch.add(next);
+               }
+            } catch (InterruptedException e) {
+               closed = true;
+            }
+            if (batch.isEmpty() == false) {
+               send(batch);
+               batch.clear();
+            }
+            if (closed && queue.isEmpty()) break;
+         }
+         log.info(description + "stopped: " + WSLogRMIClient.this.toString());
+      }
+   } // EO Sender inner class
+
+   /**
+    * Stops accepting logs, and waits up to 5 seconds for those already queued
+    * to be sent. Logs which can not be sent because the receiver is not
+    * connected are dropped. Invoked by the {@link WSLogWriter} which uses the
+    * sender, once it has drained.
+    */
+   @Override
+   public void close() {
+      if (closed) return;
+      closed = true;
+      try {
+         senderThread.join(5000L);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * @return true if the receiver was reachable when last used.
+    */
+   public boolean isConnected() {
+      return stub != null;
+   }
+
+   /**
+    * @return number of logs currently waiting to be sent.
+    */
+   public int getQueueSize() {
+      return queue.size();
+   }
+
+   /**
+    * @return number of logs sent.
+    */
+   public long getSent() {
+      return sent.get();
+   }
+
+   /**
+    * @return number of logs dropped because the queue was full, or the sender
+    * was closed before they could be sent.
+    */
+   public long getDropped() {
+      return dropped.get();
+   }
+
+   /**
+    * @return number of logs which could not be encoded, or which the receiver
+    * could not accept.
+    */
+   public long getFailed() {
+      return failed.get();
+   }
+
+   /**
+    * @return number of batches sent.
+    */
+   public long getBatches() {
+      return batches.get();
+   }
+
+   /**
+    * @return number of times the connection was re-established.
+    */
+   public long getReconnects() {
+      return reconnects.get();
+   }
+
+   @Override
+   public String toString() {
+      return description + (isConnected() ? "connected" : "not connected")
+         + ", queued " + queue.size() + "/" + capacity + ", sent " + sent.get()
+         + ", dropped " + dropped.get() + ", failed " + failed.get()
+         + ", batches " + batches.get() + ", reconnects " + reconnects.get();
    }
 
 } // EO WSLogRMI Sender
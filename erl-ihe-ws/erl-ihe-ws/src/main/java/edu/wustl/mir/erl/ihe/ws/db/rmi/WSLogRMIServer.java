@@ -14,6 +14,7 @@
 package edu.wustl.mir.erl.ihe.ws.db.rmi;
 
 import java.io.Closeable;
+import java.io.IOException;
 import java.io.Serializable;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
@@ -28,6 +29,7 @@ import org.apache.log4j.Logger;
 import edu.wustl.mir.erl.ihe.util.Util;
 import edu.wustl.mir.erl.ihe.ws.WSProperties;
 import edu.wustl.mir.erl.ihe.ws.db.WSLog;
+import edu.wustl.mir.erl.ihe.ws.db.WireFormat;
 
 /**
  * Singleton RMI Receiver for {@link WSLog} instances created when a WS message
@@ -98,6 +100,20 @@ public class WSLogRMIServer implements WSLogRemoteInterface, WSProperties, Seria
       }
    }
 
+   @Override
+   public void submitEncodedWSLogs(List <byte[]> encodedWSLogs)
+      throws RemoteException, NullPointerException {
+      log.debug("RMI Received " + encodedWSLogs.size() + " WSLogs");
+      for (byte[] bytes : encodedWSLogs) {
+         try {
+            submitWSLog(WireFormat.fromBytes(bytes));
+         } catch (IOException e) {
+            log.error("WSLogRMIReceiver.submitEncodedWSLogs error "
+               + Util.getEM(e));
+         }
+      }
+   }
+
    /**
     * Create and start RMI receiver for {@link WSLog} instances generated by
     * transactions processed by a process running
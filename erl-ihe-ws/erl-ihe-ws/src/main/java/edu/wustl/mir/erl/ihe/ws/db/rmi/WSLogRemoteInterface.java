@@ -23,6 +23,7 @@ package edu.wustl.mir.erl.ihe.ws.db.rmi;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 import edu.wustl.mir.erl.ihe.ws.db.WSLog;
 
@@ -42,4 +43,20 @@ public interface WSLogRemoteInterface extends Remote {
     * WSLog instance.
     */
    void submitWSLog(WSLog wsLog) throws RemoteException, NullPointerException;
+
+   /**
+    * Submits a batch of {@link WSLog} instances in one call, in the order
+    * they were created. Used by {@link WSLogRMIClient}. Each log is encoded
+    * with {@link edu.wustl.mir.erl.ihe.ws.db.WireFormat#toBytes(WSLog)
+    * WireFormat.toBytes} when it is queued, so the batch holds snapshots,
+    * which do not change when the sending process persists the logs.
+    * 
+    * @param encodedWSLogs encoded {@link WSLog} instances submitted to the
+    * server process.
+    * @throws RemoteException on communications error.
+    * @throws NullPointerException if there is no place to put the received
+    * WSLog instances.
+    */
+   void submitEncodedWSLogs(List <byte[]> encodedWSLogs)
+      throws RemoteException, NullPointerException;
 }
@@ -29,6 +29,7 @@ import edu.wustl.mir.erl.ihe.ws.db.LogTransaction;
 import edu.wustl.mir.erl.ihe.ws.db.MessageType;
 import edu.wustl.mir.erl.ihe.ws.db.TransactionType;
 import edu.wustl.mir.erl.ihe.ws.db.WSLog;
+import edu.wustl.mir.erl.ihe.ws.server.ExchangeCapture;
 import edu.wustl.mir.erl.ihe.ws.server.WSEndpoint;
 
 /**
@@ -40,7 +41,9 @@ import edu.wustl.mir.erl.ihe.ws.server.WSEndpoint;
  * <b>Processing for inbound messages:</b>
  * <ul>
  * <li>Retrieves the stored WSLogTransaction instance from the message context.</li>
- * <li>Logs HTTP Request method, headers, and message (body).</li>
+ * <li>Logs HTTP Request method, headers, and message (body). The body is the
+ * raw request captured by {@link ExchangeCapture}, if there is one, otherwise
+ * the SOAP payload.</li>
  * </ul>
  * <b>Processing for outbound messages:</b>
  * <ul>
@@ -109,24 +112,37 @@ public class HTTPServerHandler extends BaseHandler <LogicalMessageContext>
          wsLog.addStatus(WSHandlerStatus.HTTP_IN_IN_PROGRESS);
 
          // ---------------------- Get HTTP message
-         LogicalMessage lm = ((LogicalMessageContext) lmc).getMessage();
-         if (lm == null) {
-            wsLog.addStatus(WSHandlerStatus.HTTP_IN_NO_BODY);
-            throw new Exception("lmc.getMessage() returned null");
-         }
-         Source lmSrc = lm.getPayload();
-         if (lmSrc == null) {
-            wsLog.addStatus(WSHandlerStatus.HTTP_IN_NO_BODY);
-            throw new Exception("lm.getPayload() returned null");
-         }
-         try {
-            String lmStr = HandlerUtil.getXMLFromSource(lmSrc);
-            wsLog.addMessage("HTTP Request message body",
-               MessageType.HTTP_IN_BODY, lmStr);
-         } catch (Exception e1) {
-            wsLog.addStatus(WSHandlerStatus.HTTP_IN_BODY_ERR);
-            throw new Exception("HandlerUtil.getXMLFromSource error: "
-               + e1.getMessage());
+         ExchangeCapture capture = wsLogTransaction.getCapture();
+         if (capture != null) {
+            // the raw body, already captured and logged as SOAP_IN
+            try {
+               wsLog.addMessage("HTTP Request message body",
+                  MessageType.HTTP_IN_BODY, capture.getRequestBody());
+            } catch (Exception e1) {
+               wsLog.addStatus(WSHandlerStatus.HTTP_IN_BODY_ERR);
+               throw new Exception("ExchangeCapture error: "
+                  + e1.getMessage());
+            }
+         } else {
+            LogicalMessage lm = ((LogicalMessageContext) lmc).getMessage();
+            if (lm == null) {
+               wsLog.addStatus(WSHandlerStatus.HTTP_IN_NO_BODY);
+               throw new Exception("lmc.getMessage() returned null");
+            }
+            Source lmSrc = lm.getPayload();
+            if (lmSrc == null) {
+               wsLog.addStatus(WSHandlerStatus.HTTP_IN_NO_BODY);
+               throw new Exception("lm.getPayload() returned null");
+            }
+            try {
+               String lmStr = HandlerUtil.getXMLFromSource(lmSrc);
+               wsLog.addMessage("HTTP Request message body",
+                  MessageType.HTTP_IN_BODY, lmStr);
+            } catch (Exception e1) {
+               wsLog.addStatus(WSHandlerStatus.HTTP_IN_BODY_ERR);
+               throw new Exception("HandlerUtil.getXMLFromSource error: "
+                  + e1.getMessage());
+            }
          }
 
          wsLog.addStatus(WSHandlerStatus.HTTP_IN_OK);
@@ -13,8 +13,10 @@
  *******************************************************************************/
 package edu.wustl.mir.erl.ihe.ws.handlers;
 
-import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -23,15 +25,16 @@ import java.util.Set;
 
 import javax.xml.namespace.QName;
 import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.ws.Binding;
 import javax.xml.ws.BindingProvider;
 import javax.xml.ws.handler.Handler;
 import javax.xml.ws.handler.MessageContext;
 
+import org.apache.commons.lang.StringUtils;
+
 import edu.wustl.mir.erl.ihe.util.Util;
+import edu.wustl.mir.erl.ihe.util.XmlFactories;
 import edu.wustl.mir.erl.ihe.ws.WSProperties;
 import edu.wustl.mir.erl.ihe.ws.client.ClientTest;
 import edu.wustl.mir.erl.ihe.ws.db.LogTransaction;
@@ -56,12 +59,9 @@ public class HandlerUtil implements WSProperties {
       String xml = null;
 
       try {
-         ByteArrayOutputStream bos = new ByteArrayOutputStream();
-         StreamResult sr = new StreamResult(bos);
-         Transformer tf = TransformerFactory.newInstance().newTransformer();
-         tf.transform(source, sr);
-         xml = new String(bos.toString());
-         bos.close();
+         StringWriter sw = new StringWriter();
+         XmlFactories.transform(source, new StreamResult(sw));
+         xml = sw.toString();
       } catch (Exception e) {
          throw new Exception(e);
       }
@@ -69,6 +69,64 @@ public class HandlerUtil implements WSProperties {
       return xml;
    }
 
+   private static final String PREPOP = "prepopData";
+   private static final byte[] PREPOP_BYTES =
+      PREPOP.getBytes(StandardCharsets.US_ASCII);
+
+   /**
+    * Gets the contents of the prepopData element of an RFD SOAP message, that
+    * is, the text between the end of the first "prepopData" tag and the
+    * start of the next one.
+    * 
+    * @param msg SOAP message.
+    * @return the prepopData contents, or null if there are none.
+    */
+   public static String getPrepopData(String msg) {
+      String p1 = StringUtils.substringBetween(msg, PREPOP);
+      String p2 = StringUtils.substringAfter(p1, ">");
+      String p3 = StringUtils.substringBeforeLast(p2, "<");
+      return StringUtils.isNotBlank(p3) ? p3 : null;
+   }
+
+   /**
+    * As {@link #getPrepopData(String)}, for the UTF-8 bytes of a message, for
+    * example captured from an HTTP exchange. Only the prepopData contents are
+    * decoded.
+    * 
+    * @param msg SOAP message bytes, from position to limit. Not changed.
+    * @return the prepopData contents, or null if there are none.
+    */
+   public static String getPrepopData(ByteBuffer msg) {
+      int from = msg.position(), to = msg.limit();
+      int i = indexOf(msg, PREPOP_BYTES, from, to);
+      if (i < 0) return null;
+      int start = i + PREPOP_BYTES.length;
+      int end = indexOf(msg, PREPOP_BYTES, start, to);
+      if (end < 0) return null;
+      // '>' and '<' are never part of a multi-byte UTF-8 sequence
+      int gt = indexOf(msg, new byte[] {'>'}, start, end);
+      if (gt < 0) return null;
+      int lt = end - 1;
+      while (lt > gt && msg.get(lt) != '<')
+         lt-- ;
+      if (lt == gt) lt = end;
+      byte[] bytes = new byte[lt - gt - 1];
+      ByteBuffer b = msg.duplicate();
+      b.position(gt + 1);
+      b.get(bytes);
+      String p3 = new String(bytes, StandardCharsets.UTF_8);
+      return StringUtils.isNotBlank(p3) ? p3 : null;
+   }
+
+   private static int indexOf(ByteBuffer buf, byte[] pattern, int from, int to) {
+      outer: for (int i = from; i <= to - pattern.length; i++ ) {
+         for (int j = 0; j < pattern.length; j++ )
+            if (buf.get(i + j) != pattern[j]) continue outer;
+         return i;
+      }
+      return -1;
+   }
+
    /**
     * Generate a human readable string from {@link MessageContext} HTTP headers,
     * suitable for logging.
@@ -0,0 +1,826 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ ******************************************************************************/
+package edu.wustl.mir.erl.ihe.ws.handlers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+import edu.wustl.mir.erl.ihe.util.ShutDown;
+import edu.wustl.mir.erl.ihe.util.UtilProperties;
+import edu.wustl.mir.erl.ihe.ws.db.MessageBody;
+import edu.wustl.mir.erl.ihe.ws.db.MessageBodyStore;
+import edu.wustl.mir.erl.ihe.ws.db.MessageType;
+import edu.wustl.mir.erl.ihe.ws.db.WSLogWriter.Policy;
+
+/**
+ * Append only archive of stored SOAP messages, used by
+ * {@link StoreSOAPMessages}. {@link #enqueue(String, String, MessageBody,
+ * MessageType) enqueue} is called on the SOAP handler thread and returns at
+ * once; a single writer thread appends the messages, in the order queued, to
+ * one segment file per day in the archive directory, for example:
+ *
+ * <pre>
+ * {@code
+ * messages/2015-03-12.seg
+ * messages/2015-03-12.idx}
+ * </pre>
+ *
+ * Each record in the segment holds the transaction key (for example
+ * "FMS/2015-03-12-14-24-11-015"), the {@link MessageType}, and the Deflate
+ * compressed message body, followed by a CRC-32. For each record, the index
+ * holds its offset and length in the segment, with the key and type, so
+ * messages can be listed without reading the segment. Records are written in
+ * batches, and if fsync is set, each batch is forced to disk once, segment
+ * first, then index. On opening a segment for append, a partial index entry,
+ * and entries for records lost from the end of the segment, are discarded,
+ * complete records not yet in the index are added to it, and a partial record
+ * is truncated, so an archive is consistent after a crash.
+ * <p>
+ * Configured by the {@code <StoreSOAPMessages>} element of the application
+ * properties, for example:
+ * </p>
+ *
+ * <pre>
+ * {@code
+ * <StoreSOAPMessages on="true" rootMessageDirectoryName="messages"
+ *    format="archive" capacity="1000" flushSize="100" flushIntervalMs="200"
+ *    policy="block" blockTimeoutMs="5000" fsync="true" />
+ * }
+ * </pre>
+ * <ul>
+ * <li><b>capacity</b> maximum number of messages waiting to be written.
+ * Default 1000.</li>
+ * <li><b>flushSize</b> maximum number of messages written in one batch.
+ * Default 100.</li>
+ * <li><b>flushIntervalMs</b> how long the writer waits for a batch to fill
+ * before writing what it has. Default 200.</li>
+ * <li><b>policy</b> what to do when the queue is full: "block" waits up to
+ * blockTimeoutMs for room, then drops the message; "drop" drops it at once.
+ * Default "block".</li>
+ * <li><b>blockTimeoutMs</b> see policy. Default 5000.</li>
+ * <li><b>fsync</b> boolean, force each batch to disk? Default "true".</li>
+ * </ul>
+ * Archives are read with {@link #list(Path, String)} and
+ * {@link #read(Entry)}, or from the command line, see {@link #main(String[])}.
+ */
+public class MessageArchive implements Closeable, UtilProperties {
+
+   /** Start of each record, "RFDA". */
+   private static final int MAGIC = 0x52464441;
+   /** Shortest possible record: magic, length, time, 3 empty strings, 2
+    * lengths and the CRC. */
+   private static final int MIN_RECORD = 4 + 4 + 8 + 2 + 2 + 2 + 4 + 4 + 4;
+   private static final String SEGMENT = ".seg";
+   private static final String INDEX = ".idx";
+   private static final DateTimeFormatter SEGMENT_FORMAT = DateTimeFormatter
+      .ofPattern("yyyy-MM-dd").withZone(ZoneId.systemDefault());
+
+   private static Logger log = Logger.getLogger("StoreSOAPMessages");
+
+   private final Path root;
+   private final int capacity;
+   private final int flushSize;
+   private final long flushIntervalMs;
+   private final Policy policy;
+   private final long blockTimeoutMs;
+   private final boolean fsync;
+
+   private final BlockingQueue <Record> queue;
+   private final Thread writerThread;
+   private volatile boolean closed = false;
+
+   // ------------------------------- open segment, writer thread only
+   private String segmentDate = null;
+   private FileChannel segment = null;
+   private FileChannel index = null;
+
+   // ------------------------------------------------------------ counters
+   private final AtomicLong enqueued = new AtomicLong();
+   private final AtomicLong dropped = new AtomicLong();
+   private final AtomicLong written = new AtomicLong();
+   private final AtomicLong failed = new AtomicLong();
+   private final AtomicLong batches = new AtomicLong();
+   private final AtomicLong bytes = new AtomicLong();
+
+   /**
+    * Creates the archive and starts its writer thread.
+    *
+    * @param root archive directory, which must exist.
+    * @param properties the {@code <StoreSOAPMessages>} element. May be null,
+    * in which case defaults are used.
+    * @throws Exception if the properties are invalid.
+    */
+   public MessageArchive(Path root, HierarchicalConfiguration properties)
+      throws Exception {
+      this.root = root;
+      if (properties == null) properties = new HierarchicalConfiguration();
+      capacity = properties.getInt("[@capacity]", 1000);
+      flushSize = properties.getInt("[@flushSize]", 100);
+      flushIntervalMs = properties.getLong("[@flushIntervalMs]", 200L);
+      blockTimeoutMs = properties.getLong("[@blockTimeoutMs]", 5000L);
+      fsync = properties.getBoolean("[@fsync]", true);
+      String p = properties.getString("[@policy]", "block");
+      try {
+         policy = Policy.valueOf(p.trim().toUpperCase());
+      } catch (IllegalArgumentException e) {
+         throw new Exception("StoreSOAPMessages policy " + p + " invalid");
+      }
+      if (capacity < 1 || flushSize < 1 || flushIntervalMs < 1)
+         throw new Exception("StoreSOAPMessages capacity, flushSize, and "
+            + "flushIntervalMs must be positive");
+
+      queue = new ArrayBlockingQueue <>(capacity);
+      writerThread = new Thread(new Writer(), "message-archive");
+      writerThread.setDaemon(true);
+      writerThread.start();
+      ShutDown.addCloseable("MessageArchive " + root, this);
+      log.info("Message archive " + root + ": capacity " + capacity
+         + ", flush " + flushSize + " / " + flushIntervalMs + " ms, policy "
+         + policy + (fsync ? ", fsync" : ""));
+   }
+
+   /**
+    * Queues a message for the archive. Does not wait for it to be written. If
+    * the queue is full, follows the configured {@link Policy}.
+    *
+    * @param key transaction key, for example "FMS/2015-03-12-14-24-11-015".
+    * @param text the message, or null if body is passed. Hashed and compressed
+    * on the writer thread.
+    * @param body the message, from {@link MessageBodyStore}, or null if text is
+    * passed.
+    * @param messageType type of the message.
+    * @return true if the message was queued, false if it was dropped.
+    */
+   public boolean enqueue(String key, String text, MessageBody body,
+      MessageType messageType) {
+      Record record =
+         new Record(System.currentTimeMillis(), key, messageType, text, body);
+      boolean queued = false;
+      if (closed == false) {
+         try {
+            if (policy == Policy.BLOCK)
+               queued = queue.offer(record, blockTimeoutMs,
+                  TimeUnit.MILLISECONDS);
+            else
+               queued = queue.offer(record);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      }
+      if (queued) {
+         enqueued.incrementAndGet();
+         return true;
+      }
+      long d = dropped.incrementAndGet();
+      log.warn("Message archive " + (closed ? "closed" : "full")
+         + ", dropped " + messageType + " for " + key + " (" + d + " dropped)");
+      return false;
+   }
+
+   /**
+    * Appends a batch of records to the segment for their date, then commits
+    * them: forces the segment, appends their index entries, and forces the
+    * index.
+    */
+   private void flush(List <Record> batch) throws IOException {
+      batches.incrementAndGet();
+      ByteArrayOutputStream entries = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(entries);
+      int pending = 0;
+      for (Record record : batch) {
+         String date = SEGMENT_FORMAT.format(Instant.ofEpochMilli(record.time));
+         if (date.equals(segmentDate) == false) {
+            commit(entries, pending);
+            entries.reset();
+            pending = 0;
+            openSegment(date);
+         }
+         byte[] bytes;
+         try {
+            bytes = record.toBytes();
+         } catch (Exception e) {
+            failed.incrementAndGet();
+            log.warn("Message archive could not write " + record.type
+               + " for " + record.key + ": " + e.getMessage());
+            continue;
+         }
+         long offset = segment.position();
+         writeFully(segment, bytes);
+         new Entry(null, offset, bytes.length, record.time, record.key,
+            record.type).write(out);
+         this.bytes.addAndGet(bytes.length);
+         pending++ ;
+      }
+      commit(entries, pending);
+   }
+
+   private void commit(ByteArrayOutputStream entries, int count)
+      throws IOException {
+      if (count == 0) return;
+      if (fsync) segment.force(false);
+      writeFully(index, entries.toByteArray());
+      if (fsync) index.force(false);
+      written.addAndGet(count);
+   }
+
+   /**
+    * Opens the segment and index for a date for append, recovering them if
+    * the last batch written to them was incomplete.
+    */
+   private void openSegment(String date) throws IOException {
+      closeSegment();
+      Path sp = root.resolve(date + SEGMENT);
+      Path ip = root.resolve(date + INDEX);
+      segment = FileChannel.open(sp, StandardOpenOption.CREATE,
+         StandardOpenOption.READ, StandardOpenOption.WRITE);
+      index = FileChannel.open(ip, StandardOpenOption.CREATE,
+         StandardOpenOption.WRITE);
+      segmentDate = date;
+      recover(sp, ip);
+      segment.position(segment.size());
+      index.position(index.size());
+   }
+
+   /**
+    * Makes the index and segment consistent: drops a partial index entry,
+    * drops the entries from the first one for a record past the end of the
+    * segment, indexes complete records past the last indexed one, and
+    * truncates the segment at the first partial or corrupt record.
+    */
+   private void recover(Path sp, Path ip) throws IOException {
+      List <Entry> entries = new ArrayList <>();
+      int indexEnd = readIndex(sp, Files.readAllBytes(ip), entries);
+      if (indexEnd < index.size()) {
+         log.warn("Message archive " + ip + ": partial index entry dropped");
+         index.truncate(indexEnd);
+      }
+      long end = 0;
+      int fit = 0;
+      for (Entry entry : entries) {
+         if (entry.offset + entry.length > segment.size()) break;
+         end = entry.offset + entry.length;
+         fit++ ;
+      }
+      if (fit < entries.size()) {
+         log.warn("Message archive " + ip + ": " + (entries.size() - fit)
+            + " entries past the segment end, " + segment.size()
+            + " bytes, dropped");
+         DataOutputStream kept =
+            new DataOutputStream(new ByteArrayOutputStream());
+         for (Entry entry : entries.subList(0, fit))
+            entry.write(kept);
+         index.truncate(kept.size());
+         entries.subList(fit, entries.size()).clear();
+      }
+      ByteArrayOutputStream recovered = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(recovered);
+      int count = 0;
+      while (end < segment.size()) {
+         byte[] bytes = readRecord(segment, end);
+         Record record = bytes == null ? null : Record.fromBytes(bytes);
+         if (record == null) {
+            log.warn("Message archive " + sp + ": partial record at " + end
+               + " truncated");
+            segment.truncate(end);
+            break;
+         }
+         new Entry(sp, end, bytes.length, record.time, record.key,
+            record.type).write(out);
+         end += bytes.length;
+         count++ ;
+      }
+      if (count > 0) {
+         index.position(index.size());
+         writeFully(index, recovered.toByteArray());
+         log.warn("Message archive " + sp + ": " + count
+            + " unindexed records recovered");
+      }
+      if (fsync && count > 0) {
+         segment.force(false);
+         index.force(false);
+      }
+   }
+
+   private void closeSegment() {
+      segmentDate = null;
+      for (FileChannel channel : new FileChannel[] {
+         segment, index }) {
+         if (channel == null) continue;
+         try {
+            channel.close();
+         } catch (IOException e) {
+            log.warn("Message archive close error: " + e.getMessage());
+         }
+      }
+      segment = null;
+      index = null;
+   }
+
+   /**
+    * Writer thread. Waits for a message, then collects up to flushSize
+    * messages or whatever arrives within flushIntervalMs, and writes them.
+    */
+   private class Writer implements Runnable {
+      @Override
+      public void run() {
+         List <Record> batch = new ArrayList <>(flushSize);
+         while (true) {
+            try {
+               Record first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+               if (first == null) {
+                  if (closed) break;
+                  continue;
+               }
+               batch.add(first);
+               long deadline = System.currentTimeMillis() + flushIntervalMs;
+               while (batch.size() < flushSize) {
+                  queue.drainTo(batch, flushSize - batch.size());
+                  long wait = deadline - System.currentTimeMillis();
+                  if (batch.size() >= flushSize || wait <= 0 || closed) break;
+                  Record next = queue.poll(wait, TimeUnit.MILLISECONDS);
+                  if (next == null) break;
+                  batch.add(next);
+               }
+            } catch (InterruptedException e) {
+               closed = true;
+            }
+            if (batch.isEmpty() == false) {
+               try {
+                  flush(batch);
+               } catch (Exception e) {
+                  failed.addAndGet(batch.size());
+                  log.error("Message archive write error, " + batch.size()
+                     + " messages may not be stored: " + e.getMessage());
+                  // reopened, and recovered, by the next batch
+                  closeSegment();
+               }
+               batch.clear();
+            }
+            if (closed && queue.isEmpty()) break;
+         }
+         closeSegment();
+         log.info("Message archive " + root + " closed: " + toString());
+      }
+   } // EO Writer inner class
+
+   /**
+    * Stops accepting messages, and waits up to 30 seconds for those already
+    * queued to be written.
+    */
+   @Override
+   public void close() {
+      if (closed) return;
+      closed = true;
+      try {
+         writerThread.join(30000L);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * @return the {@link #root} value.
+    */
+   public Path getRoot() {
+      return root;
+   }
+
+   /**
+    * @return number of messages currently waiting to be written.
+    */
+   public int getQueueSize() {
+      return queue.size();
+   }
+
+   /**
+    * @return number of messages accepted by {@link #enqueue(String, String,
+    * MessageBody, MessageType) enqueue}.
+    */
+   public long getEnqueued() {
+      return enqueued.get();
+   }
+
+   /**
+    * @return number of messages dropped because the queue was full or
+    * closed.
+    */
+   public long getDropped() {
+      return dropped.get();
+   }
+
+   /**
+    * @return number of messages written and committed.
+    */
+   public long getWritten() {
+      return written.get();
+   }
+
+   /**
+    * @return number of messages which could not be written.
+    */
+   public long getFailed() {
+      return failed.get();
+   }
+
+   /**
+    * @return number of batches written.
+    */
+   public long getBatches() {
+      return batches.get();
+   }
+
+   @Override
+   public String toString() {
+      return "queued " + queue.size() + "/" + capacity + ", enqueued "
+         + enqueued.get() + ", written " + written.get() + ", failed "
+         + failed.get() + ", dropped " + dropped.get() + ", batches "
+         + batches.get() + ", bytes " + bytes.get();
+   }
+
+   // ------------------------------------------------------------- reading
+
+   /**
+    * Lists the messages in an archive, from the indexes, oldest segment
+    * first, in the order written. May be used while the archive is being
+    * written; messages not yet committed are not listed.
+    *
+    * @param root archive directory.
+    * @param keyPrefix only messages whose key starts with this are listed,
+    * for example "FMS/" or "FMS/2015-03-12-14". Null or empty for all.
+    * @return the messages, empty if there are none.
+    * @throws IOException on error reading an index.
+    */
+   public static List <Entry> list(Path root, String keyPrefix)
+      throws IOException {
+      List <Path> indexes = new ArrayList <>();
+      try (DirectoryStream <Path> ds =
+         Files.newDirectoryStream(root, "*" + INDEX)) {
+         for (Path ip : ds)
+            indexes.add(ip);
+      }
+      Collections.sort(indexes);
+      List <Entry> entries = new ArrayList <>();
+      for (Path ip : indexes) {
+         String name = ip.getFileName().toString();
+         Path sp = ip.resolveSibling(name.substring(0,
+            name.length() - INDEX.length()) + SEGMENT);
+         readIndex(sp, Files.readAllBytes(ip), entries);
+      }
+      if (keyPrefix == null || keyPrefix.isEmpty()) return entries;
+      List <Entry> matches = new ArrayList <>();
+      for (Entry entry : entries)
+         if (entry.key.startsWith(keyPrefix)) matches.add(entry);
+      return matches;
+   }
+
+   /**
+    * Reads one message from its segment.
+    *
+    * @param entry of the message, from {@link #list(Path, String)}.
+    * @return the message body.
+    * @throws Exception if the record is missing, corrupt, or does not match
+    * the entry.
+    */
+   public static MessageBody read(Entry entry) throws Exception {
+      try (FileChannel channel =
+         FileChannel.open(entry.segment, StandardOpenOption.READ)) {
+         byte[] bytes = readRecord(channel, entry.offset);
+         Record record = bytes == null ? null : Record.fromBytes(bytes);
+         if (record == null || bytes.length != entry.length
+            || record.key.equals(entry.key) == false)
+            throw new Exception("Message archive " + entry.segment
+               + ": invalid record at " + entry.offset + " for " + entry.key);
+         return record.body;
+      }
+   }
+
+   /**
+    * Parses index entries, appending them to entries, and stops at the first
+    * partial entry.
+    *
+    * @return number of bytes of complete entries.
+    */
+   private static int readIndex(Path segment, byte[] index,
+      List <Entry> entries) {
+      ByteArrayInputStream bin = new ByteArrayInputStream(index);
+      DataInputStream in = new DataInputStream(bin);
+      int end = 0;
+      while (end < index.length) {
+         try {
+            entries.add(Entry.read(segment, in));
+         } catch (IOException | IllegalArgumentException e) {
+            break;
+         }
+         end = index.length - bin.available();
+      }
+      return end;
+   }
+
+   /**
+    * Reads the record at offset.
+    *
+    * @return the record, or null if there is not a complete record there.
+    */
+   private static byte[] readRecord(FileChannel channel, long offset)
+      throws IOException {
+      ByteBuffer header = ByteBuffer.allocate(8);
+      if (readFully(channel, header, offset) == false) return null;
+      int length = header.getInt(4);
+      if (header.getInt(0) != MAGIC || length < MIN_RECORD
+         || length > channel.size() - offset) return null;
+      ByteBuffer record = ByteBuffer.allocate(length);
+      if (readFully(channel, record, offset) == false) return null;
+      return record.array();
+   }
+
+   private static boolean readFully(FileChannel channel, ByteBuffer buffer,
+      long offset) throws IOException {
+      while (buffer.hasRemaining()) {
+         int n = channel.read(buffer, offset + buffer.position());
+         if (n < 0) return false;
+      }
+      return true;
+   }
+
+   private static void writeFully(FileChannel channel, byte[] bytes)
+      throws IOException {
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      while (buffer.hasRemaining())
+         channel.write(buffer);
+   }
+
+   /**
+    * One message in the queue or a segment.
+    */
+   private static class Record {
+      private final long time;
+      private final String key;
+      private final MessageType type;
+      private final String text;
+      private MessageBody body;
+
+      Record(long time, String key, MessageType type, String text,
+         MessageBody body) {
+         this.time = time;
+         this.key = key;
+         this.type = type;
+         this.text = text;
+         this.body = body;
+      }
+
+      /**
+       * @return the record as written to a segment: magic, record length,
+       * time, key, type, body hash, body length, compressed length, compressed
+       * body, and CRC-32 of all of these.
+       */
+      byte[] toBytes() throws IOException {
+         if (body == null) body = MessageBodyStore.getBody(text);
+         byte[] deflated = body.getDeflated();
+         ByteArrayOutputStream bo =
+            new ByteArrayOutputStream(deflated.length + 160);
+         DataOutputStream out = new DataOutputStream(bo);
+         out.writeInt(MAGIC);
+         out.writeInt(0);
+         out.writeLong(time);
+         out.writeUTF(key);
+         out.writeUTF(type.name());
+         out.writeUTF(body.getHash());
+         out.writeInt(body.getLength());
+         out.writeInt(deflated.length);
+         out.write(deflated);
+         out.writeInt(0);
+         byte[] bytes = bo.toByteArray();
+         ByteBuffer buffer = ByteBuffer.wrap(bytes);
+         buffer.putInt(4, bytes.length);
+         CRC32 crc = new CRC32();
+         crc.update(bytes, 0, bytes.length - 4);
+         buffer.putInt(bytes.length - 4, (int) crc.getValue());
+         return bytes;
+      }
+
+      /**
+       * @param bytes a record, as returned by {@link #toBytes()}.
+       * @return the record, or null if it is corrupt.
+       */
+      static Record fromBytes(byte[] bytes) {
+         CRC32 crc = new CRC32();
+         crc.update(bytes, 0, bytes.length - 4);
+         if (ByteBuffer.wrap(bytes).getInt(bytes.length - 4) != (int) crc
+            .getValue()) return null;
+         try {
+            DataInputStream in =
+               new DataInputStream(new ByteArrayInputStream(bytes));
+            in.readInt();
+            in.readInt();
+            long time = in.readLong();
+            String key = in.readUTF();
+            MessageType type = MessageType.valueOf(in.readUTF());
+            String hash = in.readUTF();
+            int length = in.readInt();
+            byte[] deflated = new byte[in.readInt()];
+            in.readFully(deflated);
+            return new Record(time, key, type, null,
+               MessageBodyStore.getBody(hash, length, deflated));
+         } catch (Exception e) {
+            return null;
+         }
+      }
+   } // EO Record inner class
+
+   /**
+    * Index entry for one message in an archive.
+    */
+   public static class Entry {
+      private final Path segment;
+      private final long offset;
+      private final int length;
+      private final long time;
+      private final String key;
+      private final MessageType type;
+
+      Entry(Path segment, long offset, int length, long time, String key,
+         MessageType type) {
+         this.segment = segment;
+         this.offset = offset;
+         this.length = length;
+         this.time = time;
+         this.key = key;
+         this.type = type;
+      }
+
+      void write(DataOutputStream out) throws IOException {
+         out.writeLong(offset);
+         out.writeInt(length);
+         out.writeLong(time);
+         out.writeUTF(key);
+         out.writeUTF(type.name());
+      }
+
+      static Entry read(Path segment, DataInputStream in) throws IOException {
+         long offset = in.readLong();
+         int length = in.readInt();
+         long time = in.readLong();
+         String key = in.readUTF();
+         MessageType type = MessageType.valueOf(in.readUTF());
+         return new Entry(segment, offset, length, time, key, type);
+      }
+
+      /**
+       * @return the {@link #segment} value.
+       */
+      public Path getSegment() {
+         return segment;
+      }
+
+      /**
+       * @return the {@link #offset} value.
+       */
+      public long getOffset() {
+         return offset;
+      }
+
+      /**
+       * @return the {@link #length} value, of the record in the segment.
+       */
+      public int getLength() {
+         return length;
+      }
+
+      /**
+       * @return the {@link #time} the message was queued, as returned by
+       * {@link System#currentTimeMillis()}.
+       */
+      public long getTime() {
+         return time;
+      }
+
+      /**
+       * @return the {@link #key} value.
+       */
+      public String getKey() {
+         return key;
+      }
+
+      /**
+       * @return the {@link #type} value.
+       */
+      public MessageType getType() {
+         return type;
+      }
+
+      @Override
+      public String toString() {
+         return key + " " + type;
+      }
+   } // EO Entry inner class
+
+   // ---------------------------------------------------------- command line
+
+   /**
+    * Lists and extracts messages from an archive. Usage:
+    *
+    * <pre>
+    * {@code
+    * MessageArchive list <archiveDirectory> [keyPrefix]
+    * MessageArchive extract <archiveDirectory> <keyPrefix> <outputDirectory>
+    * MessageArchive cat <archiveDirectory> <key> <messageType>}
+    * </pre>
+    *
+    * list prints the key, type and record length of each message. extract
+    * writes the messages in the directory layout used when format is
+    * "directories", for example
+    * {@code outputDirectory/FMS/2015-03-12-14-24-11-015/soap_request.bin}. cat
+    * writes one message to standard output.
+    *
+    * @param args see above.
+    */
+   public static void main(String[] args) {
+      try {
+         if (args.length < 2) throw new IllegalArgumentException();
+         Path root = Paths.get(args[1]);
+         switch (args[0]) {
+            case "list":
+               if (args.length > 3) throw new IllegalArgumentException();
+               for (Entry e : list(root, args.length > 2 ? args[2] : null))
+                  System.out.println(e.key + "\t" + e.type + "\t" + e.length);
+               break;
+            case "extract":
+               if (args.length != 4) throw new IllegalArgumentException();
+               Path out = Paths.get(args[3]);
+               int count = 0;
+               for (Entry e : list(root, args[2])) {
+                  File f = out.resolve(e.key)
+                     .resolve(e.type.getMessageFileName()).toFile();
+                  FileUtils.writeStringToFile(f, read(e).getText(),
+                     CHAR_SET_UTF_8);
+                  count++ ;
+               }
+               System.out.println(count + " messages extracted to " + out);
+               break;
+            case "cat":
+               if (args.length != 4) throw new IllegalArgumentException();
+               MessageType type = MessageType.valueOf(args[3].toUpperCase());
+               Entry found = null;
+               for (Entry e : list(root, args[2]))
+                  if (e.key.equals(args[2]) && e.type == type) found = e;
+               if (found == null)
+                  throw new Exception(args[3] + " message for " + args[2]
+                     + " not found");
+               System.out.print(read(found).getText());
+               break;
+            default:
+               throw new IllegalArgumentException();
+         }
+      } catch (IllegalArgumentException e) {
+         System.err.println("usage: MessageArchive list <archiveDirectory> "
+            + "[keyPrefix]" + nl + "       MessageArchive extract "
+            + "<archiveDirectory> <keyPrefix> <outputDirectory>" + nl
+            + "       MessageArchive cat <archiveDirectory> <key> "
+            + "<messageType>");
+         System.exit(1);
+      } catch (Exception e) {
+         System.err.println("MessageArchive: " + e.getMessage());
+         System.exit(1);
+      }
+   }
+
+} // EO MessageArchive class
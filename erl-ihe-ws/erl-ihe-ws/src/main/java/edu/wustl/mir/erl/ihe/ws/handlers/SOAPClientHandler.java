@@ -28,12 +28,13 @@ import javax.xml.soap.SOAPMessage;
 import javax.xml.ws.handler.soap.SOAPHandler;
 import javax.xml.ws.handler.soap.SOAPMessageContext;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
 import edu.wustl.mir.erl.ihe.util.Util;
 import edu.wustl.mir.erl.ihe.ws.client.ClientTest;
 import edu.wustl.mir.erl.ihe.ws.db.LogTransaction;
+import edu.wustl.mir.erl.ihe.ws.db.MessageBody;
+import edu.wustl.mir.erl.ihe.ws.db.MessageBodyStore;
 import edu.wustl.mir.erl.ihe.ws.db.MessageType;
 import edu.wustl.mir.erl.ihe.ws.db.TransactionType;
 import edu.wustl.mir.erl.ihe.ws.db.WSLog;
@@ -152,21 +153,21 @@ public class SOAPClientHandler extends BaseHandler <SOAPMessageContext>
          ByteArrayOutputStream out = new ByteArrayOutputStream();
          soapMsg.writeTo(out);
          String strMsg = out.toString(Util.UTF_8);
-         wsLog.addMessage("inbound SOAP", MessageType.SOAP_IN, strMsg);
+         MessageBody body = MessageBodyStore.getBody(strMsg);
+         wsLog.addMessage("inbound SOAP", MessageType.SOAP_IN, body);
          
          // store SOAP message
          if (clientTest.isStoreSOAPMessages()) {
             String subDir = clientTest.getSubDirectoryName();
             Path dirp =
-               StoreSOAPMessages.storeMessage(subDir, strMsg,
+               StoreSOAPMessages.storeMessage(subDir, body,
                   MessageType.SOAP_IN);
             logTransaction.setStoreSOAPMessagesDirectoryPath(dirp);
 
-            String p1 = StringUtils.substringBetween(strMsg, "prepopData");
-            String p2 = StringUtils.substringAfter(p1, ">");
-            String p3 = StringUtils.substringBeforeLast(p2, "<");
-            if (StringUtils.isNotBlank(p3)) {
-               StoreSOAPMessages.storeMessage(dirp, p3, MessageType.SOAP_PREPOP);
+            String prepop = HandlerUtil.getPrepopData(strMsg);
+            if (prepop != null) {
+               StoreSOAPMessages.storeMessage(dirp, prepop,
+                  MessageType.SOAP_PREPOP);
             }
          }
          
@@ -227,11 +228,12 @@ public class SOAPClientHandler extends BaseHandler <SOAPMessageContext>
          ByteArrayOutputStream out = new ByteArrayOutputStream();
          soapMsg.writeTo(out);
          String strMsg = out.toString(Util.UTF_8);
-         wsLog.addMessage("outbound SOAP ", MessageType.SOAP_OUT, strMsg);
+         MessageBody body = MessageBodyStore.getBody(strMsg);
+         wsLog.addMessage("outbound SOAP ", MessageType.SOAP_OUT, body);
          
          if (clientTest.isStoreSOAPMessages()) {
             Path dir = logTransaction.getStoreSOAPMessagesDirectoryPath();
-            StoreSOAPMessages.storeMessage(dir, strMsg, MessageType.SOAP_OUT);
+            StoreSOAPMessages.storeMessage(dir, body, MessageType.SOAP_OUT);
          }
 
          wsLog.addStatus(WSHandlerStatus.SOAP_IN_OK);
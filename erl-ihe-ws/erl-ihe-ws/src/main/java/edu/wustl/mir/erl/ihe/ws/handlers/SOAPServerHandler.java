@@ -25,16 +25,18 @@ import javax.xml.ws.handler.MessageContext;
 import javax.xml.ws.handler.soap.SOAPHandler;
 import javax.xml.ws.handler.soap.SOAPMessageContext;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
 import com.sun.net.httpserver.HttpExchange;
 
 import edu.wustl.mir.erl.ihe.util.Util;
 import edu.wustl.mir.erl.ihe.ws.db.LogTransaction;
+import edu.wustl.mir.erl.ihe.ws.db.MessageBody;
+import edu.wustl.mir.erl.ihe.ws.db.MessageBodyStore;
 import edu.wustl.mir.erl.ihe.ws.db.MessageType;
 import edu.wustl.mir.erl.ihe.ws.db.TransactionType;
 import edu.wustl.mir.erl.ihe.ws.db.WSLog;
+import edu.wustl.mir.erl.ihe.ws.server.ExchangeCapture;
 import edu.wustl.mir.erl.ihe.ws.server.WSEndpoint;
 
 /**
@@ -172,23 +174,33 @@ public class SOAPServerHandler extends BaseHandler <SOAPMessageContext>
             .get(SOAP_MESSAGE_ID));
 
          // -------------------------------------------- soap message
+         // parse before reading the captured bytes, see ExchangeCapture
          SOAPMessage soapMsg = soapMessageContext.getMessage();
-         ByteArrayOutputStream out = new ByteArrayOutputStream();
-         soapMsg.writeTo(out);
-         String strMsg = out.toString(Util.UTF_8);
-         wsLog.addMessage("inbound SOAP", MessageType.SOAP_IN, strMsg);
+         ExchangeCapture capture = wsLogTransaction.getCapture();
+         MessageBody body;
+         String strMsg = null;
+         if (capture != null) {
+            body = capture.getRequestBody();
+         } else {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            soapMsg.writeTo(out);
+            strMsg = out.toString(Util.UTF_8);
+            body = MessageBodyStore.getBody(strMsg);
+         }
+         wsLog.addMessage("inbound SOAP", MessageType.SOAP_IN, body);
          
          // store SOAP message
          if (wsLogTransaction.getWsEndpoint().isStoreSOAPMessages()) {
             String subDir = wsLogTransaction.getWsEndpoint().getSubDirectoryName();
-            Path dirp = StoreSOAPMessages.storeMessage(subDir, strMsg, MessageType.SOAP_IN);
+            Path dirp = StoreSOAPMessages.storeMessage(subDir, body, MessageType.SOAP_IN);
             wsLogTransaction.setStoreSOAPMessagesDirectoryPath(dirp);
 
-            String p1 = StringUtils.substringBetween(strMsg, "prepopData");
-            String p2 = StringUtils.substringAfter(p1, ">");
-            String p3 = StringUtils.substringBeforeLast(p2, "<");
-            if (StringUtils.isNotBlank(p3)) {
-               StoreSOAPMessages.storeMessage(dirp, p3, MessageType.SOAP_PREPOP);
+            String prepop = capture != null
+               ? HandlerUtil.getPrepopData(capture.getRequest())
+               : HandlerUtil.getPrepopData(strMsg);
+            if (prepop != null) {
+               StoreSOAPMessages.storeMessage(dirp, prepop,
+                  MessageType.SOAP_PREPOP);
             }
          }
 
@@ -233,15 +245,25 @@ public class SOAPServerHandler extends BaseHandler <SOAPMessageContext>
          wsLog.addStatus(WSHandlerStatus.SOAP_OUT_IN_PROGRESS);
 
          // ------------------------------------ SOAP response message
-         SOAPMessage soapMsg = soapMessageContext.getMessage();
-         ByteArrayOutputStream out = new ByteArrayOutputStream();
-         soapMsg.writeTo(out);
-         String strMsg = out.toString(Util.UTF_8);
-         wsLog.addMessage("outbound SOAP ", MessageType.SOAP_OUT, strMsg);
-         
-         if (wsLogTransaction.getWsEndpoint().isStoreSOAPMessages()) {
-            Path dir = wsLogTransaction.getStoreSOAPMessagesDirectoryPath();
-            StoreSOAPMessages.storeMessage(dir, strMsg, MessageType.SOAP_OUT);
+         ExchangeCapture capture = wsLogTransaction.getCapture();
+         if (capture != null) {
+            /*
+             * The response is written after the handlers have run, so it is
+             * logged and stored from the capture by HTTPLoggingFilter.
+             */
+            capture.expectResponse();
+         } else {
+            SOAPMessage soapMsg = soapMessageContext.getMessage();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            soapMsg.writeTo(out);
+            String strMsg = out.toString(Util.UTF_8);
+            MessageBody body = MessageBodyStore.getBody(strMsg);
+            wsLog.addMessage("outbound SOAP ", MessageType.SOAP_OUT, body);
+
+            if (wsLogTransaction.getWsEndpoint().isStoreSOAPMessages()) {
+               Path dir = wsLogTransaction.getStoreSOAPMessagesDirectoryPath();
+               StoreSOAPMessages.storeMessage(dir, body, MessageType.SOAP_OUT);
+            }
          }
 
          wsLog.addStatus(WSHandlerStatus.SOAP_OUT_OK);
@@ -17,8 +17,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.file.Path;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.io.FileUtils;
@@ -28,6 +29,8 @@ import org.apache.log4j.Logger;
 import edu.wustl.mir.erl.ihe.util.Util;
 import edu.wustl.mir.erl.ihe.util.Util.PfnType;
 import edu.wustl.mir.erl.ihe.util.UtilProperties;
+import edu.wustl.mir.erl.ihe.ws.db.MessageBody;
+import edu.wustl.mir.erl.ihe.ws.db.MessageBodyStore;
 import edu.wustl.mir.erl.ihe.ws.db.MessageType;
 
 /**
@@ -37,7 +40,8 @@ import edu.wustl.mir.erl.ihe.ws.db.MessageType;
  * 
  * <pre>
  * {@code <WSTests>
- *     <StoreSOAPMessages on="true" rootMessageDirectoryName="messages"/> }
+ *     <StoreSOAPMessages on="true" rootMessageDirectoryName="messages"
+ *        format="archive"/> }
  * </pre>
  * 
  * in properties file as appropriate.</li>
@@ -59,34 +63,63 @@ import edu.wustl.mir.erl.ihe.ws.db.MessageType;
  * </pre></li>
  * 
  * </ul>
- * Messages will be stored in a directory tree under the
- * {@link #rootMessageDirectoryPath} of the form:
+ * Each transaction is identified by a key of the form:
  * 
  * <pre>
  * {@code
- * subDir/yyyy-MM-dd-HH-mm-ss-SSS/file-name}
+ * subDir/yyyy-MM-dd-HH-mm-ss-SSS}
  * </pre>
  * 
  * where the subDirectory should be representative of the client or server
- * simulator, the directory name is based on a time hack, and the specific file
- * name is based on the message type. For example:
+ * simulator, and the rest is based on a time hack, with "-1", "-2" and so on
+ * appended for further transactions started in the same millisecond.
+ * <p>
+ * If the format attribute is "archive", the default, messages are queued for
+ * the {@link MessageArchive}, which appends them on its own thread to one
+ * segment file per day under the {@link #rootMessageDirectoryPath}, so the
+ * SOAP handler thread does no file I/O. Use
+ * {@link MessageArchive#main(String[])} to list and extract them.
+ * </p>
+ * If the format attribute is "directories", messages are written at once, a
+ * file per message, in a directory per transaction, named for the key, and
+ * the specific file name is based on the message type. For example:
  * 
  * <pre>
  * {@code
  * FMS/2015-03-12-14-24-11-015/soap_request.bin}
  * </pre>
  * 
+ * With format "directories", if the contentAddressed attribute is "true",
+ * message bodies are instead stored once each, compressed, in the
+ * {@link MessageBodyStore} file store in the "bodies" sub directory of the
+ * {@link #rootMessageDirectoryPath}, and the transaction directory holds a
+ * reference file containing the SHA-256 hash of the body, named for the
+ * message type with ".sha256" appended, for example:
+ * 
+ * <pre>
+ * {@code
+ * FMS/2015-03-12-14-24-11-015/soap_request.bin.sha256
+ * bodies/3f/3f7a...c2.z}
+ * </pre>
+ * 
+ * Repeated payloads, such as the same prepop document sent on each test run,
+ * then take space once.
  */
 public class StoreSOAPMessages implements Serializable, UtilProperties {
    private static final long serialVersionUID = 1L;
 
    /**
-    * format for the directory used to store messages for a specific SOAP
-    * request/response in the file system. The current time when the request is
-    * stored is used to determine the directory name.
+    * format for the key of a specific SOAP request/response. The current time
+    * when the request is stored is used to determine the key.
+    */
+   private static final DateTimeFormatter MSG_DIR_FORMAT = DateTimeFormatter
+      .ofPattern("yyyy-MM-dd-HH-mm-ss-SSS").withZone(ZoneId.systemDefault());
+   /**
+    * Time of the last key, and the number of keys already made with that time,
+    * guarded by the class lock.
     */
-   private static final SimpleDateFormat MSG_DIR_FORMAT = new SimpleDateFormat(
-      "yyyy-MM-dd-HH-mm-ss-SSS");
+   private static long lastKeyMillis = 0;
+   private static int lastKeyCount = 0;
    /**
     * boolean, has the store SOAP messages facility been initialized?
     */
@@ -98,6 +131,15 @@ public class StoreSOAPMessages implements Serializable, UtilProperties {
     * {@link Util#getRunDirectoryPath() runDirectory}.
     */
    private static Path rootMessageDirectoryPath = null;
+   /**
+    * Root of the {@link MessageBodyStore} file store, if message bodies are
+    * stored by content hash, otherwise null.
+    */
+   private static Path bodyStorePath = null;
+   /**
+    * Archive messages are queued for, if format is "archive", otherwise null.
+    */
+   private static MessageArchive archive = null;
    private static Logger log = Logger.getLogger("StoreSOAPMessages");
 
    /**
@@ -110,6 +152,13 @@ public class StoreSOAPMessages implements Serializable, UtilProperties {
     * <li><b>rootMessageDirectoryName</b> - root directory for stored SOAP
     * messages. Relative paths are assumed to be in the
     * {@link Util#getRunDirectoryPath() run directory}. Default is "messages".</li>
+    * <li><b>format</b> - "archive" to queue messages for the
+    * {@link MessageArchive}, or "directories" to write a file per message.
+    * Default "archive". The other archive attributes are listed in
+    * {@link MessageArchive}.</li>
+    * <li><b>contentAddressed</b> - boolean, if format is "directories", are
+    * message bodies stored once each by content hash, with reference files in
+    * the transaction directories? Default "false".</li>
     * </ul>
     * 
     * @throws Exception on error:
@@ -139,8 +188,20 @@ public class StoreSOAPMessages implements Serializable, UtilProperties {
       if (!rmdf.exists()) rmdf.mkdirs();
       Util.isValidPfn("SOAP Messages Storage root directory", rmdp,
          PfnType.DIRECTORY, "rx");
+      String format =
+         storeSOAPMessagesProperties.getString("[@format]", "archive");
+      if (format.equalsIgnoreCase("archive")) {
+         archive = new MessageArchive(rmdp, storeSOAPMessagesProperties);
+      } else if (format.equalsIgnoreCase("directories")) {
+         if (storeSOAPMessagesProperties.getBoolean("[@contentAddressed]",
+            false)) bodyStorePath = rmdp.resolve("bodies");
+      } else {
+         throw new Exception("StoreSOAPMessages format " + format + " invalid");
+      }
       rootMessageDirectoryPath = rmdp;
-      log.info("StoreSOAPMessages initialized, using " + rmdp);
+      log.info("StoreSOAPMessages initialized, using " + rmdp
+         + (archive != null ? ", archive" : bodyStorePath == null ? ""
+            : ", content addressed"));
    } // EO initStoreSOAPMessages method
 
    /**
@@ -167,22 +228,70 @@ public class StoreSOAPMessages implements Serializable, UtilProperties {
     * {@link MessageType#SOAP_IN SOAP_OUT}, but other types will also work.
     * messageFileName will be used as the file name for the
     * message
-    * @return {@link Path} of the directory containing the message. Use this
-    * path in invocations of {@link #storeMessage(Path, String, MessageType)} to
-    * store other messages relating to the same transaction.
+    * @return {@link Path} identifying the transaction; with format
+    * "directories", the directory containing the message. Use this path in
+    * invocations of {@link #storeMessage(Path, String, MessageType)} to store
+    * other messages relating to the same transaction.
     * @throws Exception on errors, for example could not create file or
     * directory.
     */
    public static Path storeMessage(String subDirName, String msg,
       MessageType messageType) throws Exception {
-      if (StringUtils.isEmpty(subDirName))
-         throw new Exception("Missing/invalid sub directory name");
-      String dirName = MSG_DIR_FORMAT.format(new Date());
-      Path mp = rootMessageDirectoryPath.resolve(subDirName + fs + dirName);
+      Path mp = newMessageDirectoryPath(subDirName);
       storeMessage(mp, msg, messageType);
       return mp;
    }
 
+   /**
+    * As {@link #storeMessage(String, String, MessageType)}, for a message
+    * body which is also logged, so that it is hashed and compressed once.
+    * 
+    * @param subDirName The name of the sub directory for this message.
+    * @param body the message being stored, from {@link MessageBodyStore}.
+    * @param messageType the {@link MessageType} for the message bing stored.
+    * @return {@link Path} of the directory containing the message.
+    * @throws Exception on errors, for example could not create file or
+    * directory.
+    */
+   public static Path storeMessage(String subDirName, MessageBody body,
+      MessageType messageType) throws Exception {
+      Path mp = newMessageDirectoryPath(subDirName);
+      storeMessage(mp, body, messageType);
+      return mp;
+   }
+
+   private static Path newMessageDirectoryPath(String subDirName)
+      throws Exception {
+      if (StringUtils.isEmpty(subDirName))
+         throw new Exception("Missing/invalid sub directory name");
+      long now;
+      int count;
+      synchronized (StoreSOAPMessages.class) {
+         now = System.currentTimeMillis();
+         // never reuse an earlier time, even if the clock is set back
+         if (now <= lastKeyMillis) {
+            now = lastKeyMillis;
+            count = ++lastKeyCount;
+         } else {
+            lastKeyMillis = now;
+            lastKeyCount = count = 0;
+         }
+      }
+      String dirName = MSG_DIR_FORMAT.format(Instant.ofEpochMilli(now));
+      if (count > 0) dirName += "-" + count;
+      return rootMessageDirectoryPath.resolve(subDirName + fs + dirName);
+   }
+
+   /**
+    * @return the archive key of a transaction path, for example
+    * "FMS/2015-03-12-14-24-11-015".
+    */
+   private static String archiveKey(Path dirName) {
+      Path p = dirName.startsWith(rootMessageDirectoryPath)
+         ? rootMessageDirectoryPath.relativize(dirName) : dirName;
+      return p.toString().replace(File.separatorChar, '/');
+   }
+
    /**
     * static method to store subsequent SOAP message(s) for a particular
     * transaction; use {@link #storeMessage(String, String, MessageType)} for
@@ -200,9 +309,45 @@ public class StoreSOAPMessages implements Serializable, UtilProperties {
     */
    public static void storeMessage(Path dirName, String msg,
       MessageType messageType) throws IOException {
+      if (archive != null) {
+         archive.enqueue(archiveKey(dirName), msg, null, messageType);
+         return;
+      }
+      if (bodyStorePath != null) {
+         storeMessage(dirName, MessageBodyStore.getBody(msg), messageType);
+         return;
+      }
       File pf = dirName.resolve(messageType.getMessageFileName()).toFile();
       FileUtils.writeStringToFile(pf, msg, CHAR_SET_UTF_8);
       log.debug("SOAP Message stored: " + pf.toString());
    }
 
+   /**
+    * As {@link #storeMessage(Path, String, MessageType)}, for a message body
+    * which is also logged, so that it is hashed and compressed once.
+    * 
+    * @param dirName Complete {@link Path} of the directory created to store
+    * messages relating to this transaction.
+    * @param body the message being stored, from {@link MessageBodyStore}.
+    * @param messageType the {@link MessageType} for the message bing stored.
+    * @throws IOException on error writing file.
+    */
+   public static void storeMessage(Path dirName, MessageBody body,
+      MessageType messageType) throws IOException {
+      if (archive != null) {
+         archive.enqueue(archiveKey(dirName), null, body, messageType);
+         return;
+      }
+      if (bodyStorePath == null) {
+         storeMessage(dirName, body.getText(), messageType);
+         return;
+      }
+      Path bp = MessageBodyStore.write(bodyStorePath, body);
+      File pf =
+         dirName.resolve(messageType.getMessageFileName() + ".sha256")
+            .toFile();
+      FileUtils.writeStringToFile(pf, body.getHash(), CHAR_SET_UTF_8);
+      log.debug("SOAP Message stored: " + pf.toString() + " -> " + bp);
+   }
+
 } // EO StoreSOAPMessages class
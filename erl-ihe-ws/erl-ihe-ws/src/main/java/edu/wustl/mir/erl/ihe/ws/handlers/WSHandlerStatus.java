@@ -39,73 +39,76 @@ public enum WSHandlerStatus implements Status {
    /**
     * msg identification in progress
     */
-   MSG_IN_PROGRESS(Phase.MSG, Result.UNKNOWN, Level.TRACE, "in Progress"),
+   MSG_IN_PROGRESS(1, Phase.MSG, Result.UNKNOWN, Level.TRACE, "in Progress"),
    /**
     * http exchange information not in message context
     */
-   MSG_NO_HTTP_EXCHANGE (Phase.MSG, Result.UNKNOWN, Level.WARN, "No http exchange data found"),
+   MSG_NO_HTTP_EXCHANGE (2, Phase.MSG, Result.UNKNOWN, Level.WARN, "No http exchange data found"),
    /**
     * msg identified successfully
     */
-   MSG_OK(Phase.MSG, Result.PASS, Level.TRACE, "successful"),
+   MSG_OK(3, Phase.MSG, Result.PASS, Level.TRACE, "successful"),
    /**
     * handler in progress
     */
-   HTTP_IN_IN_PROGRESS(Phase.HTTP_IN, Result.UNKNOWN, Level.TRACE, "in progress"),
+   HTTP_IN_IN_PROGRESS(4, Phase.HTTP_IN, Result.UNKNOWN, Level.TRACE, "in progress"),
    /**
     * No message body found.
     */
-   HTTP_IN_NO_BODY(Phase.HTTP_IN, Result.FAIL, Level.WARN, "no message body found"),
+   HTTP_IN_NO_BODY(5, Phase.HTTP_IN, Result.FAIL, Level.WARN, "no message body found"),
    /**
     * Message body format or I/O error
     */
-   HTTP_IN_BODY_ERR(Phase.HTTP_IN, Result.FAIL, Level.WARN, "could not read message body"),
+   HTTP_IN_BODY_ERR(6, Phase.HTTP_IN, Result.FAIL, Level.WARN, "could not read message body"),
    /**
     * handler processing complete
     */
-   HTTP_IN_OK(Phase.HTTP_IN, Result.PASS, Level.TRACE, "completed"),
+   HTTP_IN_OK(7, Phase.HTTP_IN, Result.PASS, Level.TRACE, "completed"),
    /**
     * handler in progress
     */
-   HTTP_OUT_IN_PROGRESS(Phase.HTTP_OUT, Result.UNKNOWN, Level.TRACE, "in progress"),
+   HTTP_OUT_IN_PROGRESS(8, Phase.HTTP_OUT, Result.UNKNOWN, Level.TRACE, "in progress"),
    /**
     * No message body found.
     */
-   HTTP_OUT_NO_BODY(Phase.HTTP_IN, Result.FAIL, Level.WARN, "no message body found"),
+   HTTP_OUT_NO_BODY(9, Phase.HTTP_OUT, Result.FAIL, Level.WARN, "no message body found"),
    /**
     * Message body format or I/O error
     */
-   HTTP_OUT_BODY_ERR(Phase.HTTP_IN, Result.FAIL, Level.WARN, "could not read message body"),
+   HTTP_OUT_BODY_ERR(10, Phase.HTTP_OUT, Result.FAIL, Level.WARN, "could not read message body"),
    /**
     * handler processing complete
     */
-   HTTP_OUT_OK(Phase.HTTP_OUT, Result.PASS, Level.TRACE, "completed"),
+   HTTP_OUT_OK(11, Phase.HTTP_OUT, Result.PASS, Level.TRACE, "completed"),
    /**
     * handler in progress
     */
-   SOAP_IN_IN_PROGRESS(Phase.SOAP_IN, Result.UNKNOWN, Level.TRACE, "in progress"),
+   SOAP_IN_IN_PROGRESS(12, Phase.SOAP_IN, Result.UNKNOWN, Level.TRACE, "in progress"),
    /**
     * handler processing complete
     */
-   SOAP_IN_OK(Phase.SOAP_IN, Result.PASS, Level.TRACE, "completed"),
+   SOAP_IN_OK(13, Phase.SOAP_IN, Result.PASS, Level.TRACE, "completed"),
    /**
     * handler in progress
     */
-   SOAP_OUT_IN_PROGRESS(Phase.SOAP_OUT, Result.UNKNOWN, Level.TRACE, "in progress"),
+   SOAP_OUT_IN_PROGRESS(14, Phase.SOAP_OUT, Result.UNKNOWN, Level.TRACE, "in progress"),
    /**
     * handler processing complete
     */
-   SOAP_OUT_OK(Phase.SOAP_OUT, Result.PASS, Level.TRACE, "completed")
+   SOAP_OUT_OK(15, Phase.SOAP_OUT, Result.PASS, Level.TRACE, "completed")
    ;
    
+   private final int id;
    private Phase phase;
    private Result result;
    private Level logLevel;
    private String statusMsg;
 
    private static String setCode = "WSHandler";
+   private static final int setId = 1;
 
-   private WSHandlerStatus(Phase ph, Result rs, Level ll, String sm) {
+   private WSHandlerStatus(int id, Phase ph, Result rs, Level ll, String sm) {
+      this.id = id;
       phase = ph;
       result = rs;
       logLevel = ll;
@@ -147,6 +150,11 @@ public enum WSHandlerStatus implements Status {
       return logLevel;
    }
 
+   @Override
+   public int getId() {
+      return id;
+   }
+
    @Override
    public String getSetCode() {
       return setCode;
@@ -167,7 +175,7 @@ public enum WSHandlerStatus implements Status {
    }
 
    static {
-      StatusHelper.addCodeSet(setCode, WSHandlerStatus.class);
+      StatusHelper.addCodeSet(setCode, setId, WSHandlerStatus.class);
    }
    
    // ----------------------- Phases for this status code
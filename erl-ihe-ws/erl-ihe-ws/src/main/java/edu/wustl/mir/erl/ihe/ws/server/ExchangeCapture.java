@@ -0,0 +1,329 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ ******************************************************************************/
+package edu.wustl.mir.erl.ihe.ws.server;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import edu.wustl.mir.erl.ihe.ws.db.MessageBody;
+import edu.wustl.mir.erl.ihe.ws.db.MessageBodyStore;
+
+/**
+ * Raw bytes of one HTTP exchange, captured once, as they are read and
+ * written, and shared by everything which logs or stores the messages.
+ * Attached by {@link HTTPLoggingFilter} on inbound processing, which replaces
+ * the {@link HttpExchange} request and response streams with streams which
+ * pass the bytes through and copy them to one buffer per direction, and kept
+ * in the {@link edu.wustl.mir.erl.ihe.ws.db.LogTransaction LogTransaction}.
+ * <ul>
+ * <li>{@link #getRequest()} and {@link #getResponse()} return read only views
+ * of the buffers.</li>
+ * <li>{@link #getRequestBody()} and {@link #getResponseBody()} return the
+ * {@link MessageBody}, hashed and compressed from the buffer the first time
+ * it is asked for, so the SOAP handler, the HTTP handler, the WSLog and
+ * StoreSOAPMessages all use one instance.</li>
+ * </ul>
+ * Buffers come from a small shared pool, and are returned to it by
+ * {@link #release()} when the exchange has been logged. Views must not be used
+ * after that; message bodies may.
+ */
+public class ExchangeCapture {
+
+   /** Size of a new buffer. */
+   private static final int INITIAL_SIZE = 16 * 1024;
+   /** Larger buffers are not returned to the pool. */
+   private static final int MAX_POOLED_SIZE = 1024 * 1024;
+   /** Maximum number of buffers in the pool. */
+   private static final int MAX_POOLED = 64;
+
+   private static final Queue <byte[]> pool = new ConcurrentLinkedQueue <>();
+   private static final AtomicInteger pooled = new AtomicInteger();
+
+   private final Buffer request = new Buffer();
+   private final Buffer response = new Buffer();
+   private final CaptureInputStream in;
+   private MessageBody requestBody = null;
+   private MessageBody responseBody = null;
+   private boolean responseExpected = false;
+
+   private ExchangeCapture(InputStream requestStream) {
+      in = new CaptureInputStream(requestStream, request);
+   }
+
+   /**
+    * Starts capturing an exchange, by replacing its request and response
+    * streams. Must be called before the request body is read.
+    *
+    * @param exchange the exchange.
+    * @return the capture for the exchange.
+    */
+   public static ExchangeCapture attach(HttpExchange exchange) {
+      ExchangeCapture capture = new ExchangeCapture(exchange.getRequestBody());
+      exchange.setStreams(capture.in, new CaptureOutputStream(
+         exchange.getResponseBody(), capture.response));
+      return capture;
+   }
+
+   /**
+    * Gets the request body. Reads, and captures, any part of the body not yet
+    * read, so must only be called once the request has been parsed, for
+    * example from a SOAP handler after
+    * {@link javax.xml.ws.handler.soap.SOAPMessageContext#getMessage()}.
+    *
+    * @return read only view of the request body.
+    * @throws IOException on error reading the rest of the body.
+    */
+   public synchronized ByteBuffer getRequest() throws IOException {
+      in.drain();
+      return request.view();
+   }
+
+   /**
+    * @return read only view of the response body, as written so far.
+    */
+   public synchronized ByteBuffer getResponse() {
+      return response.view();
+   }
+
+   /**
+    * @return the request body, created from {@link #getRequest()} the first
+    * time it is called.
+    * @throws IOException on error reading the rest of the body.
+    */
+   public synchronized MessageBody getRequestBody() throws IOException {
+      if (requestBody == null)
+         requestBody = MessageBodyStore.getBody(getRequest());
+      return requestBody;
+   }
+
+   /**
+    * @return the response body, created from {@link #getResponse()} the first
+    * time it is called after the response stream is closed.
+    * @throws IOException if the response stream has not been closed.
+    */
+   public synchronized MessageBody getResponseBody() throws IOException {
+      if (responseBody == null) {
+         if (response.complete == false)
+            throw new IOException("response not complete");
+         responseBody = MessageBodyStore.getBody(getResponse());
+      }
+      return responseBody;
+   }
+
+   /**
+    * Marks the response as a message to be logged, for example by the SOAP
+    * handler, since the response is not written until after the handlers
+    * have run. The response is then logged by {@link HTTPLoggingFilter} on
+    * outbound processing.
+    */
+   public synchronized void expectResponse() {
+      responseExpected = true;
+   }
+
+   /**
+    * @return true if {@link #expectResponse()} has been called.
+    */
+   public synchronized boolean isResponseExpected() {
+      return responseExpected;
+   }
+
+   /**
+    * @return true if the response stream has been closed.
+    */
+   public synchronized boolean isResponseComplete() {
+      return response.complete;
+   }
+
+   /**
+    * Returns the buffers to the pool. Views must not be used after this.
+    */
+   public synchronized void release() {
+      request.release();
+      response.release();
+   }
+
+   private static byte[] take() {
+      byte[] bytes = pool.poll();
+      if (bytes == null) return new byte[INITIAL_SIZE];
+      pooled.decrementAndGet();
+      return bytes;
+   }
+
+   private static void give(byte[] bytes) {
+      if (bytes.length > MAX_POOLED_SIZE) return;
+      if (pooled.incrementAndGet() > MAX_POOLED) {
+         pooled.decrementAndGet();
+         return;
+      }
+      pool.offer(bytes);
+   }
+
+   /**
+    * Growable byte buffer, taken from the pool when first written.
+    */
+   private static class Buffer {
+      private byte[] bytes = null;
+      private int count = 0;
+      /** Has the stream reached its end, or been closed? */
+      private volatile boolean complete = false;
+
+      synchronized void write(byte[] b, int off, int len) {
+         if (len <= 0) return;
+         ensure(len);
+         System.arraycopy(b, off, bytes, count, len);
+         count += len;
+      }
+
+      synchronized void write(int b) {
+         ensure(1);
+         bytes[count++ ] = (byte) b;
+      }
+
+      private void ensure(int len) {
+         if (bytes == null) bytes = take();
+         if (count + len <= bytes.length) return;
+         byte[] old = bytes;
+         bytes = Arrays.copyOf(old, Math.max(count + len, old.length * 2));
+         give(old);
+      }
+
+      synchronized ByteBuffer view() {
+         if (bytes == null) return ByteBuffer.allocate(0).asReadOnlyBuffer();
+         return ByteBuffer.wrap(bytes, 0, count).asReadOnlyBuffer();
+      }
+
+      synchronized void release() {
+         if (bytes != null) give(bytes);
+         bytes = null;
+         count = 0;
+      }
+   } // EO Buffer inner class
+
+   /**
+    * Request stream, which copies the bytes read to the request buffer.
+    */
+   private static class CaptureInputStream extends FilterInputStream {
+      private final Buffer buffer;
+      private boolean eof = false;
+
+      CaptureInputStream(InputStream in, Buffer buffer) {
+         super(in);
+         this.buffer = buffer;
+      }
+
+      @Override
+      public int read() throws IOException {
+         int b = super.read();
+         if (b < 0) eof = true;
+         else buffer.write(b);
+         return b;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+         int n = super.read(b, off, len);
+         if (n < 0) eof = true;
+         else buffer.write(b, off, n);
+         return n;
+      }
+
+      @Override
+      public long skip(long n) throws IOException {
+         // read, so that skipped bytes are captured
+         byte[] b = new byte[(int) Math.min(Math.max(n, 0), 8192)];
+         long skipped = 0;
+         while (skipped < n) {
+            int r = read(b, 0, (int) Math.min(b.length, n - skipped));
+            if (r < 0) break;
+            skipped += r;
+         }
+         return skipped;
+      }
+
+      @Override
+      public boolean markSupported() {
+         return false;
+      }
+
+      @Override
+      public synchronized void mark(int readlimit) {}
+
+      @Override
+      public synchronized void reset() throws IOException {
+         throw new IOException("mark/reset not supported");
+      }
+
+      /**
+       * Reads to the end of the stream, so the buffer holds the whole body.
+       */
+      void drain() throws IOException {
+         byte[] b = new byte[8192];
+         while (eof == false && read(b, 0, b.length) >= 0) {}
+         buffer.complete = true;
+      }
+
+      @Override
+      public void close() throws IOException {
+         if (eof == false) {
+            try {
+               drain();
+            } catch (IOException e) {
+               // the exchange reports the error
+            }
+         }
+         super.close();
+      }
+   } // EO CaptureInputStream inner class
+
+   /**
+    * Response stream, which copies the bytes written to the response buffer.
+    */
+   private static class CaptureOutputStream extends FilterOutputStream {
+      private final Buffer buffer;
+
+      CaptureOutputStream(OutputStream out, Buffer buffer) {
+         super(out);
+         this.buffer = buffer;
+      }
+
+      @Override
+      public void write(int b) throws IOException {
+         out.write(b);
+         buffer.write(b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+         out.write(b, off, len);
+         buffer.write(b, off, len);
+      }
+
+      @Override
+      public void close() throws IOException {
+         buffer.complete = true;
+         super.close();
+      }
+   } // EO CaptureOutputStream inner class
+
+} // EO ExchangeCapture class
@@ -15,7 +15,13 @@ package edu.wustl.mir.erl.ihe.ws.server;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Path;
 import java.util.Date;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -23,12 +29,16 @@ import com.sun.net.httpserver.Filter;
 import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 
+import edu.wustl.mir.erl.ihe.util.ServerExecutor;
 import edu.wustl.mir.erl.ihe.util.Util;
 import edu.wustl.mir.erl.ihe.ws.WSProperties;
 import edu.wustl.mir.erl.ihe.ws.db.LogTransaction;
+import edu.wustl.mir.erl.ihe.ws.db.MessageBody;
+import edu.wustl.mir.erl.ihe.ws.db.MessageType;
 import edu.wustl.mir.erl.ihe.ws.db.TransactionType;
 import edu.wustl.mir.erl.ihe.ws.db.WSLog;
 import edu.wustl.mir.erl.ihe.ws.handlers.HandlerUtil;
+import edu.wustl.mir.erl.ihe.ws.handlers.StoreSOAPMessages;
 import edu.wustl.mir.erl.ihe.ws.handlers.WSHandlerStatus;
 
 /**
@@ -46,6 +56,16 @@ import edu.wustl.mir.erl.ihe.ws.handlers.WSHandlerStatus;
  * <li>All access to instance properties of this class must be thread safe.</li>
  * <li>This class can only deal with data stored as an
  * {@link com.sun.net.httpserver.HttpExchange HttpExchange} attribute.</li>
+ * <li>Request and response bodies are captured once, as they are read and
+ * written, by an {@link ExchangeCapture}, which the handlers log from. The
+ * SOAP response is written after the handlers have run, so it is logged and
+ * stored here, on outbound processing.</li>
+ * <li>If the endpoint has a {@link WSEndpoint#getResponseDelayMs() response
+ * delay}, outbound processing is scheduled on a
+ * {@link ScheduledExecutorService} for the endpoint rather than run on the
+ * request thread, so the thread goes back to serving requests at once. The
+ * scheduler may run as many threads as the endpoint's {@link ServerExecutor},
+ * so delayed exchanges are processed as concurrently as others.</li>
  * </ul>
  */
 public class HTTPLoggingFilter extends Filter implements Serializable,
@@ -63,6 +83,43 @@ public class HTTPLoggingFilter extends Filter implements Serializable,
     * the same Logger.
     */
    private Logger log;
+   /**
+    * Simulated response delay in milliseconds for the endpoint, 0 for none.
+    */
+   private long responseDelayMs;
+
+   /**
+    * Scheduler for delayed outbound processing for the endpoint. Created on
+    * first use, with up to as many threads as the endpoint's
+    * {@link ServerExecutor}, which time out when idle.
+    */
+   private transient ScheduledThreadPoolExecutor scheduler = null;
+
+   private synchronized ScheduledExecutorService getScheduler() {
+      if (scheduler == null) {
+         ServerExecutor exec = wsEndpoint.getExecutor();
+         int size = exec == null ? 1 : exec.getMaximumPoolSize();
+         long keepAlive =
+            exec == null ? 60 : exec.getKeepAliveTime(TimeUnit.SECONDS);
+         final String prefix =
+            (exec == null ? "wse-" + wsEndpoint.getEndpointName() : exec
+               .getName()) + "-delay-";
+         scheduler = new ScheduledThreadPoolExecutor(size, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+               Thread t = new Thread(r, prefix + count.incrementAndGet());
+               t.setDaemon(true);
+               return t;
+            }
+         });
+         // core threads must have a keep alive time to time out
+         scheduler.setKeepAliveTime(Math.max(keepAlive, 1), TimeUnit.SECONDS);
+         scheduler.allowCoreThreadTimeOut(true);
+      }
+      return scheduler;
+   }
 
    /**
     * @param wsEndpoint the {@link WSEndpoint} this filter instance is attached
@@ -73,6 +130,7 @@ public class HTTPLoggingFilter extends Filter implements Serializable,
       description =
          wsEndpoint.getEndpointName() + " HTTP Request/Response Logging Filter";
       log = wsEndpoint.getLog();
+      responseDelayMs = wsEndpoint.getResponseDelayMs();
    }
 
    /*
@@ -86,8 +144,17 @@ public class HTTPLoggingFilter extends Filter implements Serializable,
    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
       inbound(exchange);
       chain.doFilter(exchange);
-      Util.pause(3, log, "testing pause");
-      outbound(exchange);
+      if (responseDelayMs <= 0) {
+         outbound(exchange);
+         return;
+      }
+      final HttpExchange ex = exchange;
+      getScheduler().schedule(new Runnable() {
+         @Override
+         public void run() {
+            outbound(ex);
+         }
+      }, responseDelayMs, TimeUnit.MILLISECONDS);
    }
 
    /**
@@ -118,6 +185,7 @@ public class HTTPLoggingFilter extends Filter implements Serializable,
          wsLog = wsLogTransaction.getWsLog();
          // ----------------------------------- store in HTTP exchange object
          httpExchange.setAttribute(WS_LOG_TRANSACTION, wsLogTransaction);
+         wsLogTransaction.setCapture(ExchangeCapture.attach(httpExchange));
 
          // --------------------------------- store http Request related data
          wsLog.addStatus(WSHandlerStatus.HTTP_IN_IN_PROGRESS);
@@ -179,28 +247,48 @@ public class HTTPLoggingFilter extends Filter implements Serializable,
     */
    private void outbound(HttpExchange httpExchange) {
 
-      // Util.pause(3, log, "test theory on SAX error");
       log.trace(Util.classMethod());
 
       LogTransaction wsLogTransaction = null;
       WSLog wsLog = null;
+      ExchangeCapture capture = null;
 
       try {
 
          wsLogTransaction =
             (LogTransaction) httpExchange.getAttribute(WS_LOG_TRANSACTION);
          wsLog = wsLogTransaction.getWsLog();
+         capture = wsLogTransaction.getCapture();
 
          wsLog.addStatus(WSHandlerStatus.HTTP_OUT_IN_PROGRESS);
+         boolean bodyOk = true;
+
+         // ----------------- SOAP response, see SOAPServerHandler outbound
+         if (capture != null && capture.isResponseExpected()) {
+            MessageBody body = null;
+            try {
+               body = capture.getResponseBody();
+            } catch (IOException e) {
+               // for example, the response was not completely written
+               bodyOk = false;
+               wsLog.addStatus(WSHandlerStatus.HTTP_OUT_BODY_ERR,
+                  e.getMessage());
+            }
+            if (body != null) {
+               wsLog.addMessage("outbound SOAP ", MessageType.SOAP_OUT, body);
+               if (wsEndpoint.isStoreSOAPMessages()) {
+                  Path dir =
+                     wsLogTransaction.getStoreSOAPMessagesDirectoryPath();
+                  StoreSOAPMessages.storeMessage(dir, body,
+                     MessageType.SOAP_OUT);
+               }
+            }
+         }
 
          wsLog.setHttpResponseCode(httpExchange.getResponseCode());
          wsLog.setHttpResponseHeaders(httpExchange.getResponseHeaders());
 
-         wsLog.addStatus(WSHandlerStatus.HTTP_OUT_OK);
-
-         // log (approximate) connection close and close out.
-         wsLogTransaction.getWsLog().setConnCloseTime(new Date());
-         wsLogTransaction.close();
+         if (bodyOk) wsLog.addStatus(WSHandlerStatus.HTTP_OUT_OK);
 
       } catch (Exception e) {
          StringBuilder em =
@@ -210,9 +298,29 @@ public class HTTPLoggingFilter extends Filter implements Serializable,
                .append(nl)
                .append(wsLogTransaction.getWsLog().toStringClientIfno());
          log.warn(em);
+      } finally {
+         // log (approximate) connection close and close out, even on error.
+         if (wsLogTransaction != null) closeTransaction(wsLogTransaction);
+         if (capture != null) {
+            wsLogTransaction.setCapture(null);
+            capture.release();
+         }
       }
    } // EO outbound method
 
+   /**
+    * Sets the connection close time and closes the transaction, so that it is
+    * logged whether or not outbound processing succeeded.
+    */
+   private void closeTransaction(LogTransaction wsLogTransaction) {
+      try {
+         wsLogTransaction.getWsLog().setConnCloseTime(new Date());
+         wsLogTransaction.close();
+      } catch (Exception e) {
+         log.warn(Util.classMethod() + " error: " + e.getMessage());
+      }
+   }
+
    /*
     * (non-Javadoc)
     * 
@@ -45,10 +45,12 @@ import com.sun.net.httpserver.HttpsConfigurator;
 import com.sun.net.httpserver.HttpsServer;
 
 import edu.wustl.mir.erl.ihe.util.NotificationThread;
+import edu.wustl.mir.erl.ihe.util.ServerExecutor;
 import edu.wustl.mir.erl.ihe.util.Util;
 import edu.wustl.mir.erl.ihe.ws.WSProperties;
 import edu.wustl.mir.erl.ihe.ws.db.MessageType;
 import edu.wustl.mir.erl.ihe.ws.db.WSLog;
+import edu.wustl.mir.erl.ihe.ws.db.WSLogWriter;
 import edu.wustl.mir.erl.ihe.ws.db.rmi.WSLogRMIClient;
 import edu.wustl.mir.erl.ihe.ws.handlers.StoreSOAPMessages;
 
@@ -145,6 +147,26 @@ public class WSEndpoint extends NotificationThread implements Serializable,
 
    private List <WSLogRMIClient> senders = new ArrayList <>();
    private Boolean storeToDB = false;
+   /**
+    * Write behind queue persisting {@link WSLog} instances for this endpoint,
+    * or null if there are no RMI senders and storeToDB is false.
+    */
+   private WSLogWriter wsLogWriter = null;
+   /**
+    * Simulated response delay, in milliseconds. When greater than 0, the
+    * {@link HTTPLoggingFilter} outbound processing, which records the response
+    * and closes the transaction log, is scheduled this long after the
+    * response is sent instead of running at once. From the responseDelayMs
+    * attribute; default 0, off.
+    */
+   private long responseDelayMs = 0;
+   /**
+    * Thread pool for this endpoint's HTTP server and JAX-WS endpoint,
+    * configured by the optional {@code <Executor>} element.
+    * 
+    * @see ServerExecutor
+    */
+   private ServerExecutor executor;
 
    /**
     * Constructor creates WSEndpoint instance using passed endpointProperties.
@@ -250,7 +272,7 @@ public class WSEndpoint extends NotificationThread implements Serializable,
                int rmiPort =
                   rmiProperties.getInt("[@port]", DEFAULT_RMI_REGISTRY_PORT);
                try {
-                  senders.add(new WSLogRMIClient(rmiPort, null));
+                  senders.add(new WSLogRMIClient(rmiPort, null, rmiProperties));
                } catch (Exception e) {
                   log.info(e.getMessage());
                }
@@ -262,6 +284,19 @@ public class WSEndpoint extends NotificationThread implements Serializable,
 
          storeToDB = endpointProperties.getBoolean("[@storeToDB]", false);
 
+         responseDelayMs = endpointProperties.getLong("[@responseDelayMs]", 0L);
+         if (responseDelayMs < 0)
+            throw new Exception("responseDelayMs " + responseDelayMs
+               + " not valid.");
+         if (responseDelayMs > 0)
+            log.info(" response delay: " + responseDelayMs + " ms");
+         if (storeToDB || senders.isEmpty() == false)
+            wsLogWriter =
+               new WSLogWriter(endpointId, log, senders, storeToDB,
+                  endpointProperties);
+
+         executor = Util.getExec("wse-" + endpointId, endpointProperties);
+
       } catch (Exception e) {
          log.warn("Error creating WSEndpoint: - " + e.getMessage());
          throw e;
@@ -287,7 +322,7 @@ public class WSEndpoint extends NotificationThread implements Serializable,
             ((WSServerTest) endpointClassInstance).addTests(testsProperties);
          WebServiceFeature wsaFeature = new AddressingFeature(true, false);
          endpoint = Endpoint.create(endpointClassInstance, wsaFeature);
-         endpoint.setExecutor(Util.getExec());
+         endpoint.setExecutor(executor);
 
          // set up CORS Filter
          CORSFilter corsFilter = new CORSFilter(" ", log);
@@ -320,7 +355,7 @@ public class WSEndpoint extends NotificationThread implements Serializable,
 
             HttpsServer httpsServer =
                HttpsServer.create(new InetSocketAddress(port), 0);
-            httpsServer.setExecutor(Util.getExec());
+            httpsServer.setExecutor(executor);
 
             httpsServer.setHttpsConfigurator(configurator);
 
@@ -340,7 +375,7 @@ public class WSEndpoint extends NotificationThread implements Serializable,
                httpServer.createContext(uri.getPath().toString());
             httpContext.getFilters().add(corsFilter);
             httpContext.getFilters().add(logFilter);
-            httpServer.setExecutor(Util.getExec());
+            httpServer.setExecutor(executor);
             httpServer.start();
 
             endpoint.publish(httpContext);
@@ -375,6 +410,7 @@ public class WSEndpoint extends NotificationThread implements Serializable,
                   throw new Exception("no longer published");
             }
             log.trace(endpointName + " " + getEndpointStatus());
+            log.debug(executor.getStats());
          }
       } catch (Exception ie) {
          log.error(endpointName + " error " + ie.getMessage()
@@ -412,6 +448,20 @@ public class WSEndpoint extends NotificationThread implements Serializable,
       return secure;
    }
 
+   /**
+    * @return {@link #responseDelayMs}
+    */
+   public long getResponseDelayMs() {
+      return responseDelayMs;
+   }
+
+   /**
+    * @return {@link #executor}
+    */
+   public ServerExecutor getExecutor() {
+      return executor;
+   }
+
    /**
     * @return {@link #keystoreFileName}
     */
@@ -569,35 +619,27 @@ public class WSEndpoint extends NotificationThread implements Serializable,
       }
    } // EO Status enum
 
-   /**
-    * Sends passed {@link WSLog} instance to all RMI destinations set up for
-    * this endpoint. Will not generate errors on failure.
-    * 
-    * @param wsLog instance to send.
-    */
-   private synchronized void sendWSLog(WSLog wsLog) {
-      for (WSLogRMIClient sender : senders) {
-         sender.sendWSLog(wsLog);
-      }
-   }
-
    /**
     * Persists {@link WSLog} instance as indicated for this WSEndpoint:
     * <ul>
     * <li>To any RMI destinations which have been set up in the properties.</li>
     * <li>To the DB if the storeToDB attribute in the properties is true.</li>
     * </ul>
+    * The instance is queued on the {@link WSLogWriter} for this endpoint and
+    * written by its drain thread; this method does not wait for it.
     * 
     * @param wsLog transaction log instance
     */
-   public synchronized void persistWSLog(WSLog wsLog) {
-      sendWSLog(wsLog);
-      try {
-         if (storeToDB) wsLog.insert();
-      } catch (Exception e) {
-         log.error("Error persisting wslog instance for "
-            + wsLog.getClientHostName() + " to database." + e.getMessage());
-      }
+   public void persistWSLog(WSLog wsLog) {
+      if (wsLogWriter != null) wsLogWriter.enqueue(wsLog);
+   }
+
+   /**
+    * @return the {@link #wsLogWriter} for this endpoint, or null if it does
+    * not persist logs.
+    */
+   public WSLogWriter getWSLogWriter() {
+      return wsLogWriter;
    }
 
 } // EO WSEndpoint class
@@ -22,7 +22,6 @@ import javax.xml.soap.Detail;
 import javax.xml.soap.DetailEntry;
 import javax.xml.soap.SOAPConstants;
 import javax.xml.soap.SOAPException;
-import javax.xml.soap.SOAPFactory;
 import javax.xml.soap.SOAPFault;
 import javax.xml.ws.WebServiceContext;
 import javax.xml.ws.handler.MessageContext;
@@ -34,9 +33,9 @@ import edu.wustl.mir.erl.ihe.util.Status;
 import edu.wustl.mir.erl.ihe.util.StatusType;
 import edu.wustl.mir.erl.ihe.util.StatusUpdateType;
 import edu.wustl.mir.erl.ihe.util.Util;
+import edu.wustl.mir.erl.ihe.util.XmlFactories;
 import edu.wustl.mir.erl.ihe.ws.WSProperties;
 import edu.wustl.mir.erl.ihe.ws.db.LogTransaction;
-import edu.wustl.mir.erl.ihe.ws.db.WSLog;
 
 /**
  * Base class for WSServer Tests
@@ -46,8 +45,6 @@ public abstract class WSServerTest implements Serializable, WSProperties {
 
    @Resource
    protected WebServiceContext webServiceContext;
-   protected LogTransaction wsLogTransaction = null;
-   protected WSLog wsLog;
    protected Logger log;
    protected WSEndpoint wsEndpoint;
 
@@ -61,16 +58,23 @@ public abstract class WSServerTest implements Serializable, WSProperties {
       log = wsEndpoint.getLog();
    }
 
-   protected void setup() {
+   /**
+    * Gets the {@link LogTransaction} for the request being processed. The
+    * endpoint instance is shared by all requests, so per request state is not
+    * kept in its fields; it is looked up in the {@link MessageContext} of the
+    * current request, which is safe to do from concurrent requests.
+    * 
+    * @return LogTransaction for the current request, or null if there is none,
+    * for example if not called while processing a request.
+    */
+   protected LogTransaction setup() {
       try {
          MessageContext context = webServiceContext.getMessageContext();
-         wsLogTransaction = (LogTransaction) context.get(WS_LOG_TRANSACTION);
-         wsEndpoint = wsLogTransaction.getWsEndpoint();
-         wsLog = wsLogTransaction.getWsLog();
-         log = wsLogTransaction.getLog();
+         return (LogTransaction) context.get(WS_LOG_TRANSACTION);
       } catch (Exception e) {
          String em = Util.classMethod() + " error: " + e.getMessage();
          log.warn(em);
+         return null;
       }
 
    } // EO setup() method
@@ -79,12 +83,10 @@ public abstract class WSServerTest implements Serializable, WSProperties {
 
    protected SOAPFault senderFault(Status status, String... extraDetails) {
       try {
-         if (wsLogTransaction != null) {
-            setup();
-            wsLog.addStatus(status);
-         }
+         LogTransaction logTrans = setup();
+         if (logTrans != null) logTrans.getWsLog().addStatus(status);
          SOAPFault fault =
-            (SOAPFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL))
+            XmlFactories.getSOAPFactory(SOAPConstants.SOAP_1_2_PROTOCOL)
                .createFault(status.getPhaseMsg(),
                   SOAPConstants.SOAP_SENDER_FAULT);
          Detail detail = fault.addDetail();
@@ -105,12 +107,10 @@ public abstract class WSServerTest implements Serializable, WSProperties {
 
    protected SOAPFault receiverFault(Status status, String... extraDetails) {
       try {
-         if (wsLogTransaction != null) {
-            setup();
-            wsLog.addStatus(status);
-         }
+         LogTransaction logTrans = setup();
+         if (logTrans != null) logTrans.getWsLog().addStatus(status);
          SOAPFault fault =
-            (SOAPFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL))
+            XmlFactories.getSOAPFactory(SOAPConstants.SOAP_1_2_PROTOCOL)
                .createFault(status.getPhaseMsg(),
                   SOAPConstants.SOAP_RECEIVER_FAULT);
          Detail detail = fault.addDetail();
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ ******************************************************************************/
+package edu.wustl.mir.erl.ihe.ws.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.wustl.mir.erl.ihe.ws.handlers.WSHandlerStatus;
+
+/**
+ * Size and throughput comparison of {@link WireFormat} with default Java
+ * serialization, for a SOAP server WSLog with headers, statuses, label/value
+ * pairs and two messages. Not a unit test; after {@code mvn test-compile},
+ * run its main method with target/test-classes, target/classes and the
+ * module dependencies on the class path.
+ * 
+ * Default serialization is measured on a map of the field values of each
+ * object, as {@link ObjectOutputStream#defaultWriteObject()} would write them
+ * if WSLog and WSMsg were not {@link java.io.Externalizable}.
+ * <p>
+ * Arguments: optional number of iterations per round, default 20000.
+ * </p>
+ */
+public class WireFormatBenchmark {
+
+   private static final int BATCH = 50;
+   private static final int ROUNDS = 3;
+
+   /**
+    * @param args optional iterations per round.
+    * @throws Exception on error.
+    */
+   public static void main(String[] args) throws Exception {
+      int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+      WSLog wsLog = make(1);
+      ArrayList <WSLog> batch = new ArrayList <>();
+      for (int n = 0; n < BATCH; n++ )
+         batch.add(make(n));
+
+      System.out.println("bytes          wire format   default");
+      System.out.printf("single WSLog   %11d %9d%n", write(wsLog).length,
+         write(fields(wsLog)).length);
+      System.out.printf("batch of %d    %11d %9d%n", BATCH, write(batch).length,
+         write(fields(batch)).length);
+
+      Object[] objects = { wsLog, fields(wsLog) };
+      String[] names = { "wire format", "default" };
+      for (int round = 0; round < ROUNDS; round++ ) {
+         for (int k = 0; k < objects.length; k++ ) {
+            byte[] bytes = write(objects[k]);
+            long start = System.nanoTime();
+            for (int n = 0; n < iterations; n++ )
+               write(objects[k]);
+            long written = System.nanoTime();
+            for (int n = 0; n < iterations; n++ )
+               read(bytes);
+            long read = System.nanoTime();
+            System.out.printf("round %d %-11s write %6.1f us, read %6.1f us%n",
+               round + 1, names[k], (written - start) / 1e3 / iterations,
+               (read - written) / 1e3 / iterations);
+         }
+      }
+   }
+
+   private static WSLog make(int n) throws Exception {
+      WSLog wsLog = new WSLog();
+      wsLog.setId(1000 + n);
+      wsLog.setClientIp("10.0.0." + n % 250);
+      wsLog.setClientHostName("client" + n + ".example.org");
+      wsLog.setServerIp("10.1.1.1");
+      wsLog.setServerPort(8443);
+      wsLog.setSecure(true);
+      wsLog.setServiceName("FormManager");
+      wsLog.setServerName("rfd.example.org");
+      wsLog.setServiceEndpointAddress("https://rfd.example.org:8443/FormManager");
+      wsLog.setConnCloseTime(new Date());
+      wsLog.setTransactionType(TransactionType.SOAP_SERVER);
+      wsLog.addStatus(WSHandlerStatus.MSG_IN_PROGRESS);
+      wsLog.addStatus(WSHandlerStatus.MSG_OK);
+      wsLog.setHttpMethod("POST");
+      wsLog.setHttpRequestURI(new URI("/FormManager?x=" + n));
+      wsLog.setHttpRequestProtocol("HTTP/1.1");
+      Map <String, List <String>> request = new HashMap <>();
+      request.put("Content-type",
+         Arrays.asList("application/soap+xml; charset=utf-8"));
+      request.put("Host", Arrays.asList("rfd.example.org:8443"));
+      request.put("Content-length", Arrays.asList("" + (4000 + n)));
+      request.put("User-agent", Arrays.asList("Apache-CXF/3.1"));
+      request.put("Connection", Arrays.asList("keep-alive"));
+      wsLog.setHttpRequestHeaders(request);
+      wsLog.setHttpResponseCode(200);
+      Map <String, List <String>> response = new HashMap <>();
+      response.put("Content-type",
+         Arrays.asList("application/soap+xml; charset=utf-8"));
+      response.put("Date", Arrays.asList("Sun, 18 Oct 2015 10:00:00 GMT"));
+      wsLog.setHttpResponseHeaders(response);
+      wsLog.setSoapActionURI("urn:ihe:iti:2007:RetrieveForm");
+      wsLog.setWsdlService("{urn:ihe:iti:rfd:2007}FormManager_Service");
+      wsLog.setSoapMessageId("urn:uuid:00000000-0000-0000-0000-" + (100000 + n));
+      wsLog.setSoapRequestName("RetrieveFormRequest");
+      wsLog.addSoapRequestNameValuePair("formID", "form-" + n);
+      wsLog.addSoapRequestNameValuePair("Age", 34);
+      wsLog.addSoapRequestNameValuePair("when", new Date());
+      wsLog.setSoapResponseName("RetrieveFormResponse");
+      wsLog.addSoapResponseNameValuePair("formURL", "http://x/y");
+      StringBuilder items = new StringBuilder();
+      for (int i = 0; i < 40; i++ )
+         items.append("<item n='").append(i).append("'>value</item>");
+      wsLog.addMessage("SOAP request body", MessageType.SOAP_IN,
+         "<Envelope>" + items + n + "</Envelope>");
+      wsLog.addMessage("SOAP response body", MessageType.SOAP_OUT,
+         "<Envelope>" + items + "</Envelope>");
+      return wsLog;
+   }
+
+   /**
+    * @return the serializable field values of obj, with WSLog and WSMsg
+    * instances, including those in lists, replaced by their field values.
+    */
+   private static Object fields(Object obj) throws Exception {
+      if (obj instanceof List) {
+         ArrayList <Object> list = new ArrayList <>();
+         for (Object o : (List <?>) obj)
+            list.add(fields(o));
+         return list;
+      }
+      if ((obj instanceof WSLog || obj instanceof WSMsg) == false) return obj;
+      LinkedHashMap <String, Object> map = new LinkedHashMap <>();
+      for (Field field : obj.getClass().getDeclaredFields()) {
+         int modifiers = field.getModifiers();
+         if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers))
+            continue;
+         field.setAccessible(true);
+         Object value = field.get(obj);
+         if (value == null || value instanceof Serializable)
+            map.put(field.getName(), fields(value));
+      }
+      return map;
+   }
+
+   private static byte[] write(Object obj) throws Exception {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+         out.writeObject(obj);
+      }
+      return bytes.toByteArray();
+   }
+
+   private static Object read(byte[] bytes) throws Exception {
+      try (ObjectInputStream in =
+         new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+         return in.readObject();
+      }
+   }
+
+} // EO WireFormatBenchmark class
@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ ******************************************************************************/
+package edu.wustl.mir.erl.ihe.ws.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.wustl.mir.erl.ihe.util.Status;
+import edu.wustl.mir.erl.ihe.ws.handlers.WSHandlerStatus;
+
+/**
+ * Round trip and error tests for {@link WireFormat}.
+ */
+public class WireFormatTest {
+
+   /** Set by the static initializer of {@link Trap}. */
+   static boolean trapInitialized = false;
+
+   /** Not a Status enum, which a stream may name as a status class. */
+   static class Trap {
+      static {
+         trapInitialized = true;
+      }
+   }
+
+   @Test
+   public void nullFields() throws Exception {
+      WSLog wsLog = new WSLog();
+      wsLog.setId(null);
+      wsLog.setClientIp(null);
+      wsLog.setServerPort(null);
+      wsLog.setSecure(null);
+      wsLog.setConnOpenTime(null);
+      wsLog.setConnCloseTime(null);
+      wsLog.setErrorLine(null);
+      wsLog.setErrorSubstring(null);
+      wsLog.setHttpRequestURI(null);
+      wsLog.setHttpResponseCode(null);
+      wsLog.setTransactionType(null);
+      wsLog.addMessage("empty", null, (String) null);
+
+      WSLog copy = WireFormat.fromBytes(WireFormat.toBytes(wsLog));
+      assertNull(copy.getId());
+      assertNull(copy.getClientIp());
+      assertNull(copy.getServerPort());
+      assertNull(copy.isSecure());
+      assertNull(copy.getConnOpenTime());
+      assertNull(copy.getConnCloseTime());
+      assertNull(copy.getErrorLine());
+      assertNull(copy.getErrorSubstring());
+      assertNull(copy.getHttpRequestURI());
+      assertNull(copy.getHttpRequestHeaders());
+      assertNull(copy.getHttpResponseCode());
+      assertNull(copy.getTransactionType());
+      assertEquals(1, copy.getWsMsgs().size());
+      assertNull(copy.getWsMsgs().get(0).getMsgType());
+   }
+
+   @Test
+   public void fields() throws Exception {
+      WSLog wsLog = new WSLog();
+      wsLog.setId(-7);
+      wsLog.setClientIp("10.0.0.1");
+      wsLog.setServerPort(8443);
+      wsLog.setSecure(true);
+      wsLog.setConnOpenTime(new Date(0));
+      wsLog.setConnCloseTime(new Date(1445000000123L));
+      wsLog.setErrorLine(Integer.MIN_VALUE);
+      wsLog.setErrorColumn(Integer.MAX_VALUE);
+      wsLog.setErrorMessage("déjà vu");
+      wsLog.setHttpRequestURI(new URI("/FormManager?x=1"));
+      wsLog.setTransactionType(TransactionType.SOAP_SERVER);
+      wsLog.addSoapRequestNameValuePair("formID", "form-1");
+      wsLog.addSoapRequestNameValuePair("age", 34);
+      wsLog.addSoapRequestNameValuePair("when", new Date(5));
+      wsLog.addSoapRequestNameValuePair("none", null);
+
+      WSLog copy = WireFormat.fromBytes(WireFormat.toBytes(wsLog));
+      assertEquals(Integer.valueOf(-7), copy.getId());
+      assertEquals("10.0.0.1", copy.getClientIp());
+      assertEquals(Integer.valueOf(8443), copy.getServerPort());
+      assertEquals(Boolean.TRUE, copy.isSecure());
+      assertEquals(new Date(0), copy.getConnOpenTime());
+      assertEquals(new Date(1445000000123L), copy.getConnCloseTime());
+      assertEquals(Integer.valueOf(Integer.MIN_VALUE), copy.getErrorLine());
+      assertEquals(Integer.valueOf(Integer.MAX_VALUE), copy.getErrorColumn());
+      assertEquals("déjà vu", copy.getErrorMessage());
+      assertEquals(new URI("/FormManager?x=1"), copy.getHttpRequestURI());
+      assertEquals(TransactionType.SOAP_SERVER, copy.getTransactionType());
+      assertEquals(wsLog.getSoapRequestNameValuePairs(),
+         copy.getSoapRequestNameValuePairs());
+   }
+
+   @Test
+   public void headers() throws Exception {
+      Map <String, List <String>> headers = new LinkedHashMap <>();
+      headers.put("Content-type",
+         Arrays.asList("application/soap+xml; charset=utf-8"));
+      headers.put("X-custom", Arrays.asList("one", "two", "one"));
+      headers.put("X-empty", new ArrayList <String>());
+      WSLog wsLog = new WSLog();
+      wsLog.setHttpRequestHeaders(headers);
+      wsLog.setHttpResponseHeaders(headers);
+
+      WSLog copy = WireFormat.fromBytes(WireFormat.toBytes(wsLog));
+      assertEquals(headers, copy.getHttpRequestHeaders());
+      assertEquals(headers, copy.getHttpResponseHeaders());
+
+      // WSLog does not accept a header without a value list; WireFormat does
+      headers.put("X-null", null);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+         new WireFormat.Out(out).writeHeaders(headers);
+      }
+      try (ObjectInputStream in =
+         new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+         assertEquals(headers, new WireFormat.In(in, "test").readHeaders());
+      }
+   }
+
+   @Test
+   public void statuses() throws Exception {
+      WSLog wsLog = new WSLog();
+      wsLog.addStatus(WSHandlerStatus.MSG_OK);
+      wsLog.addStatus(WSHandlerStatus.HTTP_IN_OK);
+      wsLog.addStatus(WSHandlerStatus.HTTP_OUT_BODY_ERR);
+
+      WSLog copy = WireFormat.fromBytes(WireFormat.toBytes(wsLog));
+      assertEquals(wsLog.getStatuses(), copy.getStatuses());
+   }
+
+   @Test
+   public void sharedMessageBodies() throws Exception {
+      String text = randomText(20000);
+      WSLog one = new WSLog();
+      one.addMessage("request", MessageType.SOAP_IN, text);
+      WSLog two = new WSLog();
+      two.addMessage("request", MessageType.SOAP_IN, text);
+      two.addMessage("response", MessageType.SOAP_OUT, text);
+
+      int oneSize = WireFormat.toBytes(one).length;
+      int twoSize = WireFormat.toBytes(two).length;
+      assertTrue("body written twice: " + oneSize + ", " + twoSize,
+         twoSize < oneSize + 100);
+
+      // and once per stream, across objects
+      List <WSLog> logs = Arrays.asList(one, two);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+         out.writeObject(new ArrayList <>(logs));
+      }
+      assertTrue(bytes.size() < oneSize + 300);
+      List <?> copies;
+      try (ObjectInputStream in =
+         new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+         copies = (List <?>) in.readObject();
+      }
+      List <WSMsg> msgs = ((WSLog) copies.get(1)).getWsMsgs();
+      assertEquals(text, msgs.get(0).getMessage());
+      assertSame(msgs.get(0).getBody(), msgs.get(1).getBody());
+      assertSame(msgs.get(0).getBody(),
+         ((WSLog) copies.get(0)).getWsMsgs().get(0).getBody());
+   }
+
+   @Test
+   public void truncatedStream() throws Exception {
+      WSLog wsLog = new WSLog();
+      wsLog.setClientIp("10.0.0.1");
+      wsLog.addStatus(WSHandlerStatus.MSG_OK);
+      wsLog.addSoapRequestNameValuePair("formID", "form-1");
+      wsLog.addMessage("request", MessageType.SOAP_IN, "<a>hello</a>");
+      byte[] bytes = WireFormat.toBytes(wsLog);
+      for (int length = 0; length < bytes.length; length++ ) {
+         try {
+            WireFormat.fromBytes(Arrays.copyOf(bytes, length));
+            fail("decoded " + length + " of " + bytes.length + " bytes");
+         } catch (IOException e) {
+            // expected
+         }
+      }
+   }
+
+   @Test
+   public void unknownVersion() throws Exception {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+         out.writeByte(WireFormat.VERSION + 1);
+      }
+      try (ObjectInputStream in =
+         new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+         new WireFormat.In(in, "test");
+         fail("version " + (WireFormat.VERSION + 1) + " accepted");
+      } catch (InvalidClassException e) {
+         // expected
+      }
+   }
+
+   @Test
+   public void statusClassNotInitialized() throws Exception {
+      for (String name : new String[] {
+         Trap.class.getName(), Status.class.getName(),
+         TransactionType.class.getName() }) {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            WireFormat.Out o = new WireFormat.Out(out);
+            o.writeUInt(1);
+            o.writeString(name);
+            o.writeUInt(0);
+         }
+         try (ObjectInputStream in =
+            new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            new WireFormat.In(in, "test").readStatuses();
+            fail(name + " accepted as a Status enum");
+         } catch (InvalidClassException e) {
+            // expected
+         }
+      }
+      assertFalse(trapInitialized);
+   }
+
+   private static String randomText(int length) {
+      Random random = new Random(16);
+      StringBuilder str = new StringBuilder(length);
+      while (str.length() < length)
+         str.append(Integer.toHexString(random.nextInt()));
+      return str.toString();
+   }
+
+} // EO WireFormatTest class
@@ -18,6 +18,11 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.faces.bean.ApplicationScoped;
 import javax.faces.bean.ManagedBean;
@@ -65,7 +70,23 @@ public class ApplicationBean implements Serializable, WSLogRMIReceiverInterface,
 	private static Logger log = null;
 	private static Process formManagerProcess = null;
 	private boolean formManagerRunning = true;
-	private static List<WSLog> transactions = null;
+	private static TransactionStore transactions = null;
+
+	/**
+	 * Changes to {@link #transactions} within this many milliseconds of each
+	 * other are announced by one push event.
+	 */
+	private static long publishDelayMs = 250;
+	private static final AtomicBoolean publishPending = new AtomicBoolean();
+	private static final ScheduledExecutorService publisher = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "wsLogReceiveEvent");
+					t.setDaemon(true);
+					return t;
+				}
+			});
 
 	private static List<SessionBean> sessionBeans = new CopyOnWriteArrayList<>();
 
@@ -97,12 +118,43 @@ public class ApplicationBean implements Serializable, WSLogRMIReceiverInterface,
 			sb.refreshScreen();
 	}
 
+	/**
+	 * Adds a received transaction to the {@link TransactionStore}, keyed by an
+	 * id assigned here. Any id the sender set, for example a database id, is
+	 * replaced, since ids from different senders may collide.
+	 */
 	@Override
 	public void receiveWSLogRMI(WSLog wsLog) {
-      if (wsLog.getId() == null || wsLog.getId() <= 0) 
-         wsLog.setId(WSLogRMIServer.getNextId());
-		transactions.add(wsLog);
-		EventBusFactory.getDefault().eventBus().publish("/wsLogReceiveEvent", "WSLog RMI msg received");
+		wsLog.setId(WSLogRMIServer.getNextId());
+		if (transactions.add(wsLog) == false)
+			return;
+		if (log.isDebugEnabled())
+			log.debug(transactions);
+		publishChange();
+	}
+
+	/**
+	 * Publishes a /wsLogReceiveEvent push event, whose data is the current
+	 * {@link TransactionStore#getSequence() sequence} of the transactions, after
+	 * {@link #publishDelayMs}, unless one is already pending. A burst of
+	 * changes thus results in one event; each session then applies the changes
+	 * it has not seen, see {@link SessionBean#applyTransactionChanges()}.
+	 */
+	private static void publishChange() {
+		if (publishPending.compareAndSet(false, true) == false)
+			return;
+		publisher.schedule(new Runnable() {
+			@Override
+			public void run() {
+				publishPending.set(false);
+				try {
+					EventBusFactory.getDefault().eventBus().publish("/wsLogReceiveEvent",
+							Long.toString(transactions.getSequence()));
+				} catch (Exception e) {
+					log.warn("wsLogReceiveEvent publish failed: " + Util.getEM(e));
+				}
+			}
+		}, publishDelayMs, TimeUnit.MILLISECONDS);
 	}
 
 	/**
@@ -125,8 +177,10 @@ public class ApplicationBean implements Serializable, WSLogRMIReceiverInterface,
 
 			log.info("Initializing ApplicationBean");
 
+			transactions = new TransactionStore(properties);
+			TransactionDetail.configure(properties);
+			publishDelayMs = properties.getLong("TransactionStore[@publishDelayMs]", 250L);
 			if (properties.getBoolean("RMI[@on]", false)) {
-				transactions = new CopyOnWriteArrayList<>();
 				Integer port = properties.getInteger("RMI[@port]", DEFAULT_RMI_REGISTRY_PORT);
 				WSLogRMIServer.initialize(port);
 				WSLogRMIServer.registerListener(this);
@@ -229,26 +283,34 @@ public class ApplicationBean implements Serializable, WSLogRMIReceiverInterface,
 	}
 
 	/**
-	 * Returns a COPY of the {@link edu.wustl.mir.erl.ihe.ws.db.WSLog WSLog}
-	 * transactions in applicationBean.
+	 * Returns a snapshot of the {@link edu.wustl.mir.erl.ihe.ws.db.WSLog WSLog}
+	 * transactions in applicationBean, oldest first.
 	 * 
-	 * @return {@link java.util.List List} of transactions, set to exact size.
-	 *         If there are no transactions, a zero length list will be
-	 *         returned, never null.
+	 * @return unmodifiable {@link java.util.List List} of transactions. If
+	 *         there are no transactions, a zero length list will be returned,
+	 *         never null.
 	 */
 	public List<WSLog> getTransactions() {
-		List<WSLog> b = new ArrayList<>();
-		for (WSLog w : transactions) {
-			b.add(w);
-		}
-		return b;
+		return transactions.getTransactions();
+	}
+
+	/**
+	 * @return number of transactions in applicationBean.
+	 */
+	public int getTransactionCount() {
+		return transactions.size();
+	}
+
+	/**
+	 * @return the {@link TransactionStore} holding the transactions.
+	 */
+	public TransactionStore getTransactionStore() {
+		return transactions;
 	}
 
 	/**
 	 * Remove passed {@link edu.wustl.mir.erl.ihe.ws.db.WSLog WSLog} transaction
-	 * from transaction list. <b>Note:</b> The passed WSLog is a copy of an
-	 * instance in the transactions list. The comparison is made by comparing
-	 * the {@link WSLog#getId() id} values of the two objects.
+	 * from transaction list, by its {@link WSLog#getId() id}.
 	 * 
 	 * @param wsLog
 	 *            WSLog to remove.
@@ -256,14 +318,10 @@ public class ApplicationBean implements Serializable, WSLogRMIReceiverInterface,
 	 *         otherwise.
 	 */
 	public boolean removeTransaction(WSLog wsLog) {
-		for (int i = 0; i < transactions.size(); i++) {
-			WSLog w = transactions.get(i);
-			if (w.getId() == wsLog.getId()) {
-				transactions.remove(w);
-				return true;
-			}
-		}
-		return false;
+		if (wsLog == null || transactions.remove(wsLog.getId()) == false)
+			return false;
+		publishChange();
+		return true;
 	}
 
 	/*
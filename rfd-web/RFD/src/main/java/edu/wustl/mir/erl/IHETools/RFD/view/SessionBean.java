@@ -14,32 +14,25 @@
 package edu.wustl.mir.erl.IHETools.RFD.view;
 
 import java.io.Serializable;
-import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.faces.bean.ManagedBean;
 import javax.faces.bean.SessionScoped;
 
-import org.apache.commons.lang.StringUtils;
 import org.javatuples.LabelValue;
-import org.javatuples.Pair;
 import org.primefaces.context.RequestContext;
 
 import edu.wustl.mir.erl.ihe.util.Status;
-import edu.wustl.mir.erl.ihe.util.StatusHelper;
-import edu.wustl.mir.erl.ihe.util.Util;
 import edu.wustl.mir.erl.ihe.util.UtilProperties;
 import edu.wustl.mir.erl.ihe.ws.db.TransactionType;
 import edu.wustl.mir.erl.ihe.ws.db.WSLog;
-import edu.wustl.mir.erl.ihe.ws.db.WSMsg;
 
 /**
  * General Session bean for the application. Handles the test transaction table
@@ -64,15 +57,76 @@ public class SessionBean implements Serializable, UtilProperties {
    // **********************************************************
 
    private void initTransactionsTable() {
-      transactions = applicationBean.getTransactions();
+      TransactionStore store = applicationBean.getTransactionStore();
+      // Sequence first; changes made before the snapshot are skipped by id.
+      sequence = store.getSequence();
+      transactions = new ArrayList <>(store.getTransactions());
+      ids = new HashSet <>();
+      for (WSLog wsLog : transactions)
+         ids.add(wsLog.getId());
       clearTransaction();
    }
 
+   /**
+    * Brings {@link #transactions} up to date with the ApplicationBean, by
+    * applying the changes made since {@link #sequence}. Reloads the table only
+    * if the changes are no longer available.
+    */
+   private void applyChanges() {
+      TransactionStore store = applicationBean.getTransactionStore();
+      List <TransactionStore.Change> changes = store.getChanges(sequence);
+      if (changes == null) {
+         initTransactionsTable();
+         return;
+      }
+      Set <Integer> removed = new HashSet <>();
+      for (TransactionStore.Change change : changes) {
+         sequence = change.getSequence();
+         Integer id = change.getId();
+         if (change.isAdded()) {
+            if (ids.contains(id)) continue;
+            WSLog wsLog = store.get(id);
+            if (wsLog == null) continue;
+            // removed earlier in these changes, then added again; drop the
+            // old instance now, so the sweep below keeps the new one.
+            if (removed.remove(id))
+               removeTransactions(Collections.singleton(id));
+            transactions.add(wsLog);
+            ids.add(id);
+         } else if (ids.remove(id)) {
+            removed.add(id);
+         }
+      }
+      if (removed.isEmpty()) return;
+      removeTransactions(removed);
+   }
+
+   /**
+    * Removes the transactions with the passed ids from {@link #transactions},
+    * clearing the selected transaction if it is one of them.
+    */
+   private void removeTransactions(Set <Integer> removed) {
+      Iterator <WSLog> i = transactions.iterator();
+      while (i.hasNext())
+         if (removed.contains(i.next().getId())) i.remove();
+      if (selectedTransaction != null
+         && removed.contains(selectedTransaction.getId())) clearTransaction();
+   }
+
    /**
     * {@link edu.wustl.mir.erl.ihe.ws.db.WSLog WSLog} transactions currently
     * available for viewing.
     */
    private List <WSLog> transactions;
+   /**
+    * ids of {@link #transactions}.
+    */
+   private Set <Integer> ids;
+   /**
+    * {@link TransactionStore#getSequence() sequence} of the ApplicationBean
+    * transactions to which {@link #transactions} is current.
+    */
+   private long sequence;
    /**
     * {@link edu.wustl.mir.erl.ihe.ws.db.WSLog WSLog} transaction which has been
     * selected from the transaction table.
@@ -124,7 +178,9 @@ public class SessionBean implements Serializable, UtilProperties {
     * the table in both the SessionBean and the ApplicationBean.
     */
    public void deleteThisTransaction() {
+      if (selectedTransaction == null) return;
       transactions.remove(selectedTransaction);
+      ids.remove(selectedTransaction.getId());
       applicationBean.removeTransaction(selectedTransaction);
       clearTransaction();
    }
@@ -148,6 +204,7 @@ public class SessionBean implements Serializable, UtilProperties {
       while (i.hasNext()) {
          WSLog wsLog = i.next();
          i.remove();
+         ids.remove(wsLog.getId());
          applicationBean.removeTransaction(wsLog);
       }
       clearTransaction();
@@ -158,7 +215,7 @@ public class SessionBean implements Serializable, UtilProperties {
     * transactiontableform context menu should be disabled, false otherwise.
     */
    public boolean isUpdateTransactionsTableDisabled() {
-      return applicationBean.getTransactions().size() == transactions.size();
+      return applicationBean.getTransactionStore().getSequence() == sequence;
    }
 
    /**
@@ -167,7 +224,17 @@ public class SessionBean implements Serializable, UtilProperties {
     * current ApplicationBean list.
     */
    public void updateTransactionTable() {
-      initTransactionsTable();
+      applyChanges();
+   }
+
+   /**
+    * Listener for the /wsLogReceiveEvent push event, published when
+    * transactions are added to or removed from the ApplicationBean. Applies
+    * the changes this session has not yet seen, so the cost is proportional
+    * to the number of changes, not the number of transactions.
+    */
+   public void applyTransactionChanges() {
+      applyChanges();
    }
 
    // **********************************************************
@@ -188,156 +255,25 @@ public class SessionBean implements Serializable, UtilProperties {
    // WSLog transaction currently loaded for detail display
    private WSLog loadedTransaction = null;
 
-   // Transaction properties table items.
-   private List <LabelValue <String, String>> properties = new ArrayList <>();
-
-   // Transaction Status entries
-   private List <Status> statuses = new ArrayList <>();
-
-   // Transaction SOAP Request name and name/value pairs
-   private String soapRequestName = null;
-   private List <LabelValue <String, String>> requestPairs = null;
-
-   // Transaction SOAP Response name and name/value pairs
-   private String soapResponseName = null;
-   private List <LabelValue <String, String>> responsePairs = null;
-   
-   // Transaction Messages
-   private List<WSMsg> msgs = null;
-   
+   // Detail display of loadedTransaction, shared with other sessions.
+   private TransactionDetail detail = null;
 
    /**
-    * Loads data from selected WSLog transaction for detail display, if not
-    * already loaded.
+    * Loads the detail display of the selected WSLog transaction, if not
+    * already loaded. The detail is built once per transaction, see
+    * {@link TransactionDetail}.
     */
    private void loadTransaction() {
       if (selectedTransaction == null || 
           selectedTransaction.equals(loadedTransaction)) return;
       loadedTransaction = selectedTransaction;
-
-      // --------------- properties table items
-      properties = new ArrayList <>();
-      a("connection start/end",
-         dateToString(loadedTransaction.getConnOpenTime()),
-         dateToString(loadedTransaction.getConnCloseTime()));
-      a("Client host", loadedTransaction.getClientHostName(), 
-         loadedTransaction.getClientIp());
-      a("Server host", loadedTransaction.getServerName(),
-         loadedTransaction.getServerIp());
-      a("Service Endpoint Address", loadedTransaction.getServiceEndpointAddress());
-      Boolean is = loadedTransaction.isSecure();
-      if (is != null && is == true) {
-         a("Secure", loadedTransaction.getCertificates());
-      }
-      URI uri = loadedTransaction.getHttpRequestURI();
-      a("HTTP Request", loadedTransaction.getHttpMethod(), (uri == null) ? ""
-         : uri.toString());
-      headers("HTTP request header ", loadedTransaction.getHttpRequestHeaders());
-      if (loadedTransaction.getTransactionType() == TransactionType.SOAP_SERVER 
-               && loadedTransaction.getTransactionType() == TransactionType.SOAP_CLIENT)
-         a("Web service", loadedTransaction.getServerPort().toString(),
-            loadedTransaction.getServiceName());
-      a("SOAP Action URI", loadedTransaction.getSoapActionURI());
-      a("WSDL Service", loadedTransaction.getWsdlService());
-      a("SOAP Msg ID", loadedTransaction.getSoapMessageId());
-      Integer rc = loadedTransaction.getHttpResponseCode();
-      if (rc != null) a("HTTP Response", rc.toString());
-      headers("HTTP response headers",
-         loadedTransaction.getHttpResponseHeaders());
-
-      // -------------- status table items
-      statuses = StatusHelper.sortByStatusType(loadedTransaction.getStatuses(),
-         loadedTransaction.getTransactionType().getSortOrder());
-
-      // -------------------- SOAP Request name and Name/Value pairs
-      soapRequestName = loadedTransaction.getSoapRequestName();
-      requestPairs = new ArrayList <LabelValue <String, String>>();
-      List <LabelValue <String, Object>> nvpairs =
-         loadedTransaction.getSoapRequestNameValuePairs();
-      for (LabelValue <String, Object> lvpair : nvpairs) {
-         String value = "null";
-         if (lvpair.getValue() != null) value = lvpair.getValue().toString();
-         requestPairs.add(new LabelValue <String, String>(lvpair.getLabel(), value));
-      }
-
-      // -------------------- SOAP Response name and Name/Value pairs
-      soapResponseName = loadedTransaction.getSoapResponseName();
-      responsePairs = new ArrayList <LabelValue <String, String>>();
-      nvpairs = loadedTransaction.getSoapResponseNameValuePairs();
-      for (LabelValue <String, Object> lvpair : nvpairs) {
-         String value = "null";
-         if (lvpair.getValue() != null) value = lvpair.getValue().toString();
-         responsePairs.add(new LabelValue <String, String>(lvpair.getLabel(), value));
-      }
-      
-      // HTTP and SOAP messages, sorted in logical order
-      List<Pair<Integer, WSMsg>> ms = new ArrayList<>();
-      for (WSMsg m : loadedTransaction.getWsMsgs()) {
-         switch (m.getMsgType()) {
-            case HTTP_IN_BODY:
-               ms.add(Pair.with(1, m));
-               break;
-            case SOAP_IN:
-               ms.add(Pair.with(2, m));
-               break;
-            case SOAP_OUT:
-               ms.add(Pair.with(3, m));
-               break;
-            case HTTP_OUT_BODY:
-               ms.add(Pair.with(4, m));
-               break;
-            default:
-               ms.add(Pair.with(5, m));
-               break;
-         } // EO switch
-      }
-      Collections.sort(ms, new Comparator<Pair<Integer, WSMsg>>() {
-
-         @Override
-         public int compare(Pair <Integer, WSMsg> o1,
-            Pair <Integer, WSMsg> o2) {
-               return Integer.compare(o1.getValue0(), o2.getValue0());
-         }
-         
-      });
-      msgs = new ArrayList <>();
-      for (Pair <Integer, WSMsg> n : ms)
-         msgs.add(n.getValue1());
-
+      detail = TransactionDetail.getInstance(loadedTransaction);
    } // EO loadTransaction method
    
    private void clearTransaction() {
       selectedTransaction = null;
       loadedTransaction = null;
-      properties = new ArrayList <>();
-      statuses = new ArrayList <>();
-      requestPairs = new ArrayList <>();
-      responsePairs = new ArrayList <>();
-      msgs = new ArrayList <>();
-   }
-
-   private void a(String left, String... right) {
-      StringBuilder str = new StringBuilder();
-      for (String r : right) {
-         r = StringUtils.trimToEmpty(r);
-         if (r.length() > 0) str.append(r).append(" ");
-      }
-      String s = StringUtils.trimToEmpty(str.toString());
-      if (StringUtils.isNotBlank(s))
-         properties.add(new LabelValue <String, String>(left, s));
-   }
-
-   private String dateToString(Date date) {
-      if (date == null) return "";
-      LOG_TIMESTAMP_FORMAT.format(date);
-      return Util.getRFC3339TimeStamp(date);
-   }
-
-   private void headers(String prefix, Map <String, List <String>> hdrs) {
-      if (hdrs == null) return;
-      for (Map.Entry <String, List <String>> hdr : hdrs.entrySet()) {
-         a(prefix + " " + hdr.getKey(), hdr.getValue().toArray(new String[0]));
-      }
+      detail = null;
    }
 
    /**
@@ -349,7 +285,8 @@ public class SessionBean implements Serializable, UtilProperties {
     */
    public List <LabelValue <String, String>> getProperties() {
       loadTransaction();
-      return properties;
+      if (detail == null) return Collections.emptyList();
+      return detail.getProperties();
    }
 
    /**
@@ -360,14 +297,16 @@ public class SessionBean implements Serializable, UtilProperties {
     */
    public List <Status> getStatuses() {
       loadTransaction();
-      return statuses;
+      if (detail == null) return Collections.emptyList();
+      return detail.getStatuses();
    }
 
    /**
-    * @return {@link #soapRequestName}
+    * @return name of the selected SOAP Request.
     */
    public String getRequestName() {
-      return soapRequestName;
+      loadTransaction();
+      return detail == null ? null : detail.getSoapRequestName();
    }
 
    /**
@@ -376,14 +315,16 @@ public class SessionBean implements Serializable, UtilProperties {
     */
    public List <LabelValue <String, String>> getRequestPairs() {
       loadTransaction();
-      return requestPairs;
+      if (detail == null) return Collections.emptyList();
+      return detail.getRequestPairs();
    }
 
    /**
-    * @return {@link #soapResponseName}
+    * @return name of the selected SOAP Response.
     */
    public String getResponseName() {
-      return soapResponseName;
+      loadTransaction();
+      return detail == null ? null : detail.getSoapResponseName();
    }
 
    /**
@@ -392,16 +333,18 @@ public class SessionBean implements Serializable, UtilProperties {
     */
    public List <LabelValue <String, String>> getResponsePairs() {
       loadTransaction();
-      return responsePairs;
+      if (detail == null) return Collections.emptyList();
+      return detail.getResponsePairs();
    }
    
    /**
     * @return List of HTTP and SOAP messages for transaction, sorted in logical
-    * order
+    * order. Each is pretty printed when it is first displayed.
     */
-   public List<WSMsg> getMsgs() {
+   public List <TransactionDetail.Message> getMsgs() {
       loadTransaction();
-      return msgs;
+      if (detail == null) return Collections.emptyList();
+      return detail.getMsgs();
    }
 
    /**
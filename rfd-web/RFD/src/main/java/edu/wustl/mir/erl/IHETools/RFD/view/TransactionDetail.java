@@ -0,0 +1,397 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ *******************************************************************************/
+package edu.wustl.mir.erl.IHETools.RFD.view;
+
+import java.io.Serializable;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.javatuples.LabelValue;
+
+import edu.wustl.mir.erl.ihe.util.Status;
+import edu.wustl.mir.erl.ihe.util.StatusHelper;
+import edu.wustl.mir.erl.ihe.util.Util;
+import edu.wustl.mir.erl.ihe.util.UtilProperties;
+import edu.wustl.mir.erl.ihe.ws.db.TransactionType;
+import edu.wustl.mir.erl.ihe.ws.db.WSLog;
+import edu.wustl.mir.erl.ihe.ws.db.WSMsg;
+
+/**
+ * The detail display of one {@link WSLog} transaction: its properties table,
+ * sorted statuses, SOAP request and response values, and messages in logical
+ * order. Built once per transaction by {@link #getInstance(WSLog)}, and
+ * shared by all sessions.
+ * <ul>
+ * <li>Details are held in a least recently used cache, bounded by count and
+ * by an estimate of their size in memory.</li>
+ * <li>A message is pretty printed the first time its text is displayed, not
+ * when the detail is built.</li>
+ * <li>Messages longer than maxPrettyChars are displayed as logged, and those
+ * longer than maxDisplayChars are truncated.</li>
+ * </ul>
+ * Configured by an optional {@code <TransactionDetail>} child element of the
+ * application properties, for example:
+ * <pre>
+ * {@code
+ * <TransactionDetail maxEntries="200" maxBytes="67108864"
+ *                    maxPrettyChars="262144" maxDisplayChars="1048576" />
+ * }
+ * </pre>
+ */
+public class TransactionDetail implements Serializable, UtilProperties {
+   private static final long serialVersionUID = 1L;
+
+   private static Logger log = Util.getLog();
+
+   private static int maxEntries = 200;
+   private static long maxBytes = 67108864L;
+   private static int maxPrettyChars = 262144;
+   private static int maxDisplayChars = 1048576;
+
+   /**
+    * Details, by transaction instance (WSLog does not override equals), least
+    * recently used first.
+    */
+   private static final Map <WSLog, TransactionDetail> cache =
+      new LinkedHashMap <>(16, 0.75f, true);
+   private static long cacheBytes = 0;
+   private static long hits = 0;
+   private static long misses = 0;
+
+   /** The transaction, while the detail is cached. */
+   private final transient WSLog key;
+   private final List <LabelValue <String, String>> properties =
+      new ArrayList <>();
+   private final List <Status> statuses;
+   private final String soapRequestName;
+   private final List <LabelValue <String, String>> requestPairs;
+   private final String soapResponseName;
+   private final List <LabelValue <String, String>> responsePairs;
+   private final List <Message> msgs;
+   /** Estimated size in memory, in bytes. */
+   private long bytes = 0;
+
+   /**
+    * Sets the cache limits from the application properties.
+    *
+    * @param properties application properties, which may contain a
+    * {@code <TransactionDetail>} element.
+    * @throws Exception if the properties are invalid.
+    */
+   public static void configure(HierarchicalConfiguration properties)
+      throws Exception {
+      int entries = properties.getInt("TransactionDetail[@maxEntries]", 200);
+      long b = properties.getLong("TransactionDetail[@maxBytes]", 67108864L);
+      int pretty = properties.getInt("TransactionDetail[@maxPrettyChars]",
+         262144);
+      int display = properties.getInt("TransactionDetail[@maxDisplayChars]",
+         1048576);
+      if (entries < 1 || b < 1 || pretty < 0 || display < 1)
+         throw new Exception("TransactionDetail limits invalid");
+      synchronized (cache) {
+         maxEntries = entries;
+         maxBytes = b;
+         maxPrettyChars = pretty;
+         maxDisplayChars = display;
+         prune();
+      }
+      log.info("TransactionDetail: maxEntries " + entries + ", maxBytes " + b
+         + ", maxPrettyChars " + pretty + ", maxDisplayChars " + display);
+   }
+
+   /**
+    * Gets the detail for a transaction, building it if it is not cached.
+    *
+    * @param wsLog transaction.
+    * @return detail for the transaction.
+    */
+   public static TransactionDetail getInstance(WSLog wsLog) {
+      synchronized (cache) {
+         TransactionDetail detail = cache.get(wsLog);
+         if (detail != null) {
+            hits++ ;
+            return detail;
+         }
+         misses++ ;
+      }
+      TransactionDetail detail = new TransactionDetail(wsLog);
+      synchronized (cache) {
+         TransactionDetail d = cache.get(wsLog);
+         if (d != null) return d;
+         cache.put(wsLog, detail);
+         cacheBytes += detail.bytes;
+         prune();
+      }
+      return detail;
+   }
+
+   /**
+    * @return one line summary of the cache, for logging.
+    */
+   public static String getStats() {
+      synchronized (cache) {
+         return "TransactionDetail cache: " + cache.size() + "/" + maxEntries
+            + " entries, " + cacheBytes + "/" + maxBytes + " bytes, hits "
+            + hits + ", misses " + misses;
+      }
+   }
+
+   private static void prune() {
+      Iterator <TransactionDetail> itr = cache.values().iterator();
+      while (itr.hasNext() && cache.size() > 1
+         && (cache.size() > maxEntries || cacheBytes > maxBytes)) {
+         cacheBytes -= itr.next().bytes;
+         itr.remove();
+      }
+   }
+
+   private static void charge(TransactionDetail detail, long b) {
+      synchronized (cache) {
+         detail.bytes += b;
+         if (detail.key != null && cache.get(detail.key) == detail) {
+            cacheBytes += b;
+            prune();
+         }
+      }
+   }
+
+   private TransactionDetail(WSLog wsLog) {
+      key = wsLog;
+
+      // --------------- properties table items
+      a("connection start/end", dateToString(wsLog.getConnOpenTime()),
+         dateToString(wsLog.getConnCloseTime()));
+      a("Client host", wsLog.getClientHostName(), wsLog.getClientIp());
+      a("Server host", wsLog.getServerName(), wsLog.getServerIp());
+      a("Service Endpoint Address", wsLog.getServiceEndpointAddress());
+      Boolean is = wsLog.isSecure();
+      if (is != null && is == true) {
+         a("Secure", wsLog.getCertificates());
+      }
+      URI uri = wsLog.getHttpRequestURI();
+      a("HTTP Request", wsLog.getHttpMethod(), (uri == null) ? ""
+         : uri.toString());
+      headers("HTTP request header ", wsLog.getHttpRequestHeaders());
+      if (wsLog.getTransactionType() == TransactionType.SOAP_SERVER
+         && wsLog.getTransactionType() == TransactionType.SOAP_CLIENT)
+         a("Web service", wsLog.getServerPort().toString(),
+            wsLog.getServiceName());
+      a("SOAP Action URI", wsLog.getSoapActionURI());
+      a("WSDL Service", wsLog.getWsdlService());
+      a("SOAP Msg ID", wsLog.getSoapMessageId());
+      Integer rc = wsLog.getHttpResponseCode();
+      if (rc != null) a("HTTP Response", rc.toString());
+      headers("HTTP response headers", wsLog.getHttpResponseHeaders());
+
+      // -------------- status table items
+      TransactionType type = wsLog.getTransactionType();
+      statuses = Collections.unmodifiableList(StatusHelper.sortByStatusType(
+         wsLog.getStatuses(), type == null ? true : type.getSortOrder()));
+      bytes += 16 * statuses.size();
+
+      // -------------------- SOAP Request/Response names and values
+      soapRequestName = wsLog.getSoapRequestName();
+      requestPairs = pairs(wsLog.getSoapRequestNameValuePairs());
+      soapResponseName = wsLog.getSoapResponseName();
+      responsePairs = pairs(wsLog.getSoapResponseNameValuePairs());
+
+      // ------------- HTTP and SOAP messages, sorted in logical order
+      List <WSMsg> ms = new ArrayList <>(wsLog.getWsMsgs());
+      Collections.sort(ms, new Comparator <WSMsg>() {
+         @Override
+         public int compare(WSMsg o1, WSMsg o2) {
+            return Integer.compare(order(o1), order(o2));
+         }
+      });
+      List <Message> m = new ArrayList <>(ms.size());
+      for (WSMsg wsMsg : ms) {
+         m.add(new Message(this, wsMsg));
+         bytes += 64;
+      }
+      msgs = Collections.unmodifiableList(m);
+   }
+
+   private static int order(WSMsg m) {
+      switch (m.getMsgType()) {
+         case HTTP_IN_BODY:
+            return 1;
+         case SOAP_IN:
+            return 2;
+         case SOAP_OUT:
+            return 3;
+         case HTTP_OUT_BODY:
+            return 4;
+         default:
+            return 5;
+      }
+   }
+
+   private List <LabelValue <String, String>> pairs(
+      List <LabelValue <String, Object>> nvpairs) {
+      List <LabelValue <String, String>> list = new ArrayList <>();
+      for (LabelValue <String, Object> lvpair : nvpairs) {
+         String value = "null";
+         if (lvpair.getValue() != null) value = lvpair.getValue().toString();
+         list.add(new LabelValue <String, String>(lvpair.getLabel(), value));
+         bytes += size(lvpair.getLabel()) + size(value);
+      }
+      return Collections.unmodifiableList(list);
+   }
+
+   private void a(String left, String... right) {
+      StringBuilder str = new StringBuilder();
+      for (String r : right) {
+         r = StringUtils.trimToEmpty(r);
+         if (r.length() > 0) str.append(r).append(" ");
+      }
+      String s = StringUtils.trimToEmpty(str.toString());
+      if (StringUtils.isNotBlank(s)) {
+         properties.add(new LabelValue <String, String>(left, s));
+         bytes += size(left) + size(s);
+      }
+   }
+
+   private static String dateToString(Date date) {
+      if (date == null) return "";
+      return Util.getRFC3339TimeStamp(date);
+   }
+
+   private void headers(String prefix, Map <String, List <String>> hdrs) {
+      if (hdrs == null) return;
+      for (Map.Entry <String, List <String>> hdr : hdrs.entrySet()) {
+         a(prefix + " " + hdr.getKey(), hdr.getValue().toArray(new String[0]));
+      }
+   }
+
+   /** Estimated size of a String in memory, including overhead. */
+   private static long size(String s) {
+      return s == null ? 0 : 40 + 2L * s.length();
+   }
+
+   /**
+    * @return label/value pairs for the transaction properties table,
+    * unmodifiable.
+    */
+   public List <LabelValue <String, String>> getProperties() {
+      return Collections.unmodifiableList(properties);
+   }
+
+   /**
+    * @return the {@link #statuses} value, sorted by status type, unmodifiable.
+    */
+   public List <Status> getStatuses() {
+      return statuses;
+   }
+
+   /**
+    * @return the {@link #soapRequestName} value.
+    */
+   public String getSoapRequestName() {
+      return soapRequestName;
+   }
+
+   /**
+    * @return the {@link #requestPairs} value, unmodifiable.
+    */
+   public List <LabelValue <String, String>> getRequestPairs() {
+      return requestPairs;
+   }
+
+   /**
+    * @return the {@link #soapResponseName} value.
+    */
+   public String getSoapResponseName() {
+      return soapResponseName;
+   }
+
+   /**
+    * @return the {@link #responsePairs} value, unmodifiable.
+    */
+   public List <LabelValue <String, String>> getResponsePairs() {
+      return responsePairs;
+   }
+
+   /**
+    * @return the {@link #msgs} value, in logical order, unmodifiable.
+    */
+   public List <Message> getMsgs() {
+      return msgs;
+   }
+
+   /**
+    * A logged message, for display. Pretty printed when first displayed.
+    */
+   public static class Message implements Serializable {
+      private static final long serialVersionUID = 1L;
+
+      private final transient TransactionDetail detail;
+      private final WSMsg wsMsg;
+      private final String lead;
+      private volatile String pretty = null;
+
+      Message(TransactionDetail detail, WSMsg wsMsg) {
+         this.detail = detail;
+         this.wsMsg = wsMsg;
+         lead = wsMsg.getLead();
+      }
+
+      /**
+       * @return message type, description, and log time.
+       */
+      public String getLead() {
+         return lead;
+      }
+
+      /**
+       * @return the logged message.
+       */
+      public WSMsg getWsMsg() {
+         return wsMsg;
+      }
+
+      /**
+       * Returns the message for display, pretty printed if it is XML or SOAP
+       * and not longer than maxPrettyChars, and truncated if it is longer
+       * than maxDisplayChars. Built the first time it is requested.
+       *
+       * @return message for display.
+       */
+      public String getPretty() {
+         String p = pretty;
+         if (p != null) return p;
+         String message = wsMsg.getMessage();
+         int length = message == null ? 0 : message.length();
+         if (length <= maxPrettyChars) p = wsMsg.getPretty(maxDisplayChars);
+         else p = message;
+         if (p == null) p = "";
+         if (p.length() > maxDisplayChars)
+            p = p.substring(0, maxDisplayChars) + nl + "... "
+               + (p.length() - maxDisplayChars) + " more characters not shown";
+         pretty = p;
+         if (detail != null) charge(detail, size(p));
+         return p;
+      }
+   } // EO Message inner class
+
+} // EO TransactionDetail class
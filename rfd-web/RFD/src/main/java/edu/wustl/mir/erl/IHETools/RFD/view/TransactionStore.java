@@ -0,0 +1,305 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Washington University in St. Louis All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. The License is available at:
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License. Contributors:
+ * Initial author: Ralph Moulton / MIR WUSM IHE Development Project
+ * moultonr@mir.wustl.edu
+ *******************************************************************************/
+package edu.wustl.mir.erl.IHETools.RFD.view;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.log4j.Logger;
+
+import edu.wustl.mir.erl.ihe.util.Util;
+import edu.wustl.mir.erl.ihe.ws.db.WSLog;
+
+/**
+ * Bounded store of the {@link WSLog} transactions received by
+ * {@link ApplicationBean}, indexed by the id the receiver assigns, in the
+ * order received.
+ * <ul>
+ * <li>Lookup and removal by id are constant time.</li>
+ * <li>When a limit is exceeded, the oldest transactions are dropped.</li>
+ * <li>Each transaction is charged its {@link WSLog#estimateSize() estimated}
+ * size, which includes its compressed message bodies.</li>
+ * <li>{@link #getTransactions()} returns an unmodifiable snapshot, shared by
+ * all callers until the store changes.</li>
+ * <li>Each addition and removal, including evictions, is given the next
+ * sequence number and recorded in a journal of the most recent maxChanges
+ * changes. A view of the store can keep the {@link #getSequence() sequence}
+ * it is current to, and update itself from {@link #getChanges(long)}.</li>
+ * </ul>
+ * Configured by an optional {@code <TransactionStore>} child element of the
+ * application properties, for example:
+ * <pre>
+ * {@code
+ * <TransactionStore maxCount="2000" maxAgeMinutes="1440"
+ *                   maxBytes="268435456" maxChanges="4096" />
+ * }
+ * </pre>
+ * 0 for maxCount, maxAgeMinutes or maxBytes means no limit of that kind.
+ */
+public class TransactionStore {
+
+   private static Logger log = Util.getLog();
+
+   private final int maxCount;
+   private final long maxAgeMillis;
+   private final long maxBytes;
+
+   /** Transactions by id, oldest first. */
+   private final LinkedHashMap <Integer, Entry> entries =
+      new LinkedHashMap <>();
+   private long bytes = 0;
+   private long evicted = 0;
+   private List <WSLog> snapshot = null;
+
+   private final int maxChanges;
+   /** Most recent changes, oldest first. */
+   private final Deque <Change> changes = new ArrayDeque <>();
+   /** Sequence number of the most recent change. */
+   private long sequence = 0;
+
+   /**
+    * @param properties application properties, which may contain a
+    * {@code <TransactionStore>} element. May be null, in which case defaults
+    * are used.
+    * @throws Exception if the properties are invalid.
+    */
+   public TransactionStore(HierarchicalConfiguration properties)
+      throws Exception {
+      if (properties == null) properties = new HierarchicalConfiguration();
+      maxCount = properties.getInt("TransactionStore[@maxCount]", 2000);
+      long minutes = properties.getLong("TransactionStore[@maxAgeMinutes]",
+         1440L);
+      maxBytes = properties.getLong("TransactionStore[@maxBytes]", 268435456L);
+      maxChanges = properties.getInt("TransactionStore[@maxChanges]", 4096);
+      if (maxCount < 0 || minutes < 0 || maxBytes < 0 || maxChanges < 1)
+         throw new Exception("TransactionStore limits must not be negative, "
+            + "and maxChanges must be positive");
+      maxAgeMillis = TimeUnit.MINUTES.toMillis(minutes);
+      log.info("TransactionStore: maxCount " + maxCount + ", maxAgeMinutes "
+         + minutes + ", maxBytes " + maxBytes);
+   }
+
+   /**
+    * Adds a transaction, then drops the oldest transactions until the store
+    * is within its limits. A transaction with the id of one already in the
+    * store is refused, rather than replacing it.
+    *
+    * @param wsLog transaction to add. Must have an id, assigned by the
+    * receiver, see {@link ApplicationBean#receiveWSLogRMI(WSLog)}.
+    * @return true if the transaction was added, false if the id was in use.
+    */
+   public boolean add(WSLog wsLog) {
+      long size = wsLog.estimateSize();
+      long now = System.currentTimeMillis();
+      synchronized (this) {
+         if (entries.containsKey(wsLog.getId())) {
+            log.warn("TransactionStore already holds WSLog " + wsLog.getId()
+               + ", not added");
+            return false;
+         }
+         entries.put(wsLog.getId(), new Entry(wsLog, now, size));
+         bytes += size;
+         record(true, wsLog.getId());
+         prune(now);
+      }
+      return true;
+   }
+
+   /**
+    * @param id of a transaction.
+    * @return the transaction, or null if it is not in the store.
+    */
+   public synchronized WSLog get(Integer id) {
+      Entry entry = entries.get(id);
+      return entry == null ? null : entry.wsLog;
+   }
+
+   /**
+    * @param id of a transaction.
+    * @return true if the transaction was in the store, false otherwise.
+    */
+   public synchronized boolean remove(Integer id) {
+      Entry entry = entries.remove(id);
+      if (entry == null) return false;
+      bytes -= entry.bytes;
+      record(false, id);
+      return true;
+   }
+
+   /**
+    * @return the transactions, oldest first, unmodifiable. Not changed by
+    * later changes to the store.
+    */
+   public synchronized List <WSLog> getTransactions() {
+      prune(System.currentTimeMillis());
+      if (snapshot == null) {
+         List <WSLog> list = new ArrayList <>(entries.size());
+         for (Entry entry : entries.values())
+            list.add(entry.wsLog);
+         snapshot = Collections.unmodifiableList(list);
+      }
+      return snapshot;
+   }
+
+   /**
+    * @return sequence number of the most recent change, 0 if there have been
+    * none.
+    */
+   public synchronized long getSequence() {
+      return sequence;
+   }
+
+   /**
+    * Gets the changes made after a sequence number, in order. A view which
+    * read {@link #getSequence()} and then {@link #getTransactions()} is
+    * current to the sequence, except that changes made between the two calls
+    * may also be in the snapshot, and so must be applied idempotently.
+    *
+    * @param since sequence number the caller is current to.
+    * @return changes made after since, empty if there are none, or null if
+    * some of them are no longer in the journal, in which case the caller must
+    * reload the transactions.
+    */
+   public synchronized List <Change> getChanges(long since) {
+      if (since >= sequence) return Collections.emptyList();
+      Change oldest = changes.peekFirst();
+      if (oldest == null || since < oldest.sequence - 1) return null;
+      List <Change> list = new ArrayList <>((int) (sequence - since));
+      Iterator <Change> itr = changes.descendingIterator();
+      while (itr.hasNext()) {
+         Change change = itr.next();
+         if (change.sequence <= since) break;
+         list.add(change);
+      }
+      Collections.reverse(list);
+      return list;
+   }
+
+   /**
+    * @return number of transactions in the store.
+    */
+   public synchronized int size() {
+      return entries.size();
+   }
+
+   /**
+    * @return total size of the transactions in the store, in bytes.
+    */
+   public synchronized long getBytes() {
+      return bytes;
+   }
+
+   /**
+    * @return number of transactions dropped because a limit was exceeded.
+    */
+   public synchronized long getEvicted() {
+      return evicted;
+   }
+
+   @Override
+   public synchronized String toString() {
+      return "TransactionStore: " + entries.size() + "/" + maxCount
+         + " transactions, " + bytes + "/" + maxBytes + " bytes, " + evicted
+         + " evicted";
+   }
+
+   private void prune(long now) {
+      Iterator <Entry> itr = entries.values().iterator();
+      while (itr.hasNext()) {
+         Entry entry = itr.next();
+         if ((maxCount == 0 || entries.size() <= maxCount)
+            && (maxBytes == 0 || bytes <= maxBytes)
+            && (maxAgeMillis == 0 || now - entry.received <= maxAgeMillis))
+            break;
+         itr.remove();
+         bytes -= entry.bytes;
+         evicted++ ;
+         record(false, entry.wsLog.getId());
+      }
+   }
+
+   private void record(boolean added, Integer id) {
+      snapshot = null;
+      changes.addLast(new Change(++sequence, added, id));
+      while (changes.size() > maxChanges)
+         changes.removeFirst();
+   }
+
+   /**
+    * One addition to or removal from the store.
+    */
+   public static class Change implements Serializable {
+      private static final long serialVersionUID = 1L;
+
+      private final long sequence;
+      private final boolean added;
+      private final Integer id;
+
+      Change(long sequence, boolean added, Integer id) {
+         this.sequence = sequence;
+         this.added = added;
+         this.id = id;
+      }
+
+      /**
+       * @return the {@link #sequence} value.
+       */
+      public long getSequence() {
+         return sequence;
+      }
+
+      /**
+       * @return true if the transaction was added, false if it was removed.
+       */
+      public boolean isAdded() {
+         return added;
+      }
+
+      /**
+       * @return the {@link #id} of the transaction.
+       */
+      public Integer getId() {
+         return id;
+      }
+
+      @Override
+      public String toString() {
+         return sequence + (added ? " +" : " -") + id;
+      }
+   } // EO Change inner class
+
+   /**
+    * A transaction and its accounting.
+    */
+   private static class Entry {
+      private final WSLog wsLog;
+      private final long received;
+      private final long bytes;
+
+      Entry(WSLog wsLog, long received, long bytes) {
+         this.wsLog = wsLog;
+         this.received = received;
+         this.bytes = bytes;
+      }
+   } // EO Entry inner class
+
+} // EO TransactionStore class